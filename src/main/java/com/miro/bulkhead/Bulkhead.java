@@ -0,0 +1,17 @@
+package com.miro.bulkhead;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a controller method to be run within the bulkhead of its operation class by {@link BulkheadInterceptor}.
+ *
+ * @author ahmetcetin
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Bulkhead {
+    OperationClass value();
+}
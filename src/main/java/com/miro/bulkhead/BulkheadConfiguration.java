@@ -0,0 +1,22 @@
+package com.miro.bulkhead;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * This is the configuration which registers {@link BulkheadInterceptor} for the widget API.
+ *
+ * @author ahmetcetin
+ */
+@Configuration
+@RequiredArgsConstructor
+public class BulkheadConfiguration implements WebMvcConfigurer {
+    private final BulkheadInterceptor bulkheadInterceptor;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(bulkheadInterceptor).addPathPatterns("/v1/widgets", "/v1/widgets/**");
+    }
+}
@@ -0,0 +1,115 @@
+package com.miro.bulkhead;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Method;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This is the interceptor which runs widget API requests within the {@link OperationBulkhead} of their operation class,
+ * as marked by {@link Bulkhead} on controller methods, so that a burst of one class, e.g. big rectangle scans,
+ * can't hold all request threads & starve cheap point reads. Streaming responses hold the bulkhead until they are
+ * written, since their operation runs while writing. Active & queued requests, and rejections by reason are counted
+ * in "widget.bulkhead.*" metrics by operation class.
+ *
+ * @author ahmetcetin
+ */
+@Component
+public class BulkheadInterceptor implements AsyncHandlerInterceptor, MeterBinder {
+    private static final String BULKHEAD_ATTRIBUTE = BulkheadInterceptor.class.getName() + ".bulkhead";
+
+    private final Map<OperationClass, OperationBulkhead> bulkheads = new EnumMap<>(OperationClass.class);
+    private final Map<Method, Optional<OperationBulkhead>> methodBulkheads = new ConcurrentHashMap<>();
+
+    public BulkheadInterceptor(@Value("${widget.bulkhead.point-read.max-concurrent:32}") int pointReadMaxConcurrent,
+                               @Value("${widget.bulkhead.point-read.max-queued:32}") int pointReadMaxQueued,
+                               @Value("${widget.bulkhead.scan.max-concurrent:8}") int scanMaxConcurrent,
+                               @Value("${widget.bulkhead.scan.max-queued:16}") int scanMaxQueued,
+                               @Value("${widget.bulkhead.write.max-concurrent:8}") int writeMaxConcurrent,
+                               @Value("${widget.bulkhead.write.max-queued:32}") int writeMaxQueued,
+                               @Value("${widget.bulkhead.max-wait-ms:1000}") long maxWaitMillis) {
+        addBulkhead(new OperationBulkhead(OperationClass.POINT_READ, pointReadMaxConcurrent, pointReadMaxQueued, maxWaitMillis));
+        addBulkhead(new OperationBulkhead(OperationClass.SCAN, scanMaxConcurrent, scanMaxQueued, maxWaitMillis));
+        addBulkhead(new OperationBulkhead(OperationClass.WRITE, writeMaxConcurrent, writeMaxQueued, maxWaitMillis));
+    }
+
+    private void addBulkhead(OperationBulkhead bulkhead) {
+        bulkheads.put(bulkhead.getOperationClass(), bulkhead);
+    }
+
+    /**
+     * Async dispatches of streaming responses already hold the bulkhead which was acquired by the request.
+     */
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (!(handler instanceof HandlerMethod) || request.getAttribute(BULKHEAD_ATTRIBUTE) != null) {
+            return true;
+        }
+
+        Method method = ((HandlerMethod) handler).getMethod();
+        Optional<OperationBulkhead> bulkhead = methodBulkheads.get(method);
+        if (bulkhead == null) {
+            bulkhead = methodBulkheads.computeIfAbsent(method, this::findBulkhead);
+        }
+        if (bulkhead.isPresent()) {
+            bulkhead.get().acquire();
+            request.setAttribute(BULKHEAD_ATTRIBUTE, bulkhead.get());
+        }
+        return true;
+    }
+
+    /**
+     * Called once the response is written, for streaming responses after their async dispatch.
+     */
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception e) {
+        OperationBulkhead bulkhead = (OperationBulkhead) request.getAttribute(BULKHEAD_ATTRIBUTE);
+        if (bulkhead != null) {
+            request.removeAttribute(BULKHEAD_ATTRIBUTE);
+            bulkhead.release();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (OperationBulkhead bulkhead : bulkheads.values()) {
+            String operation = bulkhead.getOperationClass().name();
+            Gauge.builder("widget.bulkhead.active", bulkhead, OperationBulkhead::getActive)
+                    .description("Requests running within the bulkhead")
+                    .tags("operation", operation)
+                    .register(registry);
+            Gauge.builder("widget.bulkhead.queue.depth", bulkhead, OperationBulkhead::getQueued)
+                    .description("Requests waiting for the bulkhead")
+                    .tags("operation", operation)
+                    .register(registry);
+            FunctionCounter.builder("widget.bulkhead.rejected", bulkhead, OperationBulkhead::getQueueFullRejections)
+                    .description("Requests rejected by the bulkhead")
+                    .tags("operation", operation, "reason", "queue-full")
+                    .register(registry);
+            FunctionCounter.builder("widget.bulkhead.rejected", bulkhead, OperationBulkhead::getTimeoutRejections)
+                    .description("Requests rejected by the bulkhead")
+                    .tags("operation", operation, "reason", "timeout")
+                    .register(registry);
+        }
+    }
+
+    public OperationBulkhead getBulkhead(OperationClass operationClass) {
+        return bulkheads.get(operationClass);
+    }
+
+    private Optional<OperationBulkhead> findBulkhead(Method method) {
+        return Optional.ofNullable(method.getAnnotation(Bulkhead.class)).map(bulkhead -> bulkheads.get(bulkhead.value()));
+    }
+}
@@ -0,0 +1,91 @@
+package com.miro.bulkhead;
+
+import com.miro.exception.BulkheadFullException;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This is the bulkhead of an operation class, which limits the operations of that class running at the same time,
+ * so that they can't hold more request threads than the limit. Operations over the limit wait in a bounded queue;
+ * when the queue is full or the wait times out, they are rejected right away with {@link BulkheadFullException}.
+ *
+ * @author ahmetcetin
+ */
+public class OperationBulkhead {
+    private final OperationClass operationClass;
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final long maxWaitNanos;
+    private final Semaphore permits;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder queueFullRejections = new LongAdder();
+    private final LongAdder timeoutRejections = new LongAdder();
+
+    /**
+     * @param maxConcurrent operations running at the same time
+     * @param maxQueued     operations waiting for a running one to finish, 0 rejects when the limit is reached
+     */
+    public OperationBulkhead(OperationClass operationClass, int maxConcurrent, int maxQueued, long maxWaitMillis) {
+        if (maxConcurrent <= 0 || maxQueued < 0) {
+            throw new IllegalArgumentException("Bulkhead concurrency should be positive & queue size can't be negative.");
+        }
+        this.operationClass = operationClass;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.permits = new Semaphore(maxConcurrent, true);
+    }
+
+    /**
+     * Every successful call needs to be followed by a {@link #release()} once the operation is done.
+     */
+    public void acquire() {
+        if (permits.tryAcquire()) {
+            return;
+        }
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            queueFullRejections.increment();
+            throw new BulkheadFullException("Too many " + operationClass + " operations are waiting, please retry later.");
+        }
+
+        try {
+            if (!permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS)) {
+                timeoutRejections.increment();
+                throw new BulkheadFullException("Timed out waiting for other " + operationClass + " operations, please retry later.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BulkheadFullException("Interrupted while waiting for other " + operationClass + " operations.");
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    public OperationClass getOperationClass() {
+        return operationClass;
+    }
+
+    public int getActive() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    public int getQueued() {
+        return queued.get();
+    }
+
+    public long getQueueFullRejections() {
+        return queueFullRejections.sum();
+    }
+
+    public long getTimeoutRejections() {
+        return timeoutRejections.sum();
+    }
+}
@@ -0,0 +1,21 @@
+package com.miro.bulkhead;
+
+/**
+ * This is the class of widget API operations which are isolated from each other by their own {@link OperationBulkhead}.
+ *
+ * @author ahmetcetin
+ */
+public enum OperationClass {
+    /**
+     * Lookups of a single widget by id.
+     */
+    POINT_READ,
+    /**
+     * Queries which may visit many widgets, e.g. listing, rectangle, nearest, overlap, tile & change queries.
+     */
+    SCAN,
+    /**
+     * Modifications, which may shift many widgets & hold the repository's write lock or an H2 transaction.
+     */
+    WRITE
+}
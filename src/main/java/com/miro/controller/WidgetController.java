@@ -1,52 +1,149 @@
 package com.miro.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.miro.bulkhead.Bulkhead;
+import com.miro.bulkhead.OperationClass;
+import com.miro.model.BulkDeleteResult;
 import com.miro.model.CreateWidgetRequest;
+import com.miro.model.PatchWidgetRequest;
 import com.miro.model.RectangleCoordinates;
+import com.miro.model.SnapshotImportResult;
+import com.miro.model.TileSummary;
 import com.miro.model.UpdateWidgetRequest;
 import com.miro.model.Widget;
+import com.miro.model.WidgetChanges;
+import com.miro.model.WidgetOverlap;
+import com.miro.model.WidgetQueryResult;
+import com.miro.model.WidgetStats;
 import com.miro.service.WidgetService;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
  * This is the controller for Widget related operations.
+ * Every operation runs within the bulkhead of its {@link OperationClass}, requests are rejected with 503 when it is full.
  *
  * @author ahmetcetin
  */
+@Slf4j
 @RestController
 @RequestMapping("/v1/widgets")
 @RequiredArgsConstructor
 public class WidgetController {
     private static final String DEFAULT_LIMIT = "10";
+    static final String QUERY_PLAN_HEADER = "X-Query-Plan";
+    static final String QUERY_ESTIMATED_COUNT_HEADER = "X-Query-Estimated-Count";
+    private static final String SNAPSHOT_CLEANUP_KEY = WidgetController.class.getName() + ".snapshotCleanup";
 
     private final WidgetService widgetService;
+    private final ObjectMapper objectMapper;
 
+    @Bulkhead(OperationClass.WRITE)
     @PostMapping
     public ResponseEntity<Widget> create(@Valid @RequestBody CreateWidgetRequest createWidgetRequest) {
-        return new ResponseEntity<>(widgetService.createWidget(createWidgetRequest.toWidget()), HttpStatus.CREATED);
+        return withETag(HttpStatus.CREATED, widgetService.createWidget(createWidgetRequest.toWidget()));
     }
 
+    /**
+     * When If-Match header is given, the widget is updated only if its version(ETag) still matches, otherwise 412 is returned.
+     */
+    @Bulkhead(OperationClass.WRITE)
     @PutMapping
-    public ResponseEntity<Widget> update(@Valid @RequestBody UpdateWidgetRequest updateWidgetRequest) {
-        return new ResponseEntity<>(widgetService.updateWidget(updateWidgetRequest.toWidget()), HttpStatus.OK);
+    public ResponseEntity<Widget> update(@Valid @RequestBody UpdateWidgetRequest updateWidgetRequest,
+                                         @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Widget widget = updateWidgetRequest.toWidget();
+        widget.setVersion(toExpectedVersion(ifMatch));
+        return withETag(HttpStatus.OK, widgetService.updateWidget(widget));
     }
 
+    @Bulkhead(OperationClass.WRITE)
+    @PatchMapping("/{id}")
+    public ResponseEntity<Widget> patch(@PathVariable("id") Long id, @Valid @RequestBody PatchWidgetRequest patchWidgetRequest,
+                                        @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Widget widget = patchWidgetRequest.toWidget(id);
+        widget.setVersion(toExpectedVersion(ifMatch));
+        return withETag(HttpStatus.OK, widgetService.patchWidget(widget));
+    }
+
+    @Bulkhead(OperationClass.WRITE)
     @DeleteMapping("/{id}")
     public ResponseEntity delete(@PathVariable("id") Long id) {
         widgetService.deleteWidget(id);
         return ResponseEntity.ok().build();
     }
 
+    @Bulkhead(OperationClass.WRITE)
+    @DeleteMapping("/in-rectangle")
+    public ResponseEntity<BulkDeleteResult> deleteInRectangle(@RequestParam Integer x0,
+                                                              @RequestParam Integer y0,
+                                                              @RequestParam Integer x1,
+                                                              @RequestParam Integer y1) {
+        return new ResponseEntity<>(new BulkDeleteResult(widgetService.deleteInRectangle(toCoordinates(x0, y0, x1, y1))), HttpStatus.OK);
+    }
+
+    @Bulkhead(OperationClass.WRITE)
+    @DeleteMapping("/in-z-range")
+    public ResponseEntity<BulkDeleteResult> deleteInZIndexRange(@RequestParam Integer fromZIndex,
+                                                                @RequestParam Integer toZIndex) {
+        if (fromZIndex > toZIndex) {
+            throw new IllegalArgumentException("fromZIndex can't be bigger than toZIndex.");
+        }
+        return new ResponseEntity<>(new BulkDeleteResult(widgetService.deleteInZIndexRange(fromZIndex, toZIndex)), HttpStatus.OK);
+    }
+
+    @Bulkhead(OperationClass.POINT_READ)
     @GetMapping("/{id}")
     public ResponseEntity<Widget> findById(@PathVariable("id") Long id) {
-        return new ResponseEntity<>(widgetService.findWidgetById(id), HttpStatus.OK);
+        return withETag(HttpStatus.OK, widgetService.findWidgetById(id));
+    }
+
+    @Bulkhead(OperationClass.WRITE)
+    @PostMapping("/{id}/to-front")
+    public ResponseEntity<Widget> bringToFront(@PathVariable("id") Long id) {
+        return withETag(HttpStatus.OK, widgetService.bringToFront(id));
+    }
+
+    @Bulkhead(OperationClass.WRITE)
+    @PostMapping("/{id}/to-back")
+    public ResponseEntity<Widget> sendToBack(@PathVariable("id") Long id) {
+        return withETag(HttpStatus.OK, widgetService.sendToBack(id));
+    }
+
+    @Bulkhead(OperationClass.WRITE)
+    @PostMapping("/{id}/above/{targetId}")
+    public ResponseEntity<Widget> moveAbove(@PathVariable("id") Long id, @PathVariable("targetId") Long targetId) {
+        return withETag(HttpStatus.OK, widgetService.moveAbove(id, targetId));
+    }
+
+    @Bulkhead(OperationClass.WRITE)
+    @PostMapping("/{id}/below/{targetId}")
+    public ResponseEntity<Widget> moveBelow(@PathVariable("id") Long id, @PathVariable("targetId") Long targetId) {
+        return withETag(HttpStatus.OK, widgetService.moveBelow(id, targetId));
     }
 
+    /**
+     * Rectangle queries tell the plan they are executed by & the widget count it was chosen for in X-Query-* headers.
+     */
+    @Bulkhead(OperationClass.SCAN)
     @GetMapping
     public ResponseEntity<List<Widget>> findAll(@RequestParam(required = false, defaultValue = DEFAULT_LIMIT) Integer limit,
                                                 @RequestParam(required = false) Integer x0,
@@ -55,21 +152,179 @@ public class WidgetController {
                                                 @RequestParam(required = false) Integer y1) {
         validateLimit(limit);
 
-        // All four points need to be provided
-        if (x0 != null && y0 != null && x1 != null && y1 != null) {
-            RectangleCoordinates coordinates = RectangleCoordinates.builder()
-                    .x0(x0).y0(y0)
-                    .x1(x1).y1(y1)
-                    .build();
-            if (!coordinates.isValid()) {
-                throw new IllegalArgumentException("x1 should be bigger than x0 & y1 should be bigger than y0.");
-            }
-            return new ResponseEntity<>(widgetService.findWithCoordinates(coordinates, limit), HttpStatus.OK);
+        RectangleCoordinates coordinates = toCoordinates(x0, y0, x1, y1);
+        if (coordinates != null) {
+            WidgetQueryResult queryResult = widgetService.findWithCoordinates(coordinates, limit);
+            return ResponseEntity.ok()
+                    .header(QUERY_PLAN_HEADER, queryResult.getPlan().name())
+                    .header(QUERY_ESTIMATED_COUNT_HEADER, String.valueOf(queryResult.getEstimatedCount()))
+                    .body(queryResult.getWidgets());
         }
 
         return new ResponseEntity<>(widgetService.findWithLimit(limit), HttpStatus.OK);
     }
 
+    @Bulkhead(OperationClass.SCAN)
+    @GetMapping("/nearest")
+    public ResponseEntity<List<Widget>> findNearest(@RequestParam Integer x,
+                                                    @RequestParam Integer y,
+                                                    @RequestParam(required = false, defaultValue = DEFAULT_LIMIT) Integer k) {
+        if (k <= 0 || k > 500) {
+            throw new IllegalArgumentException("K should be between 1-500. Default is 10.");
+        }
+        return new ResponseEntity<>(widgetService.findNearest(x, y, k), HttpStatus.OK);
+    }
+
+    /**
+     * Overlapping pairs are written to the response as a JSON array while they are found.
+     */
+    @Bulkhead(OperationClass.SCAN)
+    @GetMapping(value = "/overlaps", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> findOverlaps() {
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)
+                    .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+                generator.writeStartArray();
+                widgetService.findOverlaps(overlap -> writeOverlap(generator, overlap));
+                generator.writeEndArray();
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
+    }
+
+    @Bulkhead(OperationClass.SCAN)
+    @GetMapping("/{id}/overlaps")
+    public ResponseEntity<List<Widget>> findOverlapping(@PathVariable("id") Long id) {
+        return new ResponseEntity<>(widgetService.findOverlapping(id), HttpStatus.OK);
+    }
+
+    @Bulkhead(OperationClass.SCAN)
+    @GetMapping("/tiles")
+    public ResponseEntity<List<TileSummary>> findTiles(@RequestParam Integer level,
+                                                       @RequestParam Integer x0,
+                                                       @RequestParam Integer y0,
+                                                       @RequestParam Integer x1,
+                                                       @RequestParam Integer y1) {
+        return new ResponseEntity<>(widgetService.findTiles(toCoordinates(x0, y0, x1, y1), level), HttpStatus.OK);
+    }
+
+    @Bulkhead(OperationClass.SCAN)
+    @GetMapping("/stats")
+    public ResponseEntity<WidgetStats> getStats(@RequestParam(required = false) Integer x0,
+                                                @RequestParam(required = false) Integer y0,
+                                                @RequestParam(required = false) Integer x1,
+                                                @RequestParam(required = false) Integer y1) {
+        return new ResponseEntity<>(widgetService.getStats(toCoordinates(x0, y0, x1, y1)), HttpStatus.OK);
+    }
+
+    @Bulkhead(OperationClass.SCAN)
+    @GetMapping("/changes")
+    public ResponseEntity<WidgetChanges> findChanges(@RequestParam Long since,
+                                                     @RequestParam(required = false) Integer x0,
+                                                     @RequestParam(required = false) Integer y0,
+                                                     @RequestParam(required = false) Integer x1,
+                                                     @RequestParam(required = false) Integer y1) {
+        if (since < 0) {
+            throw new IllegalArgumentException("Since version can't be negative.");
+        }
+        return new ResponseEntity<>(widgetService.findChangesSince(since, toCoordinates(x0, y0, x1, y1)), HttpStatus.OK);
+    }
+
+    @Bulkhead(OperationClass.SCAN)
+    @GetMapping(value = "/snapshot", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportSnapshot(NativeWebRequest request) {
+        Path snapshotFile = widgetService.exportSnapshot();
+        long snapshotSize;
+        try {
+            snapshotSize = Files.size(snapshotFile);
+        } catch (IOException e) {
+            deleteSnapshotFile(snapshotFile);
+            throw new UncheckedIOException("Couldn't read widget snapshot.", e);
+        }
+
+        // File is deleted when the async request completes, also when the body never runs, e.g. on a client abort or a timeout.
+        WebAsyncUtils.getAsyncManager(request).registerCallableInterceptor(SNAPSHOT_CLEANUP_KEY, new CallableProcessingInterceptor() {
+            @Override
+            public <T> void afterCompletion(NativeWebRequest completedRequest, Callable<T> task) {
+                deleteSnapshotFile(snapshotFile);
+            }
+        });
+        StreamingResponseBody body = outputStream -> Files.copy(snapshotFile, outputStream);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .contentLength(snapshotSize)
+                .body(body);
+    }
+
+    @Bulkhead(OperationClass.WRITE)
+    @PostMapping(value = "/snapshot", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<SnapshotImportResult> importSnapshot(InputStream snapshotStream) {
+        return new ResponseEntity<>(new SnapshotImportResult(widgetService.importSnapshot(snapshotStream)), HttpStatus.OK);
+    }
+
+    private static void deleteSnapshotFile(Path snapshotFile) {
+        try {
+            Files.deleteIfExists(snapshotFile);
+        } catch (IOException e) {
+            log.warn("Couldn't delete widget snapshot: {}", snapshotFile, e);
+        }
+    }
+
+    private static void writeOverlap(JsonGenerator generator, WidgetOverlap overlap) {
+        try {
+            generator.writeObject(overlap);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't write widget overlap.", e);
+        }
+    }
+
+    private static ResponseEntity<Widget> withETag(HttpStatus status, Widget widget) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(status);
+        if (widget.getVersion() != null) {
+            response.eTag(String.valueOf(widget.getVersion()));
+        }
+        return response.body(widget);
+    }
+
+    /**
+     * @return the version in If-Match header, null when the header is missing or "*"
+     */
+    private static Long toExpectedVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return null;
+        }
+
+        String eTag = ifMatch.trim();
+        if (eTag.length() > 1 && eTag.startsWith("\"") && eTag.endsWith("\"")) {
+            eTag = eTag.substring(1, eTag.length() - 1);
+        }
+        try {
+            return Long.parseLong(eTag);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("If-Match should be the ETag of the widget: " + ifMatch);
+        }
+    }
+
+    /**
+     * @return the coordinates when all four points are provided, otherwise null
+     */
+    private RectangleCoordinates toCoordinates(Integer x0, Integer y0, Integer x1, Integer y1) {
+        if (x0 == null || y0 == null || x1 == null || y1 == null) {
+            return null;
+        }
+
+        RectangleCoordinates coordinates = RectangleCoordinates.builder()
+                .x0(x0).y0(y0)
+                .x1(x1).y1(y1)
+                .build();
+        if (!coordinates.isValid()) {
+            throw new IllegalArgumentException("x1 should be bigger than x0 & y1 should be bigger than y0.");
+        }
+        return coordinates;
+    }
+
     private void validateLimit(Integer limit) {
         if(limit <= 0 || limit > 500) {
             throw new IllegalArgumentException("Limit should be between 1-500. Default is 10.");
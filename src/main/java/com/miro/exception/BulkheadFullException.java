@@ -0,0 +1,13 @@
+package com.miro.exception;
+
+/**
+ * This is a custom runtime exception which is thrown when the bulkhead of an operation class is full,
+ * so that the request is rejected right away instead of waiting for the other requests of that class.
+ *
+ * @author ahmetcetin
+ */
+public class BulkheadFullException extends RuntimeException {
+    public BulkheadFullException(String message) {
+        super(message);
+    }
+}
@@ -1,6 +1,8 @@
 package com.miro.exception;
 
 import org.springframework.context.support.DefaultMessageSourceResolvable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.MethodArgumentNotValidException;
@@ -19,6 +21,8 @@ import java.util.stream.Collectors;
  */
 @ControllerAdvice
 public class CustomExceptionHandler {
+    private static final String RETRY_AFTER_SECONDS = "1";
+
     @ExceptionHandler(MethodArgumentNotValidException.class)
     @ResponseStatus(HttpStatus.BAD_REQUEST)
     public final ResponseEntity<String> handleMethodArgumentNotValidException(final MethodArgumentNotValidException e) {
@@ -41,4 +45,22 @@ public class CustomExceptionHandler {
     public final ResponseEntity<String> handleWidgetNotFoundException(final WidgetNotFoundException e) {
         return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getMessage());
     }
+
+    @ExceptionHandler(WidgetVersionConflictException.class)
+    @ResponseStatus(HttpStatus.PRECONDITION_FAILED)
+    public final ResponseEntity<String> handleWidgetVersionConflictException(final WidgetVersionConflictException e) {
+        return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).body(e.getMessage());
+    }
+
+    @ExceptionHandler(ReadOnlyReplicaException.class)
+    @ResponseStatus(HttpStatus.METHOD_NOT_ALLOWED)
+    public final ResponseEntity<String> handleReadOnlyReplicaException(final ReadOnlyReplicaException e) {
+        return ResponseEntity.status(HttpStatus.METHOD_NOT_ALLOWED).allow(HttpMethod.GET, HttpMethod.HEAD).body(e.getMessage());
+    }
+
+    @ExceptionHandler(BulkheadFullException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public final ResponseEntity<String> handleBulkheadFullException(final BulkheadFullException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS).body(e.getMessage());
+    }
 }
@@ -0,0 +1,13 @@
+package com.miro.exception;
+
+/**
+ * This is a custom runtime exception which is thrown when a widget is modified on a read-only replica,
+ * modifications are accepted by the primary only.
+ *
+ * @author ahmetcetin
+ */
+public class ReadOnlyReplicaException extends RuntimeException {
+    public ReadOnlyReplicaException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,13 @@
+package com.miro.exception;
+
+/**
+ * This is a custom runtime exception which is thrown when a widget is changed by someone else
+ * since the version which the update is based on.
+ *
+ * @author ahmetcetin
+ */
+public class WidgetVersionConflictException extends RuntimeException {
+    public WidgetVersionConflictException(String message) {
+        super(message);
+    }
+}
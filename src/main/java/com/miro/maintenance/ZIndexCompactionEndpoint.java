@@ -0,0 +1,39 @@
+package com.miro.maintenance;
+
+import com.miro.model.ZIndexCompactionResult;
+import com.miro.service.WidgetService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This is the management endpoint(/actuator/zindex) to see current zIndex statistics with the last compaction result,
+ * and to trigger a compaction manually.
+ *
+ * @author ahmetcetin
+ */
+@Component
+@Endpoint(id = "zindex")
+@RequiredArgsConstructor
+public class ZIndexCompactionEndpoint {
+    private final WidgetService widgetService;
+    private final ZIndexCompactionTask compactionTask;
+
+    @ReadOperation
+    public Map<String, Object> zIndexStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("current", widgetService.getZIndexStats());
+        status.put("lastCompaction", compactionTask.getLastCompactionResult().orElse(null));
+        return status;
+    }
+
+    @WriteOperation
+    public ZIndexCompactionResult compact() {
+        return compactionTask.compact();
+    }
+}
@@ -0,0 +1,88 @@
+package com.miro.maintenance;
+
+import com.miro.model.ZIndexCompactionResult;
+import com.miro.model.ZIndexStats;
+import com.miro.service.WidgetService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.support.ServletRequestHandledEvent;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This is the background task which renormalizes zIndexes of widgets into evenly spaced values.
+ * It runs periodically but compacts only when the service is idle(handled requests since the last run is low)
+ * and enough widgets are sitting right above each other, since inserts to those runs require shifting.
+ *
+ * @author ahmetcetin
+ */
+@Component
+@Slf4j
+public class ZIndexCompactionTask {
+    private final WidgetService widgetService;
+    private final boolean enabled;
+    private final int spacing;
+    private final long idleRequestThreshold;
+    private final double adjacentRatioThreshold;
+
+    private final AtomicLong handledRequestCount = new AtomicLong();
+    private volatile ZIndexCompactionResult lastCompactionResult;
+
+    public ZIndexCompactionTask(WidgetService widgetService,
+                                @Value("${widget.compaction.enabled:true}") boolean enabled,
+                                @Value("${widget.compaction.spacing:10}") int spacing,
+                                @Value("${widget.compaction.idle-request-threshold:100}") long idleRequestThreshold,
+                                @Value("${widget.compaction.adjacent-ratio-threshold:0.25}") double adjacentRatioThreshold) {
+        if (spacing <= 0) {
+            throw new IllegalArgumentException("zIndex compaction spacing should be positive.");
+        }
+        this.widgetService = widgetService;
+        this.enabled = enabled;
+        this.spacing = spacing;
+        this.idleRequestThreshold = idleRequestThreshold;
+        this.adjacentRatioThreshold = adjacentRatioThreshold;
+    }
+
+    @EventListener
+    public void onRequestHandled(ServletRequestHandledEvent event) {
+        handledRequestCount.incrementAndGet();
+    }
+
+    @Scheduled(initialDelayString = "${widget.compaction.interval-ms:300000}", fixedDelayString = "${widget.compaction.interval-ms:300000}")
+    public void compactWhenIdle() {
+        long requestCount = handledRequestCount.getAndSet(0);
+        if (!enabled || requestCount > idleRequestThreshold) {
+            log.debug("Skipped zIndex compaction, handled requests since last run: {}", requestCount);
+            return;
+        }
+
+        ZIndexStats zIndexStats = widgetService.getZIndexStats();
+        if (zIndexStats.getAdjacentRatio() >= adjacentRatioThreshold) {
+            compact(zIndexStats);
+        }
+    }
+
+    public ZIndexCompactionResult compact() {
+        return compact(widgetService.getZIndexStats());
+    }
+
+    /**
+     * The spacing is lowered when the compacted zIndexes of all widgets wouldn't fit in int with the configured one.
+     */
+    private ZIndexCompactionResult compact(ZIndexStats zIndexStats) {
+        int compactionSpacing = Math.min(spacing, zIndexStats.getMaxCompactionSpacing());
+        if (compactionSpacing < spacing) {
+            log.warn("Lowered zIndex compaction spacing from {} to {} for {} widgets", spacing, compactionSpacing, zIndexStats.getCount());
+        }
+        lastCompactionResult = widgetService.compactZIndexes(compactionSpacing);
+        return lastCompactionResult;
+    }
+
+    public Optional<ZIndexCompactionResult> getLastCompactionResult() {
+        return Optional.ofNullable(lastCompactionResult);
+    }
+}
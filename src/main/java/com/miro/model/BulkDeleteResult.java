@@ -0,0 +1,17 @@
+package com.miro.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * This is the response model of bulk delete operations, which tells how many widgets are deleted.
+ *
+ * @author ahmetcetin
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkDeleteResult {
+    private int deletedWidgetCount;
+}
@@ -0,0 +1,24 @@
+package com.miro.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * This is the model entity of the latency distribution of an endpoint, all durations are in milliseconds.
+ *
+ * @author ahmetcetin
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class LatencySummary {
+    private long count;
+    private double mean;
+    private double p50;
+    private double p99;
+    private double p999;
+    private double max;
+}
@@ -0,0 +1,40 @@
+package com.miro.model;
+
+import lombok.Builder;
+import lombok.Data;
+
+import javax.validation.constraints.Positive;
+
+/**
+ * This is the request model of partial Widget update,
+ * differently from {@link UpdateWidgetRequest}, only the fields to change need to be provided.
+ * Id is taken from the path.
+ *
+ * @author ahmetcetin
+ */
+@Data
+@Builder
+public class PatchWidgetRequest {
+    private Integer xIndex;
+
+    private Integer yIndex;
+
+    private Integer zIndex;
+
+    @Positive(message = "width should be positive.")
+    private Integer width;
+
+    @Positive(message = "height should be positive.")
+    private Integer height;
+
+    public Widget toWidget(Long id) {
+        return Widget.builder()
+                .id(id)
+                .xIndex(xIndex)
+                .yIndex(yIndex)
+                .zIndex(zIndex)
+                .width(width)
+                .height(height)
+                .build();
+    }
+}
@@ -0,0 +1,17 @@
+package com.miro.model;
+
+/**
+ * This is the way a rectangle query is executed, chosen by {@link com.miro.repository.plan.QueryPlanner}.
+ *
+ * @author ahmetcetin
+ */
+public enum QueryPlan {
+    /**
+     * Widgets are visited in zIndex order & filtered, it stops as soon as the limit is reached.
+     */
+    Z_ORDER_SCAN,
+    /**
+     * Widgets are looked up in the spatial index, then the ones with the lowest zIndexes are kept.
+     */
+    SPATIAL_PROBE
+}
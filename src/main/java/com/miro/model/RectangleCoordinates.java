@@ -20,4 +20,19 @@ public class RectangleCoordinates {
     public boolean isValid() {
         return x1 > x0 && y1 > y0;
     }
+
+    /**
+     * Coordinates are doubled, so that half sizes of the widget are compared without floating point math.
+     *
+     * @return whether the widget is completely inside the rectangle
+     */
+    public boolean contains(Widget widget) {
+        long x = 2L * widget.getXIndex();
+        long y = 2L * widget.getYIndex();
+
+        return x - widget.getWidth() >= 2L * x0
+                && x + widget.getWidth() <= 2L * x1
+                && y - widget.getHeight() >= 2L * y0
+                && y + widget.getHeight() <= 2L * y1;
+    }
 }
@@ -0,0 +1,17 @@
+package com.miro.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * This is the response model of snapshot import, which tells how many widgets are loaded from the snapshot.
+ *
+ * @author ahmetcetin
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SnapshotImportResult {
+    private int importedWidgetCount;
+}
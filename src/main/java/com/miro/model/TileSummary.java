@@ -0,0 +1,31 @@
+package com.miro.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * This is the model entity of an aggregated tile for zoomed-out views.
+ * A tile covers [tileX * tileSize, (tileX + 1) * tileSize) horizontally & the same vertically,
+ * widgets belong to the tile which their center is in.
+ * minX, minY, maxX & maxY are the bounding box of those widgets, which can exceed the tile.
+ *
+ * @author ahmetcetin
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class TileSummary {
+    private int level;
+    private int tileX;
+    private int tileY;
+    private int tileSize;
+    private long count;
+    private int minX;
+    private int minY;
+    private int maxX;
+    private int maxY;
+    private Long topWidgetId;
+}
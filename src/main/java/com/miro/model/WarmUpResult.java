@@ -0,0 +1,24 @@
+package com.miro.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * This is the model entity of a warm-up run, it keeps the latency per operation of the first & the last round.
+ * When the latency didn't get steady before the maximum duration, the run is not steady.
+ *
+ * @author ahmetcetin
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class WarmUpResult {
+    private boolean steady;
+    private int rounds;
+    private long durationNanos;
+    private double firstRoundNanosPerOperation;
+    private double lastRoundNanosPerOperation;
+}
@@ -16,7 +16,7 @@ import java.time.LocalDateTime;
  * @author ahmetcetin
  */
 @Data
-@Builder
+@Builder(toBuilder = true)
 @NoArgsConstructor
 @AllArgsConstructor
 public class Widget {
@@ -36,7 +36,36 @@ public class Widget {
     private Integer height;
 
     private LocalDateTime updateTime;
-    
+
+    /**
+     * Board version at which the widget was changed last time, it is also the ETag of the widget.
+     * On an update, it is the version which the update is based on.
+     */
+    private Long version;
+
+    /**
+     * @param patch whose non-null fields are copied into this widget
+     * @return this widget
+     */
+    public Widget applyPatch(Widget patch) {
+        if (patch.getXIndex() != null) {
+            xIndex = patch.getXIndex();
+        }
+        if (patch.getYIndex() != null) {
+            yIndex = patch.getYIndex();
+        }
+        if (patch.getZIndex() != null) {
+            zIndex = patch.getZIndex();
+        }
+        if (patch.getWidth() != null) {
+            width = patch.getWidth();
+        }
+        if (patch.getHeight() != null) {
+            height = patch.getHeight();
+        }
+        return this;
+    }
+
     public static Widget mapRowToWidget(ResultSet resultSet, int rowNum) throws SQLException {
         return Widget.builder()
                 .id(resultSet.getLong("id"))
@@ -46,6 +75,7 @@ public class Widget {
                 .width(resultSet.getInt("width"))
                 .height(resultSet.getInt("height"))
                 .updateTime(resultSet.getTimestamp("updateTime").toLocalDateTime())
+                .version(resultSet.getLong("version"))
                 .build();
     }
 }
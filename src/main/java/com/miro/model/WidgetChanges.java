@@ -0,0 +1,30 @@
+package com.miro.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * This is the model entity of widget changes since a board version.
+ * Created & updated widgets are returned as a whole, deleted widgets are returned as their ids(tombstones).
+ * When coordinates are asked, ids of widgets which moved out of them are returned as movedOut, the client should drop them.
+ * The client should keep the returned version to ask for the next changes.
+ * When fullSyncRequired is true, changes since the asked version are not kept anymore,
+ * so the client needs to fetch all widgets again.
+ *
+ * @author ahmetcetin
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class WidgetChanges {
+    private long version;
+    private boolean fullSyncRequired;
+    private List<Widget> updated;
+    private List<Long> deleted;
+    private List<Long> movedOut;
+}
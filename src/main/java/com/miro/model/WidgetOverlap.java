@@ -0,0 +1,18 @@
+package com.miro.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * This is the model entity of two overlapping widgets, the lower id is always the first one.
+ *
+ * @author ahmetcetin
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class WidgetOverlap {
+    private long widgetId;
+    private long otherWidgetId;
+}
@@ -0,0 +1,23 @@
+package com.miro.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * This is the result of a rectangle query, with the plan it is executed by & the widget count the plan was chosen for.
+ *
+ * @author ahmetcetin
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class WidgetQueryResult {
+    private List<Widget> widgets;
+    private QueryPlan plan;
+    private long estimatedCount;
+}
@@ -0,0 +1,29 @@
+package com.miro.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * This is the model entity of board statistics, which are answered without loading the widgets.
+ * countInRectangle is only given when a rectangle is queried, it counts the widgets that findWithCoordinates would return.
+ * minX, minY, maxX & maxY are the bounding extent of the board, half of odd sizes are rounded up like in {@link TileSummary}.
+ * zIndex range & extent are null on an empty board.
+ *
+ * @author ahmetcetin
+ */
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class WidgetStats {
+    private long totalCount;
+    private Long countInRectangle;
+    private Integer minZIndex;
+    private Integer maxZIndex;
+    private Integer minX;
+    private Integer minY;
+    private Integer maxX;
+    private Integer maxY;
+}
@@ -0,0 +1,26 @@
+package com.miro.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * This is the model entity of a zIndex compaction run, it keeps the zIndex statistics before & after the run.
+ * When the widgets are changed concurrently during the run, the compaction is not applied.
+ *
+ * @author ahmetcetin
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ZIndexCompactionResult {
+    private boolean applied;
+    private ZIndexStats before;
+    private ZIndexStats after;
+    private LocalDateTime finishTime;
+    private long durationMillis;
+}
@@ -0,0 +1,37 @@
+package com.miro.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * This is the model entity which describes how zIndexes of widgets are distributed.
+ * adjacentCount is the number of widgets which sit right above another widget(zIndex - 1 is taken),
+ * an insert to those positions requires shifting the whole run.
+ *
+ * @author ahmetcetin
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ZIndexStats {
+    private long count;
+    private Integer minZIndex;
+    private Integer maxZIndex;
+    private long adjacentCount;
+
+    public double getAdjacentRatio() {
+        return count == 0 ? 0 : (double) adjacentCount / count;
+    }
+
+    /**
+     * @return the largest spacing with which the compacted zIndexes(0, spacing, 2 * spacing, ...) of all widgets fit in int
+     */
+    @JsonIgnore
+    public int getMaxCompactionSpacing() {
+        return count <= 1 ? Integer.MAX_VALUE : (int) (Integer.MAX_VALUE / (count - 1));
+    }
+}
@@ -0,0 +1,33 @@
+package com.miro.monitoring;
+
+import com.miro.model.LatencySummary;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * This is the management endpoint(/actuator/latency) to see the latency percentiles of widget API endpoints,
+ * and to reset them.
+ *
+ * @author ahmetcetin
+ */
+@Component
+@Endpoint(id = "latency")
+@RequiredArgsConstructor
+public class LatencyEndpoint {
+    private final LatencyRecordingFilter latencyRecordingFilter;
+
+    @ReadOperation
+    public Map<String, LatencySummary> latencies() {
+        return latencyRecordingFilter.getLatencySummaries();
+    }
+
+    @DeleteOperation
+    public void reset() {
+        latencyRecordingFilter.reset();
+    }
+}
@@ -0,0 +1,91 @@
+package com.miro.monitoring;
+
+import com.miro.model.LatencySummary;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This is the filter which records the latency of widget API requests into an HdrHistogram per endpoint,
+ * endpoints are keyed by the HTTP method & the mapped path pattern, e.g. "GET /v1/widgets/{id}".
+ * Requests slower than the threshold are logged one by one.
+ *
+ * @author ahmetcetin
+ */
+@Component
+@Slf4j
+public class LatencyRecordingFilter extends OncePerRequestFilter {
+    private static final String WIDGET_API_PATH = "/v1/widgets";
+    private static final int SIGNIFICANT_VALUE_DIGITS = 3;
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final long slowThresholdMillis;
+
+    public LatencyRecordingFilter(@Value("${widget.slow-operation.threshold-ms:200}") long slowThresholdMillis) {
+        this.slowThresholdMillis = slowThresholdMillis;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !request.getRequestURI().substring(request.getContextPath().length()).startsWith(WIDGET_API_PATH);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        long startTime = System.nanoTime();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            long durationMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime);
+            Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            if (pattern != null) { // Requests which aren't mapped to an endpoint aren't recorded.
+                String endpoint = request.getMethod() + " " + pattern;
+                histograms.computeIfAbsent(endpoint, key -> new ConcurrentHistogram(SIGNIFICANT_VALUE_DIGITS))
+                        .recordValue(durationMicros);
+                if (durationMicros >= slowThresholdMillis * 1000) {
+                    log.warn("Slow request: {} {} took {} ms, status: {}", request.getMethod(), request.getRequestURI(),
+                            durationMicros / MICROS_PER_MILLI, response.getStatus());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the latency summaries by endpoint, sorted by endpoint
+     */
+    public Map<String, LatencySummary> getLatencySummaries() {
+        Map<String, LatencySummary> latencySummaries = new TreeMap<>();
+        histograms.forEach((endpoint, histogram) -> {
+            Histogram snapshot = histogram.copy();
+            latencySummaries.put(endpoint, LatencySummary.builder()
+                    .count(snapshot.getTotalCount())
+                    .mean(snapshot.getMean() / MICROS_PER_MILLI)
+                    .p50(snapshot.getValueAtPercentile(50) / MICROS_PER_MILLI)
+                    .p99(snapshot.getValueAtPercentile(99) / MICROS_PER_MILLI)
+                    .p999(snapshot.getValueAtPercentile(99.9) / MICROS_PER_MILLI)
+                    .max(snapshot.getMaxValue() / MICROS_PER_MILLI)
+                    .build());
+        });
+        return latencySummaries;
+    }
+
+    public void reset() {
+        histograms.values().forEach(Histogram::reset);
+    }
+}
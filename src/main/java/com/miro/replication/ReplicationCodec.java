@@ -0,0 +1,146 @@
+package com.miro.replication;
+
+import com.miro.model.Widget;
+import com.miro.model.WidgetChanges;
+import lombok.Value;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This is the codec of the replication protocol. A replica opens the connection by writing the board id & version
+ * it has, then the primary writes a frame every interval:
+ * <pre>
+ * hello  : magic(int) | board id(long) | version(long)
+ * frame  : board id(long) | version(long) | sent at millis(long) | full sync(boolean)
+ *          | updated count(int) | widget records | deleted count(int) | deleted ids(long)
+ * record : id(long) | xIndex(int) | yIndex(int) | zIndex(int) | width(int) | height(int)
+ *          | updateTime seconds(long) | nanos(int) | version(long)
+ * </pre>
+ *
+ * @author ahmetcetin
+ */
+public final class ReplicationCodec {
+    static final int MAGIC = 0x4D575250; // "MWRP"
+    private static final int NO_UPDATE_TIME = -1;
+
+    private ReplicationCodec() {
+    }
+
+    public static void writeHello(DataOutputStream out, long boardId, long version) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeLong(boardId);
+        out.writeLong(version);
+        out.flush();
+    }
+
+    /**
+     * @return the board id & version which the replica has
+     * @throws IllegalArgumentException when the peer doesn't speak the replication protocol
+     */
+    public static Hello readHello(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IllegalArgumentException("Replication connection doesn't start with the expected magic number.");
+        }
+        return new Hello(in.readLong(), in.readLong());
+    }
+
+    public static void writeFrame(DataOutputStream out, ReplicationFrame frame) throws IOException {
+        WidgetChanges changes = frame.getChanges();
+        out.writeLong(frame.getBoardId());
+        out.writeLong(changes.getVersion());
+        out.writeLong(frame.getSentAtMillis());
+        out.writeBoolean(changes.isFullSyncRequired());
+        out.writeInt(changes.getUpdated().size());
+        for (Widget widget : changes.getUpdated()) {
+            writeRecord(out, widget);
+        }
+        out.writeInt(changes.getDeleted().size());
+        for (Long id : changes.getDeleted()) {
+            out.writeLong(id);
+        }
+        out.flush();
+    }
+
+    public static ReplicationFrame readFrame(DataInputStream in) throws IOException {
+        long boardId = in.readLong();
+        long version = in.readLong();
+        long sentAtMillis = in.readLong();
+        boolean fullSyncRequired = in.readBoolean();
+        int updatedCount = readCount(in);
+        List<Widget> updated = new ArrayList<>(updatedCount);
+        for (int i = 0; i < updatedCount; i++) {
+            updated.add(readRecord(in));
+        }
+        int deletedCount = readCount(in);
+        List<Long> deleted = new ArrayList<>(deletedCount);
+        for (int i = 0; i < deletedCount; i++) {
+            deleted.add(in.readLong());
+        }
+
+        return ReplicationFrame.builder()
+                .boardId(boardId)
+                .sentAtMillis(sentAtMillis)
+                .changes(WidgetChanges.builder()
+                        .version(version)
+                        .fullSyncRequired(fullSyncRequired)
+                        .updated(updated)
+                        .deleted(deleted)
+                        .build())
+                .build();
+    }
+
+    @Value
+    public static class Hello {
+        long boardId;
+        long version;
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IllegalArgumentException("Replication frame count can't be negative.");
+        }
+        return count;
+    }
+
+    private static void writeRecord(DataOutputStream out, Widget widget) throws IOException {
+        out.writeLong(widget.getId());
+        out.writeInt(widget.getXIndex());
+        out.writeInt(widget.getYIndex());
+        out.writeInt(widget.getZIndex());
+        out.writeInt(widget.getWidth());
+        out.writeInt(widget.getHeight());
+        if (widget.getUpdateTime() == null) {
+            out.writeLong(0);
+            out.writeInt(NO_UPDATE_TIME);
+        } else {
+            out.writeLong(widget.getUpdateTime().toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(widget.getUpdateTime().getNano());
+        }
+        out.writeLong(widget.getVersion() == null ? 0 : widget.getVersion());
+    }
+
+    private static Widget readRecord(DataInputStream in) throws IOException {
+        Widget widget = Widget.builder()
+                .id(in.readLong())
+                .xIndex(in.readInt())
+                .yIndex(in.readInt())
+                .zIndex(in.readInt())
+                .width(in.readInt())
+                .height(in.readInt())
+                .build();
+        long epochSecond = in.readLong();
+        int nanos = in.readInt();
+        if (nanos != NO_UPDATE_TIME) {
+            widget.setUpdateTime(LocalDateTime.ofEpochSecond(epochSecond, nanos, ZoneOffset.UTC));
+        }
+        widget.setVersion(in.readLong());
+        return widget;
+    }
+}
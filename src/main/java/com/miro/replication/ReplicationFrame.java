@@ -0,0 +1,25 @@
+package com.miro.replication;
+
+import com.miro.model.WidgetChanges;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * This is a frame of the replication stream, shipped by the primary every interval whether the board changed or not.
+ * The changes bring the replica from the version it has to the version of the frame, when they require a full sync,
+ * the updated widgets are the whole board. The board id changes when the primary restarts, so replicas know
+ * that the versions they have don't belong to the primary's board anymore.
+ *
+ * @author ahmetcetin
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReplicationFrame {
+    private long boardId;
+    private long sentAtMillis;
+    private WidgetChanges changes;
+}
@@ -0,0 +1,168 @@
+package com.miro.replication;
+
+import com.miro.model.WidgetChanges;
+import com.miro.repository.WidgetRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This is the primary side of the replication, it ships the widget changes of the repository to replicas over TCP.
+ * Every replica is served by its own thread, which sends a {@link ReplicationFrame} of the changes since the version
+ * the replica has, every {@code widget.replication.ship-interval-ms}. The changes of a frame are the latest state of every
+ * saved, shifted or deleted widget in board version order, so a replica applying the frames in order has the board
+ * of the last frame's version. When the changes since the replica's version aren't kept anymore, the whole board is shipped.
+ *
+ * @author ahmetcetin
+ */
+@Slf4j
+@Component
+@Profile("primary")
+public class ReplicationServer implements MeterBinder {
+    private final WidgetRepository widgetRepository;
+    private final int port;
+    private final long shipIntervalMillis;
+    private final long boardId = ThreadLocalRandom.current().nextLong();
+    private final Set<Socket> replicaSockets = ConcurrentHashMap.newKeySet();
+    private final AtomicLong shippedFrames = new AtomicLong();
+    private final AtomicInteger threadCount = new AtomicInteger();
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "replication-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile ServerSocket serverSocket;
+
+    /**
+     * @param port               to listen replicas on, a free port is picked when it is 0
+     * @param shipIntervalMillis between two frames sent to a replica
+     */
+    public ReplicationServer(WidgetRepository widgetRepository,
+                             @Value("${widget.replication.port:7071}") int port,
+                             @Value("${widget.replication.ship-interval-ms:50}") long shipIntervalMillis) {
+        this.widgetRepository = widgetRepository;
+        this.port = port;
+        this.shipIntervalMillis = shipIntervalMillis;
+    }
+
+    @PostConstruct
+    public void start() {
+        try {
+            serverSocket = new ServerSocket(port);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't listen replicas on port: " + port, e);
+        }
+        executor.execute(this::acceptReplicas);
+        log.info("Listening replicas on port {}", getPort());
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket socket : replicaSockets) {
+            socket.close();
+        }
+        executor.shutdownNow();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("widget.replication.replicas", replicaSockets, Set::size)
+                .description("Replicas connected to the primary")
+                .register(registry);
+        FunctionCounter.builder("widget.replication.shipped.frames", shippedFrames, AtomicLong::get)
+                .description("Replication frames shipped to replicas")
+                .register(registry);
+    }
+
+    private void acceptReplicas() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                executor.execute(() -> shipChanges(socket));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    log.warn("Couldn't accept replica connection: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void shipChanges(Socket socket) {
+        replicaSockets.add(socket);
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            ReplicationCodec.Hello hello = ReplicationCodec.readHello(in);
+            // Versions of another board id were shipped before the primary restarted, they mean nothing now.
+            long version = hello.getBoardId() == boardId ? hello.getVersion() : -1;
+            log.info("Replica {} connected at version {}", socket.getRemoteSocketAddress(), version);
+
+            while (!Thread.currentThread().isInterrupted()) {
+                WidgetChanges changes = findChangesSince(version);
+                ReplicationCodec.writeFrame(out, ReplicationFrame.builder()
+                        .boardId(boardId)
+                        .sentAtMillis(System.currentTimeMillis())
+                        .changes(changes)
+                        .build());
+                shippedFrames.incrementAndGet();
+                version = changes.getVersion();
+                Thread.sleep(shipIntervalMillis);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            log.info("Replica {} disconnected: {}", socket.getRemoteSocketAddress(), e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            replicaSockets.remove(socket);
+        }
+    }
+
+    /**
+     * The board of a full sync may be newer than its version, the changes after that version are applied on it again.
+     */
+    WidgetChanges findChangesSince(long version) {
+        if (version >= 0) {
+            WidgetChanges changes = widgetRepository.findChangesSince(version, null);
+            if (!changes.isFullSyncRequired() && changes.getVersion() >= version) {
+                return changes;
+            }
+        }
+        long boardVersion = widgetRepository.findChangesSince(Long.MAX_VALUE, null).getVersion();
+        return WidgetChanges.builder()
+                .version(boardVersion)
+                .fullSyncRequired(true)
+                .updated(widgetRepository.findWithLimit(Integer.MAX_VALUE))
+                .deleted(Collections.emptyList())
+                .build();
+    }
+}
@@ -1,9 +1,19 @@
 package com.miro.repository;
 
 import com.miro.model.RectangleCoordinates;
+import com.miro.model.TileSummary;
 import com.miro.model.Widget;
+import com.miro.model.WidgetChanges;
+import com.miro.model.WidgetOverlap;
+import com.miro.model.WidgetQueryResult;
+import com.miro.model.WidgetStats;
+import com.miro.model.ZIndexCompactionResult;
+import com.miro.model.ZIndexStats;
 
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * This is the repository interface for {@link Widget}.
@@ -11,13 +21,129 @@ import java.util.List;
  * @author ahmetcetin
  */
 public interface WidgetRepository {
+    /**
+     * Creates the widget when it has no id, otherwise updates it.
+     * When the widget to update has a version, it is applied only if the stored widget still has that version.
+     *
+     * @throws com.miro.exception.WidgetVersionConflictException when the stored widget has another version
+     */
     Widget save(Widget widget);
 
     void deleteById(Long id);
 
+    /**
+     * Updates only the non-null fields of given widget, the widget is found by its id.
+     * Indexes are maintained only for the changed fields. The version is checked like in {@link #save(Widget)}.
+     */
+    Widget patch(Widget widget);
+
+    /**
+     * Deletes the widgets which are completely inside the rectangle as a single modification.
+     *
+     * @return the number of deleted widgets
+     */
+    int deleteInRectangle(RectangleCoordinates coordinates);
+
+    /**
+     * Deletes the widgets whose zIndex is between fromZIndex & toZIndex(both inclusive) as a single modification.
+     *
+     * @return the number of deleted widgets
+     */
+    int deleteInZIndexRange(int fromZIndex, int toZIndex);
+
     Widget findById(Long id);
 
     List<Widget> findWithLimit(Integer limit);
 
-    List<Widget> findWithCoordinates(RectangleCoordinates coordinates, Integer limit);
+    /**
+     * The query is planned from the index statistics, either as a zIndex order scan or as a spatial index probe.
+     *
+     * @return the widgets in coordinates sorted by zIndex with limit, with the plan they are found by
+     */
+    WidgetQueryResult findWithCoordinates(RectangleCoordinates coordinates, Integer limit);
+
+    /**
+     * Widgets are compared by the euclidean distance of their center to the point,
+     * widgets at the same distance by zIndex(top-most first).
+     *
+     * @return the k widgets nearest to the point, the nearest first
+     */
+    List<Widget> findNearest(int x, int y, int k);
+
+    /**
+     * Finds every pair of overlapping widgets, widgets touching at an edge don't overlap.
+     * Overlaps are given to the consumer while they are found, so that they don't need to be kept in memory.
+     */
+    void findOverlaps(Consumer<WidgetOverlap> consumer);
+
+    /**
+     * @return the other widgets overlapping with the widget of given id, sorted by zIndex
+     * @throws com.miro.exception.WidgetNotFoundException when the widget doesn't exist
+     */
+    List<Widget> findOverlapping(Long id);
+
+    /**
+     * Widgets are grouped by the tile which their center is in, see {@link com.miro.repository.index.TileIndex} for tile sizes.
+     *
+     * @return the summaries of tiles at level which intersect with coordinates
+     */
+    List<TileSummary> findTiles(RectangleCoordinates coordinates, int level);
+
+    /**
+     * Statistics are aggregated by the indexes, widgets aren't loaded.
+     *
+     * @param coordinates to count the widgets in, the count isn't given when it is null
+     */
+    WidgetStats getStats(RectangleCoordinates coordinates);
+
+    /**
+     * Every modification increases the board version & stamps the changed widgets(including shifted ones) with it.
+     *
+     * @param coordinates to filter changes with, all changes are returned when it is null
+     */
+    WidgetChanges findChangesSince(long version, RectangleCoordinates coordinates);
+
+    /**
+     * Writes all widgets as a binary snapshot, see {@link com.miro.repository.snapshot.WidgetSnapshotCodec}.
+     */
+    void exportSnapshot(OutputStream outputStream);
+
+    /**
+     * Replaces all widgets with the ones in the binary snapshot.
+     *
+     * @return the number of imported widgets
+     */
+    int importSnapshot(InputStream inputStream);
+
+    ZIndexStats getZIndexStats();
+
+    /**
+     * Renormalizes zIndexes into evenly spaced values(0, spacing, 2 * spacing, ...) by keeping their order,
+     * so that the gaps let later inserts land without shifting other widgets.
+     */
+    ZIndexCompactionResult compactZIndexes(int spacing);
+
+    /**
+     * Moves the widget above all other widgets, widgets with bigger zIndex are on top.
+     * Throws {@link IllegalArgumentException} when the top widget is at the largest zIndex.
+     */
+    Widget bringToFront(Long id);
+
+    /**
+     * Moves the widget below all other widgets.
+     * Throws {@link IllegalArgumentException} when the bottom widget is at the smallest zIndex.
+     */
+    Widget sendToBack(Long id);
+
+    /**
+     * Moves the widget right above the target widget, to the middle of the gap between the target and the next widget.
+     * Other widgets are shifted only when there isn't a free zIndex between them.
+     */
+    Widget moveAbove(Long id, Long targetId);
+
+    /**
+     * Moves the widget right below the target widget, to the middle of the gap between the target and the previous widget.
+     * Other widgets are shifted only when there isn't a free zIndex between them.
+     */
+    Widget moveBelow(Long id, Long targetId);
 }
@@ -0,0 +1,35 @@
+package com.miro.repository.id;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This is the in-memory source of id blocks, blocks are taken by a single atomic addition.
+ *
+ * @author ahmetcetin
+ */
+public class AtomicLongIdBlockSource implements IdBlockSource {
+    private final AtomicLong nextBlockStart = new AtomicLong();
+    private final int blockSize;
+
+    public AtomicLongIdBlockSource(int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Id block size should be positive.");
+        }
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public long reserveBlock() {
+        return nextBlockStart.getAndAdd(blockSize);
+    }
+
+    @Override
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    @Override
+    public void reserveUpTo(long id) {
+        nextBlockStart.accumulateAndGet(id + 1, Math::max);
+    }
+}
@@ -0,0 +1,76 @@
+package com.miro.repository.id;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * This is the id allocator which hands out ids from a block per thread, so allocating an id doesn't need a lock
+ * or a shared counter, only a new block is taken from the {@link IdBlockSource}.
+ * Ids left in the blocks of a thread when it dies, or up to a reserved id, are skipped.
+ *
+ * @author ahmetcetin
+ */
+public class BlockIdAllocator implements WidgetIdAllocator {
+    private final IdBlockSource blockSource;
+    private final ThreadLocal<IdBlock> blocks = ThreadLocal.withInitial(IdBlock::new);
+    private volatile long reservedId = -1;
+
+    public BlockIdAllocator(IdBlockSource blockSource) {
+        this.blockSource = blockSource;
+    }
+
+    /**
+     * Blocks are taken until one ends after the reserved id, since a transactional source moves after it only
+     * once the transaction commits, and its blocks up to the reserved id would collide with the reserved ids.
+     */
+    @Override
+    public long nextId() {
+        IdBlock block = blocks.get();
+        long minId = reservedId + 1;
+        if (block.nextId < minId) {
+            block.nextId = minId; // The rest of the block after the reserved id is still used.
+        }
+        while (block.nextId >= block.endId) {
+            long blockStart = blockSource.reserveBlock();
+            block.endId = blockStart + blockSource.getBlockSize();
+            block.nextId = Math.max(blockStart, minId);
+        }
+        return block.nextId++;
+    }
+
+    /**
+     * The reserved id is published right away, so no id up to it is allocated while the source moves after it.
+     * Within a transaction, the reservation is taken back when the transaction rolls back.
+     */
+    @Override
+    public synchronized void reserveUpTo(long id) {
+        if (id <= reservedId) {
+            return;
+        }
+
+        long previousReservedId = reservedId;
+        reservedId = id;
+        blockSource.reserveUpTo(id);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        release(id, previousReservedId);
+                    }
+                }
+            });
+        }
+    }
+
+    private synchronized void release(long id, long previousReservedId) {
+        if (reservedId == id) { // Not raised by a later reservation.
+            reservedId = previousReservedId;
+        }
+    }
+
+    private static class IdBlock {
+        private long nextId;
+        private long endId;
+    }
+}
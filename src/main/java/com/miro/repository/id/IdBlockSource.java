@@ -0,0 +1,20 @@
+package com.miro.repository.id;
+
+/**
+ * This is the shared source of id blocks for {@link BlockIdAllocator}, it is touched once per block instead of once per id.
+ *
+ * @author ahmetcetin
+ */
+public interface IdBlockSource {
+    /**
+     * @return the first id of a block of {@link #getBlockSize()} ids, which isn't returned again
+     */
+    long reserveBlock();
+
+    int getBlockSize();
+
+    /**
+     * Makes sure that the next blocks start after given id, a transactional source does it once the current transaction commits.
+     */
+    void reserveUpTo(long id);
+}
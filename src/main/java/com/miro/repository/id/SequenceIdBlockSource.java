@@ -0,0 +1,73 @@
+package com.miro.repository.id;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+
+/**
+ * This is the H2 source of id blocks, a block is a value of the widget_id_seq sequence, which is incremented by the
+ * block size & cached by H2, so a block costs a single statement without touching the widget table.
+ * The block size is read from the increment of the sequence once, so that it is defined by the schema only.
+ *
+ * @author ahmetcetin
+ */
+public class SequenceIdBlockSource implements IdBlockSource {
+    static final String QUERY_SELECT_INCREMENT = "select increment from information_schema.sequences " +
+            "where sequence_name='WIDGET_ID_SEQ'";
+    static final String QUERY_NEXT_BLOCK = "select next value for widget_id_seq";
+    static final String QUERY_SELECT_NEXT_BLOCK_START = "select current_value + increment from information_schema.sequences " +
+            "where sequence_name='WIDGET_ID_SEQ'";
+    static final String QUERY_RESTART_SEQUENCE = "alter sequence widget_id_seq restart with ";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int blockSize;
+
+    /**
+     * @throws IllegalStateException when widget_id_seq doesn't exist or its increment can't be a block size
+     */
+    public SequenceIdBlockSource(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        List<Long> increments = jdbcTemplate.queryForList(QUERY_SELECT_INCREMENT, Long.class);
+        if (increments.size() != 1 || increments.get(0) < 1 || increments.get(0) > Integer.MAX_VALUE) {
+            throw new IllegalStateException("widget_id_seq should exist with a positive increment, found increments: " + increments);
+        }
+        this.blockSize = increments.get(0).intValue();
+    }
+
+    @Override
+    public long reserveBlock() {
+        return jdbcTemplate.queryForObject(QUERY_NEXT_BLOCK, Long.class);
+    }
+
+    @Override
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * The sequence is only moved forward. Restarting it is a DDL statement, which commits the current transaction,
+     * so within a transaction, e.g. an import, it is restarted after the transaction commits, and not at all on rollback.
+     */
+    @Override
+    public void reserveUpTo(long id) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            restartAfter(id);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                restartAfter(id);
+            }
+        });
+    }
+
+    private synchronized void restartAfter(long id) {
+        Long nextBlockStart = jdbcTemplate.queryForObject(QUERY_SELECT_NEXT_BLOCK_START, Long.class);
+        if (nextBlockStart == null || nextBlockStart <= id) {
+            jdbcTemplate.execute(QUERY_RESTART_SEQUENCE + (id + 1));
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.miro.repository.id;
+
+/**
+ * This is the allocator of widget ids, which is plugged into the repositories.
+ * Ids are unique, but they are increasing only per thread, since threads allocate ids from their own blocks.
+ *
+ * @author ahmetcetin
+ */
+public interface WidgetIdAllocator {
+    long nextId();
+
+    /**
+     * Makes sure that the ids up to given id, e.g. the ones of an imported board, are never allocated.
+     */
+    void reserveUpTo(long id);
+}
@@ -0,0 +1,33 @@
+package com.miro.repository.impl;
+
+import com.miro.repository.id.BlockIdAllocator;
+import com.miro.repository.id.SequenceIdBlockSource;
+import com.miro.repository.id.WidgetIdAllocator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+
+/**
+ * This is the configuration of H2 profile, which replaces the auto-configured JdbcTemplate with {@link TracingJdbcTemplate}
+ * & allocates widget ids from blocks of an H2 sequence.
+ *
+ * @author ahmetcetin
+ */
+@Configuration
+@Profile("h2")
+public class H2RepositoryConfiguration {
+    @Bean
+    public JdbcTemplate jdbcTemplate(DataSource dataSource,
+                                     @Value("${widget.slow-operation.threshold-ms:200}") long slowOperationThresholdMillis) {
+        return new TracingJdbcTemplate(dataSource, slowOperationThresholdMillis);
+    }
+
+    @Bean
+    public WidgetIdAllocator widgetIdAllocator(JdbcTemplate jdbcTemplate) {
+        return new BlockIdAllocator(new SequenceIdBlockSource(jdbcTemplate));
+    }
+}
@@ -1,30 +1,64 @@
 package com.miro.repository.impl;
 
 import com.miro.exception.WidgetNotFoundException;
+import com.miro.exception.WidgetVersionConflictException;
+import com.miro.model.QueryPlan;
 import com.miro.model.RectangleCoordinates;
+import com.miro.model.TileSummary;
 import com.miro.model.Widget;
+import com.miro.model.WidgetChanges;
+import com.miro.model.WidgetOverlap;
+import com.miro.model.WidgetQueryResult;
+import com.miro.model.WidgetStats;
+import com.miro.model.ZIndexCompactionResult;
+import com.miro.model.ZIndexStats;
 import com.miro.repository.WidgetRepository;
+import com.miro.repository.id.WidgetIdAllocator;
+import com.miro.repository.index.OverlapDetector;
+import com.miro.repository.index.TileIndex;
+import com.miro.repository.plan.QueryPlanner;
+import com.miro.repository.snapshot.WidgetSnapshotCodec;
 import lombok.RequiredArgsConstructor;
+import lombok.Value;
 import org.springframework.context.annotation.Profile;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.support.GeneratedKeyHolder;
-import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.NavigableSet;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Consumer;
 
 /**
  * This is the repository implementation to use H2 in-memory DB as datasource for operations.
+ * Every modification takes the next board version from a sequence, deleted widgets are kept as tombstones
+ * & positions left by moved widgets are kept as moves to serve "changes since version" queries.
+ * Updates & deletes of a single widget which keep zIndexes compare & stamp the version of its row only, so they wait
+ * only for the writers of the same widget. Modifications which pick or change zIndexes, or lock many rows, are serialized
+ * by a board lock which is held until they commit. Board versions may commit out of order, so the version of the board
+ * is the highest committed version below the versions of the transactions which are still running.
+ * Rectangle queries are planned by {@link QueryPlanner} from the widget count & the center extent of the board,
+ * which are reloaded at most once in {@value #PLANNER_STATISTICS_TTL_MILLIS} ms. Widget centers are assumed to be spread evenly
+ * over the extent: the position index is probed for small rectangles, the zIndex index is scanned for large ones.
+ * Ids of new widgets are taken from a {@link WidgetIdAllocator}, instead of being generated by the insert.
  *
  * @author ahmetcetin
  */
@@ -35,24 +69,124 @@ public class H2WidgetRepository implements WidgetRepository {
     static final String QUERY_SELECT_MAX_Z_INDEX = "select max(zIndex) from widget";
     static final String QUERY_DELETE_WIDGET = "delete from widget where id=?";
     private static final String QUERY_SELECT_BY_Z_INDEX = "select * from widget where zIndex=?";
-    private static final String QUERY_INSERT_WIDGET = "insert into widget (xIndex, yIndex, zIndex, width, height, updateTime) values(?,?,?,?,?,?)";
     private static final int QUERY_RESULT_SUCCESS = 1;
-    private static final String QUERY_UPDATE_Z_INDEXES = "update widget set zIndex = zIndex + 1 where id=?";
-    private static final String QUERY_UPDATE_WIDGET = "update widget set xIndex=?, yIndex=?, zIndex=?, width=?, height=?, updateTime=? where id = ?";
+    static final String QUERY_UPDATE_Z_INDEXES = "update widget set zIndex = zIndex + 1, version=? where id=?";
+    static final String QUERY_CLAIM_WIDGET_VERSION = "update widget set version=? where id=? and version=?";
+    static final String QUERY_STAMP_WIDGET_VERSION = "update widget set version=? where id=?";
+    static final String QUERY_COUNT_BY_ID = "select count(*) from widget where id=?";
+    private static final String QUERY_UPDATE_WIDGET = "update widget set xIndex=?, yIndex=?, zIndex=?, width=?, height=?, updateTime=?, version=? where id = ?";
     private static final String QUERY_SELECT_BY_ID = "select * from widget where id=?";
     private static final String QUERY_SELECT_BY_LIMIT = "select * from widget order by zIndex limit ?";
-    private static final String QUERY_SELECT_BY_COORDINATE_AND_LIMIT = "select * from widget " +
-            "where xIndex - (width / 2) >= ? and xIndex + (width / 2) <= ?" +
-            "and yIndex - (height / 2) >= ? and yIndex + (height / 2) <= ?" +
-            "order by zIndex limit ?";
+    static final String QUERY_SELECT_ALL_BY_Z_INDEX = "select * from widget order by zIndex";
+    static final String QUERY_INSERT_WIDGET_WITH_ID = "insert into widget (id, xIndex, yIndex, zIndex, width, height, updateTime, version) values(?,?,?,?,?,?,?,?)";
+    static final String QUERY_DELETE_ALL_WIDGETS = "delete from widget";
+    private static final int BATCH_SIZE = 1000;
+    static final String QUERY_SELECT_Z_INDEX_STATS = "select count(*) as count, min(zIndex) as minZIndex, max(zIndex) as maxZIndex from widget";
+    static final String QUERY_SELECT_ADJACENT_Z_INDEX_COUNT = "select count(*) from " +
+            "(select zIndex - lag(zIndex) over (order by zIndex) as zIndexDiff from widget) as zIndexDiffs where zIndexDiff = 1";
+    static final String QUERY_LOCK_BOARD = "select id from widget_board_lock where id=1 for update";
+    static final String QUERY_SELECT_IDS_BY_Z_INDEX_FOR_UPDATE = "select id from widget order by zIndex for update";
+    private static final String QUERY_UPDATE_Z_INDEX = "update widget set zIndex=?, version=? where id=?";
+    static final String QUERY_SELECT_MIN_Z_INDEX = "select min(zIndex) from widget";
+    static final String QUERY_SELECT_Z_INDEX_ABOVE = "select min(zIndex) from widget where zIndex > ?";
+    static final String QUERY_SELECT_Z_INDEX_BELOW = "select max(zIndex) from widget where zIndex < ?";
+    static final String QUERY_MOVE_WIDGET = "update widget set zIndex=?, updateTime=?, version=? where id=?";
+    static final String QUERY_SELECT_NEXT_BOARD_VERSION = "select next value for board_version_seq";
+    static final String QUERY_SELECT_BOARD_VERSION = "select max(version) from " +
+            "(select max(version) as version from widget union all select max(version) as version from widget_tombstone)";
+    static final String QUERY_INSERT_TOMBSTONE = "merge into widget_tombstone (id, version, xIndex, yIndex, width, height) key(id) " +
+            "select id, ?, xIndex, yIndex, width, height from widget where id=?";
+    private static final String QUERY_INSERT_ALL_TOMBSTONES = "merge into widget_tombstone (id, version, xIndex, yIndex, width, height) key(id) " +
+            "select id, ?, xIndex, yIndex, width, height from widget";
+    static final String QUERY_DELETE_REVIVED_TOMBSTONES = "delete from widget_tombstone where id in (select id from widget)";
+    static final String QUERY_INSERT_MOVE = "insert into widget_move (id, version, xIndex, yIndex, width, height) " +
+            "select id, ?, xIndex, yIndex, width, height from widget where id=? and (xIndex<>? or yIndex<>? or width<>? or height<>?)";
+    private static final String QUERY_INSERT_REVIVED_MOVES = "insert into widget_move (id, version, xIndex, yIndex, width, height) " +
+            "select id, ?, xIndex, yIndex, width, height from widget_tombstone where id in (select id from widget)";
+    static final String QUERY_SELECT_CHANGED_WIDGETS = "select * from widget where version > ? order by zIndex";
+    static final String QUERY_SELECT_CHANGED_WIDGETS_IN_COORDINATES = "select * from widget where version > ? " +
+            "and xIndex - (width / 2) >= ? and xIndex + (width / 2) <= ? " +
+            "and yIndex - (height / 2) >= ? and yIndex + (height / 2) <= ? " +
+            "order by zIndex";
+    static final String QUERY_SELECT_TILES = "select tileX, tileY, count, minX, minY, maxX, maxY, id from " +
+            "(select id, tileX, tileY, count(*) over (partition by tileX, tileY) as count, " +
+            "min(xIndex - (width + 1) / 2) over (partition by tileX, tileY) as minX, " +
+            "min(yIndex - (height + 1) / 2) over (partition by tileX, tileY) as minY, " +
+            "max(xIndex + (width + 1) / 2) over (partition by tileX, tileY) as maxX, " +
+            "max(yIndex + (height + 1) / 2) over (partition by tileX, tileY) as maxY, " +
+            "row_number() over (partition by tileX, tileY order by zIndex desc) as zOrder from " +
+            "(select id, xIndex, yIndex, zIndex, width, height, " +
+            "cast(floor(xIndex / ?) as int) as tileX, cast(floor(yIndex / ?) as int) as tileY from widget " +
+            "where xIndex between ? and ? and yIndex between ? and ?) as tiledWidgets) as tiles " +
+            "where zOrder = 1 order by tileY, tileX";
+    static final String QUERY_SELECT_EXTENT = "select min(xIndex - (width + 1) / 2) as minX, min(yIndex - (height + 1) / 2) as minY, " +
+            "max(xIndex + (width + 1) / 2) as maxX, max(yIndex + (height + 1) / 2) as maxY from widget";
+    // Center ranges are implied by the edge conditions, they let the position index be scanned by range.
+    private static final String CONDITION_IN_COORDINATES = "xIndex between ? and ? and yIndex between ? and ? " +
+            "and xIndex - (width / 2) >= ? and xIndex + (width / 2) <= ? " +
+            "and yIndex - (height / 2) >= ? and yIndex + (height / 2) <= ?";
+    static final String QUERY_COUNT_IN_COORDINATES = "select count(*) from widget where " + CONDITION_IN_COORDINATES;
+    static final String QUERY_SELECT_IN_COORDINATES_BY_Z_INDEX = "select * from widget use index (widget_zindex_idx) " +
+            "where " + CONDITION_IN_COORDINATES + " order by zIndex limit ?";
+    static final String QUERY_SELECT_IN_COORDINATES_BY_POSITION = "select * from widget use index (widget_position_idx) " +
+            "where " + CONDITION_IN_COORDINATES + " order by zIndex limit ?";
+    private static final String ORDER_BY_DISTANCE = " order by (cast(xIndex as bigint) - ?) * (cast(xIndex as bigint) - ?) " +
+            "+ (cast(yIndex as bigint) - ?) * (cast(yIndex as bigint) - ?), zIndex desc limit ?";
+    static final String QUERY_SELECT_NEAREST_IN_WINDOW = "select * from widget " +
+            "where xIndex between ? and ? and yIndex between ? and ?" + ORDER_BY_DISTANCE;
+    static final String QUERY_SELECT_NEAREST = "select * from widget" + ORDER_BY_DISTANCE;
+    static final String QUERY_SELECT_BOUNDS = "select id, xIndex, yIndex, width, height from widget";
+    static final String QUERY_SELECT_MAX_SIZE = "select max(width) as maxWidth, max(height) as maxHeight from widget";
+    // Center ranges are wide enough for the largest widgets, the overlap is checked afterwards.
+    static final String QUERY_SELECT_OVERLAPPING_CANDIDATES = "select * from widget " +
+            "where xIndex between ? and ? and yIndex between ? and ? and id <> ? order by zIndex";
+    static final String QUERY_SELECT_PLANNER_STATISTICS = "select count(*) as count, " +
+            "min(xIndex) as minX, max(xIndex) as maxX, min(yIndex) as minY, max(yIndex) as maxY from widget";
+    static final String QUERY_SELECT_IDS_IN_COORDINATES_FOR_UPDATE = "select id from widget where " + CONDITION_IN_COORDINATES + " for update";
+    static final String QUERY_SELECT_IDS_IN_Z_INDEX_RANGE_FOR_UPDATE = "select id from widget where zIndex between ? and ? for update";
+    static final String QUERY_SELECT_TOMBSTONE_IDS = "select id from widget_tombstone where version > ?";
+    // Positions left by moves since the asked version, a widget which had one of them in the coordinates may be known by the client.
+    private static final String CONDITION_WAS_IN_COORDINATES = "exists (select 1 from widget_move where widget_move.id = %s.id " +
+            "and widget_move.version > ? and xIndex - (width / 2) >= ? and xIndex + (width / 2) <= ? " +
+            "and yIndex - (height / 2) >= ? and yIndex + (height / 2) <= ?)";
+    static final String QUERY_SELECT_TOMBSTONE_IDS_IN_COORDINATES = "select id from widget_tombstone where version > ? " +
+            "and ((xIndex - (width / 2) >= ? and xIndex + (width / 2) <= ? " +
+            "and yIndex - (height / 2) >= ? and yIndex + (height / 2) <= ?) " +
+            "or " + String.format(CONDITION_WAS_IN_COORDINATES, "widget_tombstone") + ")";
+    static final String QUERY_SELECT_MOVED_OUT_IDS_IN_COORDINATES = "select id from widget where version > ? " +
+            "and not (xIndex - (width / 2) >= ? and xIndex + (width / 2) <= ? " +
+            "and yIndex - (height / 2) >= ? and yIndex + (height / 2) <= ?) " +
+            "and " + String.format(CONDITION_WAS_IN_COORDINATES, "widget");
+
+    static final long PLANNER_STATISTICS_TTL_MILLIS = 1000;
+    // Relative costs per row: a scan fetches the row of every zIndex index entry, a probe reads the position index.
+    private static final QueryPlanner QUERY_PLANNER = new QueryPlanner(1, 0.5, 0.5, 0);
 
     private final JdbcTemplate jdbcTemplate;
+    private final WidgetIdAllocator idAllocator;
+    private volatile PlannerStatistics plannerStatistics;
+    // Board versions taken by the transactions which haven't completed yet, see findChangesSince.
+    private final NavigableSet<Long> uncommittedVersions = new ConcurrentSkipListSet<>();
 
+    /**
+     * An update which keeps the zIndex of the widget is applied on its row only, otherwise the board is locked.
+     */
     @Override
     @Transactional
     public Widget save(Widget widget) {
+        if (widget.getId() != null && widget.getZIndex() != null
+                && findByZIndex(widget.getZIndex()).filter(current -> current.getId().equals(widget.getId())).isPresent()) {
+            return updateInPlace(widget);
+        }
+
+        lockBoard();
+        Long expectedVersion = widget.getVersion();
+        widget.setVersion(nextBoardVersion());
+        if (widget.getId() != null) {
+            claimVersion(widget.getId(), expectedVersion, widget.getVersion());
+        }
         if (widget.getZIndex() != null && findByZIndex(widget.getZIndex()).isPresent()) { // Shifting required.
-            shift(widget.getZIndex());
+            shift(widget.getZIndex(), widget.getVersion());
         }
 
         if (widget.getZIndex() == null) {
@@ -62,11 +196,81 @@ public class H2WidgetRepository implements WidgetRepository {
         return widget.getId() == null ? saveWidget(widget) : updateWidget(widget);
     }
 
+    /**
+     * Only the changed columns are updated, the board is locked only when zIndex is patched.
+     * The widget is read after its row is claimed, so it can't be changed by others until the patch commits.
+     */
     @Override
+    @Transactional
+    public Widget patch(Widget widget) {
+        if (widget.getZIndex() != null) {
+            lockBoard();
+        }
+        Long version = nextBoardVersion();
+        claimVersion(widget.getId(), widget.getVersion(), version);
+        Widget currentWidget = findById(widget.getId());
+        boolean zIndexChanged = widget.getZIndex() != null && !widget.getZIndex().equals(currentWidget.getZIndex());
+        if (zIndexChanged && findByZIndex(widget.getZIndex()).isPresent()) { // Shifting required.
+            shift(widget.getZIndex(), version);
+        }
+
+        Widget patchedWidget = currentWidget.applyPatch(widget);
+        patchedWidget.setUpdateTime(LocalDateTime.now());
+        patchedWidget.setVersion(version);
+
+        StringBuilder query = new StringBuilder("update widget set updateTime=?, version=?");
+        List<Object> parameters = new ArrayList<>();
+        parameters.add(Timestamp.valueOf(patchedWidget.getUpdateTime()));
+        parameters.add(version);
+        if (widget.getXIndex() != null || widget.getYIndex() != null || widget.getWidth() != null || widget.getHeight() != null) {
+            recordMove(patchedWidget);
+        }
+        appendPatchedColumn(query, parameters, "xIndex", widget.getXIndex());
+        appendPatchedColumn(query, parameters, "yIndex", widget.getYIndex());
+        appendPatchedColumn(query, parameters, "zIndex", zIndexChanged ? widget.getZIndex() : null);
+        appendPatchedColumn(query, parameters, "width", widget.getWidth());
+        appendPatchedColumn(query, parameters, "height", widget.getHeight());
+        query.append(" where id=?");
+        parameters.add(widget.getId());
+
+        jdbcTemplate.update(query.toString(), parameters.toArray());
+        return patchedWidget;
+    }
+
+    /**
+     * The row is stamped first, so that it can't be changed between its tombstone & its deletion.
+     */
+    @Override
+    @Transactional
     public void deleteById(Long id) {
-        if (jdbcTemplate.update(QUERY_DELETE_WIDGET, id) != QUERY_RESULT_SUCCESS) {
+        Long version = nextBoardVersion();
+        if (jdbcTemplate.update(QUERY_STAMP_WIDGET_VERSION, version, id) != QUERY_RESULT_SUCCESS) {
             throw new WidgetNotFoundException("Couldn't find widget to delete with id: " + id);
         }
+        jdbcTemplate.update(QUERY_INSERT_TOMBSTONE, version, id);
+        jdbcTemplate.update(QUERY_DELETE_WIDGET, id);
+    }
+
+    /**
+     * Widgets are found by a single range statement over the position index, which locks their rows,
+     * then they are deleted by id, so that the same widgets get tombstones.
+     */
+    @Override
+    @Transactional
+    public int deleteInRectangle(RectangleCoordinates coordinates) {
+        lockBoard();
+        return deleteByIds(jdbcTemplate.queryForList(QUERY_SELECT_IDS_IN_COORDINATES_FOR_UPDATE, Long.class, toParameters(coordinates)));
+    }
+
+    /**
+     * Widgets are found by a single range statement over the zIndex index, which locks their rows,
+     * then they are deleted by id, so that the same widgets get tombstones.
+     */
+    @Override
+    @Transactional
+    public int deleteInZIndexRange(int fromZIndex, int toZIndex) {
+        lockBoard();
+        return deleteByIds(jdbcTemplate.queryForList(QUERY_SELECT_IDS_IN_Z_INDEX_RANGE_FOR_UPDATE, Long.class, fromZIndex, toZIndex));
     }
 
     @Override
@@ -85,17 +289,383 @@ public class H2WidgetRepository implements WidgetRepository {
     }
 
     @Override
-    public List<Widget> findWithCoordinates(RectangleCoordinates coordinates, Integer limit) {
-        return jdbcTemplate.query(QUERY_SELECT_BY_COORDINATE_AND_LIMIT,
-                Widget::mapRowToWidget,
-                coordinates.getX0(),
-                coordinates.getX1(),
-                coordinates.getY0(),
-                coordinates.getY1(),
-                limit);
+    public WidgetQueryResult findWithCoordinates(RectangleCoordinates coordinates, Integer limit) {
+        PlannerStatistics statistics = getPlannerStatistics();
+        double xRatio = getCoveredRatio(coordinates.getX0(), coordinates.getX1(), statistics.getMinX(), statistics.getMaxX());
+        double yRatio = getCoveredRatio(coordinates.getY0(), coordinates.getY1(), statistics.getMinY(), statistics.getMaxY());
+        double estimatedCount = statistics.getCount() * xRatio * yRatio;
+        // xIndex leads the position index, so the probe reads all widgets whose center is in the x range.
+        double candidateCount = statistics.getCount() * xRatio;
+        QueryPlan plan = QUERY_PLANNER.choose(statistics.getCount(), estimatedCount, candidateCount, limit);
+
+        Object[] parameters = Arrays.copyOf(toParameters(coordinates), 9);
+        parameters[8] = limit;
+        List<Widget> widgets = jdbcTemplate.query(plan == QueryPlan.Z_ORDER_SCAN
+                        ? QUERY_SELECT_IN_COORDINATES_BY_Z_INDEX
+                        : QUERY_SELECT_IN_COORDINATES_BY_POSITION,
+                Widget::mapRowToWidget, parameters);
+        return WidgetQueryResult.builder()
+                .widgets(widgets)
+                .plan(plan)
+                .estimatedCount(Math.round(estimatedCount))
+                .build();
+    }
+
+    /**
+     * Expanding window search on the position index. The window starts from the radius expected to have k widgets
+     * when the widgets are spread evenly over the extent in planner statistics. It grows to the distance of the k-th
+     * nearest widget in it, so that the circle inside the window has all nearer widgets, or doubles when it has fewer.
+     * When the window covers the extent, the nearest widgets are sorted from the whole table,
+     * so that widgets out of a stale extent are found as well.
+     */
+    @Override
+    public List<Widget> findNearest(int x, int y, int k) {
+        PlannerStatistics statistics = getPlannerStatistics();
+        long extentArea = ((long) statistics.getMaxX() - statistics.getMinX() + 1) * ((long) statistics.getMaxY() - statistics.getMinY() + 1);
+        long radius = (long) Math.ceil(Math.sqrt((double) k * extentArea / Math.max(statistics.getCount(), 1) / Math.PI));
+        radius = Math.max(radius, 1);
+
+        while (!coversExtent(x, y, radius, statistics)) {
+            List<Widget> widgets = jdbcTemplate.query(QUERY_SELECT_NEAREST_IN_WINDOW, Widget::mapRowToWidget,
+                    clamp((long) x - radius), clamp((long) x + radius), clamp((long) y - radius), clamp((long) y + radius),
+                    x, x, y, y, k);
+            if (widgets.size() < k) {
+                radius *= 2;
+                continue;
+            }
+
+            long kthDistanceSquared = TileIndex.getDistanceSquared(widgets.get(k - 1), x, y);
+            if (kthDistanceSquared <= (double) radius * radius) {
+                return widgets;
+            }
+            radius = (long) Math.ceil(Math.sqrt(kthDistanceSquared));
+        }
+        return jdbcTemplate.query(QUERY_SELECT_NEAREST, Widget::mapRowToWidget, x, x, y, y, k);
+    }
+
+    /**
+     * Only the bounds are read through the position index, the sweep is done by {@link OverlapDetector}.
+     */
+    @Override
+    public void findOverlaps(Consumer<WidgetOverlap> consumer) {
+        List<Widget> widgets = jdbcTemplate.query(QUERY_SELECT_BOUNDS, (resultSet, rowNum) -> Widget.builder()
+                .id(resultSet.getLong("id"))
+                .xIndex(resultSet.getInt("xIndex"))
+                .yIndex(resultSet.getInt("yIndex"))
+                .width(resultSet.getInt("width"))
+                .height(resultSet.getInt("height"))
+                .build());
+        new OverlapDetector(widgets).findOverlaps(consumer);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<Widget> findOverlapping(Long id) {
+        Widget widget = findById(id);
+        int[] maxSize = jdbcTemplate.queryForObject(QUERY_SELECT_MAX_SIZE, (resultSet, rowNum) ->
+                new int[]{resultSet.getInt("maxWidth"), resultSet.getInt("maxHeight")});
+        long xDistance = ((long) widget.getWidth() + maxSize[0] + 1) / 2;
+        long yDistance = ((long) widget.getHeight() + maxSize[1] + 1) / 2;
+        List<Widget> candidates = jdbcTemplate.query(QUERY_SELECT_OVERLAPPING_CANDIDATES, Widget::mapRowToWidget,
+                clamp(widget.getXIndex() - xDistance), clamp(widget.getXIndex() + xDistance),
+                clamp(widget.getYIndex() - yDistance), clamp(widget.getYIndex() + yDistance), id);
+        candidates.removeIf(candidate -> !OverlapDetector.overlaps(widget, candidate));
+        return candidates;
+    }
+
+    /**
+     * Tiles are aggregated by the DB from the widgets whose center is in the tiles,
+     * the tile sizes are the same with {@link TileIndex}.
+     */
+    @Override
+    public List<TileSummary> findTiles(RectangleCoordinates coordinates, int level) {
+        int tileSize = TileIndex.getTileSize(level);
+        double tileSizeParameter = tileSize; // Double division, so that floor works for negative coordinates as well.
+        long minX = (long) TileIndex.toTileCoordinate(coordinates.getX0(), level) * tileSize;
+        long maxX = ((long) TileIndex.toTileCoordinate(coordinates.getX1(), level) + 1) * tileSize - 1;
+        long minY = (long) TileIndex.toTileCoordinate(coordinates.getY0(), level) * tileSize;
+        long maxY = ((long) TileIndex.toTileCoordinate(coordinates.getY1(), level) + 1) * tileSize - 1;
+        return jdbcTemplate.query(QUERY_SELECT_TILES, (resultSet, rowNum) ->
+                        TileSummary.builder()
+                                .level(level)
+                                .tileX(resultSet.getInt("tileX"))
+                                .tileY(resultSet.getInt("tileY"))
+                                .tileSize(tileSize)
+                                .count(resultSet.getLong("count"))
+                                .minX(resultSet.getInt("minX"))
+                                .minY(resultSet.getInt("minY"))
+                                .maxX(resultSet.getInt("maxX"))
+                                .maxY(resultSet.getInt("maxY"))
+                                .topWidgetId(resultSet.getLong("id"))
+                                .build(),
+                tileSizeParameter, tileSizeParameter, minX, maxX, minY, maxY);
+    }
+
+    /**
+     * zIndex range & count are read from the ends of zIndex index, the extent & the count in coordinates
+     * are aggregated from the position index, which covers the columns they need.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public WidgetStats getStats(RectangleCoordinates coordinates) {
+        WidgetStats.WidgetStatsBuilder zIndexStats = jdbcTemplate.queryForObject(QUERY_SELECT_Z_INDEX_STATS, (resultSet, rowNum) ->
+                WidgetStats.builder()
+                        .totalCount(resultSet.getLong("count"))
+                        .minZIndex(resultSet.getObject("minZIndex", Integer.class))
+                        .maxZIndex(resultSet.getObject("maxZIndex", Integer.class)));
+        WidgetStats.WidgetStatsBuilder stats = jdbcTemplate.queryForObject(QUERY_SELECT_EXTENT, (resultSet, rowNum) -> zIndexStats
+                .minX(resultSet.getObject("minX", Integer.class))
+                .minY(resultSet.getObject("minY", Integer.class))
+                .maxX(resultSet.getObject("maxX", Integer.class))
+                .maxY(resultSet.getObject("maxY", Integer.class)));
+        if (coordinates != null) {
+            stats.countInRectangle(jdbcTemplate.queryForObject(QUERY_COUNT_IN_COORDINATES, Long.class,
+                    toParameters(coordinates)));
+        }
+        return stats.build();
+    }
+
+    /**
+     * Tombstones are kept for all deleted widgets, so full sync is never required.
+     * The board version is read before the changes: it is the highest committed version, lowered below the oldest version
+     * which is still being written. Every version up to it is committed, so a modification committed in between is
+     * either returned now or with the next changes. The running versions are read after the committed one,
+     * since a version is registered as running before any later version is taken.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public WidgetChanges findChangesSince(long version, RectangleCoordinates coordinates) {
+        Long boardVersion = jdbcTemplate.queryForObject(QUERY_SELECT_BOARD_VERSION, Long.class);
+        Long oldestUncommittedVersion = uncommittedVersions.ceiling(Long.MIN_VALUE);
+        if (boardVersion != null && oldestUncommittedVersion != null && oldestUncommittedVersion <= boardVersion) {
+            boardVersion = oldestUncommittedVersion - 1;
+        }
+        List<Widget> updatedWidgets;
+        List<Long> deletedWidgetIds;
+        List<Long> movedOutWidgetIds;
+        if (coordinates == null) {
+            updatedWidgets = jdbcTemplate.query(QUERY_SELECT_CHANGED_WIDGETS, Widget::mapRowToWidget, version);
+            deletedWidgetIds = jdbcTemplate.queryForList(QUERY_SELECT_TOMBSTONE_IDS, Long.class, version);
+            movedOutWidgetIds = new ArrayList<>();
+        } else {
+            Object[] parameters = {version, coordinates.getX0(), coordinates.getX1(), coordinates.getY0(), coordinates.getY1()};
+            Object[] wasInParameters = {version, coordinates.getX0(), coordinates.getX1(), coordinates.getY0(), coordinates.getY1(),
+                    version, coordinates.getX0(), coordinates.getX1(), coordinates.getY0(), coordinates.getY1()};
+            updatedWidgets = jdbcTemplate.query(QUERY_SELECT_CHANGED_WIDGETS_IN_COORDINATES, Widget::mapRowToWidget, parameters);
+            deletedWidgetIds = jdbcTemplate.queryForList(QUERY_SELECT_TOMBSTONE_IDS_IN_COORDINATES, Long.class, wasInParameters);
+            movedOutWidgetIds = jdbcTemplate.queryForList(QUERY_SELECT_MOVED_OUT_IDS_IN_COORDINATES, Long.class, wasInParameters);
+        }
+
+        return WidgetChanges.builder()
+                .version(boardVersion != null ? Math.max(boardVersion, version) : version)
+                .fullSyncRequired(false)
+                .updated(updatedWidgets)
+                .deleted(deletedWidgetIds)
+                .movedOut(movedOutWidgetIds)
+                .build();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void exportSnapshot(OutputStream outputStream) {
+        List<Widget> widgets = jdbcTemplate.query(QUERY_SELECT_ALL_BY_Z_INDEX, Widget::mapRowToWidget);
+        try {
+            WidgetSnapshotCodec.write(outputStream, widgets);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't write widget snapshot.", e);
+        }
+    }
+
+    /**
+     * The whole snapshot is decoded & validated before the table is touched, then the board is replaced by DML statements
+     * only, since every DDL statement commits the transaction in H2. So a failed import leaves the previous board as it is,
+     * and the indexes which the rectangle queries are hinted to use are never dropped.
+     */
+    @Override
+    @Transactional
+    public int importSnapshot(InputStream inputStream) {
+        List<Widget> widgets;
+        try {
+            widgets = WidgetSnapshotCodec.read(inputStream);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't read widget snapshot.", e);
+        }
+
+        // Replaced widgets become tombstones, the ones imported again are revived after the load.
+        // Their rows are locked before the tombstones, in the same order as the writers of a single widget lock them.
+        lockBoard();
+        jdbcTemplate.queryForList(QUERY_SELECT_IDS_BY_Z_INDEX_FOR_UPDATE, Long.class);
+        // The imported ids are reserved before they're loaded, a rollback releases them.
+        idAllocator.reserveUpTo(widgets.stream().mapToLong(Widget::getId).max().orElse(0));
+        Long version = nextBoardVersion();
+        jdbcTemplate.update(QUERY_INSERT_ALL_TOMBSTONES, version);
+        jdbcTemplate.update(QUERY_DELETE_ALL_WIDGETS);
+        jdbcTemplate.batchUpdate(QUERY_INSERT_WIDGET_WITH_ID, widgets, BATCH_SIZE, (ps, widget) -> {
+            ps.setLong(1, widget.getId());
+            ps.setInt(2, widget.getXIndex());
+            ps.setInt(3, widget.getYIndex());
+            ps.setInt(4, widget.getZIndex());
+            ps.setInt(5, widget.getWidth());
+            ps.setInt(6, widget.getHeight());
+            ps.setTimestamp(7, Timestamp.valueOf(widget.getUpdateTime() != null ? widget.getUpdateTime() : LocalDateTime.now()));
+            ps.setObject(8, version);
+        });
+        jdbcTemplate.update(QUERY_INSERT_REVIVED_MOVES, version);
+        jdbcTemplate.update(QUERY_DELETE_REVIVED_TOMBSTONES);
+        return widgets.size();
+    }
+
+    @Override
+    public ZIndexStats getZIndexStats() {
+        ZIndexStats zIndexStats = jdbcTemplate.queryForObject(QUERY_SELECT_Z_INDEX_STATS, (resultSet, rowNum) ->
+                ZIndexStats.builder()
+                        .count(resultSet.getLong("count"))
+                        .minZIndex(resultSet.getObject("minZIndex", Integer.class))
+                        .maxZIndex(resultSet.getObject("maxZIndex", Integer.class))
+                        .build());
+        Long adjacentCount = jdbcTemplate.queryForObject(QUERY_SELECT_ADJACENT_Z_INDEX_COUNT, Long.class);
+        if (zIndexStats != null && adjacentCount != null) {
+            zIndexStats.setAdjacentCount(adjacentCount);
+        }
+        return zIndexStats;
+    }
+
+    /**
+     * Rows are locked against concurrent writers until the end of the transaction,
+     * readers aren't blocked and keep seeing the committed zIndexes.
+     */
+    @Override
+    @Transactional
+    public ZIndexCompactionResult compactZIndexes(int spacing) {
+        long startTime = System.currentTimeMillis();
+        lockBoard();
+        ZIndexStats before = getZIndexStats();
+        if (spacing > before.getMaxCompactionSpacing()) { // The last zIndex would overflow.
+            throw new IllegalArgumentException(String.format("zIndex compaction spacing: %d is too large for %d widgets, it can be at most %d.",
+                    spacing, before.getCount(), before.getMaxCompactionSpacing()));
+        }
+
+        List<Long> widgetIds = jdbcTemplate.queryForList(QUERY_SELECT_IDS_BY_Z_INDEX_FOR_UPDATE, Long.class);
+        Long version = nextBoardVersion();
+        jdbcTemplate.batchUpdate(QUERY_UPDATE_Z_INDEX, new BatchPreparedStatementSetter() {
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                ps.setInt(1, Math.toIntExact((long) i * spacing));
+                ps.setObject(2, version);
+                ps.setLong(3, widgetIds.get(i));
+            }
+
+            public int getBatchSize() {
+                return widgetIds.size();
+            }
+        });
+
+        return ZIndexCompactionResult.builder()
+                .applied(true)
+                .before(before)
+                .after(getZIndexStats())
+                .finishTime(LocalDateTime.now())
+                .durationMillis(System.currentTimeMillis() - startTime)
+                .build();
     }
 
-    private void shift(Integer zIndex) {
+    @Override
+    @Transactional
+    public Widget bringToFront(Long id) {
+        lockBoard();
+        Widget widget = findWidgetToMove(id);
+        int maxZIndex = getMaxZIndex();
+        return widget.getZIndex() == maxZIndex ? widget : moveToZIndex(widget, ZIndexGaps.above(maxZIndex));
+    }
+
+    @Override
+    @Transactional
+    public Widget sendToBack(Long id) {
+        lockBoard();
+        Widget widget = findWidgetToMove(id);
+        Integer minZIndex = jdbcTemplate.queryForObject(QUERY_SELECT_MIN_Z_INDEX, Integer.class);
+        return widget.getZIndex().equals(minZIndex) ? widget : moveToZIndex(widget, ZIndexGaps.below(minZIndex));
+    }
+
+    @Override
+    @Transactional
+    public Widget moveAbove(Long id, Long targetId) {
+        lockBoard();
+        Widget widget = findWidgetToMove(id);
+        Widget targetWidget = findTargetWidget(id, targetId);
+        Integer zIndexAboveTarget = jdbcTemplate.queryForObject(QUERY_SELECT_Z_INDEX_ABOVE, Integer.class, targetWidget.getZIndex());
+        if (zIndexAboveTarget == null) {
+            return moveToZIndex(widget, ZIndexGaps.above(targetWidget.getZIndex()));
+        }
+        if (zIndexAboveTarget.equals(widget.getZIndex())) { // Already right above the target.
+            return widget;
+        }
+        Integer zIndex = ZIndexGaps.between(targetWidget.getZIndex(), zIndexAboveTarget);
+        // No gap above the target, so the widgets right above it are shifted up.
+        return moveToZIndex(widget, zIndex != null ? zIndex : zIndexAboveTarget);
+    }
+
+    @Override
+    @Transactional
+    public Widget moveBelow(Long id, Long targetId) {
+        lockBoard();
+        Widget widget = findWidgetToMove(id);
+        Widget targetWidget = findTargetWidget(id, targetId);
+        Integer zIndexBelowTarget = jdbcTemplate.queryForObject(QUERY_SELECT_Z_INDEX_BELOW, Integer.class, targetWidget.getZIndex());
+        if (zIndexBelowTarget == null) {
+            return moveToZIndex(widget, ZIndexGaps.below(targetWidget.getZIndex()));
+        }
+        if (zIndexBelowTarget.equals(widget.getZIndex())) { // Already right below the target.
+            return widget;
+        }
+        Integer zIndex = ZIndexGaps.between(zIndexBelowTarget, targetWidget.getZIndex());
+        // No gap below the target, so the widget takes target's zIndex & the target is shifted up.
+        return moveToZIndex(widget, zIndex != null ? zIndex : targetWidget.getZIndex());
+    }
+
+    private Widget findWidgetToMove(Long id) {
+        try {
+            return findById(id);
+        } catch (WidgetNotFoundException e) {
+            throw new WidgetNotFoundException("Couldn't find widget to move with id: " + id);
+        }
+    }
+
+    private Widget findTargetWidget(Long id, Long targetId) {
+        if (id.equals(targetId)) {
+            throw new IllegalArgumentException("Widget can't be moved relative to itself.");
+        }
+        try {
+            return findById(targetId);
+        } catch (WidgetNotFoundException e) {
+            throw new WidgetNotFoundException("Couldn't find target widget with id: " + targetId);
+        }
+    }
+
+    /**
+     * Moves the widget with single indexed update when zIndex is free, otherwise shifts the widgets at zIndex.
+     */
+    private Widget moveToZIndex(Widget widget, int zIndex) {
+        if (widget.getZIndex() == zIndex) {
+            return widget;
+        }
+
+        Long version = nextBoardVersion();
+        Optional<Widget> widgetAtZIndex = findByZIndex(zIndex);
+        if (widgetAtZIndex.isPresent()) {
+            shift(zIndex, version);
+        }
+
+        widget.setZIndex(zIndex);
+        widget.setUpdateTime(LocalDateTime.now());
+        widget.setVersion(version);
+        jdbcTemplate.update(QUERY_MOVE_WIDGET, zIndex, Timestamp.valueOf(widget.getUpdateTime()), version, widget.getId());
+        return widget;
+    }
+
+    /**
+     * A run which reaches the largest zIndex is rejected before any widget is shifted.
+     */
+    private void shift(Integer zIndex, Long version) {
         List<Long> widgetIdsToShift = new ArrayList<>();
         boolean widgetExistsAtZIndex = true;
 
@@ -105,36 +675,50 @@ public class H2WidgetRepository implements WidgetRepository {
                 widgetExistsAtZIndex = false;
             } else {
                 widgetIdsToShift.add(optionalWidget.get().getId());
-                zIndex++;
+                zIndex = ZIndexGaps.above(zIndex);
             }
         }
 
-        updateZIndexes(widgetIdsToShift);
+        updateZIndexes(widgetIdsToShift, version);
     }
 
+    private void appendPatchedColumn(StringBuilder query, List<Object> parameters, String column, Integer value) {
+        if (value != null) {
+            query.append(", ").append(column).append("=?");
+            parameters.add(value);
+        }
+    }
+
+    /**
+     * The id is taken from the allocator, so the insert doesn't need to return a generated key.
+     */
     private Widget saveWidget(Widget widget) {
+        widget.setId(idAllocator.nextId());
         widget.setUpdateTime(LocalDateTime.now());
-
-        KeyHolder keyHolder = new GeneratedKeyHolder();
-        jdbcTemplate.update(connection -> {
-            PreparedStatement ps = connection.prepareStatement(QUERY_INSERT_WIDGET, new String[]{"id"});
-            ps.setInt(1, widget.getXIndex());
-            ps.setInt(2, widget.getYIndex());
-            ps.setInt(3, widget.getZIndex());
-            ps.setInt(4, widget.getWidth());
-            ps.setInt(5, widget.getHeight());
-            ps.setTimestamp(6, Timestamp.valueOf(widget.getUpdateTime()));
-            return ps;
-        }, keyHolder);
-
-        if (keyHolder.getKey() != null) {
-            widget.setId(keyHolder.getKey().longValue());
-        }
+        jdbcTemplate.update(QUERY_INSERT_WIDGET_WITH_ID,
+                widget.getId(),
+                widget.getXIndex(),
+                widget.getYIndex(),
+                widget.getZIndex(),
+                widget.getWidth(),
+                widget.getHeight(),
+                Timestamp.valueOf(widget.getUpdateTime()),
+                widget.getVersion());
         return widget;
     }
 
+    /**
+     * Keeps the current position of the widget as a move when it differs from the position of given widget,
+     * so that clients which had it in their coordinates are told that it moved out.
+     */
+    private void recordMove(Widget widget) {
+        jdbcTemplate.update(QUERY_INSERT_MOVE, widget.getVersion(), widget.getId(),
+                widget.getXIndex(), widget.getYIndex(), widget.getWidth(), widget.getHeight());
+    }
+
     private Widget updateWidget(Widget widget) {
         widget.setUpdateTime(LocalDateTime.now());
+        recordMove(widget);
         int updateResult = jdbcTemplate.update(QUERY_UPDATE_WIDGET,
                 widget.getXIndex(),
                 widget.getYIndex(),
@@ -142,6 +726,7 @@ public class H2WidgetRepository implements WidgetRepository {
                 widget.getWidth(),
                 widget.getHeight(),
                 widget.getUpdateTime(),
+                widget.getVersion(),
                 widget.getId());
         if (updateResult != QUERY_RESULT_SUCCESS) {
             throw new WidgetNotFoundException("Couldn't find widget to update with id: " + widget.getId());
@@ -150,11 +735,54 @@ public class H2WidgetRepository implements WidgetRepository {
         return widget;
     }
 
+    /**
+     * Updates the widget on its row without the board lock, the zIndex of the row is kept as it is.
+     * A widget shifted after its zIndex was compared keeps its shifted zIndex, as if it was shifted after the update.
+     */
+    private Widget updateInPlace(Widget widget) {
+        Long version = nextBoardVersion();
+        claimVersion(widget.getId(), widget.getVersion(), version);
+        widget.setZIndex(findById(widget.getId()).getZIndex());
+        widget.setVersion(version);
+        return updateWidget(widget);
+    }
+
+    /**
+     * Expected version is compared & the new one is set in a single statement, which also locks the row until
+     * the end of the transaction, so that no other update can be applied in between.
+     * The new version is set unconditionally when no version is expected.
+     */
+    private void claimVersion(Long id, Long expectedVersion, Long version) {
+        int updateResult = expectedVersion == null
+                ? jdbcTemplate.update(QUERY_STAMP_WIDGET_VERSION, version, id)
+                : jdbcTemplate.update(QUERY_CLAIM_WIDGET_VERSION, version, id, expectedVersion);
+        if (updateResult == QUERY_RESULT_SUCCESS) {
+            return;
+        }
+
+        Long count = jdbcTemplate.queryForObject(QUERY_COUNT_BY_ID, Long.class, id);
+        if (count == null || count == 0) {
+            throw new WidgetNotFoundException("Couldn't find widget to update with id: " + id);
+        }
+        throw new WidgetVersionConflictException(String.format("Widget with id: %d doesn't have the expected version: %d", id, expectedVersion));
+    }
+
     private int getMaxZIndex() {
         Integer maxZIndexValue = jdbcTemplate.queryForObject(QUERY_SELECT_MAX_Z_INDEX, Integer.class);
         return maxZIndexValue != null ? maxZIndexValue : 0;
     }
 
+    /**
+     * Modifications which pick or change zIndexes are serialized by a row lock which is held until they commit, otherwise
+     * two of them could read the same free zIndex or shift the same widgets under read committed isolation.
+     * Modifications which lock many rows take it as well, so that they never wait for each other's rows.
+     * It is taken before any widget row.
+     */
+    private void lockBoard() {
+        jdbcTemplate.query(QUERY_LOCK_BOARD, (RowCallbackHandler) resultSet -> {
+        });
+    }
+
     private Optional<Widget> findByZIndex(Integer zIndex) {
         try {
             return Optional.ofNullable(jdbcTemplate.queryForObject(QUERY_SELECT_BY_Z_INDEX, new BeanPropertyRowMapper<>(Widget.class), zIndex));
@@ -163,10 +791,88 @@ public class H2WidgetRepository implements WidgetRepository {
         }
     }
 
-    private void updateZIndexes(List<Long> widgetIds) {
+    private PlannerStatistics getPlannerStatistics() {
+        PlannerStatistics statistics = plannerStatistics;
+        long now = System.currentTimeMillis();
+        if (statistics == null || now - statistics.getLoadedAtMillis() > PLANNER_STATISTICS_TTL_MILLIS) {
+            statistics = jdbcTemplate.queryForObject(QUERY_SELECT_PLANNER_STATISTICS, (resultSet, rowNum) ->
+                    new PlannerStatistics(resultSet.getLong("count"),
+                            resultSet.getInt("minX"), resultSet.getInt("maxX"),
+                            resultSet.getInt("minY"), resultSet.getInt("maxY"),
+                            now));
+            plannerStatistics = statistics;
+        }
+        return statistics;
+    }
+
+    private static boolean coversExtent(int x, int y, long radius, PlannerStatistics statistics) {
+        return statistics.getCount() == 0
+                || (x - radius <= statistics.getMinX() && x + radius >= statistics.getMaxX()
+                && y - radius <= statistics.getMinY() && y + radius >= statistics.getMaxY());
+    }
+
+    private static int clamp(long coordinate) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, coordinate));
+    }
+
+    /**
+     * @return the ratio of [min, max] range which is covered by [from, to] range
+     */
+    private static double getCoveredRatio(int from, int to, int min, int max) {
+        long covered = (long) Math.min(to, max) - Math.max(from, min) + 1;
+        return covered <= 0 ? 0 : (double) covered / ((long) max - min + 1);
+    }
+
+    /**
+     * @return the parameters of {@link #CONDITION_IN_COORDINATES}
+     */
+    private static Object[] toParameters(RectangleCoordinates coordinates) {
+        return new Object[]{coordinates.getX0(), coordinates.getX1(), coordinates.getY0(), coordinates.getY1(),
+                coordinates.getX0(), coordinates.getX1(), coordinates.getY0(), coordinates.getY1()};
+    }
+
+    /**
+     * The version is registered as running until its transaction completes. Taking & registering it is atomic,
+     * so a version is running before any later version can be taken.
+     */
+    private Long nextBoardVersion() {
+        synchronized (uncommittedVersions) {
+            Long version = jdbcTemplate.queryForObject(QUERY_SELECT_NEXT_BOARD_VERSION, Long.class);
+            if (version != null && TransactionSynchronizationManager.isSynchronizationActive()) {
+                uncommittedVersions.add(version);
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCompletion(int status) {
+                        uncommittedVersions.remove(version);
+                    }
+                });
+            }
+            return version;
+        }
+    }
+
+    /**
+     * The widgets are locked by the caller, they are stamped with the same version in their tombstones.
+     */
+    private int deleteByIds(List<Long> widgetIds) {
+        if (widgetIds.isEmpty()) {
+            return 0;
+        }
+
+        Long version = nextBoardVersion();
+        jdbcTemplate.batchUpdate(QUERY_INSERT_TOMBSTONE, widgetIds, BATCH_SIZE, (ps, id) -> {
+            ps.setObject(1, version);
+            ps.setLong(2, id);
+        });
+        jdbcTemplate.batchUpdate(QUERY_DELETE_WIDGET, widgetIds, BATCH_SIZE, (ps, id) -> ps.setLong(1, id));
+        return widgetIds.size();
+    }
+
+    private void updateZIndexes(List<Long> widgetIds, Long version) {
         jdbcTemplate.batchUpdate(QUERY_UPDATE_Z_INDEXES, new BatchPreparedStatementSetter() {
             public void setValues(PreparedStatement ps, int i) throws SQLException {
-                ps.setLong(1, widgetIds.get(i));
+                ps.setObject(1, version);
+                ps.setLong(2, widgetIds.get(i));
             }
 
             public int getBatchSize() {
@@ -174,4 +880,14 @@ public class H2WidgetRepository implements WidgetRepository {
             }
         });
     }
+
+    @Value
+    static class PlannerStatistics {
+        long count;
+        int minX;
+        int maxX;
+        int minY;
+        int maxY;
+        long loadedAtMillis;
+    }
 }
@@ -1,72 +1,222 @@
 package com.miro.repository.impl;
 
 import com.miro.exception.WidgetNotFoundException;
+import com.miro.exception.WidgetVersionConflictException;
+import com.miro.model.QueryPlan;
 import com.miro.model.RectangleCoordinates;
+import com.miro.model.TileSummary;
 import com.miro.model.Widget;
+import com.miro.model.WidgetChanges;
+import com.miro.model.WidgetOverlap;
+import com.miro.model.WidgetQueryResult;
+import com.miro.model.WidgetStats;
+import com.miro.model.ZIndexCompactionResult;
+import com.miro.model.ZIndexStats;
 import com.miro.repository.WidgetRepository;
-import lombok.RequiredArgsConstructor;
+import com.miro.repository.id.AtomicLongIdBlockSource;
+import com.miro.repository.id.BlockIdAllocator;
+import com.miro.repository.id.WidgetIdAllocator;
+import com.miro.repository.index.OverlapDetector;
+import com.miro.repository.index.TileIndex;
+import com.miro.repository.plan.QueryPlanner;
+import com.miro.repository.snapshot.WidgetSnapshotCodec;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Repository;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
 /**
  * This is the repository implementation to use in-memory ConcurrentHashMap as datasource for operations.
  * Besides the ConcurrentHashMap used to keep the widgets, there is another map(TreeMap) to keep widgetIds by their zIndex.
  * This TreeMap is basically used as an index for zIndex property.
+ * Since TreeMap is not thread-safe, the operations on it are guarded by a read-write lock,
+ * modifications hold the write lock & queries over the zIndex order hold the read lock.
+ * Every modification increases the board version, the changes are kept in a bounded {@link WidgetChangeLog}.
+ * Widget positions are also indexed by a {@link TileIndex} to summarize them for zoomed-out views.
+ * Listing queries scan a {@link ZOrderSnapshot} of the board while it is current, otherwise they walk the zIndex map,
+ * until the walks since the last build have cost as much as a rebuild.
+ * Rectangle queries are planned by {@link QueryPlanner}: small rectangles are probed in the {@link TileIndex} instead.
+ * Ids of new widgets are taken from a {@link WidgetIdAllocator}, by default from per thread blocks of an atomic counter.
  *
  * @author ahmetcetin
  */
 @Repository
 @Profile({"in-memory", "default"})
-@RequiredArgsConstructor
 public class InMemoryRepository implements WidgetRepository {
-    private static volatile Long widgetIdCounter = 0L;
+    private static final int CHANGE_LOG_CAPACITY = 10_000;
+    // Relative costs per widget: a snapshot scan compares primitives, a probe chases map entries & looks up tiles.
+    private static final double SCAN_ROW_COST = 1;
+    private static final double PROBE_ROW_COST = 8;
+    private static final double SORT_ROW_COST = 3;
+    private static final double PROBE_SETUP_COST = 2000;
+    private static final QueryPlanner QUERY_PLANNER =
+            new QueryPlanner(SCAN_ROW_COST, PROBE_ROW_COST, SORT_ROW_COST, PROBE_SETUP_COST);
+    private static final int ID_BLOCK_SIZE = 100;
 
     private final Map<Long, Widget> widgetDB = new ConcurrentHashMap<>();
     private final TreeMap<Integer, Long> zIndexDB = new TreeMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final WidgetChangeLog changeLog = new WidgetChangeLog(CHANGE_LOG_CAPACITY);
+    private final TileIndex tileIndex = new TileIndex(); // Guarded by the lock
+    private final WidgetIdAllocator idAllocator;
+    private long boardVersion = 0; // Guarded by the write lock
+    private volatile ZOrderSnapshot zOrderSnapshot;
+    private final AtomicLong walkedEntryCount = new AtomicLong(); // zIndex map entries walked since the last snapshot build
 
-    private synchronized static Long getNextWidgetId() {
-        return widgetIdCounter++;
+    public InMemoryRepository() {
+        this(new BlockIdAllocator(new AtomicLongIdBlockSource(ID_BLOCK_SIZE)));
+    }
+
+    public InMemoryRepository(WidgetIdAllocator idAllocator) {
+        this.idAllocator = idAllocator;
     }
 
     @Override
-    public Widget save(Widget widget) {         // This is a create operation
-        if (widget.getId() == null) {
-            widget.setId(getNextWidgetId());
-        } else {                                // This is an update operation
-            if (widgetDB.get(widget.getId()) == null) {
-                throw new WidgetNotFoundException("Couldn't find widget to update with id: " + widget.getId());
-            }
-            zIndexDB.remove(widgetDB.get(widget.getId()).getZIndex()); // Delete old z-index reference.
+    public Widget save(Widget widget) {
+        boolean create = widget.getId() == null;
+        if (create) {
+            widget.setId(idAllocator.nextId()); // Ids are allocated without holding the lock.
+        } else {
+            checkVersion(widgetDB.get(widget.getId()), widget.getVersion());
         }
 
-        // This will be applicable to insert only.
-        if (widget.getZIndex() == null) {
-            widget.setZIndex(getMaxZIndex());
+        lock.writeLock().lock();
+        try {
+            if (!create) {                          // This is an update operation
+                Widget currentWidget = widgetDB.get(widget.getId());
+                if (currentWidget == null) {
+                    throw new WidgetNotFoundException("Couldn't find widget to update with id: " + widget.getId());
+                }
+                checkVersion(currentWidget, widget.getVersion());
+                zIndexDB.remove(widgetDB.get(widget.getId()).getZIndex()); // Delete old z-index reference.
+            }
+
+            // This will be applicable to insert only.
+            if (widget.getZIndex() == null) {
+                widget.setZIndex(getMaxZIndex());
+            }
+
+            long version = ++boardVersion;
+            Long widgetIdAtSameZIndex = zIndexDB.get(widget.getZIndex());
+            if (widgetIdAtSameZIndex != null && !widgetIdAtSameZIndex.equals(widget.getId())) {
+                shift(widget, version);
+            }
+            saveWidget(widget, version);
+            return widget;
+        } finally {
+            lock.writeLock().unlock();
         }
+    }
 
-        Long widgetIdAtSameZIndex = zIndexDB.get(widget.getZIndex());
-        if (widgetIdAtSameZIndex != null && !widgetIdAtSameZIndex.equals(widget.getId())) {
-            shift(widget);
+    @Override
+    public Widget patch(Widget widget) {
+        checkVersion(widgetDB.get(widget.getId()), widget.getVersion());
+        lock.writeLock().lock();
+        try {
+            Widget currentWidget = widgetDB.get(widget.getId());
+            if (currentWidget == null) {
+                throw new WidgetNotFoundException("Couldn't find widget to update with id: " + widget.getId());
+            }
+            checkVersion(currentWidget, widget.getVersion());
+
+            // A copy is stored, so that readers never see a partially patched widget.
+            long version = ++boardVersion;
+            Widget patchedWidget = currentWidget.toBuilder().build().applyPatch(widget);
+            patchedWidget.setUpdateTime(LocalDateTime.now());
+            patchedWidget.setVersion(version);
+            if (widget.getZIndex() != null && !widget.getZIndex().equals(currentWidget.getZIndex())) {
+                zIndexDB.remove(currentWidget.getZIndex());
+                if (zIndexDB.containsKey(patchedWidget.getZIndex())) {
+                    shift(patchedWidget, version);
+                }
+                zIndexDB.put(patchedWidget.getZIndex(), patchedWidget.getId());
+            }
+            widgetDB.put(patchedWidget.getId(), patchedWidget);
+            tileIndex.put(patchedWidget);
+            changeLog.recordUpdate(version, patchedWidget.getId(), currentWidget);
+            return patchedWidget;
+        } finally {
+            lock.writeLock().unlock();
         }
-        saveWidget(widget);
-        return widget;
     }
 
     @Override
     public void deleteById(Long id) {
-        if (!widgetDB.containsKey(id)) {
-            throw new WidgetNotFoundException("Couldn't find widget to delete with id: " + id);
+        lock.writeLock().lock();
+        try {
+            if (!widgetDB.containsKey(id)) {
+                throw new WidgetNotFoundException("Couldn't find widget to delete with id: " + id);
+            }
+
+            zIndexDB.remove(widgetDB.get(id).getZIndex()); // Remove first from zIndex map
+            removeWidget(id, ++boardVersion); // Then, remove from widget map
+        } finally {
+            lock.writeLock().unlock();
         }
+    }
 
-        zIndexDB.remove(widgetDB.get(id).getZIndex()); // Remove first from zIndex map
-        widgetDB.remove(id); // Then, remove from widget map
+    /**
+     * Widgets in the rectangle are found by the tile index, only the tiles intersecting with it are visited.
+     */
+    @Override
+    public int deleteInRectangle(RectangleCoordinates coordinates) {
+        lock.writeLock().lock();
+        try {
+            List<Widget> widgets = tileIndex.findWidgetsInRectangle(coordinates);
+            if (widgets.isEmpty()) {
+                return 0;
+            }
+
+            long version = ++boardVersion;
+            for (Widget widget : widgets) {
+                zIndexDB.remove(widget.getZIndex());
+                removeWidget(widget.getId(), version);
+            }
+            return widgets.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The range is removed from zIndex map at once, through its sub map view.
+     */
+    @Override
+    public int deleteInZIndexRange(int fromZIndex, int toZIndex) {
+        lock.writeLock().lock();
+        try {
+            NavigableMap<Integer, Long> zIndexRange = zIndexDB.subMap(fromZIndex, true, toZIndex, true);
+            if (zIndexRange.isEmpty()) {
+                return 0;
+            }
+
+            long version = ++boardVersion;
+            int deletedCount = 0;
+            for (Long id : zIndexRange.values()) {
+                removeWidget(id, version);
+                deletedCount++;
+            }
+            zIndexRange.clear();
+            return deletedCount;
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     @Override
@@ -80,24 +230,376 @@ public class InMemoryRepository implements WidgetRepository {
 
     @Override
     public List<Widget> findWithLimit(Integer limit) {
-        return zIndexDB.values()
-                .stream()
-                .limit(limit)
-                .map(widgetDB::get)
-                .collect(Collectors.toList());
+        lock.readLock().lock();
+        try {
+            ZOrderSnapshot snapshot = findCurrentZOrderSnapshot();
+            if (snapshot != null) {
+                return snapshot.findFirst(limit);
+            }
+
+            List<Widget> widgets = new ArrayList<>(Math.min(Math.max(limit, 0), zIndexDB.size()));
+            for (Long id : zIndexDB.values()) {
+                if (widgets.size() >= limit) {
+                    break;
+                }
+                widgets.add(widgetDB.get(id));
+            }
+            walkedEntryCount.addAndGet(widgets.size());
+            return widgets;
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
+    /**
+     * The snapshot rebuild isn't a part of the scan cost, a stale snapshot is rebuilt only when the walks have paid for it.
+     */
     @Override
-    public List<Widget> findWithCoordinates(RectangleCoordinates coordinates, Integer limit) {
-        return zIndexDB.values()
-                .stream()
-                .map(widgetDB::get)
-                .filter(widget -> isInRectangle(widget, coordinates))
-                .limit(limit)
-                .collect(Collectors.toList());
+    public WidgetQueryResult findWithCoordinates(RectangleCoordinates coordinates, Integer limit) {
+        lock.readLock().lock();
+        try {
+            double estimatedCount = tileIndex.estimateCountInRectangle(coordinates);
+            QueryPlan plan = QUERY_PLANNER.choose(widgetDB.size(), estimatedCount, estimatedCount, limit);
+            return WidgetQueryResult.builder()
+                    .widgets(findWithCoordinates(coordinates, limit, plan))
+                    .plan(plan)
+                    .estimatedCount(Math.round(estimatedCount))
+                    .build();
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
-    private void shift(Widget widget) {
+    /**
+     * Both plans find the same widgets, called under the read lock.
+     */
+    List<Widget> findWithCoordinates(RectangleCoordinates coordinates, int limit, QueryPlan plan) {
+        if (plan == QueryPlan.Z_ORDER_SCAN) {
+            ZOrderSnapshot snapshot = findCurrentZOrderSnapshot();
+            return snapshot != null ? snapshot.findInRectangle(coordinates, limit) : walkInRectangle(coordinates, limit);
+        }
+
+        List<Widget> foundWidgets = tileIndex.findWidgetsInRectangle(coordinates);
+        foundWidgets.sort(Comparator.comparingInt(Widget::getZIndex));
+        return foundWidgets.size() > limit ? foundWidgets.subList(0, Math.max(limit, 0)) : foundWidgets;
+    }
+
+    @Override
+    public List<Widget> findNearest(int x, int y, int k) {
+        lock.readLock().lock();
+        try {
+            return tileIndex.findNearest(x, y, k);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Widget bounds are copied under the read lock, the sweep runs without holding it.
+     */
+    @Override
+    public void findOverlaps(Consumer<WidgetOverlap> consumer) {
+        OverlapDetector overlapDetector;
+        lock.readLock().lock();
+        try {
+            overlapDetector = new OverlapDetector(widgetDB.values());
+        } finally {
+            lock.readLock().unlock();
+        }
+        overlapDetector.findOverlaps(consumer);
+    }
+
+    @Override
+    public List<Widget> findOverlapping(Long id) {
+        lock.readLock().lock();
+        try {
+            List<Widget> overlappingWidgets = tileIndex.findOverlapping(findById(id));
+            overlappingWidgets.sort(Comparator.comparingInt(Widget::getZIndex));
+            return overlappingWidgets;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<TileSummary> findTiles(RectangleCoordinates coordinates, int level) {
+        lock.readLock().lock();
+        try {
+            return tileIndex.findTiles(coordinates, level);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public WidgetStats getStats(RectangleCoordinates coordinates) {
+        lock.readLock().lock();
+        try {
+            return tileIndex.getStats(coordinates).toBuilder()
+                    .minZIndex(zIndexDB.isEmpty() ? null : zIndexDB.firstKey())
+                    .maxZIndex(zIndexDB.isEmpty() ? null : zIndexDB.lastKey())
+                    .build();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public WidgetChanges findChangesSince(long version, RectangleCoordinates coordinates) {
+        lock.readLock().lock();
+        try {
+            return changeLog.findChangesSince(version, boardVersion, coordinates, widgetDB::get);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void exportSnapshot(OutputStream outputStream) {
+        List<Widget> widgets;
+        lock.readLock().lock();
+        try {
+            widgets = new ArrayList<>(zIndexDB.size());
+            zIndexDB.values().forEach(id -> widgets.add(widgetDB.get(id)));
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        try {
+            WidgetSnapshotCodec.write(outputStream, widgets);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't write widget snapshot.", e);
+        }
+    }
+
+    @Override
+    public int importSnapshot(InputStream inputStream) {
+        List<Widget> widgets;
+        try {
+            widgets = WidgetSnapshotCodec.read(inputStream);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't read widget snapshot.", e);
+        }
+
+        // Records are sorted by zIndex, so both maps are filled in a single pass without any shifting.
+        List<Integer> zIndexes = new ArrayList<>(widgets.size());
+        List<Long> widgetIds = new ArrayList<>(widgets.size());
+        Map<Long, Widget> importedWidgets = new HashMap<>(widgets.size() * 2);
+        long maxWidgetId = -1;
+        for (Widget widget : widgets) {
+            importedWidgets.put(widget.getId(), widget);
+            zIndexes.add(widget.getZIndex());
+            widgetIds.add(widget.getId());
+            maxWidgetId = Math.max(maxWidgetId, widget.getId());
+        }
+
+        lock.writeLock().lock();
+        try {
+            long version = ++boardVersion;
+            importedWidgets.values().forEach(widget -> widget.setVersion(version));
+            clearMaps();
+            widgetDB.putAll(importedWidgets);
+            importedWidgets.values().forEach(tileIndex::put);
+            zIndexDB.putAll(new SortedEntryView<>(zIndexes, widgetIds)); // Linear time tree build
+            idAllocator.reserveUpTo(maxWidgetId);
+            changeLog.reset(version); // Clients need to fetch the imported board again.
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return widgets.size();
+    }
+
+    @Override
+    public ZIndexStats getZIndexStats() {
+        lock.readLock().lock();
+        try {
+            return calculateZIndexStats();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public ZIndexCompactionResult compactZIndexes(int spacing) {
+        long startTime = System.currentTimeMillis();
+
+        // The new zIndex map is prepared while holding only the read lock, so readers can still continue.
+        ZIndexStats before;
+        long expectedBoardVersion;
+        List<Long> widgetIds;
+        lock.readLock().lock();
+        try {
+            before = calculateZIndexStats();
+            expectedBoardVersion = boardVersion;
+            widgetIds = new ArrayList<>(zIndexDB.values());
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (spacing > before.getMaxCompactionSpacing()) { // The last zIndex would overflow.
+            throw new IllegalArgumentException(String.format("zIndex compaction spacing: %d is too large for %d widgets, it can be at most %d.",
+                    spacing, before.getCount(), before.getMaxCompactionSpacing()));
+        }
+        List<Integer> zIndexes = new ArrayList<>(widgetIds.size());
+        for (int i = 0; i < widgetIds.size(); i++) {
+            zIndexes.add(Math.toIntExact((long) i * spacing));
+        }
+
+        // Writers are blocked only while the prepared zIndexes are applied.
+        lock.writeLock().lock();
+        try {
+            if (expectedBoardVersion != boardVersion) { // Widgets changed in between, try again later.
+                return buildCompactionResult(false, before, before, startTime);
+            }
+            long version = ++boardVersion;
+            for (int i = 0; i < widgetIds.size(); i++) {
+                Widget previousWidget = widgetDB.get(widgetIds.get(i));
+                Widget widget = previousWidget.toBuilder().build();
+                widget.setZIndex(zIndexes.get(i));
+                widget.setVersion(version);
+                widgetDB.put(widget.getId(), widget);
+                tileIndex.put(widget);
+                changeLog.recordUpdate(version, widget.getId(), previousWidget);
+            }
+            zIndexDB.clear();
+            zIndexDB.putAll(new SortedEntryView<>(zIndexes, widgetIds));
+            return buildCompactionResult(true, before, calculateZIndexStats(), startTime);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Widget bringToFront(Long id) {
+        lock.writeLock().lock();
+        try {
+            Widget widget = findWidgetToMove(id);
+            return widget.getZIndex().equals(zIndexDB.lastKey()) ? widget : moveToZIndex(widget, ZIndexGaps.above(zIndexDB.lastKey()));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Widget sendToBack(Long id) {
+        lock.writeLock().lock();
+        try {
+            Widget widget = findWidgetToMove(id);
+            return widget.getZIndex().equals(zIndexDB.firstKey()) ? widget : moveToZIndex(widget, ZIndexGaps.below(zIndexDB.firstKey()));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Widget moveAbove(Long id, Long targetId) {
+        lock.writeLock().lock();
+        try {
+            Widget widget = findWidgetToMove(id);
+            Widget targetWidget = findTargetWidget(id, targetId);
+            Integer zIndexAboveTarget = zIndexDB.higherKey(targetWidget.getZIndex());
+            if (zIndexAboveTarget == null) {
+                return moveToZIndex(widget, ZIndexGaps.above(targetWidget.getZIndex()));
+            }
+            if (zIndexAboveTarget.equals(widget.getZIndex())) { // Already right above the target.
+                return widget;
+            }
+            Integer zIndex = ZIndexGaps.between(targetWidget.getZIndex(), zIndexAboveTarget);
+            // No gap above the target, so the widgets right above it are shifted up.
+            return moveToZIndex(widget, zIndex != null ? zIndex : zIndexAboveTarget);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Widget moveBelow(Long id, Long targetId) {
+        lock.writeLock().lock();
+        try {
+            Widget widget = findWidgetToMove(id);
+            Widget targetWidget = findTargetWidget(id, targetId);
+            Integer zIndexBelowTarget = zIndexDB.lowerKey(targetWidget.getZIndex());
+            if (zIndexBelowTarget == null) {
+                return moveToZIndex(widget, ZIndexGaps.below(targetWidget.getZIndex()));
+            }
+            if (zIndexBelowTarget.equals(widget.getZIndex())) { // Already right below the target.
+                return widget;
+            }
+            Integer zIndex = ZIndexGaps.between(zIndexBelowTarget, targetWidget.getZIndex());
+            // No gap below the target, so the widget takes target's zIndex & the target is shifted up.
+            return moveToZIndex(widget, zIndex != null ? zIndex : targetWidget.getZIndex());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Versions are compared on the widget itself before the write lock is taken, so that a stale update is rejected
+     * without waiting for the writers of other widgets. They are compared again under the write lock, which guards
+     * the zIndex map & the tile index, so no other update can be applied between the check & the update.
+     * A missing widget is left to the caller.
+     */
+    private static void checkVersion(Widget currentWidget, Long expectedVersion) {
+        if (currentWidget != null && expectedVersion != null && !expectedVersion.equals(currentWidget.getVersion())) {
+            throw new WidgetVersionConflictException(String.format("Widget with id: %d has version %d, expected: %d",
+                    currentWidget.getId(), currentWidget.getVersion(), expectedVersion));
+        }
+    }
+
+    private Widget findWidgetToMove(Long id) {
+        Widget widget = widgetDB.get(id);
+        if (widget == null) {
+            throw new WidgetNotFoundException("Couldn't find widget to move with id: " + id);
+        }
+        return widget;
+    }
+
+    private Widget findTargetWidget(Long id, Long targetId) {
+        if (id.equals(targetId)) {
+            throw new IllegalArgumentException("Widget can't be moved relative to itself.");
+        }
+        Widget targetWidget = widgetDB.get(targetId);
+        if (targetWidget == null) {
+            throw new WidgetNotFoundException("Couldn't find target widget with id: " + targetId);
+        }
+        return targetWidget;
+    }
+
+    /**
+     * Moves the widget with O(log N) index operations when zIndex is free, otherwise shifts the widgets at zIndex.
+     * Like the shifted widgets, the moved widget is stored as a copy, since readers may still hold the current one.
+     */
+    private Widget moveToZIndex(Widget widget, int zIndex) {
+        if (widget.getZIndex() == zIndex) {
+            return widget;
+        }
+        if (zIndexDB.containsKey(zIndex)) {
+            checkShiftFits(zIndex, widget.getZIndex());
+        }
+
+        long version = ++boardVersion;
+        zIndexDB.remove(widget.getZIndex());
+        Widget movedWidget = widget.toBuilder().zIndex(zIndex).build();
+        if (zIndexDB.containsKey(zIndex)) {
+            shift(movedWidget, version);
+        }
+        saveWidget(movedWidget, version);
+        return movedWidget;
+    }
+
+    /**
+     * Checks before anything is changed that the widgets from zIndex up to the first free zIndex can be shifted up by one,
+     * the zIndex of the moved widget is freed by the move. Only a board which reaches the largest zIndex is walked.
+     */
+    private void checkShiftFits(int zIndex, int freedZIndex) {
+        if (zIndexDB.lastKey() < Integer.MAX_VALUE) {
+            return;
+        }
+        for (int i = zIndex; i != freedZIndex && zIndexDB.containsKey(i); i++) {
+            ZIndexGaps.above(i);
+        }
+    }
+
+    private void shift(Widget widget, long version) {
         Integer endIndex = widget.getZIndex();
         for (int i = endIndex; i < zIndexDB.lastKey(); i++) {
             if (zIndexDB.containsKey(endIndex + 1)) {
@@ -112,35 +614,157 @@ public class InMemoryRepository implements WidgetRepository {
         for (int i = finalEndIndex; i >= widget.getZIndex(); i--) {
             Integer newIndex = i + 1;
 
-            Widget widgetToUpdate = widgetDB.get(zIndexDB.get(i));
+            // Shifted widgets are copied, so that concurrent scans never see a zIndex changing under them.
+            Widget previousWidget = widgetDB.get(zIndexDB.get(i));
+            Widget widgetToUpdate = previousWidget.toBuilder().build();
             widgetToUpdate.setZIndex(newIndex);
+            widgetToUpdate.setVersion(version);
             widgetDB.put(widgetToUpdate.getId(), widgetToUpdate);
+            tileIndex.put(widgetToUpdate);
             zIndexDB.put(newIndex, zIndexDB.get(i));
+            changeLog.recordUpdate(version, widgetToUpdate.getId(), previousWidget);
         }
     }
 
-    private void saveWidget(Widget widget) {
+    /**
+     * Removes the widget from all maps & indexes except the zIndex map, which is maintained by the caller.
+     */
+    private void removeWidget(Long id, long version) {
+        Widget deletedWidget = widgetDB.remove(id);
+        tileIndex.remove(id);
+        changeLog.recordDeletion(version, deletedWidget);
+    }
+
+    private void saveWidget(Widget widget, long version) {
         widget.setUpdateTime(LocalDateTime.now());
-        widgetDB.put(widget.getId(), widget);
+        widget.setVersion(version);
+        Widget previousWidget = widgetDB.put(widget.getId(), widget);
         zIndexDB.put(widget.getZIndex(), widget.getId());
+        tileIndex.put(widget);
+        changeLog.recordUpdate(version, widget.getId(), previousWidget);
+    }
+
+    /**
+     * A stale snapshot is rebuilt only after reads have walked as many zIndex map entries as the rebuild would copy,
+     * so that reads between frequent modifications cost O(limit) instead of a rebuild each, and frequent reads
+     * still get a snapshot. Called under the read lock, concurrent readers may build the same snapshot,
+     * then the last one is kept.
+     *
+     * @return the snapshot of the current board version, or null when the caller should walk the zIndex map
+     */
+    private ZOrderSnapshot findCurrentZOrderSnapshot() {
+        ZOrderSnapshot snapshot = zOrderSnapshot;
+        if (snapshot != null && snapshot.getVersion() == boardVersion) {
+            return snapshot;
+        }
+        if (walkedEntryCount.get() < zIndexDB.size()) {
+            return null;
+        }
+
+        walkedEntryCount.set(0);
+        snapshot = ZOrderSnapshot.build(boardVersion, zIndexDB.values(), widgetDB);
+        zOrderSnapshot = snapshot;
+        return snapshot;
+    }
+
+    /**
+     * Walks the zIndex map until the limit is reached, called under the read lock when the snapshot is stale.
+     */
+    private List<Widget> walkInRectangle(RectangleCoordinates coordinates, int limit) {
+        List<Widget> widgets = new ArrayList<>();
+        int walkedCount = 0;
+        for (Long id : zIndexDB.values()) {
+            if (widgets.size() >= limit) {
+                break;
+            }
+            walkedCount++;
+            Widget widget = widgetDB.get(id);
+            if (coordinates.contains(widget)) {
+                widgets.add(widget);
+            }
+        }
+        walkedEntryCount.addAndGet(walkedCount);
+        return widgets;
     }
 
     private Integer getMaxZIndex() {
         return zIndexDB.isEmpty() ? 0 : zIndexDB.lastKey() + 1;
     }
 
-    private boolean isInRectangle(Widget widget, RectangleCoordinates coordinates) {
-        double halfWidth = (double) widget.getWidth() / 2;
-        double halfHeight = (double) widget.getHeight() / 2;
+    private ZIndexStats calculateZIndexStats() {
+        long adjacentCount = 0;
+        Integer previousZIndex = null;
+        for (Integer zIndex : zIndexDB.keySet()) {
+            if (previousZIndex != null && zIndex == previousZIndex + 1) {
+                adjacentCount++;
+            }
+            previousZIndex = zIndex;
+        }
+
+        return ZIndexStats.builder()
+                .count(zIndexDB.size())
+                .minZIndex(zIndexDB.isEmpty() ? null : zIndexDB.firstKey())
+                .maxZIndex(zIndexDB.isEmpty() ? null : zIndexDB.lastKey())
+                .adjacentCount(adjacentCount)
+                .build();
+    }
+
+    private ZIndexCompactionResult buildCompactionResult(boolean applied, ZIndexStats before, ZIndexStats after, long startTime) {
+        return ZIndexCompactionResult.builder()
+                .applied(applied)
+                .before(before)
+                .after(after)
+                .finishTime(LocalDateTime.now())
+                .durationMillis(System.currentTimeMillis() - startTime)
+                .build();
+    }
 
-        return widget.getXIndex() - halfWidth >= coordinates.getX0()
-                && widget.getXIndex() + halfWidth <= coordinates.getX1()
-                && widget.getYIndex() - halfHeight >= coordinates.getY0()
-                && widget.getYIndex() + halfHeight <= coordinates.getY1();
+    /**
+     * Applies the changes shipped by a primary as they are, keeping their versions, a full sync replaces the board.
+     * Widgets of a frame may already be shifted by a newer version on the primary, so a zIndex is released only
+     * by the widget holding it, and the zIndex map converges with the next changes.
+     */
+    void applyReplicatedChanges(WidgetChanges changes) {
+        lock.writeLock().lock();
+        try {
+            long version = changes.getVersion();
+            if (changes.isFullSyncRequired()) {
+                clearMaps();
+            }
+            for (Long id : changes.getDeleted()) {
+                Widget widget = widgetDB.get(id);
+                if (widget != null) {
+                    zIndexDB.remove(widget.getZIndex(), id);
+                    removeWidget(id, version);
+                }
+            }
+            for (Widget widget : changes.getUpdated()) {
+                Widget currentWidget = widgetDB.get(widget.getId());
+                if (currentWidget != null) {
+                    zIndexDB.remove(currentWidget.getZIndex(), widget.getId());
+                }
+            }
+            for (Widget widget : changes.getUpdated()) {
+                Widget previousWidget = widgetDB.put(widget.getId(), widget);
+                zIndexDB.put(widget.getZIndex(), widget.getId());
+                tileIndex.put(widget);
+                changeLog.recordUpdate(version, widget.getId(), previousWidget);
+            }
+            boardVersion = version;
+            if (changes.isFullSyncRequired()) {
+                changeLog.reset(version); // Clients need to fetch the replicated board again.
+            }
+            zOrderSnapshot = null; // The version of a full sync may be the one of the current snapshot.
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     void clearMaps() {
         widgetDB.clear();
         zIndexDB.clear();
+        tileIndex.clear();
+        changeLog.reset(boardVersion);
+        zOrderSnapshot = null;
     }
 }
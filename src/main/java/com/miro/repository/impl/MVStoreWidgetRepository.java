@@ -0,0 +1,914 @@
+package com.miro.repository.impl;
+
+import com.miro.exception.WidgetNotFoundException;
+import com.miro.exception.WidgetVersionConflictException;
+import com.miro.model.QueryPlan;
+import com.miro.model.RectangleCoordinates;
+import com.miro.model.TileSummary;
+import com.miro.model.Widget;
+import com.miro.model.WidgetChanges;
+import com.miro.model.WidgetOverlap;
+import com.miro.model.WidgetQueryResult;
+import com.miro.model.WidgetStats;
+import com.miro.model.ZIndexCompactionResult;
+import com.miro.model.ZIndexStats;
+import com.miro.repository.WidgetRepository;
+import com.miro.repository.index.OverlapDetector;
+import com.miro.repository.index.TileIndex;
+import com.miro.repository.plan.QueryPlanner;
+import com.miro.repository.snapshot.WidgetSnapshotCodec;
+import lombok.extern.slf4j.Slf4j;
+import org.h2.mvstore.Cursor;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.h2.mvstore.Page;
+import org.h2.mvstore.rtree.MVRTreeMap;
+import org.h2.mvstore.rtree.SpatialKey;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * This is the repository implementation to use H2's embedded MVStore directly, without SQL & JDBC.
+ * Widgets are kept in three maps of one store: widgets by id, widget ids by zIndex, and an R-tree of widget bounds.
+ * Modifications are applied to the maps under a write lock, after checking everything they need,
+ * so a rejected modification leaves the maps as they are. Queries hold the read lock to see the maps of the same version,
+ * the board version & the next widget id are kept with them in a fourth map.
+ * Store versions are committed to the file while holding the read lock, so the file never has a half applied modification.
+ * The store never commits on its own, neither periodically nor when its write buffer fills up during a large modification.
+ * By default the pending modifications are committed every {@code widget.mvstore.commit-interval-ms}, so a crash loses
+ * at most the modifications of that interval, with {@code widget.mvstore.commit-on-write} every modification is committed
+ * before it returns.
+ * Changes are kept in a {@link WidgetChangeLog} like in {@link InMemoryRepository}, they aren't persisted,
+ * so clients need a full sync after a restart.
+ * The store is kept in memory when no file name is given.
+ *
+ * @author ahmetcetin
+ */
+@Slf4j
+@Repository
+@Profile("mvstore")
+public class MVStoreWidgetRepository implements WidgetRepository {
+    private static final int CHANGE_LOG_CAPACITY = 10_000;
+    private static final String BOARD_VERSION_KEY = "boardVersion";
+    private static final String NEXT_WIDGET_ID_KEY = "nextWidgetId";
+    // Relative costs per widget: both plans look a widget up by id & decode it, a probe sorts its matches as well.
+    private static final double SCAN_ROW_COST = 1;
+    private static final double PROBE_ROW_COST = 1.5;
+    private static final double SORT_ROW_COST = 0.5;
+    private static final double PROBE_SETUP_COST = 20;
+    private static final QueryPlanner QUERY_PLANNER =
+            new QueryPlanner(SCAN_ROW_COST, PROBE_ROW_COST, SORT_ROW_COST, PROBE_SETUP_COST);
+
+    private final MVStore store;
+    private final MVMap<Long, Widget> widgetMap;
+    private final MVMap<Integer, Long> zIndexMap;
+    private final MVRTreeMap<Long> positionMap;
+    private final MVMap<String, Long> metaMap;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final WidgetChangeLog changeLog = new WidgetChangeLog(CHANGE_LOG_CAPACITY);
+    private final boolean commitOnWrite;
+    private long boardVersion; // Guarded by the write lock
+    private long nextWidgetId; // Guarded by the write lock
+
+    /**
+     * @param fileName      of the store, it is kept in memory when the file name is empty
+     * @param commitOnWrite whether every modification is committed before it returns, instead of periodically
+     */
+    public MVStoreWidgetRepository(@Value("${widget.mvstore.file-name:}") String fileName,
+                                   @Value("${widget.mvstore.commit-on-write:false}") boolean commitOnWrite) {
+        this.commitOnWrite = commitOnWrite;
+        MVStore.Builder builder = new MVStore.Builder().autoCommitDisabled().autoCommitBufferSize(0);
+        if (fileName != null && !fileName.isEmpty()) {
+            builder.fileName(fileName);
+        }
+        store = builder.open();
+        widgetMap = store.openMap("widgets", new MVMap.Builder<Long, Widget>().valueType(WidgetDataType.INSTANCE));
+        zIndexMap = store.openMap("zIndexes");
+        positionMap = store.openMap("positions", new MVRTreeMap.Builder<Long>().dimensions(2));
+        metaMap = store.openMap("meta");
+        boardVersion = metaMap.getOrDefault(BOARD_VERSION_KEY, 0L);
+        nextWidgetId = metaMap.getOrDefault(NEXT_WIDGET_ID_KEY, 0L);
+        changeLog.reset(boardVersion);
+        log.info("Opened widget store {} with {} widgets at board version {}",
+                store.getFileStore() == null ? "in memory" : fileName, widgetMap.sizeAsLong(), boardVersion);
+    }
+
+    /**
+     * Commits the modifications applied since the last commit as one store version. Writers are blocked meanwhile,
+     * readers aren't.
+     */
+    @Scheduled(initialDelayString = "${widget.mvstore.commit-interval-ms:100}", fixedDelayString = "${widget.mvstore.commit-interval-ms:100}")
+    public void commitPendingChanges() {
+        lock.readLock().lock();
+        try {
+            if (!store.isClosed() && store.hasUnsavedChanges()) {
+                store.commit();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            store.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Closes the store without committing the pending modifications, like the process crashed.
+     */
+    void closeWithoutCommit() {
+        store.closeImmediately();
+    }
+
+    @Override
+    public Widget save(Widget widget) {
+        return modify(() -> {
+            Widget currentWidget = null;
+            if (widget.getId() == null) {           // This is a create operation
+                widget.setId(nextWidgetId++);
+            } else {                                // This is an update operation
+                currentWidget = widgetMap.get(widget.getId());
+                if (currentWidget == null) {
+                    throw new WidgetNotFoundException("Couldn't find widget to update with id: " + widget.getId());
+                }
+                checkVersion(currentWidget, widget.getVersion());
+                zIndexMap.remove(currentWidget.getZIndex()); // Delete old z-index reference.
+            }
+
+            // This will be applicable to insert only.
+            if (widget.getZIndex() == null) {
+                widget.setZIndex(getMaxZIndex());
+            }
+
+            long version = ++boardVersion;
+            Long widgetIdAtSameZIndex = zIndexMap.get(widget.getZIndex());
+            if (widgetIdAtSameZIndex != null && !widgetIdAtSameZIndex.equals(widget.getId())) {
+                shift(widget.getZIndex(), version);
+            }
+            zIndexMap.put(widget.getZIndex(), widget.getId());
+            storeWidget(widget, currentWidget, version);
+            return widget;
+        });
+    }
+
+    @Override
+    public Widget patch(Widget widget) {
+        return modify(() -> {
+            Widget currentWidget = widgetMap.get(widget.getId());
+            if (currentWidget == null) {
+                throw new WidgetNotFoundException("Couldn't find widget to update with id: " + widget.getId());
+            }
+            checkVersion(currentWidget, widget.getVersion());
+
+            long version = ++boardVersion;
+            Widget patchedWidget = currentWidget.toBuilder().build().applyPatch(widget);
+            if (!patchedWidget.getZIndex().equals(currentWidget.getZIndex())) {
+                zIndexMap.remove(currentWidget.getZIndex());
+                if (zIndexMap.containsKey(patchedWidget.getZIndex())) {
+                    shift(patchedWidget.getZIndex(), version);
+                }
+                zIndexMap.put(patchedWidget.getZIndex(), patchedWidget.getId());
+            }
+            storeWidget(patchedWidget, currentWidget, version);
+            return patchedWidget;
+        });
+    }
+
+    @Override
+    public void deleteById(Long id) {
+        modify(() -> {
+            Widget widget = widgetMap.get(id);
+            if (widget == null) {
+                throw new WidgetNotFoundException("Couldn't find widget to delete with id: " + id);
+            }
+
+            zIndexMap.remove(widget.getZIndex());
+            removeWidget(widget, ++boardVersion);
+            return null;
+        });
+    }
+
+    /**
+     * Widgets in the rectangle are found by the R-tree.
+     */
+    @Override
+    public int deleteInRectangle(RectangleCoordinates coordinates) {
+        return modify(() -> {
+            List<Widget> widgets = findWidgetsInRectangle(coordinates);
+            if (widgets.isEmpty()) {
+                return 0;
+            }
+
+            long version = ++boardVersion;
+            for (Widget widget : widgets) {
+                zIndexMap.remove(widget.getZIndex());
+                removeWidget(widget, version);
+            }
+            return widgets.size();
+        });
+    }
+
+    @Override
+    public int deleteInZIndexRange(int fromZIndex, int toZIndex) {
+        return modify(() -> {
+            List<Long> widgetIds = new ArrayList<>();
+            Cursor<Integer, Long> cursor = zIndexMap.cursor(fromZIndex);
+            while (cursor.hasNext() && cursor.next() <= toZIndex) {
+                widgetIds.add(cursor.getValue());
+            }
+            if (widgetIds.isEmpty()) {
+                return 0;
+            }
+
+            long version = ++boardVersion;
+            for (Long id : widgetIds) {
+                Widget widget = widgetMap.get(id);
+                zIndexMap.remove(widget.getZIndex());
+                removeWidget(widget, version);
+            }
+            return widgetIds.size();
+        });
+    }
+
+    @Override
+    public Widget findById(Long id) {
+        Widget widget = widgetMap.get(id);
+        if (widget == null) {
+            throw new WidgetNotFoundException("Couldn't find widget by id: " + id);
+        }
+        return widget;
+    }
+
+    @Override
+    public List<Widget> findWithLimit(Integer limit) {
+        lock.readLock().lock();
+        try {
+            List<Widget> widgets = new ArrayList<>(Math.min(limit, (int) widgetMap.sizeAsLong()));
+            Cursor<Integer, Long> cursor = zIndexMap.cursor(null);
+            while (widgets.size() < limit && cursor.hasNext()) {
+                cursor.next();
+                widgets.add(widgetMap.get(cursor.getValue()));
+            }
+            return widgets;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The estimate assumes that widgets are spread evenly over the bounds of the R-tree root.
+     */
+    @Override
+    public WidgetQueryResult findWithCoordinates(RectangleCoordinates coordinates, Integer limit) {
+        lock.readLock().lock();
+        try {
+            long totalCount = widgetMap.sizeAsLong();
+            double estimatedCount = 0;
+            long[] extent = getExtent();
+            if (extent != null) {
+                estimatedCount = totalCount
+                        * getCoveredRatio(coordinates.getX0(), coordinates.getX1(), extent[0], extent[1])
+                        * getCoveredRatio(coordinates.getY0(), coordinates.getY1(), extent[2], extent[3]);
+            }
+            QueryPlan plan = QUERY_PLANNER.choose(totalCount, estimatedCount, estimatedCount, limit);
+            return WidgetQueryResult.builder()
+                    .widgets(findWithCoordinates(coordinates, limit, plan))
+                    .plan(plan)
+                    .estimatedCount(Math.round(estimatedCount))
+                    .build();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Both plans find the same widgets, called under the read lock.
+     */
+    List<Widget> findWithCoordinates(RectangleCoordinates coordinates, int limit, QueryPlan plan) {
+        if (plan == QueryPlan.Z_ORDER_SCAN) {
+            List<Widget> foundWidgets = new ArrayList<>();
+            Cursor<Integer, Long> cursor = zIndexMap.cursor(null);
+            while (foundWidgets.size() < limit && cursor.hasNext()) {
+                cursor.next();
+                Widget widget = widgetMap.get(cursor.getValue());
+                if (coordinates.contains(widget)) {
+                    foundWidgets.add(widget);
+                }
+            }
+            return foundWidgets;
+        }
+
+        List<Widget> foundWidgets = findWidgetsInRectangle(coordinates);
+        foundWidgets.sort(Comparator.comparingInt(Widget::getZIndex));
+        return foundWidgets.size() > limit ? foundWidgets.subList(0, Math.max(limit, 0)) : foundWidgets;
+    }
+
+    /**
+     * Expanding window search on the R-tree, like in {@link H2WidgetRepository#findNearest(int, int, int)}.
+     * The window starts from the radius expected to have k widgets over the bounds of the R-tree root.
+     */
+    @Override
+    public List<Widget> findNearest(int x, int y, int k) {
+        lock.readLock().lock();
+        try {
+            long[] extent = getExtent();
+            if (extent == null) {
+                return Collections.emptyList();
+            }
+            long extentArea = (extent[1] - extent[0] + 1) * (extent[3] - extent[2] + 1);
+            long radius = (long) Math.ceil(Math.sqrt((double) k * extentArea / widgetMap.sizeAsLong() / Math.PI));
+            radius = Math.max(radius, 1);
+
+            while (x - radius > extent[0] || x + radius < extent[1] || y - radius > extent[2] || y + radius < extent[3]) {
+                List<Widget> widgets = findCenteredInWindow(x - radius, x + radius, y - radius, y + radius);
+                if (widgets.size() < k) {
+                    radius *= 2;
+                    continue;
+                }
+
+                sortByDistance(widgets, x, y);
+                long kthDistanceSquared = TileIndex.getDistanceSquared(widgets.get(k - 1), x, y);
+                if (kthDistanceSquared <= (double) radius * radius) {
+                    return new ArrayList<>(widgets.subList(0, k));
+                }
+                radius = (long) Math.ceil(Math.sqrt(kthDistanceSquared));
+            }
+
+            List<Widget> widgets = new ArrayList<>(widgetMap.values());
+            sortByDistance(widgets, x, y);
+            return widgets.size() > k ? new ArrayList<>(widgets.subList(0, k)) : widgets;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Widgets are copied under the read lock, the sweep runs without holding it.
+     */
+    @Override
+    public void findOverlaps(Consumer<WidgetOverlap> consumer) {
+        OverlapDetector overlapDetector;
+        lock.readLock().lock();
+        try {
+            overlapDetector = new OverlapDetector(widgetMap.values());
+        } finally {
+            lock.readLock().unlock();
+        }
+        overlapDetector.findOverlaps(consumer);
+    }
+
+    @Override
+    public List<Widget> findOverlapping(Long id) {
+        lock.readLock().lock();
+        try {
+            Widget widget = findById(id);
+            List<Widget> overlappingWidgets = new ArrayList<>();
+            Iterator<SpatialKey> keys = positionMap.findIntersectingKeys(toSpatialKey(widget));
+            while (keys.hasNext()) {
+                Widget otherWidget = widgetMap.get(keys.next().getId());
+                if (!otherWidget.getId().equals(id) && OverlapDetector.overlaps(widget, otherWidget)) {
+                    overlappingWidgets.add(otherWidget);
+                }
+            }
+            overlappingWidgets.sort(Comparator.comparingInt(Widget::getZIndex));
+            return overlappingWidgets;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Widgets centered in the tiles are found by the R-tree & aggregated per tile.
+     */
+    @Override
+    public List<TileSummary> findTiles(RectangleCoordinates coordinates, int level) {
+        int tileSize = TileIndex.getTileSize(level);
+        long minX = (long) TileIndex.toTileCoordinate(coordinates.getX0(), level) * tileSize;
+        long maxX = ((long) TileIndex.toTileCoordinate(coordinates.getX1(), level) + 1) * tileSize - 1;
+        long minY = (long) TileIndex.toTileCoordinate(coordinates.getY0(), level) * tileSize;
+        long maxY = ((long) TileIndex.toTileCoordinate(coordinates.getY1(), level) + 1) * tileSize - 1;
+
+        Map<Long, TileSummary> tiles = new HashMap<>();
+        Map<Long, Integer> topZIndexes = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            for (Widget widget : findCenteredInWindow(minX, maxX, minY, maxY)) {
+                int tileX = TileIndex.toTileCoordinate(widget.getXIndex(), level);
+                int tileY = TileIndex.toTileCoordinate(widget.getYIndex(), level);
+                long key = ((long) tileX << 32) | (tileY & 0xFFFFFFFFL);
+                TileSummary tile = tiles.computeIfAbsent(key, tileKey -> TileSummary.builder()
+                        .level(level).tileX(tileX).tileY(tileY).tileSize(tileSize)
+                        .minX(Integer.MAX_VALUE).minY(Integer.MAX_VALUE).maxX(Integer.MIN_VALUE).maxY(Integer.MIN_VALUE)
+                        .build());
+                tile.setCount(tile.getCount() + 1);
+                tile.setMinX(Math.min(tile.getMinX(), widget.getXIndex() - (widget.getWidth() + 1) / 2));
+                tile.setMinY(Math.min(tile.getMinY(), widget.getYIndex() - (widget.getHeight() + 1) / 2));
+                tile.setMaxX(Math.max(tile.getMaxX(), widget.getXIndex() + (widget.getWidth() + 1) / 2));
+                tile.setMaxY(Math.max(tile.getMaxY(), widget.getYIndex() + (widget.getHeight() + 1) / 2));
+                Integer topZIndex = topZIndexes.get(key);
+                if (topZIndex == null || widget.getZIndex() > topZIndex) {
+                    topZIndexes.put(key, widget.getZIndex());
+                    tile.setTopWidgetId(widget.getId());
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<TileSummary> tileSummaries = new ArrayList<>(tiles.values());
+        tileSummaries.sort(Comparator.comparingInt(TileSummary::getTileY).thenComparingInt(TileSummary::getTileX));
+        return tileSummaries;
+    }
+
+    /**
+     * zIndex range is read from the ends of zIndex map, the extent & the count in coordinates from the R-tree.
+     */
+    @Override
+    public WidgetStats getStats(RectangleCoordinates coordinates) {
+        lock.readLock().lock();
+        try {
+            int[] extent = getExactExtent();
+            boolean empty = extent == null;
+            return WidgetStats.builder()
+                    .totalCount(widgetMap.sizeAsLong())
+                    .countInRectangle(coordinates == null ? null : (long) findWidgetsInRectangle(coordinates).size())
+                    .minZIndex(empty ? null : zIndexMap.firstKey())
+                    .maxZIndex(empty ? null : zIndexMap.lastKey())
+                    .minX(empty ? null : extent[0])
+                    .minY(empty ? null : extent[1])
+                    .maxX(empty ? null : extent[2])
+                    .maxY(empty ? null : extent[3])
+                    .build();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public WidgetChanges findChangesSince(long version, RectangleCoordinates coordinates) {
+        lock.readLock().lock();
+        try {
+            return changeLog.findChangesSince(version, boardVersion, coordinates, widgetMap::get);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void exportSnapshot(OutputStream outputStream) {
+        List<Widget> widgets;
+        lock.readLock().lock();
+        try {
+            widgets = new ArrayList<>((int) widgetMap.sizeAsLong());
+            zIndexMap.values().forEach(id -> widgets.add(widgetMap.get(id)));
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        try {
+            WidgetSnapshotCodec.write(outputStream, widgets);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't write widget snapshot.", e);
+        }
+    }
+
+    @Override
+    public int importSnapshot(InputStream inputStream) {
+        List<Widget> widgets;
+        try {
+            widgets = WidgetSnapshotCodec.read(inputStream);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't read widget snapshot.", e);
+        }
+
+        long maxWidgetId = widgets.stream().mapToLong(Widget::getId).max().orElse(-1);
+        return modify(() -> {
+            long version = ++boardVersion;
+            widgetMap.clear();
+            zIndexMap.clear();
+            positionMap.clear();
+            for (Widget widget : widgets) {
+                widget.setVersion(version);
+                widgetMap.put(widget.getId(), widget);
+                zIndexMap.put(widget.getZIndex(), widget.getId());
+                positionMap.add(toSpatialKey(widget), widget.getId());
+            }
+            nextWidgetId = Math.max(nextWidgetId, maxWidgetId + 1);
+            changeLog.reset(version); // Clients need to fetch the imported board again.
+            return widgets.size();
+        });
+    }
+
+    @Override
+    public ZIndexStats getZIndexStats() {
+        lock.readLock().lock();
+        try {
+            return calculateZIndexStats();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Positions don't change, so only the widget & zIndex maps are rewritten.
+     */
+    @Override
+    public ZIndexCompactionResult compactZIndexes(int spacing) {
+        long startTime = System.currentTimeMillis();
+        return modify(() -> {
+            ZIndexStats before = calculateZIndexStats();
+            if (spacing > before.getMaxCompactionSpacing()) { // The last zIndex would overflow.
+                throw new IllegalArgumentException(String.format("zIndex compaction spacing: %d is too large for %d widgets, it can be at most %d.",
+                        spacing, before.getCount(), before.getMaxCompactionSpacing()));
+            }
+            List<Long> widgetIds = new ArrayList<>(zIndexMap.values());
+            long version = ++boardVersion;
+            zIndexMap.clear();
+            for (int i = 0; i < widgetIds.size(); i++) {
+                Widget previousWidget = widgetMap.get(widgetIds.get(i));
+                Widget widget = previousWidget.toBuilder().zIndex(Math.toIntExact((long) i * spacing)).version(version).build();
+                widgetMap.put(widget.getId(), widget);
+                zIndexMap.put(widget.getZIndex(), widget.getId());
+                changeLog.recordUpdate(version, widget.getId(), previousWidget);
+            }
+            return ZIndexCompactionResult.builder()
+                    .applied(true)
+                    .before(before)
+                    .after(calculateZIndexStats())
+                    .finishTime(LocalDateTime.now())
+                    .durationMillis(System.currentTimeMillis() - startTime)
+                    .build();
+        });
+    }
+
+    @Override
+    public Widget bringToFront(Long id) {
+        return modify(() -> {
+            Widget widget = findWidgetToMove(id);
+            return widget.getZIndex().equals(zIndexMap.lastKey()) ? widget : moveToZIndex(widget, ZIndexGaps.above(zIndexMap.lastKey()));
+        });
+    }
+
+    @Override
+    public Widget sendToBack(Long id) {
+        return modify(() -> {
+            Widget widget = findWidgetToMove(id);
+            return widget.getZIndex().equals(zIndexMap.firstKey()) ? widget : moveToZIndex(widget, ZIndexGaps.below(zIndexMap.firstKey()));
+        });
+    }
+
+    @Override
+    public Widget moveAbove(Long id, Long targetId) {
+        return modify(() -> {
+            Widget widget = findWidgetToMove(id);
+            Widget targetWidget = findTargetWidget(id, targetId);
+            Integer zIndexAboveTarget = zIndexMap.higherKey(targetWidget.getZIndex());
+            if (zIndexAboveTarget == null) {
+                return moveToZIndex(widget, ZIndexGaps.above(targetWidget.getZIndex()));
+            }
+            if (zIndexAboveTarget.equals(widget.getZIndex())) { // Already right above the target.
+                return widget;
+            }
+            Integer zIndex = ZIndexGaps.between(targetWidget.getZIndex(), zIndexAboveTarget);
+            // No gap above the target, so the widgets right above it are shifted up.
+            return moveToZIndex(widget, zIndex != null ? zIndex : zIndexAboveTarget);
+        });
+    }
+
+    @Override
+    public Widget moveBelow(Long id, Long targetId) {
+        return modify(() -> {
+            Widget widget = findWidgetToMove(id);
+            Widget targetWidget = findTargetWidget(id, targetId);
+            Integer zIndexBelowTarget = zIndexMap.lowerKey(targetWidget.getZIndex());
+            if (zIndexBelowTarget == null) {
+                return moveToZIndex(widget, ZIndexGaps.below(targetWidget.getZIndex()));
+            }
+            if (zIndexBelowTarget.equals(widget.getZIndex())) { // Already right below the target.
+                return widget;
+            }
+            Integer zIndex = ZIndexGaps.between(zIndexBelowTarget, targetWidget.getZIndex());
+            // No gap below the target, so the widget takes target's zIndex & the target is shifted up.
+            return moveToZIndex(widget, zIndex != null ? zIndex : targetWidget.getZIndex());
+        });
+    }
+
+    /**
+     * Runs the modification under the write lock, the counters are put to the meta map even when it fails,
+     * since the widget id may be taken already.
+     */
+    private <T> T modify(Supplier<T> modification) {
+        lock.writeLock().lock();
+        try {
+            return modification.get();
+        } finally {
+            if (metaMap.getOrDefault(BOARD_VERSION_KEY, 0L) != boardVersion) {
+                metaMap.put(BOARD_VERSION_KEY, boardVersion);
+            }
+            if (metaMap.getOrDefault(NEXT_WIDGET_ID_KEY, 0L) != nextWidgetId) {
+                metaMap.put(NEXT_WIDGET_ID_KEY, nextWidgetId);
+            }
+            if (commitOnWrite && store.hasUnsavedChanges()) {
+                store.commit();
+            }
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Versions are compared under the write lock, so no other update can be applied between the check & the update.
+     */
+    private static void checkVersion(Widget currentWidget, Long expectedVersion) {
+        if (expectedVersion != null && !expectedVersion.equals(currentWidget.getVersion())) {
+            throw new WidgetVersionConflictException(String.format("Widget with id: %d has version %d, expected: %d",
+                    currentWidget.getId(), currentWidget.getVersion(), expectedVersion));
+        }
+    }
+
+    private Widget findWidgetToMove(Long id) {
+        Widget widget = widgetMap.get(id);
+        if (widget == null) {
+            throw new WidgetNotFoundException("Couldn't find widget to move with id: " + id);
+        }
+        return widget;
+    }
+
+    private Widget findTargetWidget(Long id, Long targetId) {
+        if (id.equals(targetId)) {
+            throw new IllegalArgumentException("Widget can't be moved relative to itself.");
+        }
+        Widget targetWidget = widgetMap.get(targetId);
+        if (targetWidget == null) {
+            throw new WidgetNotFoundException("Couldn't find target widget with id: " + targetId);
+        }
+        return targetWidget;
+    }
+
+    private Widget moveToZIndex(Widget widget, int zIndex) {
+        if (widget.getZIndex() == zIndex) {
+            return widget;
+        }
+        if (zIndexMap.containsKey(zIndex)) {
+            checkShiftFits(zIndex, widget.getZIndex());
+        }
+
+        long version = ++boardVersion;
+        zIndexMap.remove(widget.getZIndex());
+        if (zIndexMap.containsKey(zIndex)) {
+            shift(zIndex, version);
+        }
+        zIndexMap.put(zIndex, widget.getId());
+        Widget movedWidget = widget.toBuilder().zIndex(zIndex).build();
+        storeWidget(movedWidget, widget, version);
+        return movedWidget;
+    }
+
+    /**
+     * Checks before anything is changed that the widgets from zIndex up to the first free zIndex can be shifted up by one,
+     * the zIndex of the moved widget is freed by the move. Only a board which reaches the largest zIndex is walked.
+     */
+    private void checkShiftFits(int zIndex, int freedZIndex) {
+        if (zIndexMap.lastKey() < Integer.MAX_VALUE) {
+            return;
+        }
+        for (int i = zIndex; i != freedZIndex && zIndexMap.containsKey(i); i++) {
+            ZIndexGaps.above(i);
+        }
+    }
+
+    /**
+     * Shifts the run of consecutive zIndexes starting from zIndex up by one, the caller puts its widget to zIndex then.
+     * Stored widgets are shared with the pages of the map, so they are copied instead of being changed.
+     */
+    private void shift(int zIndex, long version) {
+        int endIndex = zIndex;
+        while (zIndexMap.containsKey(endIndex + 1)) {
+            endIndex++;
+        }
+
+        for (int i = endIndex; i >= zIndex; i--) {
+            Long id = zIndexMap.get(i);
+            Widget previousWidget = widgetMap.get(id);
+            widgetMap.put(id, previousWidget.toBuilder().zIndex(i + 1).version(version).build());
+            zIndexMap.put(i + 1, id);
+            changeLog.recordUpdate(version, id, previousWidget);
+        }
+    }
+
+    /**
+     * Stores a copy of the widget, its R-tree key is replaced only when its bounds change.
+     * The zIndex map is maintained by the caller.
+     */
+    private void storeWidget(Widget widget, Widget previousWidget, long version) {
+        widget.setUpdateTime(LocalDateTime.now());
+        widget.setVersion(version);
+        widgetMap.put(widget.getId(), widget.toBuilder().build());
+        SpatialKey key = toSpatialKey(widget);
+        if (previousWidget == null) {
+            positionMap.add(key, widget.getId());
+        } else {
+            SpatialKey previousKey = toSpatialKey(previousWidget);
+            if (!previousKey.equals(key)) {
+                positionMap.remove(previousKey);
+                positionMap.add(key, widget.getId());
+            }
+        }
+        changeLog.recordUpdate(version, widget.getId(), previousWidget);
+    }
+
+    /**
+     * Removes the widget from the widget map & the R-tree, the zIndex map is maintained by the caller.
+     */
+    private void removeWidget(Widget widget, long version) {
+        widgetMap.remove(widget.getId());
+        positionMap.remove(toSpatialKey(widget));
+        changeLog.recordDeletion(version, widget);
+    }
+
+    /**
+     * Called under the lock.
+     *
+     * @return the widgets completely inside the rectangle, the R-tree finds the ones intersecting with it
+     */
+    private List<Widget> findWidgetsInRectangle(RectangleCoordinates coordinates) {
+        List<Widget> widgets = new ArrayList<>();
+        Iterator<SpatialKey> keys = positionMap.findIntersectingKeys(new SpatialKey(0,
+                toLowerFloat(coordinates.getX0()), toUpperFloat(coordinates.getX1()),
+                toLowerFloat(coordinates.getY0()), toUpperFloat(coordinates.getY1())));
+        while (keys.hasNext()) {
+            Widget widget = widgetMap.get(keys.next().getId());
+            if (coordinates.contains(widget)) {
+                widgets.add(widget);
+            }
+        }
+        return widgets;
+    }
+
+    /**
+     * Called under the lock. A widget centered in the window intersects with it, the R-tree finds those.
+     *
+     * @return the widgets whose center is in the window(all bounds inclusive)
+     */
+    private List<Widget> findCenteredInWindow(long minX, long maxX, long minY, long maxY) {
+        List<Widget> widgets = findIntersectingWindow(minX, maxX, minY, maxY);
+        widgets.removeIf(widget -> widget.getXIndex() < minX || widget.getXIndex() > maxX
+                || widget.getYIndex() < minY || widget.getYIndex() > maxY);
+        return widgets;
+    }
+
+    /**
+     * Called under the lock.
+     *
+     * @return the widgets whose R-tree key intersects with the window(all bounds inclusive)
+     */
+    private List<Widget> findIntersectingWindow(long minX, long maxX, long minY, long maxY) {
+        List<Widget> widgets = new ArrayList<>();
+        Iterator<SpatialKey> keys = positionMap.findIntersectingKeys(new SpatialKey(0,
+                toLowerFloat(minX), toUpperFloat(maxX), toLowerFloat(minY), toUpperFloat(maxY)));
+        while (keys.hasNext()) {
+            widgets.add(widgetMap.get(keys.next().getId()));
+        }
+        return widgets;
+    }
+
+    /**
+     * Called under the lock. The R-tree keeps the bounds of its pages up to date on every add & remove, like the tiles
+     * of {@link TileIndex}, but its float keys are rounded outwards. So the extent of the root is made exact
+     * from the widgets within a rounding step of its edges only.
+     *
+     * @return minX, minY, maxX & maxY of the widget bounds, half sizes rounded up, or null on an empty board
+     */
+    private int[] getExactExtent() {
+        long[] extent = getExtent();
+        if (extent == null) {
+            return null;
+        }
+        int[] exactExtent = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+        for (Widget widget : findIntersectingWindow(extent[0], extent[0] + getRoundingStep(extent[0]), extent[2], extent[3])) {
+            exactExtent[0] = Math.min(exactExtent[0], widget.getXIndex() - (widget.getWidth() + 1) / 2);
+        }
+        for (Widget widget : findIntersectingWindow(extent[0], extent[1], extent[2], extent[2] + getRoundingStep(extent[2]))) {
+            exactExtent[1] = Math.min(exactExtent[1], widget.getYIndex() - (widget.getHeight() + 1) / 2);
+        }
+        for (Widget widget : findIntersectingWindow(extent[1] - getRoundingStep(extent[1]), extent[1], extent[2], extent[3])) {
+            exactExtent[2] = Math.max(exactExtent[2], widget.getXIndex() + (widget.getWidth() + 1) / 2);
+        }
+        for (Widget widget : findIntersectingWindow(extent[0], extent[1], extent[3] - getRoundingStep(extent[3]), extent[3])) {
+            exactExtent[3] = Math.max(exactExtent[3], widget.getYIndex() + (widget.getHeight() + 1) / 2);
+        }
+        return exactExtent;
+    }
+
+    /**
+     * @return how far a widget edge can be from its R-tree key, two float steps at the value & the rounding of halves
+     */
+    private static long getRoundingStep(long value) {
+        return (long) Math.ceil(2 * Math.ulp((float) value)) + 1;
+    }
+
+    /**
+     * Called under the lock. Keys of the R-tree root cover all widgets, so the extent is read from a single page.
+     *
+     * @return minX, maxX, minY & maxY of the widget bounds, rounded outwards, or null on an empty board
+     */
+    private long[] getExtent() {
+        Page root = positionMap.getRootPage();
+        if (root.getKeyCount() == 0) {
+            return null;
+        }
+        long[] extent = {Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (int i = 0; i < root.getKeyCount(); i++) {
+            SpatialKey key = (SpatialKey) root.getKey(i);
+            extent[0] = Math.min(extent[0], (long) Math.floor(key.min(0)));
+            extent[1] = Math.max(extent[1], (long) Math.ceil(key.max(0)));
+            extent[2] = Math.min(extent[2], (long) Math.floor(key.min(1)));
+            extent[3] = Math.max(extent[3], (long) Math.ceil(key.max(1)));
+        }
+        return extent;
+    }
+
+    /**
+     * R-tree keys are floats, bounds are rounded outwards so that the key always covers the widget.
+     * The key is computed the same way every time, so the stored key of a widget is found by its bounds.
+     */
+    private static SpatialKey toSpatialKey(Widget widget) {
+        double halfWidth = widget.getWidth() / 2.0;
+        double halfHeight = widget.getHeight() / 2.0;
+        return new SpatialKey(widget.getId(),
+                toLowerFloat(widget.getXIndex() - halfWidth), toUpperFloat(widget.getXIndex() + halfWidth),
+                toLowerFloat(widget.getYIndex() - halfHeight), toUpperFloat(widget.getYIndex() + halfHeight));
+    }
+
+    private static float toLowerFloat(double value) {
+        float floatValue = (float) value;
+        return floatValue > value ? Math.nextDown(floatValue) : floatValue;
+    }
+
+    private static float toUpperFloat(double value) {
+        float floatValue = (float) value;
+        return floatValue < value ? Math.nextUp(floatValue) : floatValue;
+    }
+
+    private static void sortByDistance(List<Widget> widgets, int x, int y) {
+        widgets.sort(Comparator.<Widget>comparingLong(widget -> TileIndex.getDistanceSquared(widget, x, y))
+                .thenComparing(Widget::getZIndex, Comparator.reverseOrder()));
+    }
+
+    /**
+     * @return the ratio of [min, max] range which is covered by [from, to] range
+     */
+    private static double getCoveredRatio(int from, int to, long min, long max) {
+        long covered = Math.min(to, max) - Math.max(from, min) + 1;
+        return covered <= 0 ? 0 : (double) covered / (max - min + 1);
+    }
+
+    private Integer getMaxZIndex() {
+        return zIndexMap.isEmpty() ? 0 : zIndexMap.lastKey() + 1;
+    }
+
+    private ZIndexStats calculateZIndexStats() {
+        long adjacentCount = 0;
+        Integer previousZIndex = null;
+        Iterator<Integer> zIndexes = zIndexMap.keyIterator(null);
+        while (zIndexes.hasNext()) {
+            Integer zIndex = zIndexes.next();
+            if (previousZIndex != null && zIndex == previousZIndex + 1) {
+                adjacentCount++;
+            }
+            previousZIndex = zIndex;
+        }
+
+        return ZIndexStats.builder()
+                .count(zIndexMap.size())
+                .minZIndex(zIndexMap.isEmpty() ? null : zIndexMap.firstKey())
+                .maxZIndex(zIndexMap.isEmpty() ? null : zIndexMap.lastKey())
+                .adjacentCount(adjacentCount)
+                .build();
+    }
+}
@@ -0,0 +1,284 @@
+package com.miro.repository.impl;
+
+import com.miro.exception.ReadOnlyReplicaException;
+import com.miro.model.RectangleCoordinates;
+import com.miro.model.TileSummary;
+import com.miro.model.Widget;
+import com.miro.model.WidgetChanges;
+import com.miro.model.WidgetOverlap;
+import com.miro.model.WidgetQueryResult;
+import com.miro.model.WidgetStats;
+import com.miro.model.ZIndexCompactionResult;
+import com.miro.model.ZIndexStats;
+import com.miro.replication.ReplicationCodec;
+import com.miro.replication.ReplicationFrame;
+import com.miro.repository.WidgetRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * This is the repository implementation of read-only replicas, widgets are served by an {@link InMemoryRepository}
+ * which is fed by the frames shipped from a primary's {@link com.miro.replication.ReplicationServer}.
+ * Frames are applied in order by a single thread, which reconnects to the primary when the connection is lost
+ * & continues from the version it has. Modifications are rejected, they are accepted by the primary only.
+ * The replication lag is the time since the primary sent the last applied frame, primary & replica clocks are
+ * assumed to be synchronized.
+ *
+ * @author ahmetcetin
+ */
+@Slf4j
+@Repository
+@Profile("replica")
+public class ReplicaWidgetRepository implements WidgetRepository, MeterBinder {
+    private static final String READ_ONLY_MESSAGE = "This is a read-only replica, widgets are modified by the primary.";
+
+    private final InMemoryRepository memoryTier = new InMemoryRepository();
+    private final String primaryHost;
+    private final int primaryPort;
+    private final int timeoutMillis;
+    private final long reconnectIntervalMillis;
+    private final Thread replicationThread;
+    private volatile boolean closed;
+    private volatile Socket socket;
+    private volatile long boardId;
+    private volatile long appliedVersion = -1;
+    private volatile long lastFrameSentAtMillis;
+
+    /**
+     * @param timeoutMillis           to connect to the primary & to wait for the next frame, before reconnecting
+     * @param reconnectIntervalMillis between two connection attempts
+     */
+    public ReplicaWidgetRepository(@Value("${widget.replication.primary-host:localhost}") String primaryHost,
+                                   @Value("${widget.replication.primary-port:7071}") int primaryPort,
+                                   @Value("${widget.replication.timeout-ms:5000}") int timeoutMillis,
+                                   @Value("${widget.replication.reconnect-interval-ms:1000}") long reconnectIntervalMillis) {
+        this.primaryHost = primaryHost;
+        this.primaryPort = primaryPort;
+        this.timeoutMillis = timeoutMillis;
+        this.reconnectIntervalMillis = reconnectIntervalMillis;
+        this.replicationThread = new Thread(this::replicate, "replica-" + primaryHost + ":" + primaryPort);
+        this.replicationThread.setDaemon(true);
+    }
+
+    @PostConstruct
+    public void start() {
+        replicationThread.start();
+    }
+
+    @PreDestroy
+    public void close() throws IOException, InterruptedException {
+        closed = true;
+        Socket currentSocket = socket;
+        if (currentSocket != null) {
+            currentSocket.close();
+        }
+        replicationThread.interrupt();
+        replicationThread.join(timeoutMillis);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        TimeGauge.builder("widget.replication.lag", this, TimeUnit.MILLISECONDS, ReplicaWidgetRepository::getLagMillis)
+                .description("Time since the primary sent the last frame applied by the replica")
+                .register(registry);
+        Gauge.builder("widget.replication.version", this, ReplicaWidgetRepository::getAppliedVersion)
+                .description("Board version of the last frame applied by the replica")
+                .register(registry);
+        Gauge.builder("widget.replication.connected", this, repository -> repository.isConnected() ? 1 : 0)
+                .description("Whether the replica is connected to the primary")
+                .register(registry);
+    }
+
+    /**
+     * @return milliseconds since the primary sent the last applied frame, NaN before the first frame
+     */
+    public double getLagMillis() {
+        long sentAtMillis = lastFrameSentAtMillis;
+        return sentAtMillis == 0 ? Double.NaN : Math.max(0, System.currentTimeMillis() - sentAtMillis);
+    }
+
+    public long getAppliedVersion() {
+        return appliedVersion;
+    }
+
+    public boolean isConnected() {
+        return socket != null;
+    }
+
+    private void replicate() {
+        while (!closed) {
+            try (Socket primarySocket = new Socket()) {
+                primarySocket.connect(new InetSocketAddress(primaryHost, primaryPort), timeoutMillis);
+                primarySocket.setSoTimeout(timeoutMillis);
+                primarySocket.setTcpNoDelay(true);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(primarySocket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(primarySocket.getOutputStream()));
+                ReplicationCodec.writeHello(out, boardId, appliedVersion);
+                socket = primarySocket;
+                log.info("Connected to primary {}:{} at version {}", primaryHost, primaryPort, appliedVersion);
+
+                while (!closed) {
+                    apply(ReplicationCodec.readFrame(in));
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                if (!closed) {
+                    log.warn("Lost connection to primary {}:{}, reconnecting in {} ms: {}",
+                            primaryHost, primaryPort, reconnectIntervalMillis, e.getMessage());
+                }
+            } finally {
+                socket = null;
+            }
+
+            try {
+                Thread.sleep(reconnectIntervalMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Frames without changes only confirm that the replica is up to date.
+     */
+    void apply(ReplicationFrame frame) {
+        WidgetChanges changes = frame.getChanges();
+        if (changes.isFullSyncRequired() || frame.getBoardId() != boardId || changes.getVersion() != appliedVersion) {
+            memoryTier.applyReplicatedChanges(changes);
+            boardId = frame.getBoardId();
+            appliedVersion = changes.getVersion();
+        }
+        lastFrameSentAtMillis = frame.getSentAtMillis();
+    }
+
+    @Override
+    public Widget save(Widget widget) {
+        throw new ReadOnlyReplicaException(READ_ONLY_MESSAGE);
+    }
+
+    @Override
+    public void deleteById(Long id) {
+        throw new ReadOnlyReplicaException(READ_ONLY_MESSAGE);
+    }
+
+    @Override
+    public Widget patch(Widget widget) {
+        throw new ReadOnlyReplicaException(READ_ONLY_MESSAGE);
+    }
+
+    @Override
+    public int deleteInRectangle(RectangleCoordinates coordinates) {
+        throw new ReadOnlyReplicaException(READ_ONLY_MESSAGE);
+    }
+
+    @Override
+    public int deleteInZIndexRange(int fromZIndex, int toZIndex) {
+        throw new ReadOnlyReplicaException(READ_ONLY_MESSAGE);
+    }
+
+    @Override
+    public Widget findById(Long id) {
+        return memoryTier.findById(id);
+    }
+
+    @Override
+    public List<Widget> findWithLimit(Integer limit) {
+        return memoryTier.findWithLimit(limit);
+    }
+
+    @Override
+    public WidgetQueryResult findWithCoordinates(RectangleCoordinates coordinates, Integer limit) {
+        return memoryTier.findWithCoordinates(coordinates, limit);
+    }
+
+    @Override
+    public List<Widget> findNearest(int x, int y, int k) {
+        return memoryTier.findNearest(x, y, k);
+    }
+
+    @Override
+    public void findOverlaps(Consumer<WidgetOverlap> consumer) {
+        memoryTier.findOverlaps(consumer);
+    }
+
+    @Override
+    public List<Widget> findOverlapping(Long id) {
+        return memoryTier.findOverlapping(id);
+    }
+
+    @Override
+    public List<TileSummary> findTiles(RectangleCoordinates coordinates, int level) {
+        return memoryTier.findTiles(coordinates, level);
+    }
+
+    @Override
+    public WidgetStats getStats(RectangleCoordinates coordinates) {
+        return memoryTier.getStats(coordinates);
+    }
+
+    @Override
+    public WidgetChanges findChangesSince(long version, RectangleCoordinates coordinates) {
+        return memoryTier.findChangesSince(version, coordinates);
+    }
+
+    @Override
+    public void exportSnapshot(OutputStream outputStream) {
+        memoryTier.exportSnapshot(outputStream);
+    }
+
+    @Override
+    public int importSnapshot(InputStream inputStream) {
+        throw new ReadOnlyReplicaException(READ_ONLY_MESSAGE);
+    }
+
+    @Override
+    public ZIndexStats getZIndexStats() {
+        return memoryTier.getZIndexStats();
+    }
+
+    @Override
+    public ZIndexCompactionResult compactZIndexes(int spacing) {
+        throw new ReadOnlyReplicaException(READ_ONLY_MESSAGE);
+    }
+
+    @Override
+    public Widget bringToFront(Long id) {
+        throw new ReadOnlyReplicaException(READ_ONLY_MESSAGE);
+    }
+
+    @Override
+    public Widget sendToBack(Long id) {
+        throw new ReadOnlyReplicaException(READ_ONLY_MESSAGE);
+    }
+
+    @Override
+    public Widget moveAbove(Long id, Long targetId) {
+        throw new ReadOnlyReplicaException(READ_ONLY_MESSAGE);
+    }
+
+    @Override
+    public Widget moveBelow(Long id, Long targetId) {
+        throw new ReadOnlyReplicaException(READ_ONLY_MESSAGE);
+    }
+}
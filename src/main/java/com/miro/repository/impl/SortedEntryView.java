@@ -0,0 +1,97 @@
+package com.miro.repository.impl;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * This is a read-only {@link SortedMap} view over keys & values which are already sorted by key.
+ * {@link TreeMap#putAll(Map)} builds its tree in linear time from a {@link SortedMap} with natural ordering,
+ * so the view is used to bulk load the zIndex index instead of inserting the entries one by one.
+ * Only the methods used by {@link TreeMap} are supported.
+ *
+ * @author ahmetcetin
+ */
+class SortedEntryView<K, V> extends AbstractMap<K, V> implements SortedMap<K, V> {
+    private final List<K> keys;
+    private final List<V> values;
+
+    SortedEntryView(List<K> keys, List<V> values) {
+        this.keys = keys;
+        this.values = values;
+    }
+
+    @Override
+    public int size() {
+        return keys.size();
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new Iterator<>() {
+                    private int index = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return index < keys.size();
+                    }
+
+                    @Override
+                    public Entry<K, V> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<K, V> entry = new SimpleImmutableEntry<>(keys.get(index), values.get(index));
+                        index++;
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return keys.size();
+            }
+        };
+    }
+
+    @Override
+    public Comparator<? super K> comparator() {
+        return null; // Natural ordering
+    }
+
+    @Override
+    public SortedMap<K, V> subMap(K fromKey, K toKey) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SortedMap<K, V> headMap(K toKey) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SortedMap<K, V> tailMap(K fromKey) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public K firstKey() {
+        return keys.get(0);
+    }
+
+    @Override
+    public K lastKey() {
+        return keys.get(keys.size() - 1);
+    }
+}
@@ -0,0 +1,306 @@
+package com.miro.repository.impl;
+
+import com.miro.model.RectangleCoordinates;
+import com.miro.model.TileSummary;
+import com.miro.model.Widget;
+import com.miro.model.WidgetChanges;
+import com.miro.model.WidgetOverlap;
+import com.miro.model.WidgetQueryResult;
+import com.miro.model.WidgetStats;
+import com.miro.model.ZIndexCompactionResult;
+import com.miro.model.ZIndexStats;
+import com.miro.repository.WidgetRepository;
+import com.miro.repository.snapshot.WidgetSnapshotCodec;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * This is the repository implementation to serve widgets from memory & keep them in H2 behind.
+ * Every query & modification is served by an {@link InMemoryRepository}, modifications are written to H2 later
+ * by {@link #flush()}, every {@code widget.write-behind.flush-interval-ms}.
+ * The write-behind queue is the change log of the memory tier: it keeps the latest change of every widget since a board
+ * version, so a flush writes every modified, shifted or deleted widget once, however many times it changed since the
+ * last flush. When more widgets changed than the change log keeps, the whole board is written instead.
+ * The memory tier is loaded from H2 on startup, the modifications not flushed yet are lost on a crash.
+ *
+ * @author ahmetcetin
+ */
+@Slf4j
+@Repository
+@Profile("tiered")
+public class TieredWidgetRepository implements WidgetRepository, MeterBinder {
+    static final String QUERY_MERGE_WIDGET = "merge into widget (id, xIndex, yIndex, zIndex, width, height, updateTime, version) key(id) values(?,?,?,?,?,?,?,?)";
+    static final String QUERY_DELETE_WIDGET = "delete from widget where id=?";
+    static final String QUERY_DELETE_ALL_WIDGETS = "delete from widget";
+    private static final int FLUSH_BATCH_SIZE = 1000;
+    private static final String QUERY_SELECT_ALL_BY_Z_INDEX = "select * from widget order by zIndex";
+
+    private final InMemoryRepository memoryTier = new InMemoryRepository();
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final AtomicLong recordedModifications = new AtomicLong();
+    private final AtomicLong oldestPendingModificationNanos = new AtomicLong();
+    private final AtomicLong flushedRows = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+    private volatile long flushedModifications;
+    private long flushedVersion; // Guarded by this
+
+    public TieredWidgetRepository(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Loads the widgets kept in H2 into the memory tier.
+     */
+    @PostConstruct
+    public synchronized void load() {
+        List<Widget> widgets = jdbcTemplate.query(QUERY_SELECT_ALL_BY_Z_INDEX, Widget::mapRowToWidget);
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        try {
+            WidgetSnapshotCodec.write(snapshot, widgets);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't load widgets from H2.", e);
+        }
+        memoryTier.importSnapshot(new ByteArrayInputStream(snapshot.toByteArray()));
+        flushedVersion = memoryTier.findChangesSince(0, null).getVersion();
+        log.info("Loaded {} widgets from H2 at board version {}", widgets.size(), flushedVersion);
+    }
+
+    /**
+     * Writes the widgets changed since the last flush to H2 in one transaction. A failed flush is retried by the next one.
+     */
+    @Scheduled(initialDelayString = "${widget.write-behind.flush-interval-ms:200}", fixedDelayString = "${widget.write-behind.flush-interval-ms:200}")
+    public synchronized void flush() {
+        long modifications = recordedModifications.get();
+        if (modifications == flushedModifications) {
+            return;
+        }
+
+        WidgetChanges changes = memoryTier.findChangesSince(flushedVersion, null);
+        try {
+            int rows = transactionTemplate.execute(status -> changes.isFullSyncRequired() ? writeBoard() : writeChanges(changes));
+            flushedRows.addAndGet(rows);
+        } catch (RuntimeException e) {
+            failedFlushes.incrementAndGet();
+            log.error("Couldn't flush {} widget modifications to H2, they are retried by the next flush",
+                    modifications - flushedModifications, e);
+            return;
+        }
+        flushedVersion = changes.getVersion();
+        flushedModifications = modifications;
+        // Modifications recorded during the flush may not be written yet, they are younger than the flush itself.
+        oldestPendingModificationNanos.set(recordedModifications.get() == modifications ? 0 : System.nanoTime());
+        log.debug("Flushed widget modifications up to board version {}", flushedVersion);
+    }
+
+    @PreDestroy
+    public void close() {
+        flush();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("widget.write-behind.queue.depth", this, TieredWidgetRepository::getPendingModifications)
+                .description("Widget modifications not flushed to H2 yet")
+                .register(registry);
+        TimeGauge.builder("widget.write-behind.flush.lag", this, TimeUnit.NANOSECONDS, TieredWidgetRepository::getFlushLagNanos)
+                .description("Age of the oldest widget modification not flushed to H2 yet")
+                .register(registry);
+        FunctionCounter.builder("widget.write-behind.flushed.rows", flushedRows, AtomicLong::get)
+                .description("Widget rows written or deleted in H2 by flushes")
+                .register(registry);
+        FunctionCounter.builder("widget.write-behind.flush.failures", failedFlushes, AtomicLong::get)
+                .description("Flushes to H2 which failed & were retried")
+                .register(registry);
+    }
+
+    long getPendingModifications() {
+        return recordedModifications.get() - flushedModifications;
+    }
+
+    long getFlushLagNanos() {
+        long oldestPendingNanos = oldestPendingModificationNanos.get();
+        return oldestPendingNanos == 0 || getPendingModifications() == 0 ? 0 : System.nanoTime() - oldestPendingNanos;
+    }
+
+    private int writeChanges(WidgetChanges changes) {
+        mergeWidgets(changes.getUpdated());
+        jdbcTemplate.batchUpdate(QUERY_DELETE_WIDGET, changes.getDeleted(), FLUSH_BATCH_SIZE,
+                (ps, id) -> ps.setLong(1, id));
+        return changes.getUpdated().size() + changes.getDeleted().size();
+    }
+
+    /**
+     * Replaces the widgets in H2 with the current board, the board may be newer than the flushed version,
+     * writing it again by the next flush is harmless.
+     */
+    private int writeBoard() {
+        List<Widget> widgets = memoryTier.findWithLimit(Integer.MAX_VALUE);
+        jdbcTemplate.update(QUERY_DELETE_ALL_WIDGETS);
+        mergeWidgets(widgets);
+        return widgets.size();
+    }
+
+    private void mergeWidgets(Collection<Widget> widgets) {
+        jdbcTemplate.batchUpdate(QUERY_MERGE_WIDGET, widgets, FLUSH_BATCH_SIZE, (ps, widget) -> {
+            ps.setLong(1, widget.getId());
+            ps.setInt(2, widget.getXIndex());
+            ps.setInt(3, widget.getYIndex());
+            ps.setInt(4, widget.getZIndex());
+            ps.setInt(5, widget.getWidth());
+            ps.setInt(6, widget.getHeight());
+            ps.setTimestamp(7, Timestamp.valueOf(widget.getUpdateTime() != null ? widget.getUpdateTime() : LocalDateTime.now()));
+            ps.setLong(8, widget.getVersion());
+        });
+    }
+
+    private <T> T modify(Supplier<T> modification) {
+        T result = modification.get();
+        recordModification();
+        return result;
+    }
+
+    private void recordModification() {
+        recordedModifications.incrementAndGet();
+        oldestPendingModificationNanos.compareAndSet(0, System.nanoTime());
+    }
+
+    @Override
+    public Widget save(Widget widget) {
+        return modify(() -> memoryTier.save(widget));
+    }
+
+    @Override
+    public void deleteById(Long id) {
+        memoryTier.deleteById(id);
+        recordModification();
+    }
+
+    @Override
+    public Widget patch(Widget widget) {
+        return modify(() -> memoryTier.patch(widget));
+    }
+
+    @Override
+    public int deleteInRectangle(RectangleCoordinates coordinates) {
+        return modify(() -> memoryTier.deleteInRectangle(coordinates));
+    }
+
+    @Override
+    public int deleteInZIndexRange(int fromZIndex, int toZIndex) {
+        return modify(() -> memoryTier.deleteInZIndexRange(fromZIndex, toZIndex));
+    }
+
+    @Override
+    public Widget findById(Long id) {
+        return memoryTier.findById(id);
+    }
+
+    @Override
+    public List<Widget> findWithLimit(Integer limit) {
+        return memoryTier.findWithLimit(limit);
+    }
+
+    @Override
+    public WidgetQueryResult findWithCoordinates(RectangleCoordinates coordinates, Integer limit) {
+        return memoryTier.findWithCoordinates(coordinates, limit);
+    }
+
+    @Override
+    public List<Widget> findNearest(int x, int y, int k) {
+        return memoryTier.findNearest(x, y, k);
+    }
+
+    @Override
+    public void findOverlaps(Consumer<WidgetOverlap> consumer) {
+        memoryTier.findOverlaps(consumer);
+    }
+
+    @Override
+    public List<Widget> findOverlapping(Long id) {
+        return memoryTier.findOverlapping(id);
+    }
+
+    @Override
+    public List<TileSummary> findTiles(RectangleCoordinates coordinates, int level) {
+        return memoryTier.findTiles(coordinates, level);
+    }
+
+    @Override
+    public WidgetStats getStats(RectangleCoordinates coordinates) {
+        return memoryTier.getStats(coordinates);
+    }
+
+    @Override
+    public WidgetChanges findChangesSince(long version, RectangleCoordinates coordinates) {
+        return memoryTier.findChangesSince(version, coordinates);
+    }
+
+    @Override
+    public void exportSnapshot(OutputStream outputStream) {
+        memoryTier.exportSnapshot(outputStream);
+    }
+
+    @Override
+    public int importSnapshot(InputStream inputStream) {
+        return modify(() -> memoryTier.importSnapshot(inputStream));
+    }
+
+    @Override
+    public ZIndexStats getZIndexStats() {
+        return memoryTier.getZIndexStats();
+    }
+
+    @Override
+    public ZIndexCompactionResult compactZIndexes(int spacing) {
+        return modify(() -> memoryTier.compactZIndexes(spacing));
+    }
+
+    @Override
+    public Widget bringToFront(Long id) {
+        return modify(() -> memoryTier.bringToFront(id));
+    }
+
+    @Override
+    public Widget sendToBack(Long id) {
+        return modify(() -> memoryTier.sendToBack(id));
+    }
+
+    @Override
+    public Widget moveAbove(Long id, Long targetId) {
+        return modify(() -> memoryTier.moveAbove(id, targetId));
+    }
+
+    @Override
+    public Widget moveBelow(Long id, Long targetId) {
+        return modify(() -> memoryTier.moveBelow(id, targetId));
+    }
+}
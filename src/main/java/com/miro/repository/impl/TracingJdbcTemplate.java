@@ -0,0 +1,269 @@
+package com.miro.repository.impl;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.InterruptibleBatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowMapperResultSetExtractor;
+import org.springframework.jdbc.core.SingleColumnRowMapper;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * This is the JdbcTemplate of H2 profile which traces the statements executed with bind parameters.
+ * Statements of a transaction are traced as a single operation, other statements are operations by themselves.
+ * When an operation takes longer than the threshold, a slow operation entry is logged with the statement count,
+ * the rows touched by shifting & the SQL, bind parameters and EXPLAIN plan of the slowest statement.
+ * A batch is explained with the bind parameters of its first row.
+ *
+ * @author ahmetcetin
+ */
+@Slf4j
+public class TracingJdbcTemplate extends JdbcTemplate {
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final long thresholdNanos;
+    private final Consumer<String> slowOperationLogger;
+
+    public TracingJdbcTemplate(DataSource dataSource, long thresholdMillis) {
+        this(dataSource, thresholdMillis, log::warn);
+    }
+
+    TracingJdbcTemplate(DataSource dataSource, long thresholdMillis, Consumer<String> slowOperationLogger) {
+        super(dataSource);
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.slowOperationLogger = slowOperationLogger;
+    }
+
+    @Override
+    public <T> T query(String sql, PreparedStatementSetter pss, ResultSetExtractor<T> rse) throws DataAccessException {
+        return trace(sql, () -> getArguments(pss), false, () -> super.query(sql, pss, rse),
+                result -> result instanceof List ? ((List<?>) result).size() : 1);
+    }
+
+    @Override
+    public int update(String sql, PreparedStatementSetter pss) throws DataAccessException {
+        return trace(sql, () -> getArguments(pss), false, () -> super.update(sql, pss), rows -> rows);
+    }
+
+    /**
+     * Parameters of an interruptible batch aren't recorded, since the setter can't be wrapped without hiding that it is one.
+     */
+    @Override
+    public int[] batchUpdate(String sql, BatchPreparedStatementSetter pss) throws DataAccessException {
+        FirstRowRecorder firstRowRecorder = new FirstRowRecorder();
+        BatchPreparedStatementSetter recordingPss = pss instanceof InterruptibleBatchPreparedStatementSetter ? pss :
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        pss.setValues(firstRowRecorder.record(ps), i);
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return pss.getBatchSize();
+                    }
+                };
+        return trace(sql, firstRowRecorder::getArguments, true, () -> super.batchUpdate(sql, recordingPss),
+                rows -> Arrays.stream(rows).map(row -> Math.max(row, 0)).sum());
+    }
+
+    @Override
+    public <T> int[][] batchUpdate(String sql, Collection<T> batchArgs, int batchSize,
+                                   ParameterizedPreparedStatementSetter<T> pss) throws DataAccessException {
+        FirstRowRecorder firstRowRecorder = new FirstRowRecorder();
+        return trace(sql, firstRowRecorder::getArguments, true,
+                () -> super.batchUpdate(sql, batchArgs, batchSize, (ps, argument) -> pss.setValues(firstRowRecorder.record(ps), argument)),
+                rows -> Arrays.stream(rows).flatMapToInt(Arrays::stream).map(row -> Math.max(row, 0)).sum());
+    }
+
+    @Override
+    protected PreparedStatementSetter newArgPreparedStatementSetter(Object[] args) {
+        return new TracedArgumentSetter(args);
+    }
+
+    private <T> T trace(String sql, Supplier<Object[]> arguments, boolean batch, Supplier<T> statement, ToIntFunction<T> rowCounter) {
+        long startTime = System.nanoTime();
+        T result = statement.get();
+        StatementTrace statementTrace = new StatementTrace(sql, arguments.get(), batch,
+                System.nanoTime() - startTime, rowCounter.applyAsInt(result));
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            getOperationTrace().add(statementTrace);
+        } else if (statementTrace.getDurationNanos() > thresholdNanos) {
+            OperationTrace operationTrace = new OperationTrace(startTime);
+            operationTrace.add(statementTrace);
+            logSlowOperation(operationTrace, System.nanoTime() - startTime);
+        }
+        return result;
+    }
+
+    private OperationTrace getOperationTrace() {
+        OperationTrace operationTrace = (OperationTrace) TransactionSynchronizationManager.getResource(this);
+        if (operationTrace != null) {
+            return operationTrace;
+        }
+
+        OperationTrace newOperationTrace = new OperationTrace(System.nanoTime());
+        TransactionSynchronizationManager.bindResource(this, newOperationTrace);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void beforeCompletion() {
+                // Plan is explained before the connection is released, commit time isn't included.
+                long durationNanos = System.nanoTime() - newOperationTrace.getStartTime();
+                if (durationNanos > thresholdNanos) {
+                    logSlowOperation(newOperationTrace, durationNanos);
+                }
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(TracingJdbcTemplate.this);
+            }
+        });
+        return newOperationTrace;
+    }
+
+    private void logSlowOperation(OperationTrace operationTrace, long durationNanos) {
+        StatementTrace slowestStatement = operationTrace.getSlowestStatement();
+        slowOperationLogger.accept(String.format("Slow operation took %.3f ms with %d statements, shifted rows: %d, " +
+                        "slowest statement took %.3f ms & touched %d rows: %s, parameters: %s, plan: %s",
+                durationNanos / NANOS_PER_MILLI,
+                operationTrace.getStatements().size(),
+                operationTrace.getShiftedRows(),
+                slowestStatement.getDurationNanos() / NANOS_PER_MILLI,
+                slowestStatement.getRows(),
+                slowestStatement.getSql(),
+                (slowestStatement.isBatch() ? "first row of batch " : "") + Arrays.toString(slowestStatement.getArguments()),
+                explain(slowestStatement)));
+    }
+
+    private String explain(StatementTrace statementTrace) {
+        try {
+            // super is used, so that the plan query itself isn't traced.
+            List<String> plan = super.query("explain " + statementTrace.getSql(),
+                    new ArgumentPreparedStatementSetter(statementTrace.getArguments()),
+                    new RowMapperResultSetExtractor<>(new SingleColumnRowMapper<>(String.class)));
+            return plan == null ? "" : String.join(" ", plan).replaceAll("\\s+", " ");
+        } catch (DataAccessException e) {
+            return "not available: " + e.getMessage();
+        }
+    }
+
+    private static Object[] getArguments(PreparedStatementSetter pss) {
+        return pss instanceof TracedArgumentSetter ? ((TracedArgumentSetter) pss).arguments : new Object[0];
+    }
+
+    private static final class TracedArgumentSetter extends ArgumentPreparedStatementSetter {
+        private final Object[] arguments;
+
+        private TracedArgumentSetter(Object[] arguments) {
+            super(arguments);
+            this.arguments = arguments != null ? arguments : new Object[0];
+        }
+    }
+
+    /**
+     * Records the parameters set on the first row of a batch, the statement passed for the next rows is used as it is.
+     */
+    private static final class FirstRowRecorder implements InvocationHandler {
+        private final List<Object> arguments = new ArrayList<>();
+        private PreparedStatement firstRowStatement;
+
+        private PreparedStatement record(PreparedStatement ps) {
+            if (firstRowStatement != null) {
+                return ps;
+            }
+            firstRowStatement = ps;
+            return (PreparedStatement) Proxy.newProxyInstance(TracingJdbcTemplate.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            // Parameter setters take the 1-based parameter index first, setNull takes the SQL type as the value.
+            if (method.getName().startsWith("set") && args != null && args.length >= 2
+                    && args[0] instanceof Integer && (Integer) args[0] > 0) {
+                int index = (Integer) args[0];
+                while (arguments.size() < index) {
+                    arguments.add(null);
+                }
+                arguments.set(index - 1, method.getName().equals("setNull") ? null : args[1]);
+            }
+            try {
+                return method.invoke(firstRowStatement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private Object[] getArguments() {
+            return arguments.toArray();
+        }
+    }
+
+    @Value
+    private static class StatementTrace {
+        String sql;
+        Object[] arguments;
+        boolean batch;
+        long durationNanos;
+        int rows;
+    }
+
+    private static class OperationTrace {
+        private final long startTime;
+        private final List<StatementTrace> statements = new ArrayList<>();
+
+        private OperationTrace(long startTime) {
+            this.startTime = startTime;
+        }
+
+        private long getStartTime() {
+            return startTime;
+        }
+
+        private List<StatementTrace> getStatements() {
+            return statements;
+        }
+
+        private void add(StatementTrace statementTrace) {
+            statements.add(statementTrace);
+        }
+
+        private StatementTrace getSlowestStatement() {
+            return Collections.max(statements, Comparator.comparingLong(StatementTrace::getDurationNanos));
+        }
+
+        private int getShiftedRows() {
+            return statements.stream()
+                    .filter(statement -> H2WidgetRepository.QUERY_UPDATE_Z_INDEXES.equals(statement.getSql()))
+                    .mapToInt(StatementTrace::getRows)
+                    .sum();
+        }
+    }
+}
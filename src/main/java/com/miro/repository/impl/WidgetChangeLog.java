@@ -0,0 +1,138 @@
+package com.miro.repository.impl;
+
+import com.miro.model.RectangleCoordinates;
+import com.miro.model.Widget;
+import com.miro.model.WidgetChanges;
+import lombok.Value;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * This is the bounded log of widget changes which is kept by {@link InMemoryRepository} & {@link MVStoreWidgetRepository}
+ * to answer "changes since version" queries. Every change keeps the board version it was made at & the widget before the change,
+ * so that changes can be filtered by the coordinates the widget had at the asked version.
+ * When the log is full, the oldest change is dropped and changes since that version can't be served anymore.
+ *
+ * @author ahmetcetin
+ */
+class WidgetChangeLog {
+    private final int capacity;
+    private final ArrayDeque<Change> changes;
+    private long droppedVersion = 0;
+
+    WidgetChangeLog(int capacity) {
+        this.capacity = capacity;
+        this.changes = new ArrayDeque<>(capacity);
+    }
+
+    /**
+     * @param previousWidget the widget before the update, null when it is created
+     */
+    synchronized void recordUpdate(long version, Long widgetId, Widget previousWidget) {
+        append(new Change(version, widgetId, previousWidget, false));
+    }
+
+    synchronized void recordDeletion(long version, Widget deletedWidget) {
+        append(new Change(version, deletedWidget.getId(), deletedWidget, true));
+    }
+
+    /**
+     * Drops all changes, the ones made before given version can't be served anymore.
+     */
+    synchronized void reset(long version) {
+        changes.clear();
+        droppedVersion = Math.max(droppedVersion, version);
+    }
+
+    synchronized boolean hasChangesSince(long version) {
+        return version >= droppedVersion;
+    }
+
+    /**
+     * A widget is known by the client when it was in the coordinates at the asked version, so a known widget which isn't
+     * in them anymore is returned as moved out.
+     *
+     * @param boardVersion   current version of the board, to be returned as the version of the changes
+     * @param currentWidgets to look the current widget of a change up by its id
+     */
+    synchronized WidgetChanges findChangesSince(long version, long boardVersion, RectangleCoordinates coordinates,
+                                                Function<Long, Widget> currentWidgets) {
+        if (!hasChangesSince(version)) {
+            return WidgetChanges.builder()
+                    .version(boardVersion)
+                    .fullSyncRequired(true)
+                    .updated(Collections.emptyList())
+                    .deleted(Collections.emptyList())
+                    .movedOut(Collections.emptyList())
+                    .build();
+        }
+
+        List<Widget> updatedWidgets = new ArrayList<>();
+        List<Long> deletedWidgetIds = new ArrayList<>();
+        List<Long> movedOutWidgetIds = new ArrayList<>();
+        for (Change change : findLatestChangesSince(version).values()) {
+            Widget previousWidget = change.getPreviousWidget();
+            boolean known = coordinates == null || (previousWidget != null && coordinates.contains(previousWidget));
+            if (change.isDeletion()) {
+                if (known) {
+                    deletedWidgetIds.add(change.getWidgetId());
+                }
+            } else {
+                Widget widget = currentWidgets.apply(change.getWidgetId());
+                if (widget != null && (coordinates == null || coordinates.contains(widget))) {
+                    updatedWidgets.add(widget);
+                } else if (known) {
+                    movedOutWidgetIds.add(change.getWidgetId());
+                }
+            }
+        }
+        updatedWidgets.sort(Comparator.comparing(Widget::getZIndex));
+
+        return WidgetChanges.builder()
+                .version(boardVersion)
+                .fullSyncRequired(false)
+                .updated(updatedWidgets)
+                .deleted(deletedWidgetIds)
+                .movedOut(movedOutWidgetIds)
+                .build();
+    }
+
+    /**
+     * Changes are appended in version order, so the first change of a widget after given version keeps the widget
+     * as it was at that version.
+     *
+     * @return the latest change of every widget which is changed after given version, with the widget at given version
+     */
+    private Map<Long, Change> findLatestChangesSince(long version) {
+        Map<Long, Change> latestChanges = new HashMap<>();
+        for (Change change : changes) {
+            if (change.getVersion() > version) {
+                latestChanges.merge(change.getWidgetId(), change, (first, next) ->
+                        new Change(next.getVersion(), next.getWidgetId(), first.getPreviousWidget(), next.isDeletion()));
+            }
+        }
+        return latestChanges;
+    }
+
+    private void append(Change change) {
+        if (changes.size() == capacity) {
+            droppedVersion = Math.max(droppedVersion, changes.removeFirst().getVersion());
+        }
+        changes.addLast(change);
+    }
+
+    @Value
+    static class Change {
+        long version;
+        Long widgetId;
+        Widget previousWidget;
+        boolean deletion;
+    }
+}
@@ -0,0 +1,93 @@
+package com.miro.repository.impl;
+
+import com.miro.model.Widget;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.DataType;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * This is the MVStore value type of widgets used by {@link MVStoreWidgetRepository}, a widget is stored as a fixed-width
+ * record like in {@link com.miro.repository.snapshot.WidgetSnapshotCodec}, followed by its version:
+ * <pre>
+ * id(long) | xIndex(int) | yIndex(int) | zIndex(int) | width(int) | height(int) | updateTime seconds(long) | nanos(int) | version(long)
+ * </pre>
+ *
+ * @author ahmetcetin
+ */
+final class WidgetDataType implements DataType {
+    static final WidgetDataType INSTANCE = new WidgetDataType();
+    private static final int MEMORY = 128; // Widget with its boxed fields & LocalDateTime
+    private static final int NO_UPDATE_TIME = -1;
+
+    private WidgetDataType() {
+    }
+
+    /**
+     * Widgets are values only, they are compared for equality by id & version.
+     */
+    @Override
+    public int compare(Object a, Object b) {
+        Widget widget = (Widget) a;
+        Widget otherWidget = (Widget) b;
+        int comparison = Long.compare(widget.getId(), otherWidget.getId());
+        return comparison != 0 ? comparison : Long.compare(widget.getVersion(), otherWidget.getVersion());
+    }
+
+    @Override
+    public int getMemory(Object obj) {
+        return MEMORY;
+    }
+
+    @Override
+    public void write(WriteBuffer buff, Object obj) {
+        Widget widget = (Widget) obj;
+        buff.putLong(widget.getId())
+                .putInt(widget.getXIndex())
+                .putInt(widget.getYIndex())
+                .putInt(widget.getZIndex())
+                .putInt(widget.getWidth())
+                .putInt(widget.getHeight());
+        if (widget.getUpdateTime() == null) {
+            buff.putLong(0).putInt(NO_UPDATE_TIME);
+        } else {
+            buff.putLong(widget.getUpdateTime().toEpochSecond(ZoneOffset.UTC)).putInt(widget.getUpdateTime().getNano());
+        }
+        buff.putLong(widget.getVersion() == null ? 0 : widget.getVersion());
+    }
+
+    @Override
+    public void write(WriteBuffer buff, Object[] obj, int len, boolean key) {
+        for (int i = 0; i < len; i++) {
+            write(buff, obj[i]);
+        }
+    }
+
+    @Override
+    public Object read(ByteBuffer buff) {
+        Widget widget = Widget.builder()
+                .id(buff.getLong())
+                .xIndex(buff.getInt())
+                .yIndex(buff.getInt())
+                .zIndex(buff.getInt())
+                .width(buff.getInt())
+                .height(buff.getInt())
+                .build();
+        long epochSecond = buff.getLong();
+        int nanos = buff.getInt();
+        if (nanos != NO_UPDATE_TIME) {
+            widget.setUpdateTime(LocalDateTime.ofEpochSecond(epochSecond, nanos, ZoneOffset.UTC));
+        }
+        widget.setVersion(buff.getLong());
+        return widget;
+    }
+
+    @Override
+    public void read(ByteBuffer buff, Object[] obj, int len, boolean key) {
+        for (int i = 0; i < len; i++) {
+            obj[i] = read(buff);
+        }
+    }
+}
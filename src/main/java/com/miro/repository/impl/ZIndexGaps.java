@@ -0,0 +1,37 @@
+package com.miro.repository.impl;
+
+/**
+ * This is the zIndex arithmetic of the relative z-order operations. A widget is moved to the middle of the gap
+ * between its new neighbours, so that the next move into the same gap finds a free zIndex as well, and a move
+ * which would overflow the int range is rejected, the zIndexes need to be compacted then.
+ *
+ * @author ahmetcetin
+ */
+final class ZIndexGaps {
+    private ZIndexGaps() {
+    }
+
+    static int above(int zIndex) {
+        try {
+            return Math.addExact(zIndex, 1);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("No zIndex is left above " + zIndex + ", compact the zIndexes first.", e);
+        }
+    }
+
+    static int below(int zIndex) {
+        try {
+            return Math.subtractExact(zIndex, 1);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("No zIndex is left below " + zIndex + ", compact the zIndexes first.", e);
+        }
+    }
+
+    /**
+     * Returns the zIndex in the middle of the two zIndexes, or null when there isn't a free zIndex between them.
+     */
+    static Integer between(int lowerZIndex, int upperZIndex) {
+        long gap = (long) upperZIndex - lowerZIndex;
+        return gap > 1 ? (int) (lowerZIndex + gap / 2) : null;
+    }
+}
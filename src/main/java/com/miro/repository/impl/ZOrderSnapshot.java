@@ -0,0 +1,95 @@
+package com.miro.repository.impl;
+
+import com.miro.model.RectangleCoordinates;
+import com.miro.model.Widget;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This is an immutable view of the widgets in zIndex order for the read path of {@link InMemoryRepository}.
+ * Widget bounds are kept in primitive arrays & doubled, so that the rectangle check is done with integer math only,
+ * e.g. "xIndex - width / 2 >= x0" is checked as "2 * xIndex - width >= 2 * x0".
+ * A snapshot belongs to a board version, it's rebuilt by the first read after a modification.
+ *
+ * @author ahmetcetin
+ */
+final class ZOrderSnapshot {
+    private static final int INITIAL_BUFFER_SIZE = 128;
+
+    // Positions of the matching widgets are collected here first, so only the exact sized result is allocated.
+    private static final ThreadLocal<int[]> MATCH_BUFFER = ThreadLocal.withInitial(() -> new int[INITIAL_BUFFER_SIZE]);
+
+    private final long version;
+    private final Widget[] widgets;
+    private final long[] minX;
+    private final long[] maxX;
+    private final long[] minY;
+    private final long[] maxY;
+
+    private ZOrderSnapshot(long version, int size) {
+        this.version = version;
+        this.widgets = new Widget[size];
+        this.minX = new long[size];
+        this.maxX = new long[size];
+        this.minY = new long[size];
+        this.maxY = new long[size];
+    }
+
+    static ZOrderSnapshot build(long version, Collection<Long> widgetIdsInZOrder, Map<Long, Widget> widgetDB) {
+        ZOrderSnapshot snapshot = new ZOrderSnapshot(version, widgetIdsInZOrder.size());
+        int i = 0;
+        for (Long widgetId : widgetIdsInZOrder) {
+            Widget widget = widgetDB.get(widgetId);
+            long x = 2L * widget.getXIndex();
+            long y = 2L * widget.getYIndex();
+            snapshot.widgets[i] = widget;
+            snapshot.minX[i] = x - widget.getWidth();
+            snapshot.maxX[i] = x + widget.getWidth();
+            snapshot.minY[i] = y - widget.getHeight();
+            snapshot.maxY[i] = y + widget.getHeight();
+            i++;
+        }
+        return snapshot;
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    List<Widget> findFirst(int limit) {
+        return Arrays.asList(Arrays.copyOf(widgets, Math.min(Math.max(limit, 0), widgets.length)));
+    }
+
+    List<Widget> findInRectangle(RectangleCoordinates coordinates, int limit) {
+        long x0 = 2L * coordinates.getX0();
+        long y0 = 2L * coordinates.getY0();
+        long x1 = 2L * coordinates.getX1();
+        long y1 = 2L * coordinates.getY1();
+        int[] matches = getMatchBuffer(Math.min(Math.max(limit, 0), widgets.length));
+
+        int count = 0;
+        for (int i = 0; i < widgets.length && count < limit; i++) {
+            if (minX[i] >= x0 && maxX[i] <= x1 && minY[i] >= y0 && maxY[i] <= y1) {
+                matches[count++] = i;
+            }
+        }
+
+        Widget[] result = new Widget[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = widgets[matches[i]];
+        }
+        return Arrays.asList(result);
+    }
+
+    private static int[] getMatchBuffer(int size) {
+        int[] buffer = MATCH_BUFFER.get();
+        if (buffer.length < size) {
+            buffer = new int[Math.max(size, buffer.length * 2)];
+            MATCH_BUFFER.set(buffer);
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,107 @@
+package com.miro.repository.index;
+
+import com.miro.model.Widget;
+import com.miro.model.WidgetOverlap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * This finds all pairs of overlapping widgets with a sweep line over the x axis. Widget bounds are copied into primitive
+ * arrays sorted by their left edge, so every widget is compared only with the following widgets starting before its
+ * right edge. Widgets touching at an edge don't overlap. Bounds are doubled like in {@link com.miro.model.RectangleCoordinates},
+ * so half sizes are compared without floating point math.
+ * Large boards are split into x partitions of the sorted widgets which are swept in parallel, every pair is found
+ * by the partition of its left-most widget only, so the partitions don't need to be merged. Partitions hand their pairs
+ * over in batches of {@value #BATCH_SIZE} as they go, so at most one batch per partition is buffered.
+ *
+ * @author ahmetcetin
+ */
+public final class OverlapDetector {
+    static final int PARALLEL_THRESHOLD = 10_000;
+    private static final int PARTITIONS_PER_PROCESSOR = 4;
+    private static final int BATCH_SIZE = 1024;
+
+    private final long[] ids;
+    private final long[] minX;
+    private final long[] maxX;
+    private final long[] minY;
+    private final long[] maxY;
+
+    /**
+     * Widgets are copied, so that the detection can run without holding the lock of the widgets.
+     */
+    public OverlapDetector(Collection<Widget> widgets) {
+        List<Widget> sortedWidgets = new ArrayList<>(widgets);
+        sortedWidgets.sort(Comparator.comparingLong(widget -> 2L * widget.getXIndex() - widget.getWidth()));
+
+        int size = sortedWidgets.size();
+        ids = new long[size];
+        minX = new long[size];
+        maxX = new long[size];
+        minY = new long[size];
+        maxY = new long[size];
+        for (int i = 0; i < size; i++) {
+            Widget widget = sortedWidgets.get(i);
+            ids[i] = widget.getId();
+            minX[i] = 2L * widget.getXIndex() - widget.getWidth();
+            maxX[i] = 2L * widget.getXIndex() + widget.getWidth();
+            minY[i] = 2L * widget.getYIndex() - widget.getHeight();
+            maxY[i] = 2L * widget.getYIndex() + widget.getHeight();
+        }
+    }
+
+    public static boolean overlaps(Widget widget, Widget otherWidget) {
+        return 2L * Math.abs((long) widget.getXIndex() - otherWidget.getXIndex()) < (long) widget.getWidth() + otherWidget.getWidth()
+                && 2L * Math.abs((long) widget.getYIndex() - otherWidget.getYIndex()) < (long) widget.getHeight() + otherWidget.getHeight();
+    }
+
+    /**
+     * Overlaps are given to the consumer one at a time, in the order of the left edge of their left-most widget.
+     * For large boards the consumer is called from the threads of the common pool, batch by batch under a lock,
+     * so that order is kept only within a partition.
+     */
+    public void findOverlaps(Consumer<WidgetOverlap> consumer) {
+        if (ids.length < PARALLEL_THRESHOLD) {
+            findOverlaps(0, ids.length, consumer);
+            return;
+        }
+
+        int partitionCount = Runtime.getRuntime().availableProcessors() * PARTITIONS_PER_PROCESSOR;
+        int partitionSize = (ids.length + partitionCount - 1) / partitionCount;
+        Object consumerLock = new Object();
+        IntStream.range(0, partitionCount)
+                .parallel()
+                .forEach(partition -> {
+                    List<WidgetOverlap> batch = new ArrayList<>(BATCH_SIZE);
+                    findOverlaps(partition * partitionSize, Math.min(ids.length, (partition + 1) * partitionSize), overlap -> {
+                        batch.add(overlap);
+                        if (batch.size() == BATCH_SIZE) {
+                            handOver(batch, consumer, consumerLock);
+                        }
+                    });
+                    handOver(batch, consumer, consumerLock);
+                });
+    }
+
+    private static void handOver(List<WidgetOverlap> batch, Consumer<WidgetOverlap> consumer, Object consumerLock) {
+        synchronized (consumerLock) {
+            batch.forEach(consumer);
+        }
+        batch.clear();
+    }
+
+    private void findOverlaps(int from, int to, Consumer<WidgetOverlap> consumer) {
+        for (int i = from; i < to; i++) {
+            for (int j = i + 1; j < ids.length && minX[j] < maxX[i]; j++) {
+                if (minX[i] < maxX[j] && minY[j] < maxY[i] && minY[i] < maxY[j]) {
+                    consumer.accept(new WidgetOverlap(Math.min(ids[i], ids[j]), Math.max(ids[i], ids[j])));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,569 @@
+package com.miro.repository.index;
+
+import com.miro.model.RectangleCoordinates;
+import com.miro.model.TileSummary;
+import com.miro.model.Widget;
+import com.miro.model.WidgetStats;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * This is a hierarchical tile index(quadtree) over widget centers, to summarize widgets for zoomed-out views,
+ * to answer board statistics from the tile counts, to find the nearest widgets of a point & the overlapping ones of a widget.
+ * Tiles of level {@value #MAX_LEVEL} are the smallest ones & keep their widgets, every upper level doubles the tile size
+ * & aggregates four tiles of the level below. Summaries are maintained incrementally on every put & remove,
+ * so that a query visits only the tiles which have widgets.
+ * Top-most widgets are compared by the current zIndex of the widget objects: shifting keeps the relative order
+ * of the widgets, so only the widgets which are put & removed need to be aggregated again.
+ * It isn't thread-safe, the owner guards it with its own lock.
+ *
+ * @author ahmetcetin
+ */
+public class TileIndex {
+    public static final int MAX_LEVEL = 15;
+    private static final int MIN_TILE_SHIFT = 6; // Tiles of the max level are 64 x 64
+
+    private final List<Map<Long, Tile>> levels = new ArrayList<>(MAX_LEVEL + 1);
+    private final Map<Long, Widget> widgets = new HashMap<>(); // Indexed widgets, to find the tiles of previous position
+
+    public TileIndex() {
+        for (int level = 0; level <= MAX_LEVEL; level++) {
+            levels.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * @return the size of tiles at level, every level halves the tile size of the level above
+     * @throws IllegalArgumentException when the level is not between 0 & {@value #MAX_LEVEL}
+     */
+    public static int getTileSize(int level) {
+        return 1 << getTileShift(level);
+    }
+
+    /**
+     * @return the tile coordinate of a widget coordinate at level, the same as floor(coordinate / tile size)
+     */
+    public static int toTileCoordinate(int coordinate, int level) {
+        return coordinate >> getTileShift(level);
+    }
+
+    /**
+     * Indexes the widget, or moves it to its new position when it is indexed already.
+     * A widget whose bounds didn't change, e.g. a shifted one, stays in its tiles & only the top-most widgets are updated.
+     */
+    public void put(Widget widget) {
+        Widget previousWidget = widgets.get(widget.getId());
+        if (previousWidget != null && hasSameBounds(previousWidget, widget)) {
+            replace(previousWidget, widget);
+            return;
+        }
+
+        remove(widget.getId());
+        widgets.put(widget.getId(), widget);
+
+        int tileX = toTileCoordinate(widget.getXIndex(), MAX_LEVEL);
+        int tileY = toTileCoordinate(widget.getYIndex(), MAX_LEVEL);
+        for (int level = MAX_LEVEL; level >= 0; level--) {
+            int levelTileX = tileX >> (MAX_LEVEL - level);
+            int levelTileY = tileY >> (MAX_LEVEL - level);
+            Tile tile = levels.get(level).computeIfAbsent(toKey(levelTileX, levelTileY),
+                    key -> new Tile(levelTileX, levelTileY));
+            tile.add(widget);
+        }
+        levels.get(MAX_LEVEL).get(toKey(tileX, tileY)).widgets.put(widget.getId(), widget);
+    }
+
+    /**
+     * Counts are decremented, a tile is aggregated again only when the widget was its top-most one or on its bounds:
+     * leaf tile from its widgets, upper tiles from their four child tiles. A widget which is inside the bounds of a tile
+     * is inside the bounds of the upper tiles too, so they are not aggregated again once a tile isn't affected.
+     */
+    public void remove(Long widgetId) {
+        Widget widget = widgets.remove(widgetId);
+        if (widget == null) {
+            return;
+        }
+
+        int tileX = toTileCoordinate(widget.getXIndex(), MAX_LEVEL);
+        int tileY = toTileCoordinate(widget.getYIndex(), MAX_LEVEL);
+        levels.get(MAX_LEVEL).get(toKey(tileX, tileY)).widgets.remove(widgetId);
+        boolean affected = true;
+        for (int level = MAX_LEVEL; level >= 0; level--) {
+            Tile tile = levels.get(level).get(toKey(tileX >> (MAX_LEVEL - level), tileY >> (MAX_LEVEL - level)));
+            affected = affected && (tile.topWidget.getId().equals(widgetId) || tile.isOnBounds(widget));
+            if (tile.count == 1) {
+                levels.get(level).remove(toKey(tile.tileX, tile.tileY));
+            } else if (affected) {
+                aggregate(level, tile);
+            } else {
+                tile.count--;
+            }
+        }
+    }
+
+    /**
+     * Replaces the widget object in its tiles, the top-most widget of a tile changes only when the zIndex of the widget
+     * passes it, or when the widget was the top-most one & its zIndex decreased.
+     */
+    private void replace(Widget previousWidget, Widget widget) {
+        widgets.put(widget.getId(), widget);
+        int tileX = toTileCoordinate(widget.getXIndex(), MAX_LEVEL);
+        int tileY = toTileCoordinate(widget.getYIndex(), MAX_LEVEL);
+        levels.get(MAX_LEVEL).get(toKey(tileX, tileY)).widgets.put(widget.getId(), widget);
+        for (int level = MAX_LEVEL; level >= 0; level--) {
+            Tile tile = levels.get(level).get(toKey(tileX >> (MAX_LEVEL - level), tileY >> (MAX_LEVEL - level)));
+            if (!tile.topWidget.getId().equals(widget.getId())) {
+                if (widget.getZIndex() <= tile.topWidget.getZIndex()) {
+                    return; // Upper tiles have a top-most widget at least as high.
+                }
+                tile.topWidget = widget;
+            } else if (widget.getZIndex() >= previousWidget.getZIndex()) {
+                tile.topWidget = widget;
+            } else {
+                aggregate(level, tile);
+            }
+        }
+    }
+
+    private void aggregate(int level, Tile tile) {
+        tile.reset();
+        if (level == MAX_LEVEL) {
+            tile.widgets.values().forEach(tile::add);
+        } else {
+            for (Tile childTile : findChildTiles(level, tile)) {
+                tile.merge(childTile);
+            }
+        }
+    }
+
+    private static boolean hasSameBounds(Widget widget, Widget otherWidget) {
+        return widget.getXIndex().equals(otherWidget.getXIndex()) && widget.getYIndex().equals(otherWidget.getYIndex())
+                && widget.getWidth().equals(otherWidget.getWidth()) && widget.getHeight().equals(otherWidget.getHeight());
+    }
+
+    public void clear() {
+        widgets.clear();
+        levels.forEach(Map::clear);
+    }
+
+    /**
+     * Only the tiles having widgets are visited, starting from the top level down to the requested one.
+     *
+     * @return the summaries of tiles at level which intersect with coordinates, sorted by tileY & tileX
+     */
+    public List<TileSummary> findTiles(RectangleCoordinates coordinates, int level) {
+        int tileSize = getTileSize(level);
+        List<TileSummary> tileSummaries = new ArrayList<>();
+        for (Tile tile : findTopLevelTiles(coordinates)) {
+            collectTiles(coordinates, level, 0, tile, tileSize, tileSummaries);
+        }
+        tileSummaries.sort(Comparator.comparingInt(TileSummary::getTileY).thenComparingInt(TileSummary::getTileX));
+        return tileSummaries;
+    }
+
+    /**
+     * Counts & the extent are read from the tiles, only the widgets of the leaf tiles on the rectangle edges are visited.
+     *
+     * @return the widget count & the extent of the board, with the count in coordinates when they are given
+     */
+    public WidgetStats getStats(RectangleCoordinates coordinates) {
+        Tile board = new Tile(0, 0);
+        levels.get(0).values().forEach(board::mergeBounds);
+        boolean empty = widgets.isEmpty();
+
+        Long countInRectangle = null;
+        if (coordinates != null) {
+            countInRectangle = 0L;
+            for (Tile tile : levels.get(0).values()) {
+                countInRectangle += countInRectangle(coordinates, 0, tile);
+            }
+        }
+        return WidgetStats.builder()
+                .totalCount(widgets.size())
+                .countInRectangle(countInRectangle)
+                .minX(empty ? null : board.minX)
+                .minY(empty ? null : board.minY)
+                .maxX(empty ? null : board.maxX)
+                .maxY(empty ? null : board.maxY)
+                .build();
+    }
+
+    /**
+     * Tile bounds round half sizes up, so a tile inside the rectangle has all of its widgets inside
+     * & a tile not intersecting with it has none of them.
+     */
+    private long countInRectangle(RectangleCoordinates coordinates, int level, Tile tile) {
+        if (!tile.intersects(coordinates)) {
+            return 0;
+        }
+        if (tile.isInside(coordinates)) {
+            return tile.count;
+        }
+
+        long count = 0;
+        if (level == MAX_LEVEL) {
+            for (Widget widget : tile.widgets.values()) {
+                if (coordinates.contains(widget)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+        for (Tile childTile : findChildTiles(level, tile)) {
+            count += countInRectangle(coordinates, level + 1, childTile);
+        }
+        return count;
+    }
+
+    /**
+     * Only the tiles of the estimation level are visited, whose size is a quarter to a half of the rectangle,
+     * so that a few tiles are looked up for any rectangle size. Tiles inside the rectangle are counted fully,
+     * the ones on its edges in proportion to the covered part of their bounds.
+     *
+     * @return the estimated number of widgets completely inside the rectangle
+     */
+    public double estimateCountInRectangle(RectangleCoordinates coordinates) {
+        double estimatedCount = 0;
+        for (Tile tile : findLevelTiles(coordinates, getEstimationLevel(coordinates))) {
+            if (tile.isInside(coordinates)) {
+                estimatedCount += tile.count;
+            } else if (tile.intersects(coordinates)) {
+                estimatedCount += tile.count * tile.getCoveredRatio(coordinates);
+            }
+        }
+        return estimatedCount;
+    }
+
+    /**
+     * Best-first traversal: tiles & widgets are polled by their distance to the point, a tile by the distance
+     * of its area which has the centers of its widgets. At equal distances tiles are polled first,
+     * so the widgets of the same distance are ordered by zIndex(top-most first) in any case.
+     *
+     * @return the k widgets whose center is the closest to the point, the closest first
+     */
+    public List<Widget> findNearest(int x, int y, int k) {
+        PriorityQueue<NearestEntry> entries = new PriorityQueue<>();
+        for (Tile tile : levels.get(0).values()) {
+            entries.add(new NearestEntry(tile.getDistanceSquared(x, y, 0), 0, tile, null));
+        }
+
+        List<Widget> nearestWidgets = new ArrayList<>(k);
+        while (nearestWidgets.size() < k && !entries.isEmpty()) {
+            NearestEntry entry = entries.poll();
+            if (entry.widget != null) {
+                nearestWidgets.add(entry.widget);
+            } else if (entry.level == MAX_LEVEL) {
+                for (Widget widget : entry.tile.widgets.values()) {
+                    entries.add(new NearestEntry(getDistanceSquared(widget, x, y), MAX_LEVEL, null, widget));
+                }
+            } else {
+                int childLevel = entry.level + 1;
+                for (Tile childTile : findChildTiles(entry.level, entry.tile)) {
+                    entries.add(new NearestEntry(childTile.getDistanceSquared(x, y, childLevel), childLevel, childTile, null));
+                }
+            }
+        }
+        return nearestWidgets;
+    }
+
+    public static long getDistanceSquared(Widget widget, int x, int y) {
+        long dx = (long) widget.getXIndex() - x;
+        long dy = (long) widget.getYIndex() - y;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Tiles are visited only when their bounds intersect with the bounds of the widget.
+     *
+     * @return the other widgets overlapping with the widget, not sorted
+     */
+    public List<Widget> findOverlapping(Widget widget) {
+        int halfWidth = (widget.getWidth() + 1) / 2;
+        int halfHeight = (widget.getHeight() + 1) / 2;
+        RectangleCoordinates bounds = RectangleCoordinates.builder()
+                .x0(widget.getXIndex() - halfWidth).y0(widget.getYIndex() - halfHeight)
+                .x1(widget.getXIndex() + halfWidth).y1(widget.getYIndex() + halfHeight)
+                .build();
+
+        List<Widget> overlappingWidgets = new ArrayList<>();
+        for (Tile tile : levels.get(0).values()) {
+            collectOverlapping(widget, bounds, 0, tile, overlappingWidgets);
+        }
+        return overlappingWidgets;
+    }
+
+    private void collectOverlapping(Widget widget, RectangleCoordinates bounds, int level, Tile tile, List<Widget> overlappingWidgets) {
+        if (!tile.intersects(bounds)) {
+            return;
+        }
+        if (level == MAX_LEVEL) {
+            for (Widget otherWidget : tile.widgets.values()) {
+                if (!otherWidget.getId().equals(widget.getId()) && OverlapDetector.overlaps(widget, otherWidget)) {
+                    overlappingWidgets.add(otherWidget);
+                }
+            }
+            return;
+        }
+        for (Tile childTile : findChildTiles(level, tile)) {
+            collectOverlapping(widget, bounds, level + 1, childTile, overlappingWidgets);
+        }
+    }
+
+    /**
+     * @return the widgets which are completely inside the rectangle, visiting only the tiles intersecting with it
+     */
+    public List<Widget> findWidgetsInRectangle(RectangleCoordinates coordinates) {
+        List<Widget> foundWidgets = new ArrayList<>();
+        for (Tile tile : levels.get(0).values()) {
+            collectWidgetsInRectangle(coordinates, 0, tile, foundWidgets);
+        }
+        return foundWidgets;
+    }
+
+    private void collectWidgetsInRectangle(RectangleCoordinates coordinates, int level, Tile tile, List<Widget> foundWidgets) {
+        if (!tile.intersects(coordinates)) {
+            return;
+        }
+        if (level == MAX_LEVEL) {
+            boolean inside = tile.isInside(coordinates);
+            for (Widget widget : tile.widgets.values()) {
+                if (inside || coordinates.contains(widget)) {
+                    foundWidgets.add(widget);
+                }
+            }
+            return;
+        }
+        for (Tile childTile : findChildTiles(level, tile)) {
+            collectWidgetsInRectangle(coordinates, level + 1, childTile, foundWidgets);
+        }
+    }
+
+    private List<Tile> findTopLevelTiles(RectangleCoordinates coordinates) {
+        return findLevelTiles(coordinates, 0);
+    }
+
+    /**
+     * @return the tiles at level whose area intersects with coordinates, so the ones having the widgets centered in them
+     */
+    private List<Tile> findLevelTiles(RectangleCoordinates coordinates, int level) {
+        Map<Long, Tile> levelTiles = levels.get(level);
+        int tileX0 = toTileCoordinate(coordinates.getX0(), level);
+        int tileX1 = toTileCoordinate(coordinates.getX1(), level);
+        int tileY0 = toTileCoordinate(coordinates.getY0(), level);
+        int tileY1 = toTileCoordinate(coordinates.getY1(), level);
+
+        List<Tile> tiles = new ArrayList<>();
+        long cellCount = ((long) tileX1 - tileX0 + 1) * ((long) tileY1 - tileY0 + 1);
+        if (cellCount > levelTiles.size()) { // Scanning existing tiles is cheaper than probing every cell.
+            for (Tile tile : levelTiles.values()) {
+                if (tile.tileX >= tileX0 && tile.tileX <= tileX1 && tile.tileY >= tileY0 && tile.tileY <= tileY1) {
+                    tiles.add(tile);
+                }
+            }
+            return tiles;
+        }
+
+        for (int tileY = tileY0; tileY <= tileY1; tileY++) {
+            for (int tileX = tileX0; tileX <= tileX1; tileX++) {
+                Tile tile = levelTiles.get(toKey(tileX, tileY));
+                if (tile != null) {
+                    tiles.add(tile);
+                }
+            }
+        }
+        return tiles;
+    }
+
+    private void collectTiles(RectangleCoordinates coordinates, int targetLevel, int level, Tile tile,
+                              int tileSize, List<TileSummary> tileSummaries) {
+        if (level == targetLevel) {
+            tileSummaries.add(tile.toSummary(level, tileSize));
+            return;
+        }
+
+        int childLevel = level + 1;
+        int tileX0 = toTileCoordinate(coordinates.getX0(), childLevel);
+        int tileX1 = toTileCoordinate(coordinates.getX1(), childLevel);
+        int tileY0 = toTileCoordinate(coordinates.getY0(), childLevel);
+        int tileY1 = toTileCoordinate(coordinates.getY1(), childLevel);
+        for (Tile childTile : findChildTiles(level, tile)) {
+            if (childTile.tileX >= tileX0 && childTile.tileX <= tileX1 && childTile.tileY >= tileY0 && childTile.tileY <= tileY1) {
+                collectTiles(coordinates, targetLevel, childLevel, childTile, tileSize, tileSummaries);
+            }
+        }
+    }
+
+    private List<Tile> findChildTiles(int level, Tile tile) {
+        Map<Long, Tile> childLevelTiles = levels.get(level + 1);
+        List<Tile> childTiles = new ArrayList<>(4);
+        for (int dy = 0; dy < 2; dy++) {
+            for (int dx = 0; dx < 2; dx++) {
+                Tile childTile = childLevelTiles.get(toKey(2 * tile.tileX + dx, 2 * tile.tileY + dy));
+                if (childTile != null) {
+                    childTiles.add(childTile);
+                }
+            }
+        }
+        return childTiles;
+    }
+
+    private static int getEstimationLevel(RectangleCoordinates coordinates) {
+        long side = Math.max((long) coordinates.getX1() - coordinates.getX0(), (long) coordinates.getY1() - coordinates.getY0());
+        int shift = 63 - Long.numberOfLeadingZeros(Math.max(side / 2, 1));
+        return Math.max(0, Math.min(MAX_LEVEL, MIN_TILE_SHIFT + MAX_LEVEL - shift));
+    }
+
+    private static int getTileShift(int level) {
+        if (level < 0 || level > MAX_LEVEL) {
+            throw new IllegalArgumentException("Level should be between 0-" + MAX_LEVEL + ".");
+        }
+        return MIN_TILE_SHIFT + MAX_LEVEL - level;
+    }
+
+    private static long toKey(int tileX, int tileY) {
+        return ((long) tileX << 32) | (tileY & 0xFFFFFFFFL);
+    }
+
+    private static final class Tile {
+        private final int tileX;
+        private final int tileY;
+        private final Map<Long, Widget> widgets = new HashMap<>(); // Only kept by the tiles of max level
+        private long count;
+        private int minX;
+        private int minY;
+        private int maxX;
+        private int maxY;
+        private Widget topWidget;
+
+        private Tile(int tileX, int tileY) {
+            this.tileX = tileX;
+            this.tileY = tileY;
+            reset();
+        }
+
+        private void reset() {
+            count = 0;
+            minX = Integer.MAX_VALUE;
+            minY = Integer.MAX_VALUE;
+            maxX = Integer.MIN_VALUE;
+            maxY = Integer.MIN_VALUE;
+            topWidget = null;
+        }
+
+        private void add(Widget widget) {
+            // Widget coordinates are the center, half of odd sizes are rounded up.
+            int halfWidth = (widget.getWidth() + 1) / 2;
+            int halfHeight = (widget.getHeight() + 1) / 2;
+            count++;
+            minX = Math.min(minX, widget.getXIndex() - halfWidth);
+            minY = Math.min(minY, widget.getYIndex() - halfHeight);
+            maxX = Math.max(maxX, widget.getXIndex() + halfWidth);
+            maxY = Math.max(maxY, widget.getYIndex() + halfHeight);
+            updateTopWidget(widget);
+        }
+
+        /**
+         * @return whether the bounds of the widget touch the bounds of the tile, so the tile bounds may shrink without it
+         */
+        private boolean isOnBounds(Widget widget) {
+            int halfWidth = (widget.getWidth() + 1) / 2;
+            int halfHeight = (widget.getHeight() + 1) / 2;
+            return widget.getXIndex() - halfWidth == minX || widget.getYIndex() - halfHeight == minY
+                    || widget.getXIndex() + halfWidth == maxX || widget.getYIndex() + halfHeight == maxY;
+        }
+
+        private void merge(Tile tile) {
+            count += tile.count;
+            mergeBounds(tile);
+            updateTopWidget(tile.topWidget);
+        }
+
+        private void mergeBounds(Tile tile) {
+            minX = Math.min(minX, tile.minX);
+            minY = Math.min(minY, tile.minY);
+            maxX = Math.max(maxX, tile.maxX);
+            maxY = Math.max(maxY, tile.maxY);
+        }
+
+        private boolean intersects(RectangleCoordinates coordinates) {
+            return maxX >= coordinates.getX0() && minX <= coordinates.getX1()
+                    && maxY >= coordinates.getY0() && minY <= coordinates.getY1();
+        }
+
+        private boolean isInside(RectangleCoordinates coordinates) {
+            return minX >= coordinates.getX0() && maxX <= coordinates.getX1()
+                    && minY >= coordinates.getY0() && maxY <= coordinates.getY1();
+        }
+
+        /**
+         * @return the squared distance of the point to the tile area, which has the centers of its widgets
+         */
+        private long getDistanceSquared(int x, int y, int level) {
+            long tileSize = getTileSize(level);
+            long dx = Math.max(0, Math.max(tileX * tileSize - x, x - (tileX * tileSize + tileSize - 1)));
+            long dy = Math.max(0, Math.max(tileY * tileSize - y, y - (tileY * tileSize + tileSize - 1)));
+            return dx * dx + dy * dy;
+        }
+
+        /**
+         * @return the ratio of the tile bounds which is covered by the rectangle
+         */
+        private double getCoveredRatio(RectangleCoordinates coordinates) {
+            long coveredWidth = (long) Math.min(maxX, coordinates.getX1()) - Math.max(minX, coordinates.getX0()) + 1;
+            long coveredHeight = (long) Math.min(maxY, coordinates.getY1()) - Math.max(minY, coordinates.getY0()) + 1;
+            return (double) (coveredWidth * coveredHeight) / (((long) maxX - minX + 1) * ((long) maxY - minY + 1));
+        }
+
+        private void updateTopWidget(Widget widget) {
+            if (topWidget == null || widget.getZIndex() > topWidget.getZIndex()) {
+                topWidget = widget;
+            }
+        }
+
+        private TileSummary toSummary(int level, int tileSize) {
+            return TileSummary.builder()
+                    .level(level)
+                    .tileX(tileX)
+                    .tileY(tileY)
+                    .tileSize(tileSize)
+                    .count(count)
+                    .minX(minX)
+                    .minY(minY)
+                    .maxX(maxX)
+                    .maxY(maxY)
+                    .topWidgetId(topWidget.getId())
+                    .build();
+        }
+    }
+
+    private static final class NearestEntry implements Comparable<NearestEntry> {
+        private final long distanceSquared;
+        private final int level;
+        private final Tile tile;
+        private final Widget widget;
+
+        private NearestEntry(long distanceSquared, int level, Tile tile, Widget widget) {
+            this.distanceSquared = distanceSquared;
+            this.level = level;
+            this.tile = tile;
+            this.widget = widget;
+        }
+
+        @Override
+        public int compareTo(NearestEntry entry) {
+            int distanceOrder = Long.compare(distanceSquared, entry.distanceSquared);
+            if (distanceOrder != 0) {
+                return distanceOrder;
+            }
+            if (widget == null || entry.widget == null) {
+                return Boolean.compare(widget != null, entry.widget != null);
+            }
+            return Integer.compare(entry.widget.getZIndex(), widget.getZIndex());
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.miro.repository.plan;
+
+import com.miro.model.QueryPlan;
+
+/**
+ * This is a cost based planner of rectangle queries. Matching widgets are assumed to be spread evenly in zIndex order,
+ * so a scan is expected to visit "limit * totalCount / estimatedCount" widgets before it stops,
+ * while a probe visits its candidates & sorts the matches by zIndex.
+ * Costs are relative, every repository gives the weights of its own row operations.
+ *
+ * @author ahmetcetin
+ */
+public class QueryPlanner {
+    private final double scanRowCost;
+    private final double probeRowCost;
+    private final double sortRowCost;
+    private final double probeSetupCost;
+
+    /**
+     * @param probeSetupCost the fixed cost of a probe, e.g. looking up the index tiles
+     */
+    public QueryPlanner(double scanRowCost, double probeRowCost, double sortRowCost, double probeSetupCost) {
+        this.scanRowCost = scanRowCost;
+        this.probeRowCost = probeRowCost;
+        this.sortRowCost = sortRowCost;
+        this.probeSetupCost = probeSetupCost;
+    }
+
+    /**
+     * @param totalCount     the number of widgets on the board
+     * @param estimatedCount the estimated number of widgets in the rectangle
+     * @param candidateCount the estimated number of widgets the probe visits to find them
+     */
+    public QueryPlan choose(long totalCount, double estimatedCount, double candidateCount, int limit) {
+        return getProbeCost(estimatedCount, candidateCount) < getScanCost(totalCount, estimatedCount, limit)
+                ? QueryPlan.SPATIAL_PROBE
+                : QueryPlan.Z_ORDER_SCAN;
+    }
+
+    double getScanCost(long totalCount, double estimatedCount, int limit) {
+        double scannedRows = estimatedCount < 1 ? totalCount : Math.min(totalCount, limit * totalCount / estimatedCount);
+        return scannedRows * scanRowCost;
+    }
+
+    double getProbeCost(double estimatedCount, double candidateCount) {
+        double sortedRows = estimatedCount * Math.log(Math.max(estimatedCount, 2)) / Math.log(2);
+        return probeSetupCost + candidateCount * probeRowCost + sortedRows * sortRowCost;
+    }
+}
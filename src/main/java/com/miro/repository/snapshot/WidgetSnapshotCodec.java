@@ -0,0 +1,144 @@
+package com.miro.repository.snapshot;
+
+import com.miro.model.Widget;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * This is the codec of the binary board snapshot which is used for fast export & import of all widgets.
+ * The layout is a fixed size header, followed by a fixed-width record per widget sorted by zIndex,
+ * and a CRC32 checksum of the header & records at the end:
+ * <pre>
+ * header : magic(int) | format version(short) | record size(short) | record count(int)
+ * record : id(long) | xIndex(int) | yIndex(int) | zIndex(int) | width(int) | height(int) | updateTime seconds(long) | nanos(int)
+ * footer : crc32(int)
+ * </pre>
+ *
+ * @author ahmetcetin
+ */
+public final class WidgetSnapshotCodec {
+    static final int MAGIC = 0x4D57534E; // "MWSN"
+    static final short FORMAT_VERSION = 1;
+    static final short RECORD_SIZE = 40;
+    private static final int NO_UPDATE_TIME = -1;
+    // Record count isn't verified until the checksum is read, so collections start small & grow with the records read.
+    private static final int MAX_INITIAL_CAPACITY = 1 << 16;
+
+    private WidgetSnapshotCodec() {
+    }
+
+    /**
+     * @param outputStream to write the snapshot into, it is not closed
+     * @param widgets      to write, they need to be sorted by zIndex
+     */
+    public static void write(OutputStream outputStream, Collection<Widget> widgets) throws IOException {
+        CRC32 crc = new CRC32();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(outputStream, crc)));
+        out.writeInt(MAGIC);
+        out.writeShort(FORMAT_VERSION);
+        out.writeShort(RECORD_SIZE);
+        out.writeInt(widgets.size());
+        for (Widget widget : widgets) {
+            out.writeLong(widget.getId());
+            out.writeInt(widget.getXIndex());
+            out.writeInt(widget.getYIndex());
+            out.writeInt(widget.getZIndex());
+            out.writeInt(widget.getWidth());
+            out.writeInt(widget.getHeight());
+            if (widget.getUpdateTime() == null) {
+                out.writeLong(0);
+                out.writeInt(NO_UPDATE_TIME);
+            } else {
+                out.writeLong(widget.getUpdateTime().toEpochSecond(ZoneOffset.UTC));
+                out.writeInt(widget.getUpdateTime().getNano());
+            }
+        }
+        out.flush();
+
+        // Checksum itself is written outside of the checked stream.
+        new DataOutputStream(outputStream).writeInt((int) crc.getValue());
+        outputStream.flush();
+    }
+
+    /**
+     * @param inputStream to read the snapshot from, it is not closed
+     * @return the widgets of snapshot sorted by zIndex, with unique ids
+     * @throws IllegalArgumentException when the snapshot is corrupted or not in the expected format
+     */
+    public static List<Widget> read(InputStream inputStream) throws IOException {
+        CRC32 crc = new CRC32();
+        DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(inputStream), crc));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IllegalArgumentException("Snapshot doesn't start with the expected magic number.");
+            }
+            short formatVersion = in.readShort();
+            short recordSize = in.readShort();
+            if (formatVersion != FORMAT_VERSION || recordSize != RECORD_SIZE) {
+                throw new IllegalArgumentException("Unsupported snapshot format version: " + formatVersion);
+            }
+            int recordCount = in.readInt();
+            if (recordCount < 0) {
+                throw new IllegalArgumentException("Snapshot record count can't be negative.");
+            }
+
+            int initialCapacity = Math.min(recordCount, MAX_INITIAL_CAPACITY);
+            List<Widget> widgets = new ArrayList<>(initialCapacity);
+            Set<Long> widgetIds = new HashSet<>(initialCapacity * 2);
+            for (int i = 0; i < recordCount; i++) {
+                Widget widget = readRecord(in);
+                // Loaders rely on this order to build the zIndex indexes in one pass.
+                if (i > 0 && widget.getZIndex() <= widgets.get(i - 1).getZIndex()) {
+                    throw new IllegalArgumentException("Snapshot records should be sorted by unique zIndex.");
+                }
+                // Loaders replace the board only after the whole snapshot is validated.
+                if (!widgetIds.add(widget.getId())) {
+                    throw new IllegalArgumentException("Snapshot contains duplicate widget id: " + widget.getId());
+                }
+                widgets.add(widget);
+            }
+
+            int expectedChecksum = (int) crc.getValue();
+            if (in.readInt() != expectedChecksum) {
+                throw new IllegalArgumentException("Snapshot checksum doesn't match, snapshot is corrupted.");
+            }
+            return widgets;
+        } catch (EOFException e) {
+            throw new IllegalArgumentException("Snapshot is truncated.");
+        }
+    }
+
+    private static Widget readRecord(DataInputStream in) throws IOException {
+        Widget widget = Widget.builder()
+                .id(in.readLong())
+                .xIndex(in.readInt())
+                .yIndex(in.readInt())
+                .zIndex(in.readInt())
+                .width(in.readInt())
+                .height(in.readInt())
+                .build();
+        long epochSecond = in.readLong();
+        int nanos = in.readInt();
+        if (nanos != NO_UPDATE_TIME) {
+            widget.setUpdateTime(LocalDateTime.ofEpochSecond(epochSecond, nanos, ZoneOffset.UTC));
+        }
+        return widget;
+    }
+}
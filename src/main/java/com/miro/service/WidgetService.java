@@ -1,9 +1,19 @@
 package com.miro.service;
 
 import com.miro.model.RectangleCoordinates;
+import com.miro.model.TileSummary;
 import com.miro.model.Widget;
+import com.miro.model.WidgetChanges;
+import com.miro.model.WidgetOverlap;
+import com.miro.model.WidgetQueryResult;
+import com.miro.model.WidgetStats;
+import com.miro.model.ZIndexCompactionResult;
+import com.miro.model.ZIndexStats;
 
+import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * This is the service interface for widget related operations.
@@ -23,11 +33,30 @@ public interface WidgetService {
      */
     Widget updateWidget(Widget widget);
 
+    /**
+     * @param widget with id & only the fields to change
+     * @return updated widget
+     */
+    Widget patchWidget(Widget widget);
+
     /**
      * @param id of widget to delete
      */
     void deleteWidget(Long id);
 
+    /**
+     * @param coordinates of the rectangle to clear
+     * @return the number of deleted widgets, which were completely inside the rectangle
+     */
+    int deleteInRectangle(RectangleCoordinates coordinates);
+
+    /**
+     * @param fromZIndex lowest zIndex to delete, inclusive
+     * @param toZIndex   highest zIndex to delete, inclusive
+     * @return the number of deleted widgets
+     */
+    int deleteInZIndexRange(int fromZIndex, int toZIndex);
+
     /**
      * @param id of widget to find
      * @return found widget
@@ -43,7 +72,94 @@ public interface WidgetService {
     /**
      * @param coordinates to find out which widgets are in
      * @param limit       for queried Widget entities
-     * @return the widgets found in the specific coordinates sorted by zIndex with limit
+     * @return the widgets found in the specific coordinates sorted by zIndex with limit, with the query plan
+     */
+    WidgetQueryResult findWithCoordinates(RectangleCoordinates coordinates, Integer limit);
+
+    /**
+     * @param x coordinate of the point
+     * @param y coordinate of the point
+     * @param k number of widgets to find
+     * @return the k widgets whose center is the nearest to the point, the nearest first
+     */
+    List<Widget> findNearest(int x, int y, int k);
+
+    /**
+     * @param consumer is given every pair of overlapping widgets while they are found
+     */
+    void findOverlaps(Consumer<WidgetOverlap> consumer);
+
+    /**
+     * @param id of the widget to find the overlapping widgets of
+     * @return the other widgets overlapping with it, sorted by zIndex
+     */
+    List<Widget> findOverlapping(Long id);
+
+    /**
+     * @param coordinates to find out which tiles intersect with
+     * @param level       zoom level, tiles get smaller as the level increases
+     * @return the summaries of tiles: widget count, bounding box & top-most widget id
+     */
+    List<TileSummary> findTiles(RectangleCoordinates coordinates, int level);
+
+    /**
+     * @param coordinates to count the widgets in, it is optional
+     * @return total widget count, zIndex range & extent of the board, with the widget count in coordinates
+     */
+    WidgetStats getStats(RectangleCoordinates coordinates);
+
+    /**
+     * @param version     board version which the client is synced to
+     * @param coordinates of the client viewport, all changes are returned when it is null
+     * @return the widgets changed & deleted since version, with the current board version
+     */
+    WidgetChanges findChangesSince(long version, RectangleCoordinates coordinates);
+
+    /**
+     * @return the temporary file which keeps the binary snapshot of all widgets, it should be deleted by the caller
+     */
+    Path exportSnapshot();
+
+    /**
+     * @param inputStream of the binary snapshot to replace all widgets with
+     * @return the number of imported widgets
+     */
+    int importSnapshot(InputStream inputStream);
+
+    /**
+     * @return the statistics of how zIndexes are distributed
+     */
+    ZIndexStats getZIndexStats();
+
+    /**
+     * @param spacing between zIndexes of consecutive widgets after compaction
+     * @return the zIndex statistics before & after compaction
+     */
+    ZIndexCompactionResult compactZIndexes(int spacing);
+
+    /**
+     * @param id of widget to move above all other widgets
+     * @return moved widget
+     */
+    Widget bringToFront(Long id);
+
+    /**
+     * @param id of widget to move below all other widgets
+     * @return moved widget
+     */
+    Widget sendToBack(Long id);
+
+    /**
+     * @param id       of widget to move
+     * @param targetId of widget which the moved widget will be right above
+     * @return moved widget
+     */
+    Widget moveAbove(Long id, Long targetId);
+
+    /**
+     * @param id       of widget to move
+     * @param targetId of widget which the moved widget will be right below
+     * @return moved widget
      */
-    List<Widget> findWithCoordinates(RectangleCoordinates coordinates, Integer limit);
+    Widget moveBelow(Long id, Long targetId);
 }
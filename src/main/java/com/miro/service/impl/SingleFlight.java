@@ -0,0 +1,65 @@
+package com.miro.service.impl;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * This runs one call at a time per key. A caller which comes while the call of the same key is in flight
+ * doesn't make its own call, it waits & gets the result(or the exception) of the in-flight one.
+ * Nothing is cached, the key is forgotten as soon as the call completes.
+ *
+ * @author ahmetcetin
+ */
+final class SingleFlight<K, V> {
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlightCalls = new ConcurrentHashMap<>();
+    private final LongAdder executedCount = new LongAdder();
+    private final LongAdder coalescedCount = new LongAdder();
+
+    V execute(K key, Supplier<V> call) {
+        CompletableFuture<V> ownCall = new CompletableFuture<>();
+        CompletableFuture<V> inFlightCall = inFlightCalls.putIfAbsent(key, ownCall);
+        if (inFlightCall != null) {
+            coalescedCount.increment();
+            return await(inFlightCall);
+        }
+
+        executedCount.increment();
+        try {
+            V result = call.get();
+            ownCall.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            ownCall.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightCalls.remove(key, ownCall);
+        }
+    }
+
+    long getExecutedCount() {
+        return executedCount.sum();
+    }
+
+    long getCoalescedCount() {
+        return coalescedCount.sum();
+    }
+
+    private V await(CompletableFuture<V> inFlightCall) {
+        try {
+            return inFlightCall.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -1,33 +1,79 @@
 package com.miro.service.impl;
 
+import com.miro.model.QueryPlan;
 import com.miro.model.RectangleCoordinates;
+import com.miro.model.TileSummary;
 import com.miro.model.Widget;
+import com.miro.model.WidgetChanges;
+import com.miro.model.WidgetOverlap;
+import com.miro.model.WidgetQueryResult;
+import com.miro.model.WidgetStats;
+import com.miro.model.ZIndexCompactionResult;
+import com.miro.model.ZIndexStats;
 import com.miro.repository.WidgetRepository;
 import com.miro.repository.impl.H2WidgetRepository;
 import com.miro.repository.impl.InMemoryRepository;
 import com.miro.service.WidgetService;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import lombok.RequiredArgsConstructor;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 /**
  * This is service implementation of widget.
  * Since we have multiple repository implementations and they have their specific operations required,
  * most of the logic resides in repository implementations {@link InMemoryRepository} & {@link H2WidgetRepository}
+ * <p>
+ * Identical reads which are in flight at the same time share one repository call via {@link SingleFlight}.
+ * The write epoch is a part of the read key, so a read started after a write completed never gets the result
+ * of a read started before it. Executed & coalesced reads are counted in "widget.reads" metric,
+ * executed rectangle queries in "widget.query.plans" metric by their plan.
  *
  * @author ahmetcetin
  */
 @Service
 @RequiredArgsConstructor
 @Slf4j
-public class WidgetServiceImpl implements WidgetService {
+public class WidgetServiceImpl implements WidgetService, MeterBinder {
     private final WidgetRepository widgetRepository;
 
+    private final AtomicLong writeEpoch = new AtomicLong();
+    private final SingleFlight<ReadKey, Widget> findByIdCalls = new SingleFlight<>();
+    private final SingleFlight<ReadKey, List<Widget>> findWithLimitCalls = new SingleFlight<>();
+    private final SingleFlight<ReadKey, WidgetQueryResult> findWithCoordinatesCalls = new SingleFlight<>();
+    private final Map<QueryPlan, LongAdder> queryPlanCounts = createQueryPlanCounts();
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bindReadCounters(registry, "findById", findByIdCalls);
+        bindReadCounters(registry, "findWithLimit", findWithLimitCalls);
+        bindReadCounters(registry, "findWithCoordinates", findWithCoordinatesCalls);
+        queryPlanCounts.forEach((plan, count) -> FunctionCounter.builder("widget.query.plans", count, LongAdder::sum)
+                .description("Rectangle queries executed by the plan")
+                .tags("plan", plan.name())
+                .register(registry));
+    }
+
     @Override
     public Widget createWidget(Widget widget) {
         Widget createdWidget = widgetRepository.save(widget);
+        writeEpoch.incrementAndGet();
         log.info("Created widget with id: {}", createdWidget.getId());
         return createdWidget;
     }
@@ -35,34 +81,211 @@ public class WidgetServiceImpl implements WidgetService {
     @Override
     public Widget updateWidget(Widget widget) {
         Widget updatedWidget = widgetRepository.save(widget);
+        writeEpoch.incrementAndGet();
         log.info("Updated widget with id: {}", updatedWidget.getId());
         return updatedWidget;
     }
 
+    @Override
+    public Widget patchWidget(Widget widget) {
+        Widget patchedWidget = widgetRepository.patch(widget);
+        writeEpoch.incrementAndGet();
+        log.info("Patched widget with id: {}", patchedWidget.getId());
+        return patchedWidget;
+    }
+
     @Override
     public void deleteWidget(Long id) {
         widgetRepository.deleteById(id);
+        writeEpoch.incrementAndGet();
         log.info("Deleted widget with id: {}", id);
     }
 
+    @Override
+    public int deleteInRectangle(RectangleCoordinates coordinates) {
+        int deletedCount = widgetRepository.deleteInRectangle(coordinates);
+        writeEpoch.incrementAndGet();
+        log.info("Deleted {} widgets with coordinates: {}", deletedCount, coordinates);
+        return deletedCount;
+    }
+
+    @Override
+    public int deleteInZIndexRange(int fromZIndex, int toZIndex) {
+        int deletedCount = widgetRepository.deleteInZIndexRange(fromZIndex, toZIndex);
+        writeEpoch.incrementAndGet();
+        log.info("Deleted {} widgets with zIndex between {} and {}", deletedCount, fromZIndex, toZIndex);
+        return deletedCount;
+    }
+
     @Override
     public Widget findWidgetById(Long id) {
-        Widget foundWidget = widgetRepository.findById(id);
+        Widget foundWidget = findByIdCalls.execute(new ReadKey(writeEpoch.get(), id, null),
+                () -> widgetRepository.findById(id));
         log.info("Found widget by id: {}", id);
         return foundWidget;
     }
 
     @Override
     public List<Widget> findWithLimit(Integer limit) {
-        List<Widget> widgetsWithLimit = widgetRepository.findWithLimit(limit);
+        List<Widget> widgetsWithLimit = findWithLimitCalls.execute(new ReadKey(writeEpoch.get(), null, limit),
+                () -> widgetRepository.findWithLimit(limit));
         log.info("Found widgets with limit: {}", limit);
         return widgetsWithLimit;
     }
 
     @Override
-    public List<Widget> findWithCoordinates(RectangleCoordinates coordinates, Integer limit) {
-        List<Widget> widgetInCoordinates = widgetRepository.findWithCoordinates(coordinates, limit);
-        log.info("Found widgets with coordinates: {}, and limit: {}", coordinates, limit);
-        return widgetInCoordinates;
+    public WidgetQueryResult findWithCoordinates(RectangleCoordinates coordinates, Integer limit) {
+        WidgetQueryResult widgetsInCoordinates = findWithCoordinatesCalls.execute(
+                new ReadKey(writeEpoch.get(), coordinates, limit),
+                () -> {
+                    WidgetQueryResult queryResult = widgetRepository.findWithCoordinates(coordinates, limit);
+                    queryPlanCounts.get(queryResult.getPlan()).increment();
+                    return queryResult;
+                });
+        log.info("Found widgets with coordinates: {}, and limit: {}, by plan: {}",
+                coordinates, limit, widgetsInCoordinates.getPlan());
+        return widgetsInCoordinates;
+    }
+
+    @Override
+    public List<Widget> findNearest(int x, int y, int k) {
+        List<Widget> nearestWidgets = widgetRepository.findNearest(x, y, k);
+        log.info("Found {} nearest widgets to x: {}, y: {}", nearestWidgets.size(), x, y);
+        return nearestWidgets;
+    }
+
+    @Override
+    public void findOverlaps(Consumer<WidgetOverlap> consumer) {
+        LongAdder overlapCount = new LongAdder();
+        widgetRepository.findOverlaps(overlap -> {
+            overlapCount.increment();
+            consumer.accept(overlap);
+        });
+        log.info("Found {} widget overlaps", overlapCount.sum());
+    }
+
+    @Override
+    public List<Widget> findOverlapping(Long id) {
+        List<Widget> overlappingWidgets = widgetRepository.findOverlapping(id);
+        log.info("Found {} widgets overlapping with widget with id: {}", overlappingWidgets.size(), id);
+        return overlappingWidgets;
+    }
+
+    @Override
+    public List<TileSummary> findTiles(RectangleCoordinates coordinates, int level) {
+        List<TileSummary> tileSummaries = widgetRepository.findTiles(coordinates, level);
+        log.info("Found {} tiles with coordinates: {}, and level: {}", tileSummaries.size(), coordinates, level);
+        return tileSummaries;
+    }
+
+    @Override
+    public WidgetStats getStats(RectangleCoordinates coordinates) {
+        WidgetStats stats = widgetRepository.getStats(coordinates);
+        log.info("Found widget stats with coordinates: {}", coordinates);
+        return stats;
+    }
+
+    @Override
+    public WidgetChanges findChangesSince(long version, RectangleCoordinates coordinates) {
+        WidgetChanges widgetChanges = widgetRepository.findChangesSince(version, coordinates);
+        log.info("Found widget changes since version: {}, with coordinates: {}", version, coordinates);
+        return widgetChanges;
+    }
+
+    @Override
+    public Path exportSnapshot() {
+        try {
+            Path snapshotFile = Files.createTempFile("widgets-", ".snapshot");
+            try (OutputStream outputStream = Files.newOutputStream(snapshotFile)) {
+                widgetRepository.exportSnapshot(outputStream);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(snapshotFile);
+                throw e;
+            }
+            log.info("Exported widget snapshot to: {}", snapshotFile);
+            return snapshotFile;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't export widget snapshot.", e);
+        }
+    }
+
+    @Override
+    public int importSnapshot(InputStream inputStream) {
+        int importedWidgetCount = widgetRepository.importSnapshot(inputStream);
+        writeEpoch.incrementAndGet();
+        log.info("Imported widget snapshot with {} widgets", importedWidgetCount);
+        return importedWidgetCount;
+    }
+
+    @Override
+    public ZIndexStats getZIndexStats() {
+        return widgetRepository.getZIndexStats();
+    }
+
+    @Override
+    public ZIndexCompactionResult compactZIndexes(int spacing) {
+        ZIndexCompactionResult compactionResult = widgetRepository.compactZIndexes(spacing);
+        writeEpoch.incrementAndGet();
+        log.info("Compacted zIndexes with spacing: {}, applied: {}, took: {} ms",
+                spacing, compactionResult.isApplied(), compactionResult.getDurationMillis());
+        return compactionResult;
+    }
+
+    @Override
+    public Widget bringToFront(Long id) {
+        Widget movedWidget = widgetRepository.bringToFront(id);
+        writeEpoch.incrementAndGet();
+        log.info("Brought widget with id: {} to front, zIndex: {}", id, movedWidget.getZIndex());
+        return movedWidget;
+    }
+
+    @Override
+    public Widget sendToBack(Long id) {
+        Widget movedWidget = widgetRepository.sendToBack(id);
+        writeEpoch.incrementAndGet();
+        log.info("Sent widget with id: {} to back, zIndex: {}", id, movedWidget.getZIndex());
+        return movedWidget;
+    }
+
+    @Override
+    public Widget moveAbove(Long id, Long targetId) {
+        Widget movedWidget = widgetRepository.moveAbove(id, targetId);
+        writeEpoch.incrementAndGet();
+        log.info("Moved widget with id: {} above widget with id: {}", id, targetId);
+        return movedWidget;
+    }
+
+    @Override
+    public Widget moveBelow(Long id, Long targetId) {
+        Widget movedWidget = widgetRepository.moveBelow(id, targetId);
+        writeEpoch.incrementAndGet();
+        log.info("Moved widget with id: {} below widget with id: {}", id, targetId);
+        return movedWidget;
+    }
+
+    private static void bindReadCounters(MeterRegistry registry, String operation, SingleFlight<?, ?> calls) {
+        FunctionCounter.builder("widget.reads", calls, SingleFlight::getExecutedCount)
+                .description("Reads which called the repository")
+                .tags("operation", operation, "outcome", "executed")
+                .register(registry);
+        FunctionCounter.builder("widget.reads", calls, SingleFlight::getCoalescedCount)
+                .description("Reads which shared the result of an identical in-flight read")
+                .tags("operation", operation, "outcome", "coalesced")
+                .register(registry);
+    }
+
+    private static Map<QueryPlan, LongAdder> createQueryPlanCounts() {
+        Map<QueryPlan, LongAdder> queryPlanCounts = new EnumMap<>(QueryPlan.class);
+        for (QueryPlan plan : QueryPlan.values()) {
+            queryPlanCounts.put(plan, new LongAdder());
+        }
+        return queryPlanCounts;
+    }
+
+    @Value
+    private static class ReadKey {
+        long writeEpoch;
+        Object argument;
+        Integer limit;
     }
 }
@@ -0,0 +1,42 @@
+package com.miro.startup;
+
+import com.miro.maintenance.ZIndexCompactionTask;
+import com.miro.replication.ReplicationServer;
+import com.miro.repository.WidgetRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * This is the configuration of startup, for the fast-startup profile which initializes beans lazily.
+ * Repositories, the replication server & the compaction task are still initialized eagerly, since they load widgets,
+ * start background threads or are scheduled, which would otherwise wait for the first request.
+ * When {@code widget.startup.exit-when-ready} is set, the application logs its startup time & exits once it is ready,
+ * which is used by the AppCDS training run & the startup benchmark.
+ *
+ * @author ahmetcetin
+ */
+@Configuration
+@Slf4j
+public class StartupConfiguration {
+    @Bean
+    static LazyInitializationExcludeFilter eagerWidgetBeans() {
+        return LazyInitializationExcludeFilter.forBeanTypes(WidgetRepository.class, ReplicationServer.class, ZIndexCompactionTask.class);
+    }
+
+    @Bean
+    @ConditionalOnProperty("widget.startup.exit-when-ready")
+    ApplicationListener<ApplicationReadyEvent> exitWhenReady() {
+        return event -> {
+            log.info("Ready in {} ms since JVM start, exiting", ManagementFactory.getRuntimeMXBean().getUptime());
+            System.exit(SpringApplication.exit(event.getApplicationContext()));
+        };
+    }
+}
@@ -0,0 +1,33 @@
+package com.miro.traffic;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * This is a widget API request recorded by {@link TrafficRecordingFilter}, identified by its HTTP method & the mapped
+ * path pattern, e.g. "PATCH /v1/widgets/{id}", with the values of the pattern's variables, the query & the body.
+ * The id of the widget created by the request is kept, so that replays can map it to the id they create.
+ *
+ * @author ahmetcetin
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class TrafficRecord {
+    private long offsetNanos; // Since the recording started
+    private long durationNanos;
+    private int status;
+    private String method;
+    private String pattern;
+    private Map<String, String> pathVariables;
+    private String query;
+    private String contentType;
+    private byte[] body;
+    private boolean bodyTruncated;
+    private Long createdId;
+}
@@ -0,0 +1,249 @@
+package com.miro.traffic;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.miro.service.WidgetService;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.util.ContentCachingRequestWrapper;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This is the opt-in recorder of widget API requests, enabled by {@code widget.traffic-recorder.enabled}.
+ * The board snapshot is written to the trace when the recording starts, followed by a {@link TrafficRecord} per request
+ * with its start offset & duration, so that the traffic can be replayed deterministically from the same board.
+ * Records are written in completion order under a single lock & flushed periodically, bodies longer than
+ * {@code widget.traffic-recorder.max-body-bytes} are truncated & they aren't replayed. The status of a streaming
+ * response is the one when its streaming starts.
+ *
+ * @author ahmetcetin
+ */
+@Component
+@Slf4j
+public class TrafficRecordingFilter extends OncePerRequestFilter implements MeterBinder {
+    private static final String WIDGET_API_PATH = "/v1/widgets";
+
+    private final WidgetService widgetService;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final Path traceFile;
+    private final int maxBodyBytes;
+    private final AtomicLong recordCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private TrafficTraceWriter writer; // Guarded by this
+    private volatile long startTime;
+
+    public TrafficRecordingFilter(WidgetService widgetService,
+                                  ObjectMapper objectMapper,
+                                  @Value("${widget.traffic-recorder.enabled:false}") boolean enabled,
+                                  @Value("${widget.traffic-recorder.file:traffic.trace}") String traceFile,
+                                  @Value("${widget.traffic-recorder.max-body-bytes:65536}") int maxBodyBytes) {
+        this.widgetService = widgetService;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.traceFile = Paths.get(traceFile);
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    /**
+     * Lifecycle annotations aren't used, the servlet container would invoke them on the filter once more.
+     */
+    @Override
+    public void afterPropertiesSet() throws ServletException {
+        super.afterPropertiesSet();
+        start();
+    }
+
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        Path snapshotFile = widgetService.exportSnapshot();
+        try {
+            byte[] snapshot = Files.readAllBytes(snapshotFile);
+            OutputStream outputStream = Files.newOutputStream(traceFile);
+            synchronized (this) {
+                writer = new TrafficTraceWriter(outputStream, System.currentTimeMillis(), snapshot);
+                startTime = System.nanoTime();
+            }
+            log.info("Recording widget API traffic to: {}", traceFile.toAbsolutePath());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't start recording traffic to: " + traceFile, e);
+        } finally {
+            deleteQuietly(snapshotFile);
+        }
+    }
+
+    @Scheduled(initialDelayString = "${widget.traffic-recorder.flush-interval-ms:1000}", fixedDelayString = "${widget.traffic-recorder.flush-interval-ms:1000}")
+    public synchronized void flush() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            log.warn("Couldn't flush traffic trace: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * It is invoked by both the container & the application context, the trace is closed by the first one.
+     */
+    @Override
+    public synchronized void destroy() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+            log.info("Recorded {} widget API requests to: {}", recordCount.get(), traceFile.toAbsolutePath());
+        } catch (IOException e) {
+            log.warn("Couldn't close traffic trace: {}", e.getMessage());
+        } finally {
+            writer = null;
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("widget.traffic-recorder.records", recordCount, AtomicLong::get)
+                .description("Widget API requests written to the traffic trace")
+                .register(registry);
+        FunctionCounter.builder("widget.traffic-recorder.dropped", droppedCount, AtomicLong::get)
+                .description("Widget API requests which couldn't be written to the traffic trace")
+                .register(registry);
+        Gauge.builder("widget.traffic-recorder.size", this, TrafficRecordingFilter::getTraceSize)
+                .description("Bytes written to the traffic trace")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    public synchronized long getTraceSize() {
+        return writer == null ? 0 : writer.size();
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !enabled
+                || !request.getRequestURI().substring(request.getContextPath().length()).startsWith(WIDGET_API_PATH);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        TruncatingRequestWrapper requestWrapper = new TruncatingRequestWrapper(request, maxBodyBytes);
+        // Only the response of a create is cached, it has the id which replays map to the id they create.
+        ContentCachingResponseWrapper responseWrapper = isCreate(request) ? new ContentCachingResponseWrapper(response) : null;
+        long requestStartTime = System.nanoTime();
+        try {
+            filterChain.doFilter(requestWrapper, responseWrapper == null ? response : responseWrapper);
+        } finally {
+            long durationNanos = System.nanoTime() - requestStartTime;
+            Long createdId = null;
+            if (responseWrapper != null) {
+                createdId = readCreatedId(responseWrapper);
+                responseWrapper.copyBodyToResponse();
+            }
+            Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            if (pattern != null) { // Requests which aren't mapped to an endpoint aren't recorded.
+                @SuppressWarnings("unchecked")
+                Map<String, String> pathVariables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+                byte[] body = requestWrapper.getContentAsByteArray();
+                record(TrafficRecord.builder()
+                        .offsetNanos(Math.max(0, requestStartTime - startTime))
+                        .durationNanos(durationNanos)
+                        .status(responseWrapper == null ? response.getStatus() : responseWrapper.getStatus())
+                        .method(request.getMethod())
+                        .pattern(pattern.toString())
+                        .pathVariables(pathVariables)
+                        .query(request.getQueryString())
+                        .contentType(request.getContentType())
+                        .body(body.length == 0 ? null : body)
+                        .bodyTruncated(requestWrapper.isTruncated())
+                        .createdId(createdId)
+                        .build());
+            }
+        }
+    }
+
+    private synchronized void record(TrafficRecord record) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.write(record);
+            recordCount.incrementAndGet();
+        } catch (IOException e) {
+            droppedCount.incrementAndGet();
+            log.warn("Couldn't write traffic record: {}", e.getMessage());
+        }
+    }
+
+    private Long readCreatedId(ContentCachingResponseWrapper response) {
+        if (response.getStatus() != HttpStatus.CREATED.value() || response.getContentSize() == 0) {
+            return null;
+        }
+        try {
+            JsonNode id = objectMapper.readTree(response.getContentAsByteArray()).get("id");
+            return id == null || !id.canConvertToLong() ? null : id.asLong();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static boolean isCreate(HttpServletRequest request) {
+        return HttpMethod.POST.matches(request.getMethod())
+                && request.getRequestURI().substring(request.getContextPath().length()).equals(WIDGET_API_PATH);
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Couldn't delete snapshot file: {}", file);
+        }
+    }
+
+    /**
+     * Caches the body up to the limit, as it is read by the handler.
+     */
+    private static class TruncatingRequestWrapper extends ContentCachingRequestWrapper {
+        private boolean truncated;
+
+        TruncatingRequestWrapper(HttpServletRequest request, int contentCacheLimit) {
+            super(request, contentCacheLimit);
+        }
+
+        @Override
+        protected void handleContentOverflow(int contentCacheLimit) {
+            truncated = true;
+        }
+
+        boolean isTruncated() {
+            return truncated;
+        }
+    }
+}
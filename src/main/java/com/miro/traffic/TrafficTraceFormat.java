@@ -0,0 +1,83 @@
+package com.miro.traffic;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This is the layout of the binary traffic trace, a header with the board snapshot at the start of the recording,
+ * followed by a record per request in the order they completed. Numbers are variable-length(7 bits per byte) & the
+ * method, pattern, variable names & content type are written once, then referred by their index:
+ * <pre>
+ * header : magic(int) | format version(short) | start time millis(long) | snapshot length(int) | snapshot
+ * record : offset nanos | duration nanos | status | method ref | pattern ref | variable count | (name ref | value)...
+ *          | query | content type ref | body truncated(boolean) | body | created id + 1(0 when none)
+ * ref    : index + 1(0 for null), followed by the string when its index is new
+ * value  : length + 1(0 for null) | UTF-8 bytes
+ * </pre>
+ *
+ * @author ahmetcetin
+ */
+final class TrafficTraceFormat {
+    static final int MAGIC = 0x4D575452; // "MWTR"
+    static final short FORMAT_VERSION = 1;
+
+    private TrafficTraceFormat() {
+    }
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * @throws EOFException when the stream ends before the number
+     */
+    static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Traffic trace has a malformed number.");
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            writeVarLong(out, 0);
+            return;
+        }
+        writeVarLong(out, bytes.length + 1L);
+        out.write(bytes);
+    }
+
+    static byte[] readBytes(DataInputStream in) throws IOException {
+        long length = readVarLong(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Traffic trace has a value longer than " + Integer.MAX_VALUE + " bytes.");
+        }
+        byte[] bytes = new byte[(int) length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = readBytes(in);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,103 @@
+package com.miro.traffic;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.miro.traffic.TrafficTraceFormat.*;
+
+/**
+ * This is the reader of the binary traffic trace, whose layout is described in {@link TrafficTraceFormat}.
+ * A trace whose last record is cut, e.g. by a crash while recording, ends at the last complete record.
+ *
+ * @author ahmetcetin
+ */
+public class TrafficTraceReader implements Closeable {
+    private final DataInputStream in;
+    private final List<String> strings = new ArrayList<>();
+    private final long startTimeMillis;
+    private final byte[] snapshot;
+
+    /**
+     * @throws IllegalArgumentException when the trace is not in the expected format
+     */
+    public TrafficTraceReader(InputStream inputStream) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(inputStream));
+        if (in.readInt() != MAGIC) {
+            throw new IllegalArgumentException("Traffic trace doesn't start with the expected magic number.");
+        }
+        short formatVersion = in.readShort();
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported traffic trace format version: " + formatVersion);
+        }
+        this.startTimeMillis = in.readLong();
+        int snapshotLength = in.readInt();
+        if (snapshotLength < 0) {
+            throw new IllegalArgumentException("Traffic trace snapshot length can't be negative.");
+        }
+        this.snapshot = new byte[snapshotLength];
+        in.readFully(snapshot);
+    }
+
+    public long getStartTimeMillis() {
+        return startTimeMillis;
+    }
+
+    public byte[] getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return the next record, null at the end of the trace
+     */
+    public TrafficRecord read() throws IOException {
+        try {
+            TrafficRecord.TrafficRecordBuilder record = TrafficRecord.builder()
+                    .offsetNanos(readVarLong(in))
+                    .durationNanos(readVarLong(in))
+                    .status((int) readVarLong(in))
+                    .method(readRef())
+                    .pattern(readRef());
+            int pathVariableCount = (int) readVarLong(in);
+            Map<String, String> pathVariables = new LinkedHashMap<>();
+            for (int i = 0; i < pathVariableCount; i++) {
+                pathVariables.put(readRef(), readString(in));
+            }
+            long createdId;
+            record.pathVariables(pathVariables)
+                    .query(readString(in))
+                    .contentType(readRef())
+                    .bodyTruncated(in.readBoolean())
+                    .body(readBytes(in));
+            createdId = readVarLong(in);
+            return record.createdId(createdId == 0 ? null : createdId - 1).build();
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private String readRef() throws IOException {
+        long index = readVarLong(in) - 1;
+        if (index < 0) {
+            return null;
+        }
+        if (index == strings.size()) {
+            strings.add(readString(in));
+        } else if (index > strings.size()) {
+            throw new IllegalArgumentException("Traffic trace refers to an unknown string: " + index);
+        }
+        return strings.get((int) index);
+    }
+}
@@ -0,0 +1,87 @@
+package com.miro.traffic;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.miro.traffic.TrafficTraceFormat.*;
+
+/**
+ * This is the writer of the binary traffic trace, whose layout is described in {@link TrafficTraceFormat}.
+ * It is not thread-safe.
+ *
+ * @author ahmetcetin
+ */
+public class TrafficTraceWriter implements Closeable, Flushable {
+    private final DataOutputStream out;
+    private final Map<String, Integer> stringIndexes = new HashMap<>();
+
+    /**
+     * @param snapshot of the board when the recording started, in {@link com.miro.repository.snapshot.WidgetSnapshotCodec} format
+     */
+    public TrafficTraceWriter(OutputStream outputStream, long startTimeMillis, byte[] snapshot) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(outputStream));
+        out.writeInt(MAGIC);
+        out.writeShort(FORMAT_VERSION);
+        out.writeLong(startTimeMillis);
+        out.writeInt(snapshot.length);
+        out.write(snapshot);
+    }
+
+    public void write(TrafficRecord record) throws IOException {
+        writeVarLong(out, record.getOffsetNanos());
+        writeVarLong(out, record.getDurationNanos());
+        writeVarLong(out, record.getStatus());
+        writeRef(record.getMethod());
+        writeRef(record.getPattern());
+        Map<String, String> pathVariables = record.getPathVariables() == null ? Map.of() : record.getPathVariables();
+        writeVarLong(out, pathVariables.size());
+        for (Map.Entry<String, String> pathVariable : pathVariables.entrySet()) {
+            writeRef(pathVariable.getKey());
+            writeString(out, pathVariable.getValue());
+        }
+        writeString(out, record.getQuery());
+        writeRef(record.getContentType());
+        out.writeBoolean(record.isBodyTruncated());
+        writeBytes(out, record.getBody());
+        writeVarLong(out, record.getCreatedId() == null ? 0 : record.getCreatedId() + 1);
+    }
+
+    /**
+     * @return bytes written so far, including the ones which are buffered
+     */
+    public int size() {
+        return out.size();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void writeRef(String value) throws IOException {
+        if (value == null) {
+            writeVarLong(out, 0);
+            return;
+        }
+        Integer index = stringIndexes.get(value);
+        if (index != null) {
+            writeVarLong(out, index + 1L);
+            return;
+        }
+        index = stringIndexes.size();
+        stringIndexes.put(value, index);
+        writeVarLong(out, index + 1L);
+        writeString(out, value);
+    }
+}
@@ -0,0 +1,196 @@
+package com.miro.warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.miro.model.CreateWidgetRequest;
+import com.miro.model.PatchWidgetRequest;
+import com.miro.model.RectangleCoordinates;
+import com.miro.model.WarmUpResult;
+import com.miro.model.Widget;
+import com.miro.repository.impl.InMemoryRepository;
+import com.miro.service.WidgetService;
+import com.miro.service.impl.WidgetServiceImpl;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This is the startup stage which runs a synthetic workload through a {@link WidgetServiceImpl} of a throwaway
+ * {@link InMemoryRepository} & through JSON serialization of requests & responses, so that the hot paths are compiled
+ * by the JIT before the first request. It runs as an application runner, so the readiness probe reports
+ * REFUSING_TRAFFIC until it is done. The workload is run in rounds & it stops when the latency per operation of
+ * {@code widget.warm-up.stable-rounds} consecutive rounds is within the tolerance of the previous one,
+ * or when {@code widget.warm-up.max-duration-ms} is over.
+ *
+ * @author ahmetcetin
+ */
+@Component
+@Slf4j
+public class WarmUpRunner implements ApplicationRunner, MeterBinder {
+    private static final int BOARD_SIZE = 500;
+    private static final int BOARD_EXTENT = 10_000;
+    private static final int Z_INDEX_RANGE = 100; // Narrow enough that creates shift widgets
+    private static final int QUERY_EXTENT = 500;
+    private static final int QUERY_LIMIT = 10;
+    private static final long RANDOM_SEED = 42;
+
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final int roundOperations;
+    private final int stableRounds;
+    private final double tolerance;
+    private final long maxDurationNanos;
+    private volatile WarmUpResult lastResult;
+
+    /**
+     * @param roundOperations operations of a round, whose latency is averaged
+     * @param tolerance       relative difference of two consecutive rounds' latency, which is counted as stable
+     */
+    public WarmUpRunner(ObjectMapper objectMapper,
+                        @Value("${widget.warm-up.enabled:false}") boolean enabled,
+                        @Value("${widget.warm-up.round-operations:2000}") int roundOperations,
+                        @Value("${widget.warm-up.stable-rounds:3}") int stableRounds,
+                        @Value("${widget.warm-up.tolerance:0.1}") double tolerance,
+                        @Value("${widget.warm-up.max-duration-ms:30000}") long maxDurationMillis) {
+        if (roundOperations <= 0 || stableRounds <= 0) {
+            throw new IllegalArgumentException("Warm-up round operations & stable rounds should be positive.");
+        }
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.roundOperations = roundOperations;
+        this.stableRounds = stableRounds;
+        this.tolerance = tolerance;
+        this.maxDurationNanos = TimeUnit.MILLISECONDS.toNanos(maxDurationMillis);
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            warmUp();
+        } catch (RuntimeException e) {
+            log.warn("Warm-up failed, the application starts cold", e);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        TimeGauge.builder("widget.warm-up.duration", this, TimeUnit.NANOSECONDS,
+                runner -> runner.getLastResult().map(WarmUpResult::getDurationNanos).orElse(0L))
+                .description("Time to steady-state latency of the warm-up workload")
+                .register(registry);
+        Gauge.builder("widget.warm-up.rounds", this, runner -> runner.getLastResult().map(WarmUpResult::getRounds).orElse(0))
+                .description("Rounds of the warm-up workload run until steady-state latency")
+                .register(registry);
+        TimeGauge.builder("widget.warm-up.operation.latency", this, TimeUnit.NANOSECONDS,
+                runner -> runner.getLastResult().map(WarmUpResult::getFirstRoundNanosPerOperation).orElse(0.0))
+                .description("Latency per operation of the warm-up workload")
+                .tags("round", "first")
+                .register(registry);
+        TimeGauge.builder("widget.warm-up.operation.latency", this, TimeUnit.NANOSECONDS,
+                runner -> runner.getLastResult().map(WarmUpResult::getLastRoundNanosPerOperation).orElse(0.0))
+                .description("Latency per operation of the warm-up workload")
+                .tags("round", "last")
+                .register(registry);
+    }
+
+    public WarmUpResult warmUp() {
+        WidgetService widgetService = new WidgetServiceImpl(new InMemoryRepository());
+        Deque<Long> widgetIds = new ArrayDeque<>();
+        Random random = new Random(RANDOM_SEED);
+        long startTime = System.nanoTime();
+        double firstRoundNanos = runRound(widgetService, widgetIds, random);
+        double previousRoundNanos = firstRoundNanos;
+        int rounds = 1;
+        int stableRoundCount = 0;
+        while (stableRoundCount < stableRounds && System.nanoTime() - startTime < maxDurationNanos) {
+            double roundNanos = runRound(widgetService, widgetIds, random);
+            rounds++;
+            stableRoundCount = Math.abs(roundNanos - previousRoundNanos) <= tolerance * previousRoundNanos ? stableRoundCount + 1 : 0;
+            previousRoundNanos = roundNanos;
+        }
+
+        lastResult = WarmUpResult.builder()
+                .steady(stableRoundCount >= stableRounds)
+                .rounds(rounds)
+                .durationNanos(System.nanoTime() - startTime)
+                .firstRoundNanosPerOperation(firstRoundNanos)
+                .lastRoundNanosPerOperation(previousRoundNanos)
+                .build();
+        log.info("Warm-up {} after {} rounds in {} ms, latency per operation went from {} µs to {} µs",
+                lastResult.isSteady() ? "reached steady state" : "timed out", rounds,
+                TimeUnit.NANOSECONDS.toMillis(lastResult.getDurationNanos()),
+                Math.round(firstRoundNanos / 1000), Math.round(previousRoundNanos / 1000));
+        return lastResult;
+    }
+
+    public Optional<WarmUpResult> getLastResult() {
+        return Optional.ofNullable(lastResult);
+    }
+
+    /**
+     * @return nanoseconds per operation, an operation is a create, a patch & the reads served by the API
+     */
+    private double runRound(WidgetService widgetService, Deque<Long> widgetIds, Random random) {
+        long startTime = System.nanoTime();
+        for (int i = 0; i < roundOperations; i++) {
+            int x = random.nextInt(BOARD_EXTENT);
+            int y = random.nextInt(BOARD_EXTENT);
+            CreateWidgetRequest createRequest = read(write(CreateWidgetRequest.builder()
+                    .xIndex(x).yIndex(y).zIndex(random.nextInt(Z_INDEX_RANGE))
+                    .width(1 + random.nextInt(100)).height(1 + random.nextInt(100))
+                    .build()), CreateWidgetRequest.class);
+            Widget widget = widgetService.createWidget(createRequest.toWidget());
+            widgetIds.addLast(widget.getId());
+            write(widget);
+
+            PatchWidgetRequest patchRequest = read(write(PatchWidgetRequest.builder().xIndex(x + 1).build()), PatchWidgetRequest.class);
+            write(widgetService.patchWidget(patchRequest.toWidget(widget.getId())));
+            write(widgetService.findWidgetById(widgetIds.getFirst()));
+            write(widgetService.findWithLimit(QUERY_LIMIT));
+            write(widgetService.findWithCoordinates(RectangleCoordinates.builder()
+                    .x0(x).y0(y).x1(x + QUERY_EXTENT).y1(y + QUERY_EXTENT).build(), QUERY_LIMIT));
+            write(widgetService.findNearest(x, y, QUERY_LIMIT));
+            if (i % QUERY_LIMIT == 0) {
+                write(widgetService.bringToFront(widget.getId()));
+                write(widgetService.getStats(null));
+            }
+
+            if (widgetIds.size() > BOARD_SIZE) {
+                widgetService.deleteWidget(widgetIds.removeFirst());
+            }
+        }
+        return (double) (System.nanoTime() - startTime) / roundOperations;
+    }
+
+    private byte[] write(Object value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private <T> T read(byte[] json, Class<T> type) {
+        try {
+            return objectMapper.readValue(json, type);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
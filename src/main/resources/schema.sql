@@ -6,5 +6,45 @@ CREATE TABLE IF NOT EXISTS widget (
     width INTEGER NOT NULL,
     height INTEGER NOT NULL,
     updateTime TIMESTAMP NOT NULL,
+    version BIGINT NOT NULL DEFAULT 0,
     PRIMARY KEY (id)
-);
\ No newline at end of file
+);
+
+CREATE INDEX IF NOT EXISTS widget_zindex_idx ON widget(zIndex);
+CREATE INDEX IF NOT EXISTS widget_version_idx ON widget(version);
+CREATE INDEX IF NOT EXISTS widget_position_idx ON widget(xIndex, yIndex, width, height);
+
+CREATE TABLE IF NOT EXISTS widget_tombstone (
+    id bigint(10) NOT NULL,
+    version BIGINT NOT NULL,
+    xIndex INTEGER NOT NULL,
+    yIndex INTEGER NOT NULL,
+    width INTEGER NOT NULL,
+    height INTEGER NOT NULL,
+    PRIMARY KEY (id)
+);
+
+CREATE INDEX IF NOT EXISTS widget_tombstone_version_idx ON widget_tombstone(version);
+
+-- Positions which widgets moved from, to tell the clients of a viewport which widgets moved out of it.
+CREATE TABLE IF NOT EXISTS widget_move (
+    id bigint(10) NOT NULL,
+    version BIGINT NOT NULL,
+    xIndex INTEGER NOT NULL,
+    yIndex INTEGER NOT NULL,
+    width INTEGER NOT NULL,
+    height INTEGER NOT NULL,
+    PRIMARY KEY (id, version)
+);
+
+-- Its single row is locked by the transactions which pick or change zIndexes, so that they are serialized.
+CREATE TABLE IF NOT EXISTS widget_board_lock (
+    id INTEGER NOT NULL,
+    PRIMARY KEY (id)
+);
+
+MERGE INTO widget_board_lock KEY(id) VALUES (1);
+
+CREATE SEQUENCE IF NOT EXISTS board_version_seq;
+
+CREATE SEQUENCE IF NOT EXISTS widget_id_seq INCREMENT BY 100;
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.miro.model.CreateWidgetRequest;
 import com.miro.model.UpdateWidgetRequest;
 import com.miro.model.Widget;
+import com.miro.model.WidgetChanges;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
@@ -11,6 +12,7 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
@@ -23,6 +25,7 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.collection.IsCollectionWithSize.hasSize;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -58,6 +61,13 @@ class MiroApplicationIntegrationTests {
 
     }
 
+    @Test
+    void readiness_whenApplicationIsStarted_thenReturnUp() throws Exception {
+        mockMvc.perform(get("/actuator/health/readiness"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status", is("UP")));
+    }
+
     @Test
     void createWidget_whenRequestIsInvalid_thenReturnBadRequest() throws Exception {
         CreateWidgetRequest request = CreateWidgetRequest.builder().build(); // Mandatory fields are not set.
@@ -151,6 +161,76 @@ class MiroApplicationIntegrationTests {
                 .andExpect(status().isOk());
     }
 
+    @Test
+    void deleteInRectangle_whenWidgetsAreInside_thenDeleteOnlyThem() throws Exception {
+        Widget widget1 = saveWidget(CreateWidgetRequest.builder().xIndex(12000).yIndex(12000).width(10).height(10).build());
+        Widget widget2 = saveWidget(CreateWidgetRequest.builder().xIndex(12020).yIndex(12020).width(10).height(10).build());
+        Widget outsideWidget = saveWidget(CreateWidgetRequest.builder().xIndex(12040).yIndex(12000).width(40).height(10).build());
+
+        mockMvc.perform(delete(WIDGET_API_PATH + "in-rectangle")
+                .param("x0", "11990").param("y0", "11990")
+                .param("x1", "12050").param("y1", "12050"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.deletedWidgetCount", is(2)));
+
+        mockMvc.perform(get(WIDGET_API_BY_ID_PATH, widget1.getId())).andExpect(status().isNotFound());
+        mockMvc.perform(get(WIDGET_API_BY_ID_PATH, widget2.getId())).andExpect(status().isNotFound());
+        mockMvc.perform(get(WIDGET_API_BY_ID_PATH, outsideWidget.getId())).andExpect(status().isOk());
+    }
+
+    @Test
+    void deleteInZIndexRange_whenWidgetsAreInRange_thenDeleteOnlyThem() throws Exception {
+        Widget widget1 = saveWidget(CreateWidgetRequest.builder().xIndex(0).yIndex(0).zIndex(5_000_000).width(10).height(10).build());
+        Widget widget2 = saveWidget(CreateWidgetRequest.builder().xIndex(0).yIndex(0).zIndex(5_000_005).width(10).height(10).build());
+        Widget outsideWidget = saveWidget(CreateWidgetRequest.builder().xIndex(0).yIndex(0).zIndex(5_000_011).width(10).height(10).build());
+
+        mockMvc.perform(delete(WIDGET_API_PATH + "in-z-range")
+                .param("fromZIndex", "5000000").param("toZIndex", "5000010"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.deletedWidgetCount", is(2)));
+
+        mockMvc.perform(get(WIDGET_API_BY_ID_PATH, widget1.getId())).andExpect(status().isNotFound());
+        mockMvc.perform(get(WIDGET_API_BY_ID_PATH, widget2.getId())).andExpect(status().isNotFound());
+        mockMvc.perform(get(WIDGET_API_BY_ID_PATH, outsideWidget.getId())).andExpect(status().isOk());
+
+        mockMvc.perform(delete(WIDGET_API_PATH + "in-z-range")
+                .param("fromZIndex", "5").param("toZIndex", "4"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void update_whenIfMatchIsStale_thenReturnPreconditionFailed() throws Exception {
+        Widget widget = saveWidget(CreateWidgetRequest.builder().xIndex(13000).yIndex(13000).width(10).height(10).build());
+        String eTag = mockMvc.perform(get(WIDGET_API_BY_ID_PATH, widget.getId()))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        UpdateWidgetRequest updateRequest = UpdateWidgetRequest.builder().id(widget.getId())
+                .xIndex(13010).yIndex(13000).zIndex(widget.getZIndex()).width(10).height(10).build();
+
+        String newETag = mockMvc.perform(put(WIDGET_API_PATH)
+                .header(HttpHeaders.IF_MATCH, eTag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(updateRequest)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.xIndex", is(13010)))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertFalse(eTag.equals(newETag));
+
+        mockMvc.perform(put(WIDGET_API_PATH)
+                .header(HttpHeaders.IF_MATCH, eTag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(updateRequest)))
+                .andExpect(status().isPreconditionFailed());
+        mockMvc.perform(patch(WIDGET_API_BY_ID_PATH, widget.getId())
+                .header(HttpHeaders.IF_MATCH, eTag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"width\": 20}"))
+                .andExpect(status().isPreconditionFailed());
+        mockMvc.perform(get(WIDGET_API_BY_ID_PATH, widget.getId()))
+                .andExpect(jsonPath("$.width", is(10)))
+                .andExpect(header().string(HttpHeaders.ETAG, newETag));
+    }
+
     @Test
     void findById_whenIdNotFound_thenReturnNotFound() throws Exception {
         mockMvc.perform(get(WIDGET_API_BY_ID_PATH, 9999)
@@ -225,6 +305,43 @@ class MiroApplicationIntegrationTests {
                 .andExpect(content().json(objectMapper.writeValueAsString(List.of(widget1, widget2))));
     }
 
+    @Test
+    void importSnapshot_whenSnapshotIsExported_thenRestoreAllWidgets() throws Exception {
+        MvcResult exportResult = mockMvc.perform(get(WIDGET_API_PATH + "snapshot"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        byte[] snapshot = mockMvc.perform(asyncDispatch(exportResult))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray();
+        List<Widget> widgetsBeforeImport = findWidgetsIgnoringVersion();
+
+        mockMvc.perform(post(WIDGET_API_PATH + "snapshot")
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .content(snapshot))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.importedWidgetCount", notNullValue()));
+
+        // Imported widgets are stamped with a new board version.
+        assertEquals(widgetsBeforeImport, findWidgetsIgnoringVersion());
+    }
+
+    private List<Widget> findWidgetsIgnoringVersion() throws Exception {
+        MvcResult result = mockMvc.perform(get(WIDGET_API_PATH).param("limit", "500"))
+                .andExpect(status().isOk())
+                .andReturn();
+        List<Widget> widgets = List.of(objectMapper.readValue(result.getResponse().getContentAsString(), Widget[].class));
+        widgets.forEach(widget -> widget.setVersion(null));
+        return widgets;
+    }
+
+    @Test
+    void zIndexEndpoint_whenWidgetsExist_thenReturnZIndexStats() throws Exception {
+        mockMvc.perform(get("/actuator/zindex"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.current.count", notNullValue()))
+                .andExpect(jsonPath("$.current.adjacentCount", notNullValue()));
+    }
+
     private Widget saveWidget(CreateWidgetRequest request) throws Exception {
         MvcResult mvcResult = mockMvc.perform(post(WIDGET_API_PATH)
                 .contentType(MediaType.APPLICATION_JSON)
@@ -233,4 +350,134 @@ class MiroApplicationIntegrationTests {
                 .andReturn();
         return objectMapper.readValue(mvcResult.getResponse().getContentAsString(), Widget.class);
     }
+
+    @Test
+    void moveAboveAndBelow_whenWidgetsExist_thenChangeRelativeOrder() throws Exception {
+        CreateWidgetRequest createRequest = CreateWidgetRequest.builder().xIndex(-5000).yIndex(-5000).width(10).height(10).build();
+        Widget widget1 = saveWidget(createRequest);
+        Widget widget2 = saveWidget(createRequest);
+        Widget widget3 = saveWidget(createRequest);
+
+        mockMvc.perform(post(WIDGET_API_BY_ID_PATH + "/below/{targetId}", widget3.getId(), widget1.getId()))
+                .andExpect(status().isOk());
+        mockMvc.perform(post(WIDGET_API_BY_ID_PATH + "/above/{targetId}", widget1.getId(), widget2.getId()))
+                .andExpect(status().isOk());
+
+        MvcResult result = mockMvc.perform(get(WIDGET_API_PATH)
+                .param("x0", "-5010").param("y0", "-5010")
+                .param("x1", "-4990").param("y1", "-4990"))
+                .andExpect(status().isOk())
+                .andReturn();
+        List<Widget> widgets = List.of(objectMapper.readValue(result.getResponse().getContentAsString(), Widget[].class));
+        assertEquals(List.of(widget3.getId(), widget2.getId(), widget1.getId()),
+                List.of(widgets.get(0).getId(), widgets.get(1).getId(), widgets.get(2).getId()));
+    }
+
+    @Test
+    void patchWidget_whenOnlyCoordinatesGiven_thenUpdateOnlyCoordinates() throws Exception {
+        Widget widget = saveWidget(CreateWidgetRequest.builder().xIndex(0).yIndex(0).width(5).height(5).build());
+
+        mockMvc.perform(patch(WIDGET_API_BY_ID_PATH, widget.getId())
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"xIndex\": 42, \"yIndex\": 24}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.xIndex", is(42)))
+                .andExpect(jsonPath("$.yIndex", is(24)))
+                .andExpect(jsonPath("$.zIndex", is(widget.getZIndex())))
+                .andExpect(jsonPath("$.width", is(5)));
+
+        mockMvc.perform(get(WIDGET_API_BY_ID_PATH, widget.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.xIndex", is(42)));
+    }
+
+    @Test
+    void patchWidget_whenIdNotFound_thenReturnNotFound() throws Exception {
+        mockMvc.perform(patch(WIDGET_API_BY_ID_PATH, 9999)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"width\": 3}"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void findChanges_whenWidgetsChangeInViewport_thenReturnOnlyChangesSinceVersion() throws Exception {
+        CreateWidgetRequest createRequest = CreateWidgetRequest.builder().xIndex(-7000).yIndex(-7000).width(10).height(10).build();
+        Widget deletedWidget = saveWidget(createRequest);
+        long since = findChanges(0).getVersion();
+
+        Widget createdWidget = saveWidget(createRequest);
+        mockMvc.perform(delete(WIDGET_API_BY_ID_PATH, deletedWidget.getId()))
+                .andExpect(status().isOk());
+        WidgetChanges changes = findChanges(since);
+
+        assertFalse(changes.isFullSyncRequired());
+        assertEquals(List.of(createdWidget.getId()), List.of(changes.getUpdated().get(0).getId()));
+        assertEquals(List.of(deletedWidget.getId()), changes.getDeleted());
+        assertEquals(List.of(), findChanges(changes.getVersion()).getUpdated());
+    }
+
+    @Test
+    void findTiles_whenWidgetsExistInArea_thenReturnTileSummaries() throws Exception {
+        saveWidget(CreateWidgetRequest.builder().xIndex(9000).yIndex(9000).width(10).height(10).build());
+        Widget widget2 = saveWidget(CreateWidgetRequest.builder().xIndex(9020).yIndex(9010).width(10).height(10).build());
+
+        mockMvc.perform(get(WIDGET_API_PATH + "tiles")
+                .param("level", "15")
+                .param("x0", "8960").param("y0", "8960")
+                .param("x1", "9023").param("y1", "9023"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].count", is(2)))
+                .andExpect(jsonPath("$[0].minX", is(8995)))
+                .andExpect(jsonPath("$[0].maxY", is(9015)))
+                .andExpect(jsonPath("$[0].topWidgetId", is(widget2.getId().intValue())));
+
+        mockMvc.perform(get(WIDGET_API_PATH + "tiles")
+                .param("level", "16")
+                .param("x0", "0").param("y0", "0")
+                .param("x1", "1").param("y1", "1"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void getStats_whenWidgetsAreInRectangle_thenCountThemWithoutListing() throws Exception {
+        saveWidget(CreateWidgetRequest.builder().xIndex(11000).yIndex(11000).zIndex(-900).width(10).height(10).build());
+        saveWidget(CreateWidgetRequest.builder().xIndex(11020).yIndex(11010).width(10).height(20).build());
+        saveWidget(CreateWidgetRequest.builder().xIndex(11100).yIndex(11100).width(10).height(10).build());
+
+        mockMvc.perform(get(WIDGET_API_PATH + "stats")
+                .param("x0", "10990").param("y0", "10990")
+                .param("x1", "11030").param("y1", "11030"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.countInRectangle", is(2)))
+                .andExpect(jsonPath("$.totalCount", notNullValue()))
+                .andExpect(jsonPath("$.minZIndex", notNullValue()))
+                .andExpect(jsonPath("$.maxX", notNullValue()));
+
+        mockMvc.perform(get(WIDGET_API_PATH + "stats"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.countInRectangle").doesNotExist());
+    }
+
+    @Test
+    void latencyEndpoint_whenWidgetIsFound_thenReturnLatencyPercentilesByEndpoint() throws Exception {
+        Widget widget = saveWidget(CreateWidgetRequest.builder().xIndex(0).yIndex(0).width(5).height(5).build());
+        mockMvc.perform(get(WIDGET_API_BY_ID_PATH, widget.getId()))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/actuator/latency"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$['GET /v1/widgets/{id}'].count", notNullValue()))
+                .andExpect(jsonPath("$['GET /v1/widgets/{id}'].p999", notNullValue()));
+    }
+
+    private WidgetChanges findChanges(long since) throws Exception {
+        MvcResult result = mockMvc.perform(get(WIDGET_API_PATH + "changes")
+                .param("since", String.valueOf(since))
+                .param("x0", "-7010").param("y0", "-7010")
+                .param("x1", "-6990").param("y1", "-6990"))
+                .andExpect(status().isOk())
+                .andReturn();
+        return objectMapper.readValue(result.getResponse().getContentAsString(), WidgetChanges.class);
+    }
 }
@@ -0,0 +1,101 @@
+package com.miro;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the time from launching the application until it is ready & exits, for every storage profile,
+ * with the standard settings and with the fast-startup mode(AppCDS archive & lazy initialization).
+ * The application is launched from the plain jar, the dependencies & the archive built by
+ * "mvn -Pfast-startup -DskipTests package", run with "mvn -Pbenchmark test-compile exec:exec -Dbenchmark.include=StartupBenchmark".
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+    private static final Path TARGET_DIRECTORY = Paths.get("target").toAbsolutePath();
+
+    @Param({"in-memory", "h2", "mvstore", "tiered"})
+    private String profile;
+
+    @Param({"standard", "fast-startup"})
+    private String mode;
+
+    private List<String> command;
+    private File workingDirectory;
+
+    @Setup
+    public void setUp() throws IOException {
+        Path archive = TARGET_DIRECTORY.resolve("app-cds.jsa");
+        if (!Files.exists(archive)) {
+            throw new IllegalStateException("Couldn't find " + archive + ", build it by mvn -Pfast-startup -DskipTests package");
+        }
+
+        command = new ArrayList<>(List.of(Paths.get(System.getProperty("java.home"), "bin", "java").toString()));
+        String profiles = profile;
+        if (mode.equals("fast-startup")) {
+            command.add("-XX:SharedArchiveFile=" + archive);
+            profiles += ",fast-startup";
+        }
+        command.addAll(List.of("-cp", getClasspath(), "com.miro.MiroApplication",
+                "--spring.profiles.active=" + profiles, "--widget.startup.exit-when-ready=true", "--server.port=0"));
+        // File based profiles start with an empty board every time.
+        workingDirectory = Files.createTempDirectory("startup-benchmark").toFile();
+        workingDirectory.deleteOnExit();
+    }
+
+    @Benchmark
+    public int startUntilReady() throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command)
+                .directory(workingDirectory)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        int exitCode = process.waitFor();
+        if (exitCode != 0) {
+            throw new IllegalStateException("Application exited with " + exitCode + ": " + command);
+        }
+        deleteStoreFiles();
+        return exitCode;
+    }
+
+    private void deleteStoreFiles() throws IOException {
+        File[] files = workingDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.delete(file.toPath());
+            }
+        }
+    }
+
+    private static String getClasspath() throws IOException {
+        try (Stream<Path> jars = Files.list(TARGET_DIRECTORY)) {
+            Path applicationJar = jars.filter(path -> path.toString().endsWith(".jar"))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalStateException("Couldn't find the application jar in " + TARGET_DIRECTORY));
+            return applicationJar + File.pathSeparator + TARGET_DIRECTORY.resolve("lib").resolve("*");
+        }
+    }
+}
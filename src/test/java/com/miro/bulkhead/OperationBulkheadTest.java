@@ -0,0 +1,60 @@
+package com.miro.bulkhead;
+
+import com.miro.exception.BulkheadFullException;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OperationBulkheadTest {
+    @Test
+    void acquire_whenLimitAndQueueAreFull_thenRejectRightAway() {
+        OperationBulkhead bulkhead = new OperationBulkhead(OperationClass.SCAN, 2, 0, 10_000);
+        bulkhead.acquire();
+        bulkhead.acquire();
+
+        long startTime = System.nanoTime();
+        assertThrows(BulkheadFullException.class, bulkhead::acquire);
+
+        assertTrue(System.nanoTime() - startTime < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(2, bulkhead.getActive());
+        assertEquals(1, bulkhead.getQueueFullRejections());
+    }
+
+    @Test
+    void acquire_whenLimitIsReached_thenWaitForRelease() throws Exception {
+        OperationBulkhead bulkhead = new OperationBulkhead(OperationClass.WRITE, 1, 1, 10_000);
+        bulkhead.acquire();
+
+        CompletableFuture<Void> waitingOperation = CompletableFuture.runAsync(bulkhead::acquire);
+        while (bulkhead.getQueued() == 0) {
+            Thread.onSpinWait();
+        }
+        assertThrows(BulkheadFullException.class, bulkhead::acquire);
+        bulkhead.release();
+
+        waitingOperation.get(5, TimeUnit.SECONDS);
+        assertEquals(1, bulkhead.getActive());
+        assertEquals(0, bulkhead.getQueued());
+    }
+
+    @Test
+    void acquire_whenWaitTimesOut_thenReject() {
+        OperationBulkhead bulkhead = new OperationBulkhead(OperationClass.POINT_READ, 1, 1, 10);
+        bulkhead.acquire();
+
+        assertThrows(BulkheadFullException.class, bulkhead::acquire);
+
+        assertEquals(1, bulkhead.getTimeoutRejections());
+        assertEquals(0, bulkhead.getQueued());
+        bulkhead.release();
+        assertEquals(0, bulkhead.getActive());
+    }
+
+    @Test
+    void constructor_whenConcurrencyIsNotPositive_thenThrowIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> new OperationBulkhead(OperationClass.SCAN, 0, 1, 10));
+    }
+}
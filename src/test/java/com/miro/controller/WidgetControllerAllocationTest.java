@@ -0,0 +1,203 @@
+package com.miro.controller;
+
+import com.miro.model.CreateWidgetRequest;
+import com.miro.model.PatchWidgetRequest;
+import com.miro.model.UpdateWidgetRequest;
+import com.miro.model.Widget;
+import com.miro.repository.WidgetRepository;
+import com.miro.repository.impl.H2WidgetRepository;
+import com.miro.repository.impl.MVStoreWidgetRepository;
+import com.miro.repository.impl.TieredWidgetRepository;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Drives every widget operation through {@link WidgetController} in-process & fails when the bytes allocated per operation
+ * exceed the budget in allocation-budgets.properties, which is kept per repository implementation.
+ * Bytes are counted exactly per thread, the operations run under Java Flight Recorder so that the failure message
+ * can tell the classes allocated the most & the recording is kept under target/ for further analysis.
+ */
+@SpringBootTest(properties = {"logging.level.com.miro=WARN", "widget.compaction.enabled=false"})
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class WidgetControllerAllocationTest {
+    private static final int BOARD_SIZE = 1000;
+    private static final int WARMUP_ITERATIONS = 3000;
+    private static final int MEASURED_ITERATIONS = 500;
+    private static final int TOTAL_ITERATIONS = WARMUP_ITERATIONS + MEASURED_ITERATIONS;
+    private static final int REPORTED_CLASS_COUNT = 5;
+
+    private final com.sun.management.ThreadMXBean threadMXBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    @Autowired
+    private WidgetController widgetController;
+
+    @Autowired
+    private WidgetRepository widgetRepository;
+
+    private final List<Widget> board = new ArrayList<>();
+    private Properties budgets;
+
+    @BeforeAll
+    void setUp() throws IOException {
+        budgets = new Properties();
+        try (InputStream inputStream = getClass().getResourceAsStream("/allocation-budgets.properties")) {
+            budgets.load(inputStream);
+        }
+        IntStream.range(0, BOARD_SIZE).forEach(i -> board.add(createWidget(i % 100 * 20, i / 100 * 20)));
+    }
+
+    @Test
+    void create_whenCalled_thenStayInAllocationBudget() {
+        assertWithinBudget("create", i -> widgetController.create(createRequest(-10_000, -10_000)));
+    }
+
+    @Test
+    void update_whenCalled_thenStayInAllocationBudget() {
+        Widget widget = createWidget(-20_000, -20_000);
+        assertWithinBudget("update", i -> widgetController.update(UpdateWidgetRequest.builder()
+                .id(widget.getId()).xIndex(-20_000).yIndex(-20_000).zIndex(widget.getZIndex()).width(10).height(10 + i % 2).build(), null));
+    }
+
+    @Test
+    void patch_whenCalled_thenStayInAllocationBudget() {
+        Widget widget = createWidget(-30_000, -30_000);
+        assertWithinBudget("patch", i -> widgetController.patch(widget.getId(),
+                PatchWidgetRequest.builder().width(10 + i % 2).build(), null));
+    }
+
+    @Test
+    void delete_whenCalled_thenStayInAllocationBudget() {
+        List<Widget> widgets = IntStream.range(0, TOTAL_ITERATIONS)
+                .mapToObj(i -> createWidget(-40_000, -40_000))
+                .collect(Collectors.toList());
+        assertWithinBudget("delete", i -> widgetController.delete(widgets.get(i).getId()));
+    }
+
+    @Test
+    void findById_whenCalled_thenStayInAllocationBudget() {
+        assertWithinBudget("findById", i -> widgetController.findById(board.get(i % BOARD_SIZE).getId()));
+    }
+
+    @Test
+    void findAll_whenLimitIsGiven_thenStayInAllocationBudget() {
+        assertWithinBudget("findAll", i -> widgetController.findAll(100, null, null, null, null));
+    }
+
+    @Test
+    void findAll_whenCoordinatesAreGiven_thenStayInAllocationBudget() {
+        assertWithinBudget("findAllInCoordinates", i -> widgetController.findAll(100, 0, 0, 400, 400));
+    }
+
+    @Test
+    void findNearest_whenCalled_thenStayInAllocationBudget() {
+        assertWithinBudget("findNearest", i -> widgetController.findNearest(i % 2000, 100, 10));
+    }
+
+    @Test
+    void findTiles_whenCalled_thenStayInAllocationBudget() {
+        assertWithinBudget("findTiles", i -> widgetController.findTiles(12, 0, 0, 2000, 2000));
+    }
+
+    @Test
+    void findChanges_whenCalled_thenStayInAllocationBudget() {
+        long since = widgetController.findChanges(0L, null, null, null, null).getBody().getVersion();
+        assertWithinBudget("findChanges", i -> widgetController.findChanges(since, 0, 0, 400, 400));
+    }
+
+    @Test
+    void bringToFront_whenCalled_thenStayInAllocationBudget() {
+        Widget widget1 = createWidget(-50_000, -50_000);
+        Widget widget2 = createWidget(-50_000, -50_000);
+        assertWithinBudget("bringToFront", i -> widgetController.bringToFront(i % 2 == 0 ? widget1.getId() : widget2.getId()));
+    }
+
+    private String getBudgetPrefix() {
+        if (widgetRepository instanceof H2WidgetRepository) {
+            return "h2.";
+        }
+        if (widgetRepository instanceof TieredWidgetRepository) {
+            return "tiered.";
+        }
+        return widgetRepository instanceof MVStoreWidgetRepository ? "mvstore." : "in-memory.";
+    }
+
+    private void assertWithinBudget(String operation, IntConsumer action) {
+        String budgetKey = getBudgetPrefix() + operation;
+        long budget = Long.parseLong(budgets.getProperty(budgetKey));
+        long threadId = Thread.currentThread().getId();
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            action.accept(i);
+        }
+        try (Recording recording = new Recording()) {
+            recording.enable("jdk.ObjectAllocationInNewTLAB");
+            recording.enable("jdk.ObjectAllocationOutsideTLAB");
+            recording.start();
+
+            long allocatedBytesBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+            for (int i = WARMUP_ITERATIONS; i < TOTAL_ITERATIONS; i++) {
+                action.accept(i);
+            }
+            long bytesPerOperation = (threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBytesBefore) / MEASURED_ITERATIONS;
+            recording.stop();
+
+            if (bytesPerOperation > budget) {
+                Path recordingFile = Paths.get("target", "allocation-" + budgetKey + ".jfr");
+                recording.dump(recordingFile);
+                fail(String.format("%s allocated %d bytes per operation, budget is %d bytes. Top allocated classes: %s, recording: %s",
+                        budgetKey, bytesPerOperation, budget, findTopAllocatedClasses(recordingFile, threadId), recordingFile));
+            }
+        } catch (IOException e) {
+            fail("Couldn't dump the allocation recording.", e);
+        }
+    }
+
+    /**
+     * Allocation events are sampled per TLAB, so the weights tell where the bytes go rather than exact numbers.
+     */
+    private Map<String, Long> findTopAllocatedClasses(Path recordingFile, long threadId) throws IOException {
+        Map<String, Long> allocatedBytesByClass = new HashMap<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(recordingFile)) {
+            if (event.getThread() != null && event.getThread().getJavaThreadId() == threadId) {
+                long weight = event.hasField("tlabSize") ? event.getLong("tlabSize") : event.getLong("allocationSize");
+                allocatedBytesByClass.merge(event.getClass("objectClass").getName(), weight, Long::sum);
+            }
+        }
+        return allocatedBytesByClass.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .limit(REPORTED_CLASS_COUNT)
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, LinkedHashMap::new));
+    }
+
+    private Widget createWidget(int x, int y) {
+        return widgetController.create(createRequest(x, y)).getBody();
+    }
+
+    private static CreateWidgetRequest createRequest(int x, int y) {
+        return CreateWidgetRequest.builder().xIndex(x).yIndex(y).width(10).height(10).build();
+    }
+}
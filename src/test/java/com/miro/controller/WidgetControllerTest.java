@@ -1,28 +1,50 @@
 package com.miro.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.miro.bulkhead.BulkheadInterceptor;
+import com.miro.bulkhead.OperationBulkhead;
+import com.miro.bulkhead.OperationClass;
+import com.miro.exception.BulkheadFullException;
+import com.miro.exception.ReadOnlyReplicaException;
 import com.miro.exception.WidgetNotFoundException;
+import com.miro.exception.WidgetVersionConflictException;
 import com.miro.model.CreateWidgetRequest;
+import com.miro.model.PatchWidgetRequest;
+import com.miro.model.QueryPlan;
 import com.miro.model.RectangleCoordinates;
+import com.miro.model.TileSummary;
 import com.miro.model.UpdateWidgetRequest;
 import com.miro.model.Widget;
+import com.miro.model.WidgetChanges;
+import com.miro.model.WidgetOverlap;
+import com.miro.model.WidgetQueryResult;
+import com.miro.model.WidgetStats;
 import com.miro.service.WidgetService;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.function.Consumer;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
-@WebMvcTest(controllers = WidgetController.class)
+@WebMvcTest(controllers = WidgetController.class, properties = "widget.bulkhead.scan.max-queued=0")
 class WidgetControllerTest {
     private static final Long DUMMY_WIDGET_ID = 123L;
     private static final Integer DUMMY_VALID_LIMIT = 20;
@@ -37,6 +59,9 @@ class WidgetControllerTest {
     @Autowired
     private MockMvc mockMvc;
 
+    @Autowired
+    private BulkheadInterceptor bulkheadInterceptor;
+
     @MockBean
     private WidgetService widgetService;
 
@@ -66,6 +91,20 @@ class WidgetControllerTest {
                 .andExpect(jsonPath("$.height", is(createdWidget.getHeight())));
     }
 
+    @Test
+    void create_whenInstanceIsReadOnlyReplica_thenReturnMethodNotAllowed() throws Exception {
+        CreateWidgetRequest request = CreateWidgetRequest.builder().xIndex(0).yIndex(0).width(5).height(5).build();
+
+        //mock
+        given(widgetService.createWidget(any(Widget.class))).willThrow(new ReadOnlyReplicaException("Read-only replica"));
+
+        mockMvc.perform(post("/v1/widgets")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isMethodNotAllowed())
+                .andExpect(header().string(HttpHeaders.ALLOW, "GET,HEAD"));
+    }
+
     @Test
     void update_whenBodyIsInvalid_thenReturnBadRequest() throws Exception {
         mockMvc.perform(put("/v1/widgets"))
@@ -96,6 +135,50 @@ class WidgetControllerTest {
                 .andExpect(jsonPath("$.id", is(request.getId().intValue())));
     }
 
+    @Test
+    void update_whenIfMatchIsGiven_thenUpdateWithExpectedVersionAndReturnETag() throws Exception {
+        UpdateWidgetRequest request = UpdateWidgetRequest.builder().id(DUMMY_WIDGET_ID).xIndex(0).yIndex(0).width(5).height(5).build();
+        Widget expectedUpdate = request.toWidget();
+        expectedUpdate.setVersion(4L);
+        Widget updatedWidget = request.toWidget();
+        updatedWidget.setVersion(9L);
+
+        //mock
+        given(widgetService.updateWidget(expectedUpdate)).willReturn(updatedWidget);
+
+        mockMvc.perform(put("/v1/widgets")
+                .header(HttpHeaders.IF_MATCH, "\"4\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"9\""));
+    }
+
+    @Test
+    void update_whenVersionConflicts_thenReturnPreconditionFailed() throws Exception {
+        UpdateWidgetRequest request = UpdateWidgetRequest.builder().id(DUMMY_WIDGET_ID).xIndex(0).yIndex(0).width(5).height(5).build();
+
+        //mock
+        given(widgetService.updateWidget(any(Widget.class))).willThrow(new WidgetVersionConflictException("Version conflict"));
+
+        mockMvc.perform(put("/v1/widgets")
+                .header(HttpHeaders.IF_MATCH, "4")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isPreconditionFailed());
+    }
+
+    @Test
+    void patch_whenIfMatchIsInvalid_thenReturnBadRequest() throws Exception {
+        mockMvc.perform(patch("/v1/widgets/{id}", DUMMY_WIDGET_ID)
+                .header(HttpHeaders.IF_MATCH, "\"abc\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(PatchWidgetRequest.builder().width(5).build())))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(widgetService);
+    }
+
     @Test
     void delete_whenIdNotFound_thenReturnNotFound() throws Exception {
         //mock
@@ -114,6 +197,44 @@ class WidgetControllerTest {
                 .andExpect(status().isOk());
     }
 
+    @Test
+    void deleteInRectangle_whenCoordinatesAreValid_thenReturnDeletedCount() throws Exception {
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(1).y0(2).x1(3).y1(4).build();
+
+        //mock
+        given(widgetService.deleteInRectangle(coordinates)).willReturn(3);
+
+        mockMvc.perform(delete("/v1/widgets/in-rectangle?x0=1&y0=2&x1=3&y1=4"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.deletedWidgetCount", is(3)));
+    }
+
+    @Test
+    void deleteInRectangle_whenCoordinatesAreMissing_thenReturnBadRequest() throws Exception {
+        mockMvc.perform(delete("/v1/widgets/in-rectangle?x0=1&y0=2"))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(widgetService);
+    }
+
+    @Test
+    void deleteInZIndexRange_whenRangeIsValid_thenReturnDeletedCount() throws Exception {
+        //mock
+        given(widgetService.deleteInZIndexRange(-5, 5)).willReturn(2);
+
+        mockMvc.perform(delete("/v1/widgets/in-z-range?fromZIndex=-5&toZIndex=5"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.deletedWidgetCount", is(2)));
+    }
+
+    @Test
+    void deleteInZIndexRange_whenRangeIsReversed_thenReturnBadRequest() throws Exception {
+        mockMvc.perform(delete("/v1/widgets/in-z-range?fromZIndex=5&toZIndex=-5"))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(widgetService);
+    }
+
     @Test
     void findById_whenIdNotFound_thenReturnNotFound() throws Exception {
         //mock
@@ -163,9 +284,6 @@ class WidgetControllerTest {
     void findAll_whenCoordinatesAreNotValid_thenReturnBadRequest() throws Exception {
         RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(2).y0(2).x1(1).y1(4).build();
 
-        //mock
-        given(widgetService.findWithCoordinates(coordinates, DUMMY_VALID_LIMIT)).willReturn(DUMMY_WIDGET_LIST);
-
         String path = "/v1/widgets?x0=" + coordinates.getX0() + "&y0=" + coordinates.getY0()
                 + "&x1=" + coordinates.getX1() + "&y1=" + coordinates.getY1();
         mockMvc.perform(get(path + "&limit=20"))
@@ -177,14 +295,283 @@ class WidgetControllerTest {
         RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(1).y0(2).x1(3).y1(4).build();
 
         //mock
-        given(widgetService.findWithCoordinates(coordinates, DUMMY_VALID_LIMIT)).willReturn(DUMMY_WIDGET_LIST);
+        given(widgetService.findWithCoordinates(coordinates, DUMMY_VALID_LIMIT)).willReturn(WidgetQueryResult.builder()
+                .widgets(DUMMY_WIDGET_LIST).plan(QueryPlan.SPATIAL_PROBE).estimatedCount(12).build());
 
         String path = "/v1/widgets?x0=" + coordinates.getX0() + "&y0=" + coordinates.getY0()
                 + "&x1=" + coordinates.getX1() + "&y1=" + coordinates.getY1();
         mockMvc.perform(get(path + "&limit=20"))
                 .andExpect(status().isOk())
+                .andExpect(header().string("X-Query-Plan", "SPATIAL_PROBE"))
+                .andExpect(header().string("X-Query-Estimated-Count", "12"))
                 .andExpect(content().json(objectMapper.writeValueAsString(DUMMY_WIDGET_LIST)));
 
         verify(widgetService, times(1)).findWithCoordinates(coordinates, DUMMY_VALID_LIMIT);
     }
-}
\ No newline at end of file
+
+    @Test
+    void findNearest_whenPointIsGiven_thenReturnNearestWidgets() throws Exception {
+        //mock
+        given(widgetService.findNearest(5, 6, 3)).willReturn(DUMMY_WIDGET_LIST);
+
+        mockMvc.perform(get("/v1/widgets/nearest?x=5&y=6&k=3"))
+                .andExpect(status().isOk())
+                .andExpect(content().json(objectMapper.writeValueAsString(DUMMY_WIDGET_LIST)));
+    }
+
+    @Test
+    void findNearest_whenKIsNotValid_thenReturnBadRequest() throws Exception {
+        mockMvc.perform(get("/v1/widgets/nearest?x=5&y=6&k=501"))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(widgetService);
+    }
+
+    @Test
+    void findTiles_whenCoordinatesAreValid_thenReturnTiles() throws Exception {
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(1).y0(2).x1(3).y1(4).build();
+        List<TileSummary> tiles = List.of(TileSummary.builder().level(3).count(2).topWidgetId(DUMMY_WIDGET_ID).build());
+
+        //mock
+        given(widgetService.findTiles(coordinates, 3)).willReturn(tiles);
+
+        mockMvc.perform(get("/v1/widgets/tiles?level=3&x0=1&y0=2&x1=3&y1=4"))
+                .andExpect(status().isOk())
+                .andExpect(content().json(objectMapper.writeValueAsString(tiles)));
+    }
+
+    @Test
+    void findTiles_whenCoordinatesAreMissing_thenReturnBadRequest() throws Exception {
+        mockMvc.perform(get("/v1/widgets/tiles?level=3&x0=1&y0=2"))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(widgetService);
+    }
+
+    @Test
+    void getStats_whenCoordinatesAreValid_thenReturnStats() throws Exception {
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(1).y0(2).x1(3).y1(4).build();
+        WidgetStats stats = WidgetStats.builder().totalCount(5).countInRectangle(2L).minZIndex(1).maxZIndex(9).build();
+
+        //mock
+        given(widgetService.getStats(coordinates)).willReturn(stats);
+
+        mockMvc.perform(get("/v1/widgets/stats?x0=1&y0=2&x1=3&y1=4"))
+                .andExpect(status().isOk())
+                .andExpect(content().json(objectMapper.writeValueAsString(stats)));
+    }
+
+    @Test
+    void getStats_whenCoordinatesAreInvalid_thenReturnBadRequest() throws Exception {
+        mockMvc.perform(get("/v1/widgets/stats?x0=3&y0=2&x1=1&y1=4"))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(widgetService);
+    }
+
+    @Test
+    void findChanges_whenCoordinatesAreValid_thenReturnChanges() throws Exception {
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(1).y0(2).x1(3).y1(4).build();
+        WidgetChanges widgetChanges = WidgetChanges.builder().version(7).updated(DUMMY_WIDGET_LIST).deleted(List.of(1L)).build();
+
+        //mock
+        given(widgetService.findChangesSince(5, coordinates)).willReturn(widgetChanges);
+
+        mockMvc.perform(get("/v1/widgets/changes?since=5&x0=1&y0=2&x1=3&y1=4"))
+                .andExpect(status().isOk())
+                .andExpect(content().json(objectMapper.writeValueAsString(widgetChanges)));
+    }
+
+    @Test
+    void findChanges_whenSinceIsNegative_thenReturnBadRequest() throws Exception {
+        mockMvc.perform(get("/v1/widgets/changes?since=-1"))
+                .andExpect(status().isBadRequest());
+
+        verifyNoInteractions(widgetService);
+    }
+
+    @Test
+    void exportSnapshot_whenCalled_thenStreamSnapshotFile() throws Exception {
+        byte[] snapshot = {1, 2, 3, 4};
+        Path snapshotFile = Files.createTempFile("widgets-", ".snapshot");
+        Files.write(snapshotFile, snapshot);
+
+        //mock
+        given(widgetService.exportSnapshot()).willReturn(snapshotFile);
+
+        MvcResult mvcResult = mockMvc.perform(get("/v1/widgets/snapshot"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_OCTET_STREAM))
+                .andExpect(content().bytes(snapshot));
+
+        assertFalse(Files.exists(snapshotFile));
+    }
+
+    @Test
+    void exportSnapshot_whenRequestCompletesBeforeStreaming_thenDeleteSnapshotFile() throws Exception {
+        Path snapshotFile = Files.createTempFile("widgets-", ".snapshot");
+        Files.write(snapshotFile, new byte[]{1, 2, 3, 4});
+
+        //mock
+        given(widgetService.exportSnapshot()).willReturn(snapshotFile);
+
+        MvcResult mvcResult = mockMvc.perform(get("/v1/widgets/snapshot"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        // e.g. the client aborts or the async request times out before the body is written
+        mvcResult.getRequest().getAsyncContext().complete();
+
+        assertFalse(Files.exists(snapshotFile));
+        // The error dispatch of such a request releases the bulkhead which it holds.
+        bulkheadInterceptor.afterCompletion(mvcResult.getRequest(), mvcResult.getResponse(), null, null);
+    }
+
+    @Test
+    void findOverlaps_whenCalled_thenStreamOverlapsAsJsonArray() throws Exception {
+        List<WidgetOverlap> overlaps = List.of(new WidgetOverlap(1L, 2L), new WidgetOverlap(1L, 3L));
+
+        //mock
+        doAnswer(invocation -> {
+            Consumer<WidgetOverlap> consumer = invocation.getArgument(0);
+            overlaps.forEach(consumer);
+            return null;
+        }).when(widgetService).findOverlaps(any());
+
+        MvcResult mvcResult = mockMvc.perform(get("/v1/widgets/overlaps"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(content().json(objectMapper.writeValueAsString(overlaps)));
+    }
+
+    @Test
+    void findOverlaps_whenResponseIsWritten_thenReleaseScanBulkhead() throws Exception {
+        OperationBulkhead scanBulkhead = bulkheadInterceptor.getBulkhead(OperationClass.SCAN);
+
+        MvcResult mvcResult = mockMvc.perform(get("/v1/widgets/overlaps"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        assertEquals(1, scanBulkhead.getActive());
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk());
+
+        assertEquals(0, scanBulkhead.getActive());
+    }
+
+    @Test
+    void findAll_whenScanBulkheadIsFull_thenReturnServiceUnavailableAndServePointReads() throws Exception {
+        OperationBulkhead scanBulkhead = bulkheadInterceptor.getBulkhead(OperationClass.SCAN);
+        int maxConcurrentScans = 0;
+        try {
+            while (true) {
+                scanBulkhead.acquire();
+                maxConcurrentScans++;
+            }
+        } catch (BulkheadFullException e) {
+            // Every scan permit is taken.
+        }
+
+        //mock
+        given(widgetService.findWidgetById(DUMMY_WIDGET_ID)).willReturn(DUMMY_WIDGET_LIST.get(0));
+
+        try {
+            mockMvc.perform(get("/v1/widgets"))
+                    .andExpect(status().isServiceUnavailable())
+                    .andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"));
+            mockMvc.perform(get("/v1/widgets/" + DUMMY_WIDGET_ID))
+                    .andExpect(status().isOk());
+        } finally {
+            for (int i = 0; i < maxConcurrentScans; i++) {
+                scanBulkhead.release();
+            }
+        }
+        verify(widgetService, never()).findWithLimit(any());
+        assertEquals(2, scanBulkhead.getQueueFullRejections());
+    }
+
+    @Test
+    void findOverlapping_whenWidgetExists_thenReturnOverlappingWidgets() throws Exception {
+        //mock
+        given(widgetService.findOverlapping(DUMMY_WIDGET_ID)).willReturn(DUMMY_WIDGET_LIST);
+
+        mockMvc.perform(get("/v1/widgets/" + DUMMY_WIDGET_ID + "/overlaps"))
+                .andExpect(status().isOk())
+                .andExpect(content().json(objectMapper.writeValueAsString(DUMMY_WIDGET_LIST)));
+    }
+
+    @Test
+    void importSnapshot_whenSnapshotIsProvided_thenReturnImportedWidgetCount() throws Exception {
+        //mock
+        given(widgetService.importSnapshot(any(InputStream.class))).willReturn(2);
+
+        mockMvc.perform(post("/v1/widgets/snapshot")
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .content(new byte[]{1, 2, 3}))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.importedWidgetCount", is(2)));
+    }
+
+    @Test
+    void bringToFront_whenIdExists_thenReturnMovedWidgetWithETag() throws Exception {
+        Widget movedWidget = Widget.builder().id(DUMMY_WIDGET_ID).xIndex(0).yIndex(0).zIndex(7).width(5).height(5).version(4L).build();
+
+        //mock
+        given(widgetService.bringToFront(DUMMY_WIDGET_ID)).willReturn(movedWidget);
+
+        mockMvc.perform(post("/v1/widgets/{id}/to-front", DUMMY_WIDGET_ID))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.zIndex", is(7)))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"4\""));
+    }
+
+    @Test
+    void moveBelow_whenTargetExists_thenReturnMovedWidgetWithETag() throws Exception {
+        Widget movedWidget = Widget.builder().id(DUMMY_WIDGET_ID).xIndex(0).yIndex(0).zIndex(2).width(5).height(5).version(5L).build();
+
+        //mock
+        given(widgetService.moveBelow(DUMMY_WIDGET_ID, DUMMY_WIDGET_ID + 1)).willReturn(movedWidget);
+
+        mockMvc.perform(post("/v1/widgets/{id}/below/{targetId}", DUMMY_WIDGET_ID, DUMMY_WIDGET_ID + 1))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"5\""));
+    }
+
+    @Test
+    void moveAbove_whenTargetNotFound_thenReturnNotFound() throws Exception {
+        //mock
+        doThrow(new WidgetNotFoundException("Target widget not found by id")).when(widgetService).moveAbove(DUMMY_WIDGET_ID, DUMMY_WIDGET_ID + 1);
+
+        mockMvc.perform(post("/v1/widgets/{id}/above/{targetId}", DUMMY_WIDGET_ID, DUMMY_WIDGET_ID + 1))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void patch_whenWidthIsNotPositive_thenReturnBadRequest() throws Exception {
+        PatchWidgetRequest request = PatchWidgetRequest.builder().width(-1).build();
+
+        mockMvc.perform(patch("/v1/widgets/{id}", DUMMY_WIDGET_ID)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void patch_whenBodyIsValid_thenReturnPatchedWidget() throws Exception {
+        PatchWidgetRequest request = PatchWidgetRequest.builder().xIndex(7).build();
+        Widget patchedWidget = Widget.builder().id(DUMMY_WIDGET_ID).xIndex(7).yIndex(0).width(5).height(5).build();
+
+        //mock
+        given(widgetService.patchWidget(request.toWidget(DUMMY_WIDGET_ID))).willReturn(patchedWidget);
+
+        mockMvc.perform(patch("/v1/widgets/{id}", DUMMY_WIDGET_ID)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.xIndex", is(7)));
+    }
+}
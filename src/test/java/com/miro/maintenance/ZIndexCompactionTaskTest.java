@@ -0,0 +1,78 @@
+package com.miro.maintenance;
+
+import com.miro.model.ZIndexCompactionResult;
+import com.miro.model.ZIndexStats;
+import com.miro.service.WidgetService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ZIndexCompactionTaskTest {
+    private static final ZIndexStats DENSE_Z_INDEX_STATS = ZIndexStats.builder().count(10).adjacentCount(9).build();
+    private static final ZIndexStats SPARSE_Z_INDEX_STATS = ZIndexStats.builder().count(10).adjacentCount(1).build();
+
+    @Mock
+    private WidgetService mockWidgetService;
+
+    private ZIndexCompactionTask compactionTask;
+
+    @BeforeEach
+    void setUp() {
+        compactionTask = new ZIndexCompactionTask(mockWidgetService, true, 10, 5, 0.25);
+    }
+
+    @Test
+    void compactWhenIdle_whenIdleAndZIndexesAreDense_thenCompact() {
+        ZIndexCompactionResult compactionResult = ZIndexCompactionResult.builder().applied(true).build();
+
+        //mock
+        given(mockWidgetService.getZIndexStats()).willReturn(DENSE_Z_INDEX_STATS);
+        given(mockWidgetService.compactZIndexes(10)).willReturn(compactionResult);
+
+        compactionTask.compactWhenIdle();
+
+        verify(mockWidgetService).compactZIndexes(10);
+        assertEquals(compactionResult, compactionTask.getLastCompactionResult().orElseThrow());
+    }
+
+    @Test
+    void compact_whenLastZIndexWouldOverflow_thenLowerSpacing() {
+        compactionTask = new ZIndexCompactionTask(mockWidgetService, true, Integer.MAX_VALUE, 5, 0.25);
+
+        //mock
+        given(mockWidgetService.getZIndexStats()).willReturn(DENSE_Z_INDEX_STATS);
+
+        compactionTask.compact();
+
+        verify(mockWidgetService).compactZIndexes(Integer.MAX_VALUE / 9);
+    }
+
+    @Test
+    void compactWhenIdle_whenZIndexesAreSparse_thenDoNotCompact() {
+        //mock
+        given(mockWidgetService.getZIndexStats()).willReturn(SPARSE_Z_INDEX_STATS);
+
+        compactionTask.compactWhenIdle();
+
+        verify(mockWidgetService, never()).compactZIndexes(anyInt());
+    }
+
+    @Test
+    void compactWhenIdle_whenManyRequestsHandled_thenDoNotCompact() {
+        IntStream.range(0, 6).forEach(i -> compactionTask.onRequestHandled(null));
+
+        compactionTask.compactWhenIdle();
+
+        verifyNoInteractions(mockWidgetService);
+    }
+}
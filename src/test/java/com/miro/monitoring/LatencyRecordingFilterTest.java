@@ -0,0 +1,45 @@
+package com.miro.monitoring;
+
+import com.miro.model.LatencySummary;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.FilterChain;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyRecordingFilterTest {
+    private final LatencyRecordingFilter latencyRecordingFilter = new LatencyRecordingFilter(200);
+
+    @Test
+    void doFilter_whenRequestIsMapped_thenRecordLatencyByEndpointPattern() throws Exception {
+        FilterChain chain = (request, response) ->
+                request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, "/v1/widgets/{id}");
+
+        latencyRecordingFilter.doFilter(new MockHttpServletRequest("GET", "/v1/widgets/1"), new MockHttpServletResponse(), chain);
+        latencyRecordingFilter.doFilter(new MockHttpServletRequest("GET", "/v1/widgets/2"), new MockHttpServletResponse(), chain);
+
+        Map<String, LatencySummary> latencySummaries = latencyRecordingFilter.getLatencySummaries();
+        assertEquals(1, latencySummaries.size());
+        LatencySummary latencySummary = latencySummaries.get("GET /v1/widgets/{id}");
+        assertEquals(2, latencySummary.getCount());
+        assertTrue(latencySummary.getP50() <= latencySummary.getP999());
+        assertTrue(latencySummary.getP999() <= latencySummary.getMax());
+
+        latencyRecordingFilter.reset();
+        assertEquals(0, latencyRecordingFilter.getLatencySummaries().get("GET /v1/widgets/{id}").getCount());
+    }
+
+    @Test
+    void doFilter_whenRequestIsNotWidgetApi_thenDoNotRecord() throws Exception {
+        FilterChain chain = (request, response) ->
+                request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, "/actuator/health");
+
+        latencyRecordingFilter.doFilter(new MockHttpServletRequest("GET", "/actuator/health"), new MockHttpServletResponse(), chain);
+
+        assertTrue(latencyRecordingFilter.getLatencySummaries().isEmpty());
+    }
+}
@@ -0,0 +1,61 @@
+package com.miro.replication;
+
+import com.miro.model.Widget;
+import com.miro.model.WidgetChanges;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ReplicationCodecTest {
+    private static final ReplicationFrame DUMMY_FRAME = ReplicationFrame.builder()
+            .boardId(-42L)
+            .sentAtMillis(1234L)
+            .changes(WidgetChanges.builder()
+                    .version(7)
+                    .fullSyncRequired(false)
+                    .updated(List.of(
+                            Widget.builder().id(1L).xIndex(10).yIndex(20).zIndex(-3).width(30).height(40)
+                                    .updateTime(LocalDateTime.now()).version(7L).build(),
+                            Widget.builder().id(7L).xIndex(-10).yIndex(0).zIndex(5).width(3).height(4).version(6L).build()))
+                    .deleted(List.of(3L, 4L))
+                    .build())
+            .build();
+
+    @Test
+    void readFrame_whenFrameIsWritten_thenReturnSameFrame() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ReplicationCodec.writeFrame(new DataOutputStream(bytes), DUMMY_FRAME);
+        ReplicationCodec.writeFrame(new DataOutputStream(bytes), DUMMY_FRAME);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(DUMMY_FRAME, ReplicationCodec.readFrame(in));
+        assertEquals(DUMMY_FRAME, ReplicationCodec.readFrame(in));
+    }
+
+    @Test
+    void readHello_whenHelloIsWritten_thenReturnBoardIdAndVersion() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ReplicationCodec.writeHello(new DataOutputStream(bytes), 5L, -1L);
+
+        ReplicationCodec.Hello hello = ReplicationCodec.readHello(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(5L, hello.getBoardId());
+        assertEquals(-1L, hello.getVersion());
+    }
+
+    @Test
+    void readHello_whenPeerIsNotReplica_thenThrowIllegalArgumentException() {
+        byte[] request = "GET / HTTP/1.1\r\n\r\n".getBytes();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> ReplicationCodec.readHello(new DataInputStream(new ByteArrayInputStream(request))));
+    }
+}
@@ -0,0 +1,147 @@
+package com.miro.repository.id;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockIdAllocatorTest {
+    private static final int BLOCK_SIZE = 10;
+
+    @Test
+    void nextId_whenCalledByManyThreads_thenReturnUniqueIds() throws Exception {
+        BlockIdAllocator allocator = new BlockIdAllocator(new AtomicLongIdBlockSource(BLOCK_SIZE));
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(() -> {
+                    long previousId = -1;
+                    for (int j = 0; j < 1000; j++) {
+                        long id = allocator.nextId();
+                        assertTrue(id > previousId);
+                        assertTrue(ids.add(id));
+                        previousId = id;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(4000, ids.size());
+    }
+
+    @Test
+    void nextId_whenBlockIsNotExhausted_thenDontTakeNewBlock() {
+        CountingIdBlockSource blockSource = new CountingIdBlockSource();
+        BlockIdAllocator allocator = new BlockIdAllocator(blockSource);
+
+        for (int i = 0; i < 25; i++) {
+            assertEquals(i, allocator.nextId());
+        }
+
+        assertEquals(3, blockSource.reservedBlocks.get());
+    }
+
+    @Test
+    void nextId_whenIdsAreReserved_thenSkipThemInTakenBlock() {
+        BlockIdAllocator allocator = new BlockIdAllocator(new AtomicLongIdBlockSource(BLOCK_SIZE));
+        assertEquals(0, allocator.nextId());
+
+        allocator.reserveUpTo(42);
+
+        assertEquals(43, allocator.nextId());
+        assertEquals(44, allocator.nextId());
+    }
+
+    @Test
+    void reserveUpTo_whenIdIsBelowNextBlock_thenDontMoveSourceBack() {
+        AtomicLongIdBlockSource blockSource = new AtomicLongIdBlockSource(BLOCK_SIZE);
+        BlockIdAllocator allocator = new BlockIdAllocator(blockSource);
+        allocator.reserveUpTo(42);
+
+        allocator.reserveUpTo(5);
+
+        assertEquals(43, allocator.nextId());
+        assertEquals(43 + BLOCK_SIZE, blockSource.reserveBlock());
+    }
+
+    @Test
+    void nextId_whenSourceIsNotMovedAfterReservedIdYet_thenSkipItsBlocksUpToReservedId() {
+        CountingIdBlockSource blockSource = new DeferringIdBlockSource();
+        BlockIdAllocator allocator = new BlockIdAllocator(blockSource);
+
+        allocator.reserveUpTo(42);
+
+        assertEquals(43, allocator.nextId());
+        assertEquals(5, blockSource.reservedBlocks.get());
+    }
+
+    @Test
+    void reserveUpTo_whenTransactionRollsBack_thenReleaseReservedIds() {
+        BlockIdAllocator allocator = new BlockIdAllocator(new DeferringIdBlockSource());
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            allocator.reserveUpTo(42);
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertEquals(0, allocator.nextId());
+    }
+
+    @Test
+    void reserveUpTo_whenTransactionCommits_thenKeepReservedIds() {
+        BlockIdAllocator allocator = new BlockIdAllocator(new AtomicLongIdBlockSource(BLOCK_SIZE));
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            allocator.reserveUpTo(42);
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertEquals(43, allocator.nextId());
+    }
+
+    private static class CountingIdBlockSource extends AtomicLongIdBlockSource {
+        private final AtomicInteger reservedBlocks = new AtomicInteger();
+
+        private CountingIdBlockSource() {
+            super(BLOCK_SIZE);
+        }
+
+        @Override
+        public long reserveBlock() {
+            reservedBlocks.incrementAndGet();
+            return super.reserveBlock();
+        }
+    }
+
+    /**
+     * Moves after a reserved id never, like a transactional source before its transaction commits.
+     */
+    private static class DeferringIdBlockSource extends CountingIdBlockSource {
+        @Override
+        public void reserveUpTo(long id) {
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.miro.repository.id;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SequenceIdBlockSourceTest {
+    private SingleConnectionDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+    private SequenceIdBlockSource blockSource;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        dataSource = new SingleConnectionDataSource("jdbc:h2:mem:sequence", "sa", "", true);
+        try (Connection connection = dataSource.getConnection()) {
+            ScriptUtils.executeSqlScript(connection, new ClassPathResource("schema.sql"));
+        }
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        blockSource = new SequenceIdBlockSource(jdbcTemplate);
+    }
+
+    @AfterEach
+    void tearDown() {
+        dataSource.destroy();
+    }
+
+    @Test
+    void reserveBlock_whenCalledTwice_thenReturnConsecutiveBlocks() {
+        long blockStart = blockSource.reserveBlock();
+
+        assertEquals(100, blockSource.getBlockSize());
+        assertEquals(blockStart + 100, blockSource.reserveBlock());
+    }
+
+    @Test
+    void getBlockSize_whenIncrementIsChanged_thenUseIncrementOfSequence() {
+        jdbcTemplate.execute("alter sequence widget_id_seq increment by 250");
+
+        SequenceIdBlockSource changedBlockSource = new SequenceIdBlockSource(jdbcTemplate);
+        long blockStart = changedBlockSource.reserveBlock();
+
+        assertEquals(250, changedBlockSource.getBlockSize());
+        assertEquals(blockStart + 250, changedBlockSource.reserveBlock());
+    }
+
+    @Test
+    void constructor_whenSequenceDoesNotExist_thenThrowIllegalStateException() {
+        jdbcTemplate.execute("drop sequence widget_id_seq");
+
+        assertThrows(IllegalStateException.class, () -> new SequenceIdBlockSource(jdbcTemplate));
+    }
+
+    @Test
+    void reserveUpTo_whenSequenceIsBehind_thenStartNextBlockAfterId() {
+        blockSource.reserveBlock();
+
+        blockSource.reserveUpTo(1000);
+        long blockStart = blockSource.reserveBlock();
+        blockSource.reserveUpTo(10);
+
+        assertEquals(1001, blockStart);
+        assertEquals(blockStart + 100, blockSource.reserveBlock());
+    }
+
+    @Test
+    void reserveUpTo_whenTransactionCommits_thenStartNextBlockAfterIdOnceCommitted() {
+        blockSource.reserveBlock();
+
+        transactionTemplate.executeWithoutResult(status -> {
+            blockSource.reserveUpTo(1000);
+            insertWidget();
+            assertTrue(blockSource.reserveBlock() < 1000);
+        });
+
+        assertEquals(1, countWidgets());
+        assertEquals(1001, blockSource.reserveBlock());
+    }
+
+    @Test
+    void reserveUpTo_whenTransactionRollsBack_thenDontCommitTransactionOrRestartSequence() {
+        blockSource.reserveBlock();
+
+        transactionTemplate.executeWithoutResult(status -> {
+            insertWidget();
+            blockSource.reserveUpTo(1000);
+            status.setRollbackOnly();
+        });
+
+        assertEquals(0, countWidgets());
+        assertTrue(blockSource.reserveBlock() < 1000);
+    }
+
+    private void insertWidget() {
+        jdbcTemplate.update("insert into widget (id, xIndex, yIndex, zIndex, width, height, updateTime) values(1, 1, 2, 3, 4, 5, now())");
+    }
+
+    private long countWidgets() {
+        return jdbcTemplate.queryForObject("select count(*) from widget", Long.class);
+    }
+}
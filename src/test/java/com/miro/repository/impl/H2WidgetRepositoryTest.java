@@ -1,32 +1,45 @@
 package com.miro.repository.impl;
 
 import com.miro.exception.WidgetNotFoundException;
+import com.miro.exception.WidgetVersionConflictException;
+import com.miro.model.QueryPlan;
 import com.miro.model.RectangleCoordinates;
+import com.miro.model.TileSummary;
 import com.miro.model.Widget;
+import com.miro.model.WidgetChanges;
+import com.miro.model.WidgetOverlap;
+import com.miro.model.WidgetQueryResult;
+import com.miro.model.WidgetStats;
+import com.miro.model.ZIndexCompactionResult;
+import com.miro.model.ZIndexStats;
+import com.miro.repository.id.WidgetIdAllocator;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
-import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.mockito.stubbing.Answer;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
-import org.springframework.jdbc.support.GeneratedKeyHolder;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
-import static com.miro.repository.impl.H2WidgetRepository.QUERY_DELETE_WIDGET;
-import static com.miro.repository.impl.H2WidgetRepository.QUERY_SELECT_MAX_Z_INDEX;
+import static com.miro.repository.impl.H2WidgetRepository.*;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
 @ExtendWith(MockitoExtension.class)
@@ -34,9 +47,17 @@ class H2WidgetRepositoryTest {
     @Mock
     private JdbcTemplate mockJdbcTemplate;
 
+    @Mock
+    private WidgetIdAllocator mockIdAllocator;
+
     @InjectMocks
     private H2WidgetRepository h2WidgetRepository;
 
+    @BeforeEach
+    void setUp() {
+        lenient().when(mockJdbcTemplate.queryForObject(QUERY_SELECT_NEXT_BOARD_VERSION, Long.class)).thenReturn(3L);
+    }
+
     @Test
     void save_whenIdDoesNotExist_thenCreateAndReturnNewWidget() {
         Widget widget = Widget.builder().xIndex(10).yIndex(20).width(30).height(40).build();
@@ -47,6 +68,7 @@ class H2WidgetRepositoryTest {
 
         Widget createdWidget = h2WidgetRepository.save(widget);
         assertEquals(3L, createdWidget.getId());
+        verify(mockJdbcTemplate).update(eq(QUERY_INSERT_WIDGET_WITH_ID), eq(3L), eq(10), eq(20), eq(1), eq(30), eq(40), any(), eq(3L));
     }
 
     @Test
@@ -67,7 +89,7 @@ class H2WidgetRepositoryTest {
 
         // mock
         given(mockJdbcTemplate.queryForObject(anyString(), any(BeanPropertyRowMapper.class), anyInt())).willReturn(null);
-        given(mockJdbcTemplate.update(anyString(), anyInt(), anyInt(), anyInt(), anyInt(), anyInt(), any(LocalDateTime.class), anyLong())).willReturn(0);
+        given(mockJdbcTemplate.update(QUERY_STAMP_WIDGET_VERSION, 3L, 1L)).willReturn(0);
 
         assertThrows(WidgetNotFoundException.class, () -> h2WidgetRepository.save(widget));
     }
@@ -78,11 +100,69 @@ class H2WidgetRepositoryTest {
 
         // mock
         given(mockJdbcTemplate.queryForObject(anyString(), any(BeanPropertyRowMapper.class), anyInt())).willReturn(null);
-        given(mockJdbcTemplate.update(anyString(), anyInt(), anyInt(), anyInt(), anyInt(), anyInt(), any(LocalDateTime.class), anyLong())).willReturn(1);
+        given(mockJdbcTemplate.update(QUERY_STAMP_WIDGET_VERSION, 3L, 1L)).willReturn(1);
+        given(mockJdbcTemplate.update(eq(QUERY_INSERT_MOVE), any(), any(), any(), any(), any(), any())).willReturn(0);
+        given(mockJdbcTemplate.update(anyString(), anyInt(), anyInt(), anyInt(), anyInt(), anyInt(), any(LocalDateTime.class), any(), anyLong())).willReturn(1);
 
         Widget updatedWidget = h2WidgetRepository.save(widget);
         assertEquals(widget.getId(), updatedWidget.getId());
         assertNotNull(updatedWidget.getUpdateTime());
+        verify(mockJdbcTemplate).query(eq(QUERY_LOCK_BOARD), any(RowCallbackHandler.class));
+    }
+
+    @Test
+    void save_whenZIndexIsKept_thenUpdateRowWithoutLockingBoard() {
+        Widget widget = Widget.builder().id(1L).xIndex(10).yIndex(20).zIndex(5).width(30).height(40).version(2L).build();
+        Widget currentWidget = Widget.builder().id(1L).xIndex(1).yIndex(2).zIndex(5).width(3).height(4).version(2L).build();
+
+        // mock
+        given(mockJdbcTemplate.queryForObject(anyString(), any(BeanPropertyRowMapper.class), anyInt())).willReturn(currentWidget);
+        given(mockJdbcTemplate.update(QUERY_CLAIM_WIDGET_VERSION, 3L, 1L, 2L)).willReturn(1);
+        given(mockJdbcTemplate.queryForObject(anyString(), any(BeanPropertyRowMapper.class), anyLong())).willReturn(currentWidget);
+        given(mockJdbcTemplate.update(eq(QUERY_INSERT_MOVE), any(), any(), any(), any(), any(), any())).willReturn(1);
+        given(mockJdbcTemplate.update(anyString(), anyInt(), anyInt(), anyInt(), anyInt(), anyInt(), any(LocalDateTime.class), any(), anyLong())).willReturn(1);
+
+        Widget updatedWidget = h2WidgetRepository.save(widget);
+        assertEquals(3L, updatedWidget.getVersion());
+        assertEquals(5, updatedWidget.getZIndex());
+        verify(mockJdbcTemplate, never()).query(eq(QUERY_LOCK_BOARD), any(RowCallbackHandler.class));
+        verify(mockJdbcTemplate, never()).batchUpdate(eq(QUERY_UPDATE_Z_INDEXES), any(BatchPreparedStatementSetter.class));
+    }
+
+    @Test
+    void save_whenExpectedVersionIsStale_thenThrowWidgetVersionConflictException() {
+        Widget widget = Widget.builder().id(1L).xIndex(10).yIndex(20).zIndex(5).width(30).height(40).version(2L).build();
+
+        // mock
+        given(mockJdbcTemplate.queryForObject(anyString(), any(BeanPropertyRowMapper.class), anyInt())).willReturn(null);
+        given(mockJdbcTemplate.update(QUERY_CLAIM_WIDGET_VERSION, 3L, 1L, 2L)).willReturn(0);
+        given(mockJdbcTemplate.queryForObject(QUERY_COUNT_BY_ID, Long.class, 1L)).willReturn(1L);
+
+        assertThrows(WidgetVersionConflictException.class, () -> h2WidgetRepository.save(widget));
+        verify(mockJdbcTemplate, never()).update(eq(QUERY_UPDATE_Z_INDEXES), any(), any());
+    }
+
+    @Test
+    void save_whenExpectedVersionMatches_thenClaimVersionAndUpdate() {
+        Widget widget = Widget.builder().id(1L).xIndex(10).yIndex(20).zIndex(5).width(30).height(40).version(2L).build();
+
+        // mock
+        given(mockJdbcTemplate.update(QUERY_CLAIM_WIDGET_VERSION, 3L, 1L, 2L)).willReturn(1);
+        given(mockJdbcTemplate.queryForObject(anyString(), any(BeanPropertyRowMapper.class), anyInt())).willReturn(null);
+        given(mockJdbcTemplate.update(eq(QUERY_INSERT_MOVE), any(), any(), any(), any(), any(), any())).willReturn(0);
+        given(mockJdbcTemplate.update(anyString(), anyInt(), anyInt(), anyInt(), anyInt(), anyInt(), any(LocalDateTime.class), any(), anyLong())).willReturn(1);
+
+        assertEquals(3L, h2WidgetRepository.save(widget).getVersion());
+    }
+
+    @Test
+    void patch_whenExpectedVersionIsStale_thenThrowWidgetVersionConflictException() {
+        // mock
+        given(mockJdbcTemplate.update(QUERY_CLAIM_WIDGET_VERSION, 3L, 1L, 2L)).willReturn(0);
+        given(mockJdbcTemplate.queryForObject(QUERY_COUNT_BY_ID, Long.class, 1L)).willReturn(1L);
+
+        assertThrows(WidgetVersionConflictException.class,
+                () -> h2WidgetRepository.patch(Widget.builder().id(1L).xIndex(11).version(2L).build()));
     }
 
     @Test
@@ -90,9 +170,10 @@ class H2WidgetRepositoryTest {
         Long widgetId = 5L;
 
         // mock
-        given(mockJdbcTemplate.update(QUERY_DELETE_WIDGET, widgetId)).willReturn(0);
+        given(mockJdbcTemplate.update(QUERY_STAMP_WIDGET_VERSION, 3L, widgetId)).willReturn(0);
 
         assertThrows(WidgetNotFoundException.class, () -> h2WidgetRepository.deleteById(widgetId));
+        verify(mockJdbcTemplate, never()).update(QUERY_DELETE_WIDGET, widgetId);
     }
 
     @Test
@@ -100,11 +181,37 @@ class H2WidgetRepositoryTest {
         Long widgetId = 5L;
 
         // mock
+        given(mockJdbcTemplate.update(QUERY_STAMP_WIDGET_VERSION, 3L, widgetId)).willReturn(1);
+        given(mockJdbcTemplate.update(QUERY_INSERT_TOMBSTONE, 3L, widgetId)).willReturn(1);
         given(mockJdbcTemplate.update(QUERY_DELETE_WIDGET, widgetId)).willReturn(1);
 
         h2WidgetRepository.deleteById(widgetId);
 
         verify(mockJdbcTemplate).update(QUERY_DELETE_WIDGET, widgetId);
+        verify(mockJdbcTemplate).update(QUERY_INSERT_TOMBSTONE, 3L, widgetId);
+        verify(mockJdbcTemplate, never()).query(eq(QUERY_LOCK_BOARD), any(RowCallbackHandler.class));
+    }
+
+    @Test
+    void deleteInRectangle_whenCalled_thenLockWidgetsInOneStatementAndDeleteThemById() {
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(-10).y0(0).x1(100).y1(10).build();
+
+        // mock
+        given(mockJdbcTemplate.queryForList(QUERY_SELECT_IDS_IN_COORDINATES_FOR_UPDATE, Long.class, -10, 100, 0, 10, -10, 100, 0, 10))
+                .willReturn(List.of(4L, 7L));
+
+        assertEquals(2, h2WidgetRepository.deleteInRectangle(coordinates));
+        verify(mockJdbcTemplate).batchUpdate(eq(QUERY_INSERT_TOMBSTONE), eq(List.of(4L, 7L)), anyInt(), any(ParameterizedPreparedStatementSetter.class));
+        verify(mockJdbcTemplate).batchUpdate(eq(QUERY_DELETE_WIDGET), eq(List.of(4L, 7L)), anyInt(), any(ParameterizedPreparedStatementSetter.class));
+    }
+
+    @Test
+    void deleteInZIndexRange_whenNoWidgetIsInRange_thenDeleteNothing() {
+        // mock
+        given(mockJdbcTemplate.queryForList(QUERY_SELECT_IDS_IN_Z_INDEX_RANGE_FOR_UPDATE, Long.class, -5, 5)).willReturn(List.of());
+
+        assertEquals(0, h2WidgetRepository.deleteInZIndexRange(-5, 5));
+        verify(mockJdbcTemplate, never()).batchUpdate(eq(QUERY_DELETE_WIDGET), anyCollection(), anyInt(), any(ParameterizedPreparedStatementSetter.class));
     }
 
     @Test
@@ -141,7 +248,7 @@ class H2WidgetRepositoryTest {
     }
 
     @Test
-    void findWithCoordinates_whenWidgetsExist_thenReturnFoundWidgets() {
+    void findWithCoordinates_whenRectangleIsSmall_thenProbePositionIndex() {
         RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(1).y0(2).x1(3).y1(4).build();
         List<Widget> widgets = List.of(
                 Widget.builder().id(1L).xIndex(10).yIndex(20).zIndex(5).width(30).height(40).build(),
@@ -149,17 +256,270 @@ class H2WidgetRepositoryTest {
         );
 
         // mock
-        given(mockJdbcTemplate.query(anyString(), any(RowMapper.class), anyInt(), anyInt(), anyInt(), anyInt(), anyInt())).willReturn(widgets);
+        mockPlannerStatistics(100_000, 10_000);
+        given(mockJdbcTemplate.query(eq(QUERY_SELECT_IN_COORDINATES_BY_POSITION), any(RowMapper.class),
+                eq(1), eq(3), eq(2), eq(4), eq(1), eq(3), eq(2), eq(4), eq(10))).willReturn(widgets);
 
-        assertEquals(widgets, h2WidgetRepository.findWithCoordinates(coordinates, 10));
+        WidgetQueryResult queryResult = h2WidgetRepository.findWithCoordinates(coordinates, 10);
+        assertEquals(widgets, queryResult.getWidgets());
+        assertEquals(QueryPlan.SPATIAL_PROBE, queryResult.getPlan());
+    }
+
+    @Test
+    void findWithCoordinates_whenRectangleCoversBoard_thenScanZIndexIndex() {
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(0).y0(0).x1(10_000).y1(10_000).build();
+        List<Widget> widgets = List.of(Widget.builder().id(1L).xIndex(10).yIndex(20).zIndex(5).width(30).height(40).build());
+
+        // mock
+        mockPlannerStatistics(100_000, 10_000);
+        given(mockJdbcTemplate.query(eq(QUERY_SELECT_IN_COORDINATES_BY_Z_INDEX), any(RowMapper.class),
+                any(), any(), any(), any(), any(), any(), any(), any(), eq(10))).willReturn(widgets);
+
+        WidgetQueryResult queryResult = h2WidgetRepository.findWithCoordinates(coordinates, 10);
+        assertEquals(widgets, queryResult.getWidgets());
+        assertEquals(QueryPlan.Z_ORDER_SCAN, queryResult.getPlan());
+        assertEquals(100_000, queryResult.getEstimatedCount());
+
+        h2WidgetRepository.findWithCoordinates(coordinates, 10);
+        verify(mockJdbcTemplate).queryForObject(eq(QUERY_SELECT_PLANNER_STATISTICS), any(RowMapper.class));
+    }
+
+    @Test
+    void findNearest_whenWindowHasKWidgetsInItsCircle_thenReturnThem() {
+        List<Widget> widgets = List.of(
+                Widget.builder().id(1L).xIndex(5_000).yIndex(5_000).zIndex(1).width(4).height(4).build(),
+                Widget.builder().id(2L).xIndex(5_010).yIndex(5_000).zIndex(2).width(4).height(4).build()
+        );
+
+        // mock
+        mockPlannerStatistics(100_000, 10_000);
+        given(mockJdbcTemplate.query(eq(QUERY_SELECT_NEAREST_IN_WINDOW), any(RowMapper.class),
+                eq(4_974), eq(5_026), eq(4_974), eq(5_026), eq(5_000), eq(5_000), eq(5_000), eq(5_000), eq(2)))
+                .willReturn(widgets);
+
+        assertEquals(widgets, h2WidgetRepository.findNearest(5_000, 5_000, 2));
+    }
+
+    @Test
+    void findNearest_whenWindowHasFewerWidgets_thenExpandUntilBoardIsCovered() {
+        List<Widget> widgets = List.of(Widget.builder().id(1L).xIndex(0).yIndex(0).zIndex(1).width(4).height(4).build());
+
+        // mock
+        mockPlannerStatistics(4, 100);
+        given(mockJdbcTemplate.query(eq(QUERY_SELECT_NEAREST_IN_WINDOW), any(RowMapper.class),
+                any(), any(), any(), any(), any(), any(), any(), any(), any())).willReturn(List.of());
+        given(mockJdbcTemplate.query(eq(QUERY_SELECT_NEAREST), any(RowMapper.class), eq(50), eq(50), eq(50), eq(50), eq(2)))
+                .willReturn(widgets);
+
+        assertEquals(widgets, h2WidgetRepository.findNearest(50, 50, 2));
+        verify(mockJdbcTemplate).query(eq(QUERY_SELECT_NEAREST_IN_WINDOW), any(RowMapper.class),
+                any(), any(), any(), any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void findOverlaps_whenBoundsAreRead_thenSweepThem() {
+        List<Widget> widgets = List.of(
+                Widget.builder().id(1L).xIndex(0).yIndex(0).width(10).height(10).build(),
+                Widget.builder().id(2L).xIndex(5).yIndex(5).width(10).height(10).build(),
+                Widget.builder().id(3L).xIndex(50).yIndex(5).width(10).height(10).build()
+        );
+
+        // mock
+        given(mockJdbcTemplate.query(eq(QUERY_SELECT_BOUNDS), any(RowMapper.class))).willReturn(widgets);
+
+        List<WidgetOverlap> overlaps = new ArrayList<>();
+        h2WidgetRepository.findOverlaps(overlaps::add);
+        assertEquals(List.of(new WidgetOverlap(1L, 2L)), overlaps);
+    }
+
+    @Test
+    void findOverlapping_whenCandidatesAreFound_thenKeepOverlappingOnes() {
+        Widget widget = Widget.builder().id(1L).xIndex(100).yIndex(100).zIndex(5).width(10).height(10).build();
+        Widget overlappingWidget = Widget.builder().id(2L).xIndex(108).yIndex(100).zIndex(6).width(10).height(10).build();
+        Widget touchingWidget = Widget.builder().id(3L).xIndex(110).yIndex(100).zIndex(7).width(10).height(10).build();
+
+        // mock
+        given(mockJdbcTemplate.queryForObject(anyString(), any(BeanPropertyRowMapper.class), eq(1L))).willReturn(widget);
+        given(mockJdbcTemplate.queryForObject(eq(QUERY_SELECT_MAX_SIZE), any(RowMapper.class))).willReturn(new int[]{20, 10});
+        given(mockJdbcTemplate.query(eq(QUERY_SELECT_OVERLAPPING_CANDIDATES), any(RowMapper.class),
+                eq(85), eq(115), eq(90), eq(110), eq(1L)))
+                .willReturn(new ArrayList<>(List.of(overlappingWidget, touchingWidget)));
+
+        assertEquals(List.of(overlappingWidget), h2WidgetRepository.findOverlapping(1L));
+    }
+
+    @Test
+    void importSnapshot_whenSnapshotIsExported_thenBatchInsertWidgets() {
+        List<Widget> widgets = List.of(
+                Widget.builder().id(1L).xIndex(10).yIndex(20).zIndex(5).width(30).height(40).updateTime(LocalDateTime.now()).build(),
+                Widget.builder().id(2L).xIndex(10).yIndex(20).zIndex(6).width(30).height(40).updateTime(LocalDateTime.now()).build()
+        );
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+
+        // mock
+        given(mockJdbcTemplate.query(eq(QUERY_SELECT_ALL_BY_Z_INDEX), any(RowMapper.class))).willReturn(widgets);
+
+        h2WidgetRepository.exportSnapshot(snapshot);
+        int importedWidgetCount = h2WidgetRepository.importSnapshot(new ByteArrayInputStream(snapshot.toByteArray()));
+
+        assertEquals(2, importedWidgetCount);
+        verify(mockJdbcTemplate).batchUpdate(eq(QUERY_INSERT_WIDGET_WITH_ID), eq(widgets), anyInt(), any(ParameterizedPreparedStatementSetter.class));
+        verify(mockIdAllocator).reserveUpTo(2L);
+    }
+
+    @Test
+    void compactZIndexes_whenWidgetsExist_thenBatchUpdateZIndexesInOrder() {
+        ZIndexStats zIndexStats = ZIndexStats.builder().count(2).minZIndex(1).maxZIndex(2).build();
+
+        // mock
+        given(mockJdbcTemplate.queryForObject(eq(QUERY_SELECT_Z_INDEX_STATS), any(RowMapper.class))).willReturn(zIndexStats);
+        given(mockJdbcTemplate.queryForObject(QUERY_SELECT_ADJACENT_Z_INDEX_COUNT, Long.class)).willReturn(1L);
+        given(mockJdbcTemplate.queryForList(QUERY_SELECT_IDS_BY_Z_INDEX_FOR_UPDATE, Long.class)).willReturn(List.of(4L, 2L));
+        ZIndexCompactionResult compactionResult = h2WidgetRepository.compactZIndexes(10);
+
+        assertTrue(compactionResult.isApplied());
+        assertEquals(1L, compactionResult.getBefore().getAdjacentCount());
+        verify(mockJdbcTemplate).batchUpdate(anyString(), any(BatchPreparedStatementSetter.class));
+    }
+
+    @Test
+    void getStats_whenCoordinatesAreGiven_thenAggregateWithCountQuery() {
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(-10).y0(0).x1(100).y1(10).build();
+
+        // mock
+        given(mockJdbcTemplate.queryForObject(eq(QUERY_SELECT_Z_INDEX_STATS), any(RowMapper.class)))
+                .willReturn(WidgetStats.builder().totalCount(3).minZIndex(1).maxZIndex(5));
+        given(mockJdbcTemplate.queryForObject(eq(QUERY_SELECT_EXTENT), any(RowMapper.class)))
+                .willReturn(WidgetStats.builder().totalCount(3).minZIndex(1).maxZIndex(5).minX(-5).minY(0).maxX(50).maxY(9));
+        given(mockJdbcTemplate.queryForObject(QUERY_COUNT_IN_COORDINATES, Long.class, -10, 100, 0, 10, -10, 100, 0, 10)).willReturn(2L);
+
+        assertEquals(WidgetStats.builder().totalCount(3).countInRectangle(2L).minZIndex(1).maxZIndex(5)
+                .minX(-5).minY(0).maxX(50).maxY(9).build(), h2WidgetRepository.getStats(coordinates));
+    }
+
+    private void mockPlannerStatistics(long count, int boardSize) {
+        given(mockJdbcTemplate.queryForObject(eq(QUERY_SELECT_PLANNER_STATISTICS), any(RowMapper.class)))
+                .willReturn(new PlannerStatistics(count, 0, boardSize, 0, boardSize, System.currentTimeMillis()));
     }
 
     private void mockWidgetId(Long id) {
-        Mockito.when(mockJdbcTemplate.update(Mockito.any(PreparedStatementCreator.class),
-                Mockito.any(GeneratedKeyHolder.class))).thenAnswer((Answer) invocation -> {
-            Object[] args = invocation.getArguments();
-            ((GeneratedKeyHolder) args[1]).getKeyList().add(Map.of("", id));
-            return 1;
-        }).thenReturn(1);
-    }
-}
\ No newline at end of file
+        given(mockIdAllocator.nextId()).willReturn(id);
+    }
+
+    @Test
+    void bringToFront_whenWidgetExists_thenMoveAboveMaxZIndex() {
+        Widget widget = Widget.builder().id(1L).xIndex(10).yIndex(20).zIndex(5).width(30).height(40).build();
+
+        // mock
+        given(mockJdbcTemplate.queryForObject(anyString(), any(BeanPropertyRowMapper.class), anyLong())).willReturn(widget);
+        given(mockJdbcTemplate.queryForObject(QUERY_SELECT_MAX_Z_INDEX, Integer.class)).willReturn(8);
+        doThrow(EmptyResultDataAccessException.class).when(mockJdbcTemplate).queryForObject(anyString(), any(BeanPropertyRowMapper.class), anyInt());
+
+        Widget movedWidget = h2WidgetRepository.bringToFront(widget.getId());
+
+        assertEquals(9, movedWidget.getZIndex());
+        verify(mockJdbcTemplate).update(eq(QUERY_MOVE_WIDGET), eq(9), any(), eq(3L), eq(1L));
+        verify(mockJdbcTemplate).query(eq(QUERY_LOCK_BOARD), any(RowCallbackHandler.class));
+    }
+
+    @Test
+    void bringToFront_whenTopWidgetIsAtMaxZIndex_thenThrowIllegalArgumentException() {
+        Widget widget = Widget.builder().id(1L).xIndex(10).yIndex(20).zIndex(5).width(30).height(40).build();
+
+        // mock
+        given(mockJdbcTemplate.queryForObject(anyString(), any(BeanPropertyRowMapper.class), anyLong())).willReturn(widget);
+        given(mockJdbcTemplate.queryForObject(QUERY_SELECT_MAX_Z_INDEX, Integer.class)).willReturn(Integer.MAX_VALUE);
+
+        assertThrows(IllegalArgumentException.class, () -> h2WidgetRepository.bringToFront(widget.getId()));
+        verify(mockJdbcTemplate, never()).update(eq(QUERY_MOVE_WIDGET), any(), any(), any(), any());
+    }
+
+    @Test
+    void moveAbove_whenThereIsGapAboveTarget_thenMoveToMiddleOfGap() {
+        Widget widget = Widget.builder().id(1L).xIndex(10).yIndex(20).zIndex(5).width(30).height(40).build();
+        Widget targetWidget = Widget.builder().id(2L).xIndex(10).yIndex(20).zIndex(10).width(30).height(40).build();
+
+        // mock
+        given(mockJdbcTemplate.queryForObject(anyString(), any(BeanPropertyRowMapper.class), anyLong())).willReturn(widget, targetWidget);
+        given(mockJdbcTemplate.queryForObject(QUERY_SELECT_Z_INDEX_ABOVE, Integer.class, 10)).willReturn(20);
+        doThrow(EmptyResultDataAccessException.class).when(mockJdbcTemplate).queryForObject(anyString(), any(BeanPropertyRowMapper.class), anyInt());
+
+        Widget movedWidget = h2WidgetRepository.moveAbove(widget.getId(), targetWidget.getId());
+
+        assertEquals(15, movedWidget.getZIndex());
+        verify(mockJdbcTemplate).update(eq(QUERY_MOVE_WIDGET), eq(15), any(), eq(3L), eq(1L));
+        verify(mockJdbcTemplate, never()).batchUpdate(eq(QUERY_UPDATE_Z_INDEXES), any(BatchPreparedStatementSetter.class));
+    }
+
+    @Test
+    void patch_whenZIndexIsNotPatched_thenDoNotLockBoard() {
+        Widget widget = Widget.builder().id(1L).xIndex(10).yIndex(20).zIndex(5).width(30).height(40).build();
+
+        // mock
+        given(mockJdbcTemplate.update(QUERY_STAMP_WIDGET_VERSION, 3L, 1L)).willReturn(1);
+        given(mockJdbcTemplate.queryForObject(anyString(), any(BeanPropertyRowMapper.class), anyLong())).willReturn(widget);
+
+        h2WidgetRepository.patch(Widget.builder().id(1L).xIndex(11).build());
+
+        verify(mockJdbcTemplate, never()).query(eq(QUERY_LOCK_BOARD), any(RowCallbackHandler.class));
+    }
+
+    @Test
+    void patch_whenZIndexIsPatched_thenLockBoard() {
+        Widget widget = Widget.builder().id(1L).xIndex(10).yIndex(20).zIndex(5).width(30).height(40).build();
+
+        // mock
+        given(mockJdbcTemplate.update(QUERY_STAMP_WIDGET_VERSION, 3L, 1L)).willReturn(1);
+        given(mockJdbcTemplate.queryForObject(anyString(), any(BeanPropertyRowMapper.class), anyLong())).willReturn(widget);
+
+        h2WidgetRepository.patch(Widget.builder().id(1L).zIndex(7).build());
+
+        verify(mockJdbcTemplate).query(eq(QUERY_LOCK_BOARD), any(RowCallbackHandler.class));
+    }
+
+    @Test
+    void patch_whenOnlyCoordinatesChange_thenUpdateOnlyChangedColumns() {
+        Widget widget = Widget.builder().id(1L).xIndex(10).yIndex(20).zIndex(5).width(30).height(40).build();
+
+        // mock
+        given(mockJdbcTemplate.update(QUERY_STAMP_WIDGET_VERSION, 3L, 1L)).willReturn(1);
+        given(mockJdbcTemplate.queryForObject(anyString(), any(BeanPropertyRowMapper.class), anyLong())).willReturn(widget);
+
+        Widget patchedWidget = h2WidgetRepository.patch(Widget.builder().id(1L).xIndex(11).yIndex(21).build());
+
+        assertEquals(11, patchedWidget.getXIndex());
+        assertEquals(5, patchedWidget.getZIndex());
+        verify(mockJdbcTemplate).update(eq("update widget set updateTime=?, version=?, xIndex=?, yIndex=? where id=?"), any(), eq(3L), eq(11), eq(21), eq(1L));
+    }
+
+    @Test
+    void findChangesSince_whenCoordinatesAreGiven_thenReturnChangedWidgetsAndTombstones() {
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(1).y0(2).x1(3).y1(4).build();
+        List<Widget> widgets = List.of(Widget.builder().id(1L).xIndex(2).yIndex(3).zIndex(5).width(1).height(1).version(6L).build());
+
+        // mock
+        given(mockJdbcTemplate.queryForObject(QUERY_SELECT_BOARD_VERSION, Long.class)).willReturn(7L);
+        given(mockJdbcTemplate.query(eq(QUERY_SELECT_CHANGED_WIDGETS_IN_COORDINATES), any(RowMapper.class), eq(5L), eq(1), eq(3), eq(2), eq(4))).willReturn(widgets);
+        given(mockJdbcTemplate.queryForList(QUERY_SELECT_TOMBSTONE_IDS_IN_COORDINATES, Long.class, 5L, 1, 3, 2, 4, 5L, 1, 3, 2, 4)).willReturn(List.of(2L));
+        given(mockJdbcTemplate.queryForList(QUERY_SELECT_MOVED_OUT_IDS_IN_COORDINATES, Long.class, 5L, 1, 3, 2, 4, 5L, 1, 3, 2, 4)).willReturn(List.of(3L));
+
+        WidgetChanges changes = h2WidgetRepository.findChangesSince(5, coordinates);
+
+        assertEquals(7L, changes.getVersion());
+        assertFalse(changes.isFullSyncRequired());
+        assertEquals(widgets, changes.getUpdated());
+        assertEquals(List.of(2L), changes.getDeleted());
+        assertEquals(List.of(3L), changes.getMovedOut());
+    }
+
+    @Test
+    void findTiles_whenCoordinatesAreGiven_thenQueryWidgetsInCoveredTiles() {
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(-10).y0(0).x1(100).y1(10).build();
+        List<TileSummary> tiles = List.of(TileSummary.builder().level(15).tileSize(64).count(1).topWidgetId(1L).build());
+
+        // mock
+        given(mockJdbcTemplate.query(eq(QUERY_SELECT_TILES), any(RowMapper.class), eq(64.0), eq(64.0), eq(-64L), eq(127L), eq(0L), eq(63L))).willReturn(tiles);
+
+        assertEquals(tiles, h2WidgetRepository.findTiles(coordinates, 15));
+    }
+}
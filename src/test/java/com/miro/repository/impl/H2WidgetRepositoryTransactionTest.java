@@ -0,0 +1,210 @@
+package com.miro.repository.impl;
+
+import com.miro.model.RectangleCoordinates;
+import com.miro.model.Widget;
+import com.miro.model.WidgetChanges;
+import com.miro.repository.WidgetRepository;
+import com.miro.repository.id.BlockIdAllocator;
+import com.miro.repository.id.SequenceIdBlockSource;
+import com.miro.repository.snapshot.WidgetSnapshotCodec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+import org.springframework.transaction.TransactionManager;
+import org.springframework.transaction.annotation.AnnotationTransactionAttributeSource;
+import org.springframework.transaction.interceptor.TransactionInterceptor;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs {@link H2WidgetRepository} on an H2 in-memory DB, with transactions applied like in the application context.
+ */
+class H2WidgetRepositoryTransactionTest {
+    private static final RectangleCoordinates BOARD = RectangleCoordinates.builder().x0(-1000).y0(-1000).x1(1000).y1(1000).build();
+    private static int databaseCount;
+
+    private DriverManagerDataSource dataSource;
+    private Connection connection;
+    private WidgetRepository widgetRepository;
+    private TransactionTemplate transactionTemplate;
+    private String failingStatement;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        // Every transaction gets its own connection, so that concurrent transactions can be run.
+        // The DB is kept open by the connection which runs the schema, until it is closed.
+        dataSource = new DriverManagerDataSource("jdbc:h2:mem:transaction" + databaseCount++, "sa", "");
+        connection = dataSource.getConnection();
+        ScriptUtils.executeSqlScript(connection, new ClassPathResource("schema.sql"));
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource) {
+            @Override
+            public int update(String sql) {
+                if (sql.equals(failingStatement)) {
+                    throw new DataIntegrityViolationException("Failing statement: " + sql);
+                }
+                return super.update(sql);
+            }
+        };
+        ProxyFactory proxyFactory = new ProxyFactory(
+                new H2WidgetRepository(jdbcTemplate, new BlockIdAllocator(new SequenceIdBlockSource(jdbcTemplate))));
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        proxyFactory.addAdvice(new TransactionInterceptor((TransactionManager) transactionManager,
+                new AnnotationTransactionAttributeSource()));
+        widgetRepository = (WidgetRepository) proxyFactory.getProxy();
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    void importSnapshot_whenLoadFails_thenKeepPreviousBoard() throws IOException {
+        widgetRepository.save(Widget.builder().xIndex(1).yIndex(2).zIndex(5).width(3).height(4).build());
+        widgetRepository.save(Widget.builder().xIndex(10).yIndex(20).zIndex(6).width(30).height(40).build());
+        List<Widget> board = widgetRepository.findWithLimit(10);
+        byte[] snapshot = write(List.of(
+                Widget.builder().id(1000L).xIndex(100).yIndex(200).zIndex(1).width(3).height(4).build()));
+
+        // The widgets are replaced & the snapshot is loaded before the statement fails.
+        failingStatement = H2WidgetRepository.QUERY_DELETE_REVIVED_TOMBSTONES;
+        assertThrows(DataIntegrityViolationException.class,
+                () -> widgetRepository.importSnapshot(new ByteArrayInputStream(snapshot)));
+
+        assertEquals(board, widgetRepository.findWithLimit(10));
+        assertEquals(board, widgetRepository.findWithCoordinates(BOARD, 10).getWidgets());
+        // The ids reserved for the snapshot are released with the rollback.
+        assertTrue(widgetRepository.save(Widget.builder().xIndex(1).yIndex(2).width(3).height(4).build()).getId() < 1000);
+    }
+
+    @Test
+    void importSnapshot_whenWidgetIdsAreDuplicated_thenKeepPreviousBoard() throws IOException {
+        widgetRepository.save(Widget.builder().xIndex(1).yIndex(2).zIndex(5).width(3).height(4).build());
+        List<Widget> board = widgetRepository.findWithLimit(10);
+        byte[] snapshot = write(List.of(
+                Widget.builder().id(1000L).xIndex(100).yIndex(200).zIndex(1).width(3).height(4).build(),
+                Widget.builder().id(1000L).xIndex(100).yIndex(200).zIndex(2).width(3).height(4).build()));
+
+        assertThrows(IllegalArgumentException.class, () -> widgetRepository.importSnapshot(new ByteArrayInputStream(snapshot)));
+
+        assertEquals(board, widgetRepository.findWithLimit(10));
+    }
+
+    @Test
+    void importSnapshot_whenSnapshotIsImported_thenAllocateIdsAfterImportedWidgets() throws IOException {
+        widgetRepository.save(Widget.builder().xIndex(1).yIndex(2).zIndex(5).width(3).height(4).build());
+        byte[] snapshot = write(List.of(
+                Widget.builder().id(1000L).xIndex(100).yIndex(200).zIndex(1).width(3).height(4).build()));
+
+        assertEquals(1, widgetRepository.importSnapshot(new ByteArrayInputStream(snapshot)));
+        Widget widget = widgetRepository.save(Widget.builder().xIndex(10).yIndex(20).width(30).height(40).build());
+
+        assertTrue(widget.getId() > 1000);
+        assertEquals(2, widgetRepository.findWithCoordinates(BOARD, 10).getWidgets().size());
+    }
+
+    @Test
+    void findChangesSince_whenWidgetsAreModified_thenReturnCommittedBoardVersion() {
+        Widget widget = widgetRepository.save(Widget.builder().xIndex(1).yIndex(2).zIndex(5).width(3).height(4).build());
+        widgetRepository.save(Widget.builder().xIndex(10).yIndex(20).zIndex(6).width(30).height(40).build());
+        widgetRepository.deleteById(widget.getId());
+
+        WidgetChanges changes = widgetRepository.findChangesSince(widget.getVersion(), null);
+        assertEquals(1, changes.getUpdated().size());
+        assertEquals(List.of(widget.getId()), changes.getDeleted());
+
+        // Nothing has been committed since, so a client is up to date with the returned version.
+        WidgetChanges nextChanges = widgetRepository.findChangesSince(changes.getVersion(), null);
+        assertEquals(changes.getVersion(), nextChanges.getVersion());
+        assertTrue(nextChanges.getUpdated().isEmpty());
+        assertTrue(nextChanges.getDeleted().isEmpty());
+    }
+
+    @Test
+    void findChangesSince_whenOlderVersionIsStillBeingWritten_thenReturnBoardVersionBelowIt() throws Exception {
+        Widget slowWidget = widgetRepository.save(Widget.builder().xIndex(1).yIndex(2).zIndex(5).width(3).height(4).build());
+        Widget fastWidget = widgetRepository.save(Widget.builder().xIndex(10).yIndex(20).zIndex(6).width(30).height(40).build());
+        long since = widgetRepository.findChangesSince(0, null).getVersion();
+        CountDownLatch patched = new CountDownLatch(1);
+        CountDownLatch commit = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> slowPatch = executor.submit(() -> transactionTemplate.executeWithoutResult(status -> {
+                widgetRepository.patch(Widget.builder().id(slowWidget.getId()).xIndex(100).build());
+                patched.countDown();
+                awaitUninterruptibly(commit);
+            }));
+            assertTrue(patched.await(10, TimeUnit.SECONDS));
+
+            // The other widget is updated & committed while the first patch is running, without waiting for it.
+            Widget fastPatchedWidget = widgetRepository.patch(Widget.builder().id(fastWidget.getId()).xIndex(200).build());
+            WidgetChanges changes = widgetRepository.findChangesSince(since, null);
+            commit.countDown();
+            slowPatch.get(10, TimeUnit.SECONDS);
+
+            assertEquals(since, changes.getVersion());
+            assertTrue(changes.getVersion() < fastPatchedWidget.getVersion());
+            assertEquals(List.of(fastWidget.getId()), changes.getUpdated().stream().map(Widget::getId).collect(Collectors.toList()));
+            assertEquals(2, widgetRepository.findChangesSince(changes.getVersion(), null).getUpdated().size());
+        } finally {
+            commit.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void findChangesSince_whenWidgetsMoveOutOfCoordinates_thenReturnThemAsMovedOut() {
+        Widget movedWidget = widgetRepository.save(Widget.builder().xIndex(10).yIndex(10).width(2).height(2).build());
+        Widget deletedWidget = widgetRepository.save(Widget.builder().xIndex(20).yIndex(20).width(2).height(2).build());
+        Widget outsideWidget = widgetRepository.save(Widget.builder().xIndex(100).yIndex(100).width(2).height(2).build());
+        long since = widgetRepository.findChangesSince(0, null).getVersion();
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(0).y0(0).x1(50).y1(50).build();
+
+        widgetRepository.patch(Widget.builder().id(movedWidget.getId()).xIndex(100).build());
+        widgetRepository.patch(Widget.builder().id(movedWidget.getId()).yIndex(200).build());
+        widgetRepository.save(deletedWidget.toBuilder().xIndex(100).version(null).build());
+        widgetRepository.deleteById(deletedWidget.getId());
+        widgetRepository.patch(Widget.builder().id(outsideWidget.getId()).xIndex(200).build());
+        WidgetChanges changes = widgetRepository.findChangesSince(since, coordinates);
+
+        assertEquals(List.of(), changes.getUpdated());
+        assertEquals(List.of(deletedWidget.getId()), changes.getDeleted());
+        assertEquals(List.of(movedWidget.getId()), changes.getMovedOut());
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static byte[] write(List<Widget> widgets) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        WidgetSnapshotCodec.write(outputStream, widgets);
+        return outputStream.toByteArray();
+    }
+}
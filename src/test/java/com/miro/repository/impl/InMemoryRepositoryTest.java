@@ -1,15 +1,30 @@
 package com.miro.repository.impl;
 
 import com.miro.exception.WidgetNotFoundException;
+import com.miro.exception.WidgetVersionConflictException;
+import com.miro.model.QueryPlan;
 import com.miro.model.RectangleCoordinates;
+import com.miro.model.TileSummary;
 import com.miro.model.Widget;
+import com.miro.model.WidgetChanges;
+import com.miro.model.WidgetOverlap;
+import com.miro.model.WidgetQueryResult;
+import com.miro.model.WidgetStats;
+import com.miro.model.ZIndexCompactionResult;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -17,7 +32,7 @@ import static org.junit.jupiter.api.Assertions.*;
 @ExtendWith(MockitoExtension.class)
 class InMemoryRepositoryTest {
     @InjectMocks
-    private InMemoryRepository inMemoryRepository;
+    private InMemoryRepository inMemoryRepository = new InMemoryRepository();
 
     @BeforeEach
     void setUp() {
@@ -44,7 +59,8 @@ class InMemoryRepositoryTest {
 
         Widget savedWidget = inMemoryRepository.save(widget);
         assertEquals(widget.getZIndex(), savedWidget.getZIndex());
-        assertEquals(savedWidget.getZIndex() + 1, savedExistingWidget.getZIndex());
+        assertEquals(savedWidget.getZIndex() + 1, inMemoryRepository.findById(savedExistingWidget.getId()).getZIndex());
+        assertEquals(5, savedExistingWidget.getZIndex()); // Widgets which were read before aren't changed by the shift.
     }
 
     @Test
@@ -66,6 +82,30 @@ class InMemoryRepositoryTest {
         assertEquals(8, widget.getZIndex());
     }
 
+    @Test
+    void save_whenExpectedVersionIsStale_thenThrowWidgetVersionConflictException() {
+        Widget widget = inMemoryRepository.save(Widget.builder().xIndex(10).yIndex(20).width(30).height(40).build());
+        Long staleVersion = widget.getVersion();
+        inMemoryRepository.patch(Widget.builder().id(widget.getId()).xIndex(11).version(staleVersion).build());
+
+        Widget update = Widget.builder().id(widget.getId()).xIndex(50).yIndex(50).width(30).height(40).version(staleVersion).build();
+        assertThrows(WidgetVersionConflictException.class, () -> inMemoryRepository.save(update));
+        assertThrows(WidgetVersionConflictException.class,
+                () -> inMemoryRepository.patch(Widget.builder().id(widget.getId()).xIndex(60).version(staleVersion).build()));
+        assertEquals(11, inMemoryRepository.findById(widget.getId()).getXIndex());
+    }
+
+    @Test
+    void save_whenExpectedVersionMatches_thenUpdateWidget() {
+        Widget widget = inMemoryRepository.save(Widget.builder().xIndex(10).yIndex(20).width(30).height(40).build());
+
+        Widget update = Widget.builder().id(widget.getId()).xIndex(50).yIndex(50).width(30).height(40).version(widget.getVersion()).build();
+        Widget updatedWidget = inMemoryRepository.save(update);
+
+        assertEquals(50, updatedWidget.getXIndex());
+        assertTrue(updatedWidget.getVersion() > widget.getVersion());
+    }
+
     @Test
     void deleteById_whenIdDoesntExist_thenThrowWidgetNotFoundException() {
         assertThrows(WidgetNotFoundException.class, () -> inMemoryRepository.deleteById(1L));
@@ -82,6 +122,42 @@ class InMemoryRepositoryTest {
         assertThrows(WidgetNotFoundException.class, () -> inMemoryRepository.findById(widgetId));
     }
 
+    @Test
+    void deleteInRectangle_whenWidgetsAreInside_thenDeleteThemAsOneChange() {
+        Widget widget1 = inMemoryRepository.save(Widget.builder().xIndex(10).yIndex(10).width(10).height(10).build());
+        Widget widget2 = inMemoryRepository.save(Widget.builder().xIndex(5000).yIndex(5000).width(10).height(10).build());
+        Widget outsideWidget = inMemoryRepository.save(Widget.builder().xIndex(5000).yIndex(5000).width(20_000).height(10).build());
+        long version = inMemoryRepository.findChangesSince(0, null).getVersion();
+
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(0).y0(0).x1(6000).y1(6000).build();
+        assertEquals(2, inMemoryRepository.deleteInRectangle(coordinates));
+
+        assertEquals(List.of(outsideWidget), inMemoryRepository.findWithLimit(10));
+        assertThrows(WidgetNotFoundException.class, () -> inMemoryRepository.findById(widget1.getId()));
+        WidgetChanges changes = inMemoryRepository.findChangesSince(version, null);
+        assertEquals(version + 1, changes.getVersion());
+        assertEquals(2, changes.getDeleted().size());
+        assertTrue(changes.getDeleted().containsAll(List.of(widget1.getId(), widget2.getId())));
+        assertEquals(0L, inMemoryRepository.getStats(coordinates).getCountInRectangle());
+        assertEquals(0, inMemoryRepository.deleteInRectangle(coordinates));
+    }
+
+    @Test
+    void deleteInZIndexRange_whenWidgetsAreInRange_thenDeleteOnlyThem() {
+        Widget belowWidget = inMemoryRepository.save(Widget.builder().xIndex(10).yIndex(10).zIndex(-1).width(10).height(10).build());
+        Widget widget1 = inMemoryRepository.save(Widget.builder().xIndex(10).yIndex(10).zIndex(0).width(10).height(10).build());
+        Widget widget2 = inMemoryRepository.save(Widget.builder().xIndex(10).yIndex(10).zIndex(5).width(10).height(10).build());
+        Widget aboveWidget = inMemoryRepository.save(Widget.builder().xIndex(10).yIndex(10).zIndex(6).width(10).height(10).build());
+
+        assertEquals(2, inMemoryRepository.deleteInZIndexRange(0, 5));
+
+        assertEquals(List.of(belowWidget, aboveWidget), inMemoryRepository.findWithLimit(10));
+        assertThrows(WidgetNotFoundException.class, () -> inMemoryRepository.findById(widget1.getId()));
+        assertThrows(WidgetNotFoundException.class, () -> inMemoryRepository.findById(widget2.getId()));
+        assertEquals(2, inMemoryRepository.getStats(null).getTotalCount());
+        assertEquals(0, inMemoryRepository.deleteInZIndexRange(0, 5));
+    }
+
     @Test
     void findById_whenIdDoesntExist_thenThrowWidgetNotFoundException() {
         assertThrows(WidgetNotFoundException.class, () -> inMemoryRepository.findById(1L));
@@ -107,6 +183,23 @@ class InMemoryRepositoryTest {
         assertEquals(3, inMemoryRepository.findWithLimit(3).size());
     }
 
+    @Test
+    void findWithLimit_whenSnapshotIsStale_thenWalkZIndexMapUntilRebuildPaysOff() {
+        IntStream.range(0, 4).forEach(i ->
+                inMemoryRepository.save(Widget.builder().xIndex(10).yIndex(20).width(30).height(40).build())
+        );
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(-100).y0(-100).x1(100).y1(100).build();
+
+        // The first read walks the map, the second one has walked enough to build the snapshot & scans it.
+        List<Widget> walkedWidgets = inMemoryRepository.findWithLimit(10);
+        assertEquals(walkedWidgets, inMemoryRepository.findWithLimit(10));
+        assertEquals(walkedWidgets, inMemoryRepository.findWithCoordinates(coordinates, 10).getWidgets());
+
+        Widget patchedWidget = inMemoryRepository.patch(Widget.builder().id(walkedWidgets.get(0).getId()).xIndex(200).build());
+        assertEquals(patchedWidget, inMemoryRepository.findWithLimit(1).get(0));
+        assertEquals(walkedWidgets.subList(1, 4), inMemoryRepository.findWithCoordinates(coordinates, 10).getWidgets());
+    }
+
     @Test
     void findWithCoordinates_whenWidgetsExist_thenReturnFoundWidgets() {
         Widget widget1 = Widget.builder().xIndex(50).yIndex(50).width(30).height(40).build();
@@ -116,10 +209,434 @@ class InMemoryRepositoryTest {
 
         RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(0).y0(0).x1(100).y1(150).build();
 
-        List<Widget> foundWidgets = inMemoryRepository.findWithCoordinates(coordinates, 10);
+        List<Widget> foundWidgets = inMemoryRepository.findWithCoordinates(coordinates, 10).getWidgets();
         assertEquals(2, foundWidgets.size());
         assertTrue(foundWidgets.contains(widget1));
         assertTrue(foundWidgets.contains(widget2));
         assertFalse(foundWidgets.contains(widget3));
     }
-}
\ No newline at end of file
+
+    @Test
+    void findWithCoordinates_whenSizeIsOdd_thenCompareHalfSizesExactly() {
+        Widget insideWidget = inMemoryRepository.save(Widget.builder().xIndex(3).yIndex(3).width(5).height(5).build());
+        inMemoryRepository.save(Widget.builder().xIndex(2).yIndex(3).width(5).height(5).build());
+
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(0).y0(0).x1(6).y1(6).build();
+
+        assertEquals(List.of(insideWidget), inMemoryRepository.findWithCoordinates(coordinates, 10).getWidgets());
+    }
+
+    @Test
+    void findWithCoordinates_whenLimitIsReached_thenReturnWidgetsInZIndexOrder() {
+        Widget widget1 = inMemoryRepository.save(Widget.builder().xIndex(50).yIndex(50).zIndex(3).width(10).height(10).build());
+        Widget widget2 = inMemoryRepository.save(Widget.builder().xIndex(50).yIndex(50).zIndex(1).width(10).height(10).build());
+        inMemoryRepository.save(Widget.builder().xIndex(50).yIndex(50).zIndex(5).width(10).height(10).build());
+
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(0).y0(0).x1(100).y1(100).build();
+
+        assertEquals(List.of(widget2, widget1), inMemoryRepository.findWithCoordinates(coordinates, 2).getWidgets());
+    }
+
+    @Test
+    void findWithCoordinates_whenPlansDiffer_thenReturnSameWidgets() {
+        Random random = new Random(7);
+        IntStream.range(0, 500).forEach(i -> inMemoryRepository.save(Widget.builder()
+                .xIndex(random.nextInt(1000)).yIndex(random.nextInt(1000))
+                .width(1 + random.nextInt(50)).height(1 + random.nextInt(50)).zIndex(random.nextInt(100)).build()));
+
+        for (int i = 0; i < 20; i++) {
+            int x0 = random.nextInt(1000);
+            int y0 = random.nextInt(1000);
+            RectangleCoordinates coordinates = RectangleCoordinates.builder()
+                    .x0(x0).y0(y0).x1(x0 + random.nextInt(500)).y1(y0 + random.nextInt(500)).build();
+            int limit = 1 + random.nextInt(50);
+
+            assertEquals(inMemoryRepository.findWithCoordinates(coordinates, limit, QueryPlan.Z_ORDER_SCAN),
+                    inMemoryRepository.findWithCoordinates(coordinates, limit, QueryPlan.SPATIAL_PROBE));
+        }
+    }
+
+    @Test
+    void findWithCoordinates_whenRectangleIsSmall_thenProbeSpatialIndex() {
+        IntStream.range(0, 10_000).forEach(i -> inMemoryRepository.save(Widget.builder()
+                .xIndex(10 * (i % 100)).yIndex(10 * (i / 100)).width(4).height(4).build()));
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(-5).y0(-5).x1(12).y1(12).build();
+
+        WidgetQueryResult queryResult = inMemoryRepository.findWithCoordinates(coordinates, 10);
+        assertEquals(QueryPlan.SPATIAL_PROBE, queryResult.getPlan());
+        assertEquals(4, queryResult.getWidgets().size());
+    }
+
+    @Test
+    void findWithCoordinates_whenRectangleCoversBoard_thenScanInZIndexOrder() {
+        IntStream.range(0, 1000).forEach(i -> inMemoryRepository.save(Widget.builder()
+                .xIndex(10 * (i % 100)).yIndex(10 * (i / 100)).width(4).height(4).build()));
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(-10).y0(-10).x1(1000).y1(1000).build();
+
+        WidgetQueryResult queryResult = inMemoryRepository.findWithCoordinates(coordinates, 10);
+        assertEquals(QueryPlan.Z_ORDER_SCAN, queryResult.getPlan());
+        assertEquals(1000, queryResult.getEstimatedCount());
+        assertEquals(10, queryResult.getWidgets().size());
+    }
+
+    @Test
+    void findNearest_whenWidgetsMove_thenReturnNearestToCurrentPositions() {
+        Widget widget1 = inMemoryRepository.save(Widget.builder().xIndex(10).yIndex(10).width(5).height(5).build());
+        Widget widget2 = inMemoryRepository.save(Widget.builder().xIndex(100).yIndex(100).width(5).height(5).build());
+        assertEquals(List.of(widget1, widget2), inMemoryRepository.findNearest(0, 0, 5));
+
+        Widget movedWidget = inMemoryRepository.patch(Widget.builder().id(widget2.getId()).xIndex(1).yIndex(1).build());
+        assertEquals(List.of(movedWidget), inMemoryRepository.findNearest(0, 0, 1));
+    }
+
+    @Test
+    void findOverlaps_whenWidgetsOverlap_thenFindEveryPairOnce() {
+        Widget widget1 = inMemoryRepository.save(Widget.builder().xIndex(0).yIndex(0).width(10).height(10).build());
+        Widget widget2 = inMemoryRepository.save(Widget.builder().xIndex(5).yIndex(5).width(10).height(10).build());
+        Widget widget3 = inMemoryRepository.save(Widget.builder().xIndex(9).yIndex(9).width(4).height(4).build());
+        inMemoryRepository.save(Widget.builder().xIndex(100).yIndex(100).width(10).height(10).build());
+
+        List<WidgetOverlap> overlaps = new ArrayList<>();
+        inMemoryRepository.findOverlaps(overlaps::add);
+
+        assertEquals(Set.of(new WidgetOverlap(widget1.getId(), widget2.getId()), new WidgetOverlap(widget2.getId(), widget3.getId())),
+                new HashSet<>(overlaps));
+        assertEquals(2, overlaps.size());
+    }
+
+    @Test
+    void findOverlapping_whenWidgetsOverlap_thenReturnThemInZIndexOrder() {
+        Widget widget = inMemoryRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(5).width(10).height(10).build());
+        Widget upperWidget = inMemoryRepository.save(Widget.builder().xIndex(4).yIndex(4).zIndex(9).width(4).height(4).build());
+        Widget lowerWidget = inMemoryRepository.save(Widget.builder().xIndex(-4).yIndex(-4).zIndex(1).width(4).height(4).build());
+        inMemoryRepository.save(Widget.builder().xIndex(10).yIndex(0).zIndex(3).width(10).height(10).build());
+
+        assertEquals(List.of(lowerWidget, upperWidget), inMemoryRepository.findOverlapping(widget.getId()));
+        assertThrows(WidgetNotFoundException.class, () -> inMemoryRepository.findOverlapping(-1L));
+    }
+
+    @Test
+    void findWithCoordinates_whenWidgetsChangeBetweenReads_thenReturnCurrentWidgets() {
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(0).y0(0).x1(100).y1(100).build();
+        Widget widget1 = inMemoryRepository.save(Widget.builder().xIndex(50).yIndex(50).zIndex(1).width(10).height(10).build());
+        assertEquals(List.of(widget1), inMemoryRepository.findWithCoordinates(coordinates, 10).getWidgets());
+
+        Widget widget2 = inMemoryRepository.save(Widget.builder().xIndex(50).yIndex(50).zIndex(1).width(10).height(10).build());
+        assertEquals(List.of(widget2.getId(), widget1.getId()), getIds(inMemoryRepository.findWithCoordinates(coordinates, 10).getWidgets()));
+
+        inMemoryRepository.patch(Widget.builder().id(widget1.getId()).xIndex(500).build());
+        assertEquals(List.of(widget2), inMemoryRepository.findWithCoordinates(coordinates, 10).getWidgets());
+
+        inMemoryRepository.deleteById(widget2.getId());
+        assertEquals(List.of(), inMemoryRepository.findWithCoordinates(coordinates, 10).getWidgets());
+        assertEquals(1, inMemoryRepository.findWithLimit(10).size());
+    }
+
+    @Test
+    void getStats_whenWidgetsExist_thenReturnCountsAndRanges() {
+        inMemoryRepository.save(Widget.builder().xIndex(50).yIndex(50).zIndex(-3).width(30).height(40).build());
+        inMemoryRepository.save(Widget.builder().xIndex(50).yIndex(100).zIndex(7).width(30).height(40).build());
+        Widget widget = inMemoryRepository.save(Widget.builder().xIndex(100).yIndex(100).width(30).height(40).build());
+        inMemoryRepository.deleteById(widget.getId());
+
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(0).y0(0).x1(100).y1(100).build();
+        WidgetStats stats = inMemoryRepository.getStats(coordinates);
+
+        assertEquals(WidgetStats.builder().totalCount(2).countInRectangle(1L).minZIndex(-3).maxZIndex(7)
+                .minX(35).minY(30).maxX(65).maxY(120).build(), stats);
+    }
+
+    @Test
+    void importSnapshot_whenSnapshotIsExported_thenRestoreSameWidgets() {
+        Widget widget1 = inMemoryRepository.save(Widget.builder().xIndex(50).yIndex(50).zIndex(3).width(30).height(40).build());
+        Widget widget2 = inMemoryRepository.save(Widget.builder().xIndex(50).yIndex(100).zIndex(1).width(30).height(40).build());
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        inMemoryRepository.exportSnapshot(snapshot);
+
+        inMemoryRepository.clearMaps();
+        int importedWidgetCount = inMemoryRepository.importSnapshot(new ByteArrayInputStream(snapshot.toByteArray()));
+
+        assertEquals(2, importedWidgetCount);
+        // Imported widgets are stamped with the board version of import.
+        List<Widget> importedWidgets = inMemoryRepository.findWithLimit(10);
+        widget1.setVersion(importedWidgets.get(0).getVersion());
+        widget2.setVersion(importedWidgets.get(0).getVersion());
+        assertEquals(List.of(widget2, widget1), importedWidgets);
+
+        // New widgets continue after the imported ids & zIndexes.
+        Widget widget3 = inMemoryRepository.save(Widget.builder().xIndex(0).yIndex(0).width(3).height(4).build());
+        assertTrue(widget3.getId() > widget1.getId() && widget3.getId() > widget2.getId());
+        assertEquals(4, widget3.getZIndex());
+    }
+
+    @Test
+    void compactZIndexes_whenLastZIndexOverflows_thenThrowIllegalArgumentException() {
+        IntStream.range(0, 3).forEach(i -> inMemoryRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(i).width(3).height(4).build()));
+
+        assertThrows(IllegalArgumentException.class, () -> inMemoryRepository.compactZIndexes(Integer.MAX_VALUE / 2 + 1));
+
+        assertEquals(List.of(0, 1, 2), inMemoryRepository.findWithLimit(10).stream().map(Widget::getZIndex).collect(Collectors.toList()));
+        assertTrue(inMemoryRepository.compactZIndexes(Integer.MAX_VALUE / 2).isApplied());
+    }
+
+    @Test
+    void compactZIndexes_whenZIndexesAreAdjacent_thenSpreadThemEvenly() {
+        Widget widget1 = inMemoryRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(1).width(3).height(4).build());
+        Widget widget2 = inMemoryRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(2).width(3).height(4).build());
+        Widget widget3 = inMemoryRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(3).width(3).height(4).build());
+        Widget widget4 = inMemoryRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(7).width(3).height(4).build());
+
+        ZIndexCompactionResult compactionResult = inMemoryRepository.compactZIndexes(10);
+
+        assertTrue(compactionResult.isApplied());
+        assertEquals(2, compactionResult.getBefore().getAdjacentCount());
+        assertEquals(7, compactionResult.getBefore().getMaxZIndex());
+        assertEquals(0, compactionResult.getAfter().getAdjacentCount());
+        assertEquals(30, compactionResult.getAfter().getMaxZIndex());
+        List<Widget> widgets = inMemoryRepository.findWithLimit(10);
+        assertEquals(List.of(widget1.getId(), widget2.getId(), widget3.getId(), widget4.getId()), getIds(widgets));
+        assertEquals(List.of(0, 10, 20, 30), widgets.stream().map(Widget::getZIndex).collect(Collectors.toList()));
+
+        // Inserting between two widgets doesn't shift anymore.
+        inMemoryRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(11).width(3).height(4).build());
+        assertEquals(20, inMemoryRepository.findById(widget3.getId()).getZIndex());
+    }
+
+    @Test
+    void bringToFront_whenWidgetExists_thenMoveAboveAllWidgets() {
+        Widget widget1 = inMemoryRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(1).width(3).height(4).build());
+        Widget widget2 = inMemoryRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(2).width(3).height(4).build());
+
+        Widget movedWidget = inMemoryRepository.bringToFront(widget1.getId());
+
+        assertEquals(3, movedWidget.getZIndex());
+        assertEquals(List.of(widget2, movedWidget), inMemoryRepository.findWithLimit(10));
+    }
+
+    @Test
+    void sendToBack_whenWidgetExists_thenMoveBelowAllWidgets() {
+        Widget widget1 = inMemoryRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(1).width(3).height(4).build());
+        Widget widget2 = inMemoryRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(2).width(3).height(4).build());
+
+        Widget movedWidget = inMemoryRepository.sendToBack(widget2.getId());
+
+        assertEquals(0, movedWidget.getZIndex());
+        assertEquals(List.of(movedWidget, widget1), inMemoryRepository.findWithLimit(10));
+    }
+
+    @Test
+    void moveAbove_whenThereIsGapAboveTarget_thenMoveWithoutShifting() {
+        Widget widget1 = inMemoryRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(10).width(3).height(4).build());
+        Widget widget2 = inMemoryRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(20).width(3).height(4).build());
+        Widget widget3 = inMemoryRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(30).width(3).height(4).build());
+
+        Widget movedWidget = inMemoryRepository.moveAbove(widget3.getId(), widget1.getId());
+
+        assertEquals(15, movedWidget.getZIndex());
+        assertEquals(20, widget2.getZIndex());
+        assertEquals(List.of(widget1, movedWidget, widget2), inMemoryRepository.findWithLimit(10));
+    }
+
+    @Test
+    void moveBelow_whenThereIsNoGapBelowTarget_thenShiftTarget() {
+        Widget widget1 = inMemoryRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(1).width(3).height(4).build());
+        Widget widget2 = inMemoryRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(2).width(3).height(4).build());
+        Widget widget3 = inMemoryRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(3).width(3).height(4).build());
+
+        inMemoryRepository.moveBelow(widget3.getId(), widget2.getId());
+
+        assertEquals(List.of(widget1.getId(), widget3.getId(), widget2.getId()), getIds(inMemoryRepository.findWithLimit(10)));
+    }
+
+    @Test
+    void moveAbove_whenWidgetIsAlreadyRightAboveTarget_thenKeepItsZIndex() {
+        Widget widget1 = inMemoryRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(10).width(3).height(4).build());
+        Widget widget2 = inMemoryRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(20).width(3).height(4).build());
+
+        assertEquals(widget2, inMemoryRepository.moveAbove(widget2.getId(), widget1.getId()));
+        assertEquals(widget1, inMemoryRepository.moveBelow(widget1.getId(), widget2.getId()));
+    }
+
+    @Test
+    void bringToFront_whenTopWidgetIsAtMaxZIndex_thenThrowIllegalArgumentExceptionWithoutMoving() {
+        Widget widget1 = inMemoryRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(1).width(3).height(4).build());
+        Widget widget2 = inMemoryRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(Integer.MAX_VALUE).width(3).height(4).build());
+        Widget widget3 = inMemoryRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(Integer.MIN_VALUE).width(3).height(4).build());
+
+        assertThrows(IllegalArgumentException.class, () -> inMemoryRepository.bringToFront(widget1.getId()));
+        assertThrows(IllegalArgumentException.class, () -> inMemoryRepository.sendToBack(widget1.getId()));
+        assertThrows(IllegalArgumentException.class, () -> inMemoryRepository.moveAbove(widget1.getId(), widget2.getId()));
+        assertThrows(IllegalArgumentException.class, () -> inMemoryRepository.moveBelow(widget1.getId(), widget3.getId()));
+
+        assertEquals(List.of(widget3, widget1, widget2), inMemoryRepository.findWithLimit(10));
+    }
+
+    @Test
+    void moveAbove_whenShiftedWidgetsWouldPassMaxZIndex_thenThrowIllegalArgumentExceptionWithoutMoving() {
+        Widget widget1 = inMemoryRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(Integer.MAX_VALUE - 2).width(3).height(4).build());
+        Widget widget2 = inMemoryRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(Integer.MAX_VALUE - 1).width(3).height(4).build());
+        Widget widget3 = inMemoryRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(Integer.MAX_VALUE).width(3).height(4).build());
+        long version = inMemoryRepository.findChangesSince(0, null).getVersion();
+
+        assertThrows(IllegalArgumentException.class, () -> inMemoryRepository.moveAbove(widget1.getId(), widget2.getId()));
+
+        assertEquals(version, inMemoryRepository.findChangesSince(0, null).getVersion());
+        assertEquals(List.of(widget1, widget2, widget3), inMemoryRepository.findWithLimit(10));
+        // The top widget frees its own zIndex, so the target can be shifted into it.
+        inMemoryRepository.moveBelow(widget3.getId(), widget2.getId());
+        assertEquals(List.of(widget1.getId(), widget3.getId(), widget2.getId()), getIds(inMemoryRepository.findWithLimit(10)));
+    }
+
+    @Test
+    void moveAbove_whenTargetIsSameWidget_thenThrowIllegalArgumentException() {
+        Widget widget = inMemoryRepository.save(Widget.builder().xIndex(0).yIndex(0).width(3).height(4).build());
+
+        assertThrows(IllegalArgumentException.class, () -> inMemoryRepository.moveAbove(widget.getId(), widget.getId()));
+        assertThrows(WidgetNotFoundException.class, () -> inMemoryRepository.moveAbove(widget.getId(), 999L));
+    }
+
+    @Test
+    void patch_whenOnlyCoordinatesChange_thenKeepZIndex() {
+        Widget widget = inMemoryRepository.save(Widget.builder().xIndex(10).yIndex(20).zIndex(5).width(30).height(40).build());
+
+        Widget patchedWidget = inMemoryRepository.patch(Widget.builder().id(widget.getId()).xIndex(11).yIndex(21).build());
+
+        assertEquals(11, patchedWidget.getXIndex());
+        assertEquals(21, patchedWidget.getYIndex());
+        assertEquals(5, patchedWidget.getZIndex());
+        assertEquals(30, patchedWidget.getWidth());
+        assertEquals(patchedWidget, inMemoryRepository.findById(widget.getId()));
+        assertEquals(List.of(patchedWidget), inMemoryRepository.findWithLimit(10));
+    }
+
+    @Test
+    void patch_whenZIndexConflicts_thenShiftAndReturnWidget() {
+        Widget widget1 = inMemoryRepository.save(Widget.builder().xIndex(10).yIndex(20).zIndex(5).width(30).height(40).build());
+        Widget widget2 = inMemoryRepository.save(Widget.builder().xIndex(10).yIndex(20).zIndex(9).width(30).height(40).build());
+
+        Widget patchedWidget = inMemoryRepository.patch(Widget.builder().id(widget2.getId()).zIndex(5).build());
+
+        assertEquals(5, patchedWidget.getZIndex());
+        assertEquals(6, inMemoryRepository.findById(widget1.getId()).getZIndex());
+        assertEquals(List.of(patchedWidget.getId(), widget1.getId()), getIds(inMemoryRepository.findWithLimit(10)));
+    }
+
+    @Test
+    void patch_whenIdDoesntExist_thenThrowWidgetNotFoundException() {
+        assertThrows(WidgetNotFoundException.class, () -> inMemoryRepository.patch(Widget.builder().id(1L).xIndex(1).build()));
+    }
+
+    @Test
+    void findChangesSince_whenWidgetsAreShiftedAndDeleted_thenReturnChangedWidgetsAndDeletedIds() {
+        Widget widget1 = inMemoryRepository.save(Widget.builder().xIndex(10).yIndex(10).zIndex(1).width(2).height(2).build());
+        Widget widget2 = inMemoryRepository.save(Widget.builder().xIndex(20).yIndex(20).zIndex(2).width(2).height(2).build());
+        long since = inMemoryRepository.findChangesSince(0, null).getVersion();
+
+        Widget widget3 = inMemoryRepository.save(Widget.builder().xIndex(30).yIndex(30).zIndex(1).width(2).height(2).build());
+        inMemoryRepository.deleteById(widget2.getId());
+        WidgetChanges changes = inMemoryRepository.findChangesSince(since, null);
+
+        assertFalse(changes.isFullSyncRequired());
+        assertEquals(since + 2, changes.getVersion());
+        assertEquals(List.of(widget3.getId(), widget1.getId()), getIds(changes.getUpdated()));
+        assertEquals(2, changes.getUpdated().get(1).getZIndex());
+        assertEquals(List.of(widget2.getId()), changes.getDeleted());
+        assertEquals(List.of(), inMemoryRepository.findChangesSince(changes.getVersion(), null).getUpdated());
+    }
+
+    @Test
+    void findChangesSince_whenCoordinatesAreGiven_thenReturnOnlyChangesInCoordinates() {
+        long since = inMemoryRepository.findChangesSince(0, null).getVersion();
+        Widget widgetInside = inMemoryRepository.save(Widget.builder().xIndex(10).yIndex(10).width(2).height(2).build());
+        Widget widgetOutside = inMemoryRepository.save(Widget.builder().xIndex(100).yIndex(100).width(2).height(2).build());
+        inMemoryRepository.deleteById(widgetOutside.getId());
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(0).y0(0).x1(50).y1(50).build();
+
+        WidgetChanges changes = inMemoryRepository.findChangesSince(since, coordinates);
+
+        assertEquals(List.of(widgetInside), changes.getUpdated());
+        assertEquals(List.of(), changes.getDeleted());
+    }
+
+    @Test
+    void findChangesSince_whenWidgetsMoveOutOfCoordinates_thenReturnThemAsMovedOut() {
+        Widget movedWidget = inMemoryRepository.save(Widget.builder().xIndex(10).yIndex(10).width(2).height(2).build());
+        Widget deletedWidget = inMemoryRepository.save(Widget.builder().xIndex(20).yIndex(20).width(2).height(2).build());
+        Widget outsideWidget = inMemoryRepository.save(Widget.builder().xIndex(100).yIndex(100).width(2).height(2).build());
+        long since = inMemoryRepository.findChangesSince(0, null).getVersion();
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(0).y0(0).x1(50).y1(50).build();
+
+        inMemoryRepository.patch(Widget.builder().id(movedWidget.getId()).xIndex(100).build());
+        inMemoryRepository.patch(Widget.builder().id(movedWidget.getId()).yIndex(200).build());
+        inMemoryRepository.patch(Widget.builder().id(deletedWidget.getId()).xIndex(100).build());
+        inMemoryRepository.deleteById(deletedWidget.getId());
+        inMemoryRepository.patch(Widget.builder().id(outsideWidget.getId()).xIndex(200).build());
+        WidgetChanges changes = inMemoryRepository.findChangesSince(since, coordinates);
+
+        assertEquals(List.of(), changes.getUpdated());
+        assertEquals(List.of(deletedWidget.getId()), changes.getDeleted());
+        assertEquals(List.of(movedWidget.getId()), changes.getMovedOut());
+    }
+
+    @Test
+    void findChangesSince_whenSnapshotIsImported_thenRequireFullSync() {
+        inMemoryRepository.save(Widget.builder().xIndex(10).yIndex(10).width(2).height(2).build());
+        long since = inMemoryRepository.findChangesSince(0, null).getVersion();
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        inMemoryRepository.exportSnapshot(snapshot);
+
+        inMemoryRepository.importSnapshot(new ByteArrayInputStream(snapshot.toByteArray()));
+        WidgetChanges changes = inMemoryRepository.findChangesSince(since, null);
+
+        assertTrue(changes.isFullSyncRequired());
+        assertEquals(since + 1, changes.getVersion());
+    }
+
+    @Test
+    void findTiles_whenWidgetsAreShiftedAndDeleted_thenKeepTilesUpToDate() {
+        Widget widget1 = inMemoryRepository.save(Widget.builder().xIndex(10).yIndex(10).zIndex(1).width(2).height(2).build());
+        Widget widget2 = inMemoryRepository.save(Widget.builder().xIndex(20).yIndex(20).zIndex(2).width(2).height(2).build());
+        Widget widget3 = inMemoryRepository.save(Widget.builder().xIndex(5000).yIndex(20).zIndex(1).width(2).height(2).build());
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(0).y0(0).x1(100).y1(100).build();
+
+        inMemoryRepository.bringToFront(widget1.getId());
+        List<TileSummary> tiles = inMemoryRepository.findTiles(coordinates, 10);
+        assertEquals(1, tiles.size());
+        assertEquals(2, tiles.get(0).getCount());
+        assertEquals(widget1.getId(), tiles.get(0).getTopWidgetId());
+
+        inMemoryRepository.deleteById(widget1.getId());
+        tiles = inMemoryRepository.findTiles(coordinates, 10);
+        assertEquals(1, tiles.get(0).getCount());
+        assertEquals(widget2.getId(), tiles.get(0).getTopWidgetId());
+        assertNotEquals(widget3.getId(), tiles.get(0).getTopWidgetId());
+    }
+
+    @Test
+    void applyReplicatedChanges_whenWidgetsSwapZIndexes_thenKeepShippedWidgetsAndVersions() {
+        Widget widget1 = Widget.builder().id(1L).xIndex(10).yIndex(10).zIndex(1).width(2).height(2).version(3L).build();
+        Widget widget2 = Widget.builder().id(2L).xIndex(20).yIndex(20).zIndex(2).width(2).height(2).version(3L).build();
+        Widget widget3 = Widget.builder().id(3L).xIndex(30).yIndex(30).zIndex(3).width(2).height(2).version(3L).build();
+        inMemoryRepository.applyReplicatedChanges(WidgetChanges.builder().version(3).fullSyncRequired(true)
+                .updated(List.of(widget1, widget2, widget3)).deleted(List.of()).build());
+
+        Widget movedWidget1 = widget1.toBuilder().zIndex(2).version(5L).build();
+        Widget movedWidget2 = widget2.toBuilder().zIndex(1).version(5L).build();
+        inMemoryRepository.applyReplicatedChanges(WidgetChanges.builder().version(5)
+                .updated(List.of(movedWidget1, movedWidget2)).deleted(List.of(3L)).build());
+
+        assertEquals(List.of(movedWidget2, movedWidget1), inMemoryRepository.findWithLimit(10));
+        assertEquals(5, inMemoryRepository.findChangesSince(3, null).getVersion());
+        assertEquals(List.of(3L), inMemoryRepository.findChangesSince(3, null).getDeleted());
+        assertEquals(2, inMemoryRepository.getZIndexStats().getCount());
+
+        inMemoryRepository.applyReplicatedChanges(WidgetChanges.builder().version(5).fullSyncRequired(true)
+                .updated(List.of(widget3)).deleted(List.of()).build());
+        assertEquals(List.of(widget3), inMemoryRepository.findWithLimit(10));
+        assertTrue(inMemoryRepository.findChangesSince(3, null).isFullSyncRequired());
+    }
+
+    private static List<Long> getIds(List<Widget> widgets) {
+        return widgets.stream().map(Widget::getId).collect(Collectors.toList());
+    }
+}
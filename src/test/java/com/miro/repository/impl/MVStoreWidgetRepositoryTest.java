@@ -0,0 +1,411 @@
+package com.miro.repository.impl;
+
+import com.miro.exception.WidgetNotFoundException;
+import com.miro.exception.WidgetVersionConflictException;
+import com.miro.model.QueryPlan;
+import com.miro.model.RectangleCoordinates;
+import com.miro.model.TileSummary;
+import com.miro.model.Widget;
+import com.miro.model.WidgetChanges;
+import com.miro.model.WidgetOverlap;
+import com.miro.model.WidgetQueryResult;
+import com.miro.model.WidgetStats;
+import com.miro.model.ZIndexCompactionResult;
+import com.miro.repository.index.TileIndex;
+import com.miro.repository.snapshot.WidgetSnapshotCodec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MVStoreWidgetRepositoryTest {
+    private MVStoreWidgetRepository mvStoreRepository;
+
+    @BeforeEach
+    void setUp() {
+        mvStoreRepository = new MVStoreWidgetRepository(null, true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        mvStoreRepository.close();
+    }
+
+    @Test
+    void save_whenZIndexConflicts_thenShiftAndReturnWidget() {
+        Widget existingWidget = mvStoreRepository.save(Widget.builder().xIndex(1).yIndex(2).zIndex(5).width(3).height(4).build());
+        Widget nextWidget = mvStoreRepository.save(Widget.builder().xIndex(1).yIndex(2).zIndex(6).width(3).height(4).build());
+
+        Widget savedWidget = mvStoreRepository.save(Widget.builder().xIndex(10).yIndex(20).zIndex(5).width(30).height(40).build());
+        assertEquals(5, savedWidget.getZIndex());
+        assertEquals(6, mvStoreRepository.findById(existingWidget.getId()).getZIndex());
+        assertEquals(7, mvStoreRepository.findById(nextWidget.getId()).getZIndex());
+        assertEquals(List.of(savedWidget.getId(), existingWidget.getId(), nextWidget.getId()),
+                mvStoreRepository.findWithLimit(10).stream().map(Widget::getId).collect(Collectors.toList()));
+    }
+
+    @Test
+    void save_whenIdExistsButWidgetNotFound_thenThrowWidgetNotFoundException() {
+        Widget widget = Widget.builder().id(1L).xIndex(10).yIndex(20).zIndex(5).width(30).height(40).build();
+
+        assertThrows(WidgetNotFoundException.class, () -> mvStoreRepository.save(widget));
+    }
+
+    @Test
+    void save_whenExpectedVersionIsStale_thenLeaveWidgetsAsTheyAre() {
+        Widget widget = mvStoreRepository.save(Widget.builder().xIndex(10).yIndex(20).zIndex(5).width(30).height(40).build());
+        long version = mvStoreRepository.findChangesSince(0, null).getVersion();
+
+        Widget update = Widget.builder().id(widget.getId()).xIndex(500).yIndex(20).zIndex(5).width(30).height(40)
+                .version(widget.getVersion() - 1).build();
+        assertThrows(WidgetVersionConflictException.class, () -> mvStoreRepository.save(update));
+
+        assertEquals(version, mvStoreRepository.findChangesSince(0, null).getVersion());
+        assertEquals(widget, mvStoreRepository.findById(widget.getId()));
+        assertEquals(List.of(widget), mvStoreRepository.findNearest(0, 0, 5));
+    }
+
+    @Test
+    void save_whenWidgetMoves_thenFindItOnlyAtNewPosition() {
+        Widget widget = mvStoreRepository.save(Widget.builder().xIndex(10).yIndex(10).width(10).height(10).build());
+        RectangleCoordinates oldPosition = RectangleCoordinates.builder().x0(0).y0(0).x1(20).y1(20).build();
+        RectangleCoordinates newPosition = RectangleCoordinates.builder().x0(990).y0(990).x1(1010).y1(1010).build();
+
+        Widget movedWidget = mvStoreRepository.save(widget.toBuilder().xIndex(1000).yIndex(1000).version(null).build());
+
+        assertEquals(0L, mvStoreRepository.getStats(oldPosition).getCountInRectangle());
+        assertEquals(List.of(movedWidget), mvStoreRepository.findWithCoordinates(newPosition, 10).getWidgets());
+    }
+
+    @Test
+    void findChangesSince_whenWidgetMovesOutOfCoordinates_thenReturnItAsMovedOut() {
+        Widget widget = mvStoreRepository.save(Widget.builder().xIndex(10).yIndex(10).width(10).height(10).build());
+        long since = mvStoreRepository.findChangesSince(0, null).getVersion();
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(0).y0(0).x1(20).y1(20).build();
+
+        mvStoreRepository.patch(Widget.builder().id(widget.getId()).xIndex(1000).build());
+        WidgetChanges changes = mvStoreRepository.findChangesSince(since, coordinates);
+
+        assertEquals(List.of(), changes.getUpdated());
+        assertEquals(List.of(), changes.getDeleted());
+        assertEquals(List.of(widget.getId()), changes.getMovedOut());
+    }
+
+    @Test
+    void patch_whenZIndexConflicts_thenShiftAndReturnWidget() {
+        Widget widget = mvStoreRepository.save(Widget.builder().xIndex(10).yIndex(20).zIndex(1).width(30).height(40).build());
+        Widget existingWidget = mvStoreRepository.save(Widget.builder().xIndex(1).yIndex(2).zIndex(5).width(3).height(4).build());
+
+        Widget patchedWidget = mvStoreRepository.patch(Widget.builder().id(widget.getId()).zIndex(5).build());
+        assertEquals(5, patchedWidget.getZIndex());
+        assertEquals(10, patchedWidget.getXIndex());
+        assertEquals(6, mvStoreRepository.findById(existingWidget.getId()).getZIndex());
+    }
+
+    @Test
+    void deleteInRectangle_whenWidgetsAreInside_thenDeleteThemAsOneChange() {
+        Widget widget1 = mvStoreRepository.save(Widget.builder().xIndex(10).yIndex(10).width(10).height(10).build());
+        Widget widget2 = mvStoreRepository.save(Widget.builder().xIndex(5000).yIndex(5000).width(10).height(10).build());
+        Widget outsideWidget = mvStoreRepository.save(Widget.builder().xIndex(5000).yIndex(5000).width(20_000).height(10).build());
+        long version = mvStoreRepository.findChangesSince(0, null).getVersion();
+
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(0).y0(0).x1(6000).y1(6000).build();
+        assertEquals(2, mvStoreRepository.deleteInRectangle(coordinates));
+
+        assertEquals(List.of(outsideWidget), mvStoreRepository.findWithLimit(10));
+        WidgetChanges changes = mvStoreRepository.findChangesSince(version, null);
+        assertEquals(version + 1, changes.getVersion());
+        assertTrue(changes.getDeleted().containsAll(List.of(widget1.getId(), widget2.getId())));
+        assertEquals(0, mvStoreRepository.deleteInRectangle(coordinates));
+    }
+
+    @Test
+    void deleteInZIndexRange_whenWidgetsAreInRange_thenDeleteOnlyThem() {
+        Widget belowWidget = mvStoreRepository.save(Widget.builder().xIndex(10).yIndex(10).zIndex(-1).width(10).height(10).build());
+        mvStoreRepository.save(Widget.builder().xIndex(10).yIndex(10).zIndex(0).width(10).height(10).build());
+        mvStoreRepository.save(Widget.builder().xIndex(10).yIndex(10).zIndex(5).width(10).height(10).build());
+        Widget aboveWidget = mvStoreRepository.save(Widget.builder().xIndex(10).yIndex(10).zIndex(6).width(10).height(10).build());
+
+        assertEquals(2, mvStoreRepository.deleteInZIndexRange(0, 5));
+
+        assertEquals(List.of(belowWidget, aboveWidget), mvStoreRepository.findWithLimit(10));
+        assertEquals(2, mvStoreRepository.getStats(null).getTotalCount());
+    }
+
+    @Test
+    void getStats_whenCoordinatesAreLarge_thenReturnExactExtent() {
+        Random random = new Random(11);
+        List<Widget> widgets = new ArrayList<>();
+        for (int i = 0; i < 300; i++) { // Floats of R-tree keys are off by up to 128 at these coordinates.
+            widgets.add(mvStoreRepository.save(Widget.builder()
+                    .xIndex(random.nextInt(2_000_000_000) - 1_000_000_000).yIndex(random.nextInt(2_000_000_000) - 1_000_000_000)
+                    .width(1 + random.nextInt(999)).height(1 + random.nextInt(999)).build()));
+        }
+        assertExactExtent(widgets, mvStoreRepository.getStats(null));
+
+        Widget leftMostWidget = widgets.stream()
+                .min(Comparator.comparingInt(widget -> widget.getXIndex() - (widget.getWidth() + 1) / 2)).orElseThrow();
+        mvStoreRepository.deleteById(leftMostWidget.getId());
+        widgets.remove(leftMostWidget);
+        assertExactExtent(widgets, mvStoreRepository.getStats(null));
+    }
+
+    private static void assertExactExtent(List<Widget> widgets, WidgetStats stats) {
+        assertEquals(Integer.valueOf(widgets.stream().mapToInt(widget -> widget.getXIndex() - (widget.getWidth() + 1) / 2).min().orElseThrow()), stats.getMinX());
+        assertEquals(Integer.valueOf(widgets.stream().mapToInt(widget -> widget.getYIndex() - (widget.getHeight() + 1) / 2).min().orElseThrow()), stats.getMinY());
+        assertEquals(Integer.valueOf(widgets.stream().mapToInt(widget -> widget.getXIndex() + (widget.getWidth() + 1) / 2).max().orElseThrow()), stats.getMaxX());
+        assertEquals(Integer.valueOf(widgets.stream().mapToInt(widget -> widget.getYIndex() + (widget.getHeight() + 1) / 2).max().orElseThrow()), stats.getMaxY());
+    }
+
+    @Test
+    void findWithCoordinates_whenPlansDiffer_thenReturnSameWidgets() {
+        Random random = new Random(7);
+        IntStream.range(0, 500).forEach(i -> mvStoreRepository.save(Widget.builder()
+                .xIndex(random.nextInt(1000)).yIndex(random.nextInt(1000))
+                .width(1 + random.nextInt(50)).height(1 + random.nextInt(50)).zIndex(random.nextInt(100)).build()));
+
+        for (int i = 0; i < 20; i++) {
+            int x0 = random.nextInt(1000);
+            int y0 = random.nextInt(1000);
+            RectangleCoordinates coordinates = RectangleCoordinates.builder()
+                    .x0(x0).y0(y0).x1(x0 + random.nextInt(500)).y1(y0 + random.nextInt(500)).build();
+            int limit = 1 + random.nextInt(50);
+
+            assertEquals(mvStoreRepository.findWithCoordinates(coordinates, limit, QueryPlan.Z_ORDER_SCAN),
+                    mvStoreRepository.findWithCoordinates(coordinates, limit, QueryPlan.SPATIAL_PROBE));
+        }
+    }
+
+    @Test
+    void findWithCoordinates_whenRectangleIsSmall_thenProbeSpatialIndex() {
+        IntStream.range(0, 10_000).forEach(i -> mvStoreRepository.save(Widget.builder()
+                .xIndex(10 * (i % 100)).yIndex(10 * (i / 100)).width(4).height(4).build()));
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(-5).y0(-5).x1(12).y1(12).build();
+
+        WidgetQueryResult queryResult = mvStoreRepository.findWithCoordinates(coordinates, 10);
+        assertEquals(QueryPlan.SPATIAL_PROBE, queryResult.getPlan());
+        assertEquals(4, queryResult.getWidgets().size());
+    }
+
+    @Test
+    void findWithCoordinates_whenRectangleCoversBoard_thenScanInZIndexOrder() {
+        IntStream.range(0, 1000).forEach(i -> mvStoreRepository.save(Widget.builder()
+                .xIndex(10 * (i % 100)).yIndex(10 * (i / 100)).width(4).height(4).build()));
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(-10).y0(-10).x1(1000).y1(1000).build();
+
+        WidgetQueryResult queryResult = mvStoreRepository.findWithCoordinates(coordinates, 10);
+        assertEquals(QueryPlan.Z_ORDER_SCAN, queryResult.getPlan());
+        assertEquals(1000, queryResult.getEstimatedCount());
+        assertEquals(10, queryResult.getWidgets().size());
+    }
+
+    @Test
+    void findNearest_whenBoardIsRandom_thenReturnSameWidgetsAsSortingAll() {
+        Random random = new Random(11);
+        List<Widget> widgets = new ArrayList<>();
+        IntStream.range(0, 2000).forEach(i -> widgets.add(mvStoreRepository.save(Widget.builder()
+                .xIndex(random.nextInt(5000)).yIndex(random.nextInt(5000)).width(1 + random.nextInt(30)).height(1 + random.nextInt(30))
+                .build())));
+
+        for (int i = 0; i < 20; i++) {
+            int x = random.nextInt(6000) - 500;
+            int y = random.nextInt(6000) - 500;
+            int k = 1 + random.nextInt(50);
+            List<Long> expectedIds = widgets.stream()
+                    .map(widget -> mvStoreRepository.findById(widget.getId()))
+                    .sorted(Comparator.<Widget>comparingLong(widget -> TileIndex.getDistanceSquared(widget, x, y))
+                            .thenComparing(Widget::getZIndex, Comparator.reverseOrder()))
+                    .limit(k)
+                    .map(Widget::getId)
+                    .collect(Collectors.toList());
+
+            assertEquals(expectedIds, mvStoreRepository.findNearest(x, y, k).stream().map(Widget::getId).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    void findOverlapping_whenWidgetsOverlap_thenReturnThemInZIndexOrder() {
+        Widget widget = mvStoreRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(5).width(10).height(10).build());
+        Widget upperWidget = mvStoreRepository.save(Widget.builder().xIndex(4).yIndex(4).zIndex(9).width(4).height(4).build());
+        Widget lowerWidget = mvStoreRepository.save(Widget.builder().xIndex(-4).yIndex(-4).zIndex(1).width(4).height(4).build());
+        mvStoreRepository.save(Widget.builder().xIndex(10).yIndex(0).zIndex(3).width(10).height(10).build());
+
+        assertEquals(List.of(lowerWidget, upperWidget), mvStoreRepository.findOverlapping(widget.getId()));
+        List<WidgetOverlap> overlaps = new ArrayList<>();
+        mvStoreRepository.findOverlaps(overlaps::add);
+        assertEquals(3, overlaps.size());
+        assertThrows(WidgetNotFoundException.class, () -> mvStoreRepository.findOverlapping(-1L));
+    }
+
+    @Test
+    void findTiles_whenBoardIsRandom_thenReturnSameTilesAsTileIndex() {
+        Random random = new Random(13);
+        TileIndex tileIndex = new TileIndex();
+        IntStream.range(0, 1000).forEach(i -> tileIndex.put(mvStoreRepository.save(Widget.builder()
+                .xIndex(random.nextInt(4000) - 2000).yIndex(random.nextInt(4000) - 2000)
+                .width(1 + random.nextInt(99)).height(1 + random.nextInt(99)).build())));
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(-1500).y0(-1000).x1(1700).y1(900).build();
+
+        for (int level : new int[]{8, 11, 15}) {
+            List<TileSummary> tiles = mvStoreRepository.findTiles(coordinates, level);
+            assertFalse(tiles.isEmpty());
+            assertEquals(tileIndex.findTiles(coordinates, level), tiles);
+        }
+        WidgetStats stats = mvStoreRepository.getStats(coordinates);
+        assertEquals(tileIndex.getStats(coordinates).toBuilder()
+                .minZIndex(stats.getMinZIndex()).maxZIndex(stats.getMaxZIndex()).build(), stats);
+        assertEquals(0, stats.getMinZIndex());
+        assertEquals(999, stats.getMaxZIndex());
+    }
+
+    @Test
+    void importSnapshot_whenSnapshotIsExported_thenRestoreSameWidgetsAndRequireFullSync() {
+        IntStream.range(0, 20).forEach(i -> mvStoreRepository.save(Widget.builder().xIndex(i).yIndex(i).width(5).height(5).build()));
+        List<Widget> widgets = mvStoreRepository.findWithLimit(100);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        mvStoreRepository.exportSnapshot(outputStream);
+        mvStoreRepository.deleteInZIndexRange(0, 10);
+        long since = mvStoreRepository.findChangesSince(0, null).getVersion();
+
+        assertEquals(20, mvStoreRepository.importSnapshot(new ByteArrayInputStream(outputStream.toByteArray())));
+
+        List<Widget> importedWidgets = mvStoreRepository.findWithLimit(100);
+        assertEquals(widgets.stream().map(widget -> widget.toBuilder().version(since + 1).build()).collect(Collectors.toList()),
+                importedWidgets);
+        assertTrue(mvStoreRepository.findChangesSince(since, null).isFullSyncRequired());
+        assertEquals(20L, mvStoreRepository.save(Widget.builder().xIndex(0).yIndex(0).width(5).height(5).build()).getId());
+    }
+
+    @Test
+    void compactZIndexes_whenZIndexesAreAdjacent_thenSpreadThemEvenly() {
+        IntStream.range(0, 5).forEach(i -> mvStoreRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(0).width(5).height(5).build()));
+        List<Long> widgetIds = mvStoreRepository.findWithLimit(10).stream().map(Widget::getId).collect(Collectors.toList());
+
+        ZIndexCompactionResult result = mvStoreRepository.compactZIndexes(10);
+
+        assertTrue(result.isApplied());
+        assertEquals(4, result.getBefore().getAdjacentCount());
+        assertEquals(0, result.getAfter().getAdjacentCount());
+        List<Widget> widgets = mvStoreRepository.findWithLimit(10);
+        assertEquals(widgetIds, widgets.stream().map(Widget::getId).collect(Collectors.toList()));
+        assertEquals(List.of(0, 10, 20, 30, 40), widgets.stream().map(Widget::getZIndex).collect(Collectors.toList()));
+    }
+
+    @Test
+    void moveBelow_whenThereIsNoGapBelowTarget_thenShiftTarget() {
+        Widget widget = mvStoreRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(1).width(5).height(5).build());
+        Widget targetWidget = mvStoreRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(10).width(5).height(5).build());
+        Widget belowTargetWidget = mvStoreRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(9).width(5).height(5).build());
+
+        Widget movedWidget = mvStoreRepository.moveBelow(widget.getId(), targetWidget.getId());
+        assertEquals(10, movedWidget.getZIndex());
+        assertEquals(11, mvStoreRepository.findById(targetWidget.getId()).getZIndex());
+        assertEquals(9, mvStoreRepository.findById(belowTargetWidget.getId()).getZIndex());
+        assertEquals(8, mvStoreRepository.sendToBack(targetWidget.getId()).getZIndex());
+        assertEquals(11, mvStoreRepository.bringToFront(belowTargetWidget.getId()).getZIndex());
+        assertThrows(IllegalArgumentException.class, () -> mvStoreRepository.moveAbove(widget.getId(), widget.getId()));
+    }
+
+    @Test
+    void moveAbove_whenWidgetsReachMaxZIndex_thenThrowIllegalArgumentExceptionWithoutMoving() {
+        Widget widget = mvStoreRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(1).width(5).height(5).build());
+        Widget targetWidget = mvStoreRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(Integer.MAX_VALUE - 1).width(5).height(5).build());
+        Widget topWidget = mvStoreRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(Integer.MAX_VALUE).width(5).height(5).build());
+
+        assertThrows(IllegalArgumentException.class, () -> mvStoreRepository.bringToFront(widget.getId()));
+        assertThrows(IllegalArgumentException.class, () -> mvStoreRepository.moveAbove(widget.getId(), targetWidget.getId()));
+
+        assertEquals(List.of(widget.getId(), targetWidget.getId(), topWidget.getId()),
+                mvStoreRepository.findWithLimit(10).stream().map(Widget::getId).collect(Collectors.toList()));
+        assertEquals(Integer.MAX_VALUE / 2, mvStoreRepository.moveBelow(topWidget.getId(), targetWidget.getId()).getZIndex());
+    }
+
+    @Test
+    void closeWithoutCommit_whenEveryWriteIsCommitted_thenRestoreBoardAndContinueIds(@TempDir Path directory) {
+        String fileName = directory.resolve("widgets.mv.db").toString();
+        MVStoreWidgetRepository fileRepository = new MVStoreWidgetRepository(fileName, true);
+        Widget widget1 = fileRepository.save(Widget.builder().xIndex(10).yIndex(10).zIndex(2).width(10).height(10).build());
+        Widget widget2 = fileRepository.save(Widget.builder().xIndex(90).yIndex(10).zIndex(2).width(10).height(10).build());
+        long version = fileRepository.findChangesSince(0, null).getVersion();
+        List<Widget> widgets = fileRepository.findWithLimit(10);
+        fileRepository.closeWithoutCommit();
+
+        MVStoreWidgetRepository reopenedRepository = new MVStoreWidgetRepository(fileName, true);
+        try {
+            assertEquals(widgets, reopenedRepository.findWithLimit(10));
+            assertEquals(List.of(reopenedRepository.findById(widget1.getId()), reopenedRepository.findById(widget2.getId())),
+                    reopenedRepository.findNearest(0, 0, 2));
+            WidgetChanges changes = reopenedRepository.findChangesSince(0, null);
+            assertTrue(changes.isFullSyncRequired());
+            assertEquals(version, changes.getVersion());
+            assertEquals(widget2.getId() + 1,
+                    reopenedRepository.save(Widget.builder().xIndex(0).yIndex(0).width(5).height(5).build()).getId());
+        } finally {
+            reopenedRepository.close();
+        }
+    }
+
+    @Test
+    void closeWithoutCommit_whenWritesAreCommittedPeriodically_thenRestoreLastCommittedBoard(@TempDir Path directory) {
+        String fileName = directory.resolve("widgets.mv.db").toString();
+        MVStoreWidgetRepository fileRepository = new MVStoreWidgetRepository(fileName, false);
+        Widget committedWidget = fileRepository.save(Widget.builder().xIndex(10).yIndex(10).width(10).height(10).build());
+        fileRepository.commitPendingChanges();
+        fileRepository.patch(Widget.builder().id(committedWidget.getId()).xIndex(500).build());
+        fileRepository.save(Widget.builder().xIndex(90).yIndex(10).width(10).height(10).build());
+        fileRepository.closeWithoutCommit();
+
+        MVStoreWidgetRepository reopenedRepository = new MVStoreWidgetRepository(fileName, false);
+        try {
+            assertEquals(List.of(committedWidget), reopenedRepository.findWithLimit(10));
+            assertEquals(List.of(committedWidget), reopenedRepository.findNearest(0, 0, 10));
+        } finally {
+            reopenedRepository.close();
+        }
+    }
+
+    @Test
+    void closeWithoutCommit_whenLargeModificationsArePending_thenRestoreLastCommittedBoard(@TempDir Path directory) throws IOException {
+        String fileName = directory.resolve("widgets.mv.db").toString();
+        MVStoreWidgetRepository fileRepository = new MVStoreWidgetRepository(fileName, false);
+        Widget committedWidget = fileRepository.save(Widget.builder().xIndex(10).yIndex(10).zIndex(0).width(10).height(10).build());
+        fileRepository.commitPendingChanges();
+        Random random = new Random(7);
+        List<Widget> widgets = IntStream.range(0, 300_000)
+                .mapToObj(i -> Widget.builder().id((long) i).xIndex(random.nextInt(100_000)).yIndex(random.nextInt(100_000))
+                        .zIndex(i).width(1 + random.nextInt(100)).height(1 + random.nextInt(100)).build())
+                .collect(Collectors.toList());
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        WidgetSnapshotCodec.write(snapshot, widgets);
+
+        // Both modifications write more than the default write buffer of the store.
+        fileRepository.importSnapshot(new ByteArrayInputStream(snapshot.toByteArray()));
+        fileRepository.save(Widget.builder().xIndex(0).yIndex(0).zIndex(0).width(5).height(5).build());
+        fileRepository.closeWithoutCommit();
+
+        MVStoreWidgetRepository reopenedRepository = new MVStoreWidgetRepository(fileName, false);
+        try {
+            assertEquals(List.of(committedWidget), reopenedRepository.findWithLimit(10));
+            assertEquals(List.of(committedWidget), reopenedRepository.findNearest(0, 0, 10));
+            RectangleCoordinates board = RectangleCoordinates.builder().x0(-1000).y0(-1000).x1(200_000).y1(200_000).build();
+            assertEquals(List.of(committedWidget), reopenedRepository.findWithCoordinates(board, 10).getWidgets());
+            assertEquals(1, reopenedRepository.getStats(board).getTotalCount());
+            assertEquals(Integer.valueOf(0), reopenedRepository.getZIndexStats().getMaxZIndex());
+        } finally {
+            reopenedRepository.close();
+        }
+    }
+}
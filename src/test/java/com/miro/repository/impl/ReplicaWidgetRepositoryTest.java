@@ -0,0 +1,125 @@
+package com.miro.repository.impl;
+
+import com.miro.exception.ReadOnlyReplicaException;
+import com.miro.model.Widget;
+import com.miro.replication.ReplicationServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicaWidgetRepositoryTest {
+    private static final long SHIP_INTERVAL_MILLIS = 10;
+    private static final long AWAIT_MILLIS = 5000;
+
+    private InMemoryRepository primaryRepository;
+    private ReplicationServer replicationServer;
+    private final List<ReplicaWidgetRepository> replicas = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        primaryRepository = new InMemoryRepository();
+        primaryRepository.clearMaps();
+        replicationServer = startServer(0);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException, InterruptedException {
+        for (ReplicaWidgetRepository replica : replicas) {
+            replica.close();
+        }
+        replicationServer.close();
+    }
+
+    @Test
+    void replicas_whenPrimaryIsModified_thenServeSameBoard() {
+        Widget widget1 = primaryRepository.save(Widget.builder().xIndex(1).yIndex(2).zIndex(5).width(3).height(4).build());
+        ReplicaWidgetRepository replica1 = startReplica();
+        awaitBoard(replica1);
+
+        ReplicaWidgetRepository replica2 = startReplica();
+        Widget widget2 = primaryRepository.save(Widget.builder().xIndex(10).yIndex(20).zIndex(6).width(30).height(40).build());
+        primaryRepository.save(Widget.builder().xIndex(100).yIndex(200).zIndex(5).width(3).height(4).build());
+        primaryRepository.patch(Widget.builder().id(widget2.getId()).xIndex(500).build());
+        primaryRepository.bringToFront(widget1.getId());
+        primaryRepository.deleteById(widget2.getId());
+
+        awaitBoard(replica1);
+        awaitBoard(replica2);
+        long version = primaryRepository.findChangesSince(Long.MAX_VALUE, null).getVersion();
+        assertEquals(version, replica1.getAppliedVersion());
+        assertEquals(version, replica2.getAppliedVersion());
+        assertEquals(primaryRepository.findNearest(0, 0, 5), replica2.findNearest(0, 0, 5));
+        assertTrue(replica1.isConnected());
+        assertTrue(replica1.getLagMillis() < AWAIT_MILLIS);
+    }
+
+    @Test
+    void replica_whenWidgetIsModified_thenThrowReadOnlyReplicaException() {
+        ReplicaWidgetRepository replica = startReplica();
+        Widget widget = Widget.builder().xIndex(1).yIndex(2).zIndex(5).width(3).height(4).build();
+
+        assertThrows(ReadOnlyReplicaException.class, () -> replica.save(widget));
+        assertThrows(ReadOnlyReplicaException.class, () -> replica.deleteById(1L));
+        assertThrows(ReadOnlyReplicaException.class, () -> replica.bringToFront(1L));
+        assertThrows(ReadOnlyReplicaException.class, () -> replica.compactZIndexes(10));
+        assertTrue(Double.isNaN(replica.getLagMillis()) || replica.getLagMillis() >= 0);
+    }
+
+    @Test
+    void replica_whenPrimaryRestarts_thenReconnectAndSyncNewBoard() throws IOException {
+        primaryRepository.save(Widget.builder().xIndex(1).yIndex(2).zIndex(5).width(3).height(4).build());
+        ReplicaWidgetRepository replica = startReplica();
+        awaitBoard(replica);
+
+        int port = replicationServer.getPort();
+        replicationServer.close();
+        await(() -> !replica.isConnected());
+        primaryRepository = new InMemoryRepository();
+        primaryRepository.save(Widget.builder().xIndex(10).yIndex(20).zIndex(1).width(30).height(40).build());
+        replicationServer = startServer(port);
+
+        awaitBoard(replica);
+        assertEquals(1, replica.findWithLimit(10).size());
+        assertTrue(replica.isConnected());
+    }
+
+    private ReplicationServer startServer(int port) {
+        ReplicationServer server = new ReplicationServer(primaryRepository, port, SHIP_INTERVAL_MILLIS);
+        server.start();
+        return server;
+    }
+
+    private ReplicaWidgetRepository startReplica() {
+        ReplicaWidgetRepository replica = new ReplicaWidgetRepository("localhost", replicationServer.getPort(), 1000, 10);
+        replica.start();
+        replicas.add(replica);
+        return replica;
+    }
+
+    private void awaitBoard(ReplicaWidgetRepository replica) {
+        await(() -> getBoard(primaryRepository.findWithLimit(Integer.MAX_VALUE)).equals(getBoard(replica.findWithLimit(Integer.MAX_VALUE))));
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + AWAIT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Replica didn't catch up in time.");
+            Thread.onSpinWait();
+        }
+    }
+
+    private static List<String> getBoard(List<Widget> widgets) {
+        return widgets.stream()
+                .map(widget -> widget.getId() + ":" + widget.getXIndex() + "," + widget.getYIndex() + "," + widget.getZIndex()
+                        + "," + widget.getWidth() + "," + widget.getHeight() + "@" + widget.getVersion())
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,169 @@
+package com.miro.repository.impl;
+
+import com.miro.model.RectangleCoordinates;
+import com.miro.model.Widget;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TieredWidgetRepositoryTest {
+    private static int databaseCount;
+
+    private SingleConnectionDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private TieredWidgetRepository tieredRepository;
+    private MeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        dataSource = new SingleConnectionDataSource("jdbc:h2:mem:tiered" + databaseCount++, "sa", "", true);
+        try (Connection connection = dataSource.getConnection()) {
+            ScriptUtils.executeSqlScript(connection, new ClassPathResource("schema.sql"));
+        }
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        tieredRepository = openRepository();
+    }
+
+    @AfterEach
+    void tearDown() {
+        dataSource.destroy();
+    }
+
+    @Test
+    void flush_whenWidgetIsModifiedManyTimes_thenWriteItOnce() {
+        Widget widget = tieredRepository.save(Widget.builder().xIndex(1).yIndex(2).zIndex(5).width(3).height(4).build());
+        tieredRepository.save(Widget.builder().xIndex(10).yIndex(20).zIndex(6).width(30).height(40).build());
+        for (int i = 0; i < 5; i++) {
+            tieredRepository.patch(Widget.builder().id(widget.getId()).xIndex(100 + i).build());
+        }
+        assertEquals(7, tieredRepository.getPendingModifications());
+        assertTrue(getRows().isEmpty());
+
+        tieredRepository.flush();
+
+        assertEquals(getBoard(), getRows());
+        assertEquals(2, meterRegistry.get("widget.write-behind.flushed.rows").functionCounter().count());
+        assertEquals(0, meterRegistry.get("widget.write-behind.queue.depth").gauge().value());
+        assertEquals(0, meterRegistry.get("widget.write-behind.flush.lag").timeGauge().value(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void flush_whenWidgetsAreShifted_thenWriteShiftedWidgets() {
+        tieredRepository.save(Widget.builder().xIndex(1).yIndex(2).zIndex(5).width(3).height(4).build());
+        tieredRepository.save(Widget.builder().xIndex(1).yIndex(2).zIndex(6).width(3).height(4).build());
+        tieredRepository.flush();
+
+        Widget widget = tieredRepository.save(Widget.builder().xIndex(10).yIndex(20).zIndex(5).width(30).height(40).build());
+        tieredRepository.flush();
+
+        assertEquals(getBoard(), getRows());
+        assertEquals(List.of(5, 6, 7), jdbcTemplate.queryForList("select zIndex from widget order by zIndex", Integer.class));
+        assertEquals(widget.getId(), jdbcTemplate.queryForObject("select id from widget where zIndex=5", Long.class));
+    }
+
+    @Test
+    void flush_whenWidgetsAreDeleted_thenDeleteTheirRows() {
+        Widget widget = tieredRepository.save(Widget.builder().xIndex(1).yIndex(2).zIndex(5).width(3).height(4).build());
+        tieredRepository.save(Widget.builder().xIndex(100).yIndex(200).zIndex(6).width(3).height(4).build());
+        tieredRepository.flush();
+
+        tieredRepository.deleteById(widget.getId());
+        tieredRepository.deleteInRectangle(RectangleCoordinates.builder().x0(90).y0(190).x1(110).y1(210).build());
+        Widget unflushedWidget = tieredRepository.save(Widget.builder().xIndex(1).yIndex(2).zIndex(5).width(3).height(4).build());
+        tieredRepository.deleteById(unflushedWidget.getId());
+        tieredRepository.flush();
+
+        assertTrue(getRows().isEmpty());
+        assertEquals(0, tieredRepository.getPendingModifications());
+    }
+
+    @Test
+    void flush_whenSnapshotIsImported_thenReplaceAllRows() {
+        tieredRepository.save(Widget.builder().xIndex(1).yIndex(2).zIndex(5).width(3).height(4).build());
+        tieredRepository.flush();
+
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        TieredWidgetRepository otherRepository = openRepository();
+        otherRepository.save(Widget.builder().xIndex(10).yIndex(20).zIndex(1).width(30).height(40).build());
+        otherRepository.save(Widget.builder().xIndex(10).yIndex(20).zIndex(2).width(30).height(40).build());
+        otherRepository.exportSnapshot(snapshot);
+        tieredRepository.importSnapshot(new ByteArrayInputStream(snapshot.toByteArray()));
+        tieredRepository.flush();
+
+        assertEquals(getBoard(), getRows());
+        assertEquals(3, getRows().size());
+    }
+
+    @Test
+    void load_whenRowsAreFlushed_thenServeThemAfterRestart() {
+        Widget widget = tieredRepository.save(Widget.builder().xIndex(1).yIndex(2).zIndex(5).width(3).height(4).build());
+        tieredRepository.save(Widget.builder().xIndex(10).yIndex(20).zIndex(6).width(30).height(40).build());
+        tieredRepository.close();
+        tieredRepository.save(Widget.builder().xIndex(10).yIndex(20).zIndex(7).width(30).height(40).build());
+
+        TieredWidgetRepository restartedRepository = openRepository();
+
+        assertEquals(getRows(), getWidgetRows(restartedRepository.findWithLimit(10)));
+        assertEquals(2, restartedRepository.findWithLimit(10).size());
+        assertEquals(widget.getXIndex(), restartedRepository.findById(widget.getId()).getXIndex());
+        Widget newWidget = restartedRepository.save(Widget.builder().xIndex(1).yIndex(2).zIndex(8).width(3).height(4).build());
+        assertTrue(newWidget.getId() > widget.getId());
+    }
+
+    @Test
+    void flush_whenH2Fails_thenRetryByNextFlush() {
+        tieredRepository.save(Widget.builder().xIndex(1).yIndex(2).zIndex(5).width(3).height(4).build());
+        jdbcTemplate.execute("alter table widget rename to widget_renamed");
+
+        tieredRepository.flush();
+        assertEquals(1, meterRegistry.get("widget.write-behind.flush.failures").functionCounter().count());
+        assertEquals(1, tieredRepository.getPendingModifications());
+        assertTrue(tieredRepository.getFlushLagNanos() > 0);
+
+        jdbcTemplate.execute("alter table widget_renamed rename to widget");
+        tieredRepository.flush();
+        assertEquals(getBoard(), getRows());
+        assertEquals(0, tieredRepository.getPendingModifications());
+        assertEquals(0, tieredRepository.getFlushLagNanos());
+    }
+
+    private TieredWidgetRepository openRepository() {
+        TieredWidgetRepository repository = new TieredWidgetRepository(jdbcTemplate, new DataSourceTransactionManager(dataSource));
+        repository.load();
+        meterRegistry = new SimpleMeterRegistry();
+        repository.bindTo(meterRegistry);
+        return repository;
+    }
+
+    private List<String> getBoard() {
+        return getWidgetRows(tieredRepository.findWithLimit(Integer.MAX_VALUE));
+    }
+
+    private List<String> getRows() {
+        return getWidgetRows(jdbcTemplate.query("select * from widget order by zIndex", Widget::mapRowToWidget));
+    }
+
+    private static List<String> getWidgetRows(List<Widget> widgets) {
+        return widgets.stream()
+                .map(widget -> widget.getId() + ":" + widget.getXIndex() + "," + widget.getYIndex() + "," + widget.getZIndex()
+                        + "," + widget.getWidth() + "," + widget.getHeight())
+                .collect(Collectors.toList());
+    }
+}
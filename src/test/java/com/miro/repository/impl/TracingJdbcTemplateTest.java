@@ -0,0 +1,96 @@
+package com.miro.repository.impl;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TracingJdbcTemplateTest {
+    private final List<String> slowOperations = new ArrayList<>();
+    private DriverManagerDataSource dataSource;
+
+    @BeforeEach
+    void setUp() {
+        dataSource = new DriverManagerDataSource("jdbc:h2:mem:tracing;DB_CLOSE_DELAY=-1", "sa", "");
+        TracingJdbcTemplate setupTemplate = new TracingJdbcTemplate(dataSource, Long.MAX_VALUE);
+        setupTemplate.execute("drop table if exists widget");
+        setupTemplate.execute("create table widget (id bigint primary key, zIndex int, version bigint)");
+        setupTemplate.update("insert into widget values (1, 1, 0), (2, 2, 0)");
+    }
+
+    @Test
+    void update_whenStatementIsSlowOutsideTransaction_thenLogStatementWithParametersAndPlan() {
+        TracingJdbcTemplate tracingJdbcTemplate = new TracingJdbcTemplate(dataSource, 0, slowOperations::add);
+
+        tracingJdbcTemplate.queryForObject("select zIndex from widget where id=?", Integer.class, 2L);
+
+        assertEquals(1, slowOperations.size());
+        String slowOperation = slowOperations.get(0);
+        assertTrue(slowOperation.contains("select zIndex from widget where id=?"));
+        assertTrue(slowOperation.contains("parameters: [2]"));
+        assertTrue(slowOperation.contains("plan: SELECT"), slowOperation);
+    }
+
+    @Test
+    void batchUpdate_whenTransactionIsSlow_thenLogSingleOperationWithShiftedRows() {
+        TracingJdbcTemplate tracingJdbcTemplate = new TracingJdbcTemplate(dataSource, 0, slowOperations::add);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+
+        transactionTemplate.executeWithoutResult(status -> {
+            tracingJdbcTemplate.queryForObject("select count(*) from widget where zIndex >= ?", Integer.class, 1);
+            tracingJdbcTemplate.batchUpdate(H2WidgetRepository.QUERY_UPDATE_Z_INDEXES, List.of(
+                    new Object[]{3L, 2L},
+                    new Object[]{3L, 1L}));
+        });
+
+        assertEquals(1, slowOperations.size());
+        assertTrue(slowOperations.get(0).contains("with 2 statements"), slowOperations.get(0));
+        assertTrue(slowOperations.get(0).contains("shifted rows: 2"), slowOperations.get(0));
+    }
+
+    @Test
+    void batchUpdate_whenBatchIsSlowest_thenExplainItWithFirstRowParameters() {
+        TracingJdbcTemplate tracingJdbcTemplate = new TracingJdbcTemplate(dataSource, 0, slowOperations::add);
+
+        tracingJdbcTemplate.batchUpdate(H2WidgetRepository.QUERY_UPDATE_Z_INDEXES, List.of(
+                new Object[]{3L, 2L},
+                new Object[]{3L, 1L}));
+
+        assertEquals(1, slowOperations.size());
+        String slowOperation = slowOperations.get(0);
+        assertTrue(slowOperation.contains("parameters: first row of batch [3, 2]"), slowOperation);
+        assertTrue(slowOperation.contains("plan: UPDATE"), slowOperation);
+    }
+
+    @Test
+    void batchUpdate_whenBatchIsSplitBySize_thenTraceItAsOneStatementWithAllRows() {
+        TracingJdbcTemplate tracingJdbcTemplate = new TracingJdbcTemplate(dataSource, 0, slowOperations::add);
+
+        tracingJdbcTemplate.batchUpdate("update widget set version=? where id=?", List.of(2L, 1L), 1,
+                (ps, id) -> {
+                    ps.setLong(1, 5L);
+                    ps.setLong(2, id);
+                });
+
+        assertEquals(1, slowOperations.size());
+        String slowOperation = slowOperations.get(0);
+        assertTrue(slowOperation.contains("touched 2 rows"), slowOperation);
+        assertTrue(slowOperation.contains("parameters: first row of batch [5, 2]"), slowOperation);
+        assertTrue(slowOperation.contains("plan: UPDATE"), slowOperation);
+    }
+
+    @Test
+    void query_whenStatementIsFasterThanThreshold_thenDoNotLog() {
+        TracingJdbcTemplate tracingJdbcTemplate = new TracingJdbcTemplate(dataSource, 60_000, slowOperations::add);
+
+        tracingJdbcTemplate.queryForObject("select zIndex from widget where id=?", Integer.class, 2L);
+
+        assertTrue(slowOperations.isEmpty());
+    }
+}
@@ -0,0 +1,149 @@
+package com.miro.repository.impl;
+
+import com.miro.model.RectangleCoordinates;
+import com.miro.model.Widget;
+import com.miro.model.WidgetQueryResult;
+import com.miro.repository.WidgetRepository;
+import com.miro.repository.id.BlockIdAllocator;
+import com.miro.repository.id.SequenceIdBlockSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the repository profiles on the same board: in-memory maps, H2 through SQL & the file backed MVStore,
+ * which commits every 100 ms like the mvstore profile or on every write,
+ * run with "mvn -Pbenchmark test-compile exec:exec -Dbenchmark.include=WidgetRepository".
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-XX:+UseParallelGC")
+@State(Scope.Benchmark)
+public class WidgetRepositoryBenchmark {
+    private static final int BOARD_SIZE = 10_000;
+    private static final int BOARD_WIDTH = 10_000;
+    private static final int LIMIT = 100;
+
+    @Param({"in-memory", "h2", "mvstore", "mvstore-commit-on-write"})
+    private String repositoryType;
+
+    private WidgetRepository widgetRepository;
+    private SingleConnectionDataSource dataSource;
+    private Path storeDirectory;
+    private ScheduledExecutorService commitExecutor;
+    private final List<Long> widgetIds = new ArrayList<>();
+    private final Random random = new Random(42);
+    private RectangleCoordinates smallCoordinates;
+
+    @Setup
+    public void setUp() throws IOException, SQLException {
+        switch (repositoryType) {
+            case "in-memory":
+                InMemoryRepository inMemoryRepository = new InMemoryRepository();
+                inMemoryRepository.clearMaps();
+                widgetRepository = inMemoryRepository;
+                break;
+            case "h2":
+                dataSource = new SingleConnectionDataSource("jdbc:h2:mem:benchmark", "sa", "", true);
+                try (Connection connection = dataSource.getConnection()) {
+                    ScriptUtils.executeSqlScript(connection, new ClassPathResource("schema.sql"));
+                }
+                JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+                widgetRepository = new H2WidgetRepository(jdbcTemplate, new BlockIdAllocator(new SequenceIdBlockSource(jdbcTemplate)));
+                break;
+            default:
+                storeDirectory = Files.createTempDirectory("widget-benchmark");
+                boolean commitOnWrite = repositoryType.equals("mvstore-commit-on-write");
+                MVStoreWidgetRepository mvStoreRepository =
+                        new MVStoreWidgetRepository(storeDirectory.resolve("widgets.mv.db").toString(), commitOnWrite);
+                commitExecutor = Executors.newSingleThreadScheduledExecutor();
+                commitExecutor.scheduleWithFixedDelay(mvStoreRepository::commitPendingChanges, 100, 100, TimeUnit.MILLISECONDS);
+                widgetRepository = mvStoreRepository;
+        }
+
+        for (int i = 0; i < BOARD_SIZE; i++) {
+            widgetIds.add(widgetRepository.save(Widget.builder()
+                    .xIndex(random.nextInt(BOARD_WIDTH)).yIndex(random.nextInt(BOARD_WIDTH))
+                    .width(1 + random.nextInt(100)).height(1 + random.nextInt(100))
+                    .build()).getId());
+        }
+        smallCoordinates = RectangleCoordinates.builder().x0(5000).y0(5000).x1(5400).y1(5400).build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (dataSource != null) {
+            dataSource.destroy();
+        }
+        if (storeDirectory != null) {
+            commitExecutor.shutdownNow();
+            ((MVStoreWidgetRepository) widgetRepository).close();
+            try (var files = Files.list(storeDirectory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(storeDirectory);
+        }
+    }
+
+    @Benchmark
+    public Widget findById() {
+        return widgetRepository.findById(widgetIds.get(random.nextInt(BOARD_SIZE)));
+    }
+
+    @Benchmark
+    public List<Widget> findWithLimit() {
+        return widgetRepository.findWithLimit(LIMIT);
+    }
+
+    @Benchmark
+    public WidgetQueryResult findInSmallRectangle() {
+        return widgetRepository.findWithCoordinates(smallCoordinates, LIMIT);
+    }
+
+    @Benchmark
+    public List<Widget> findNearest() {
+        return widgetRepository.findNearest(random.nextInt(BOARD_WIDTH), random.nextInt(BOARD_WIDTH), 10);
+    }
+
+    @Benchmark
+    public Widget patchPosition() {
+        return widgetRepository.patch(Widget.builder()
+                .id(widgetIds.get(random.nextInt(BOARD_SIZE)))
+                .xIndex(random.nextInt(BOARD_WIDTH)).yIndex(random.nextInt(BOARD_WIDTH))
+                .build());
+    }
+
+    @Benchmark
+    public Widget bringToFront() {
+        return widgetRepository.bringToFront(widgetIds.get(random.nextInt(BOARD_SIZE)));
+    }
+}
@@ -0,0 +1,312 @@
+package com.miro.repository.impl;
+
+import com.miro.exception.WidgetNotFoundException;
+import com.miro.model.Widget;
+import com.miro.repository.WidgetRepository;
+import com.miro.repository.id.BlockIdAllocator;
+import com.miro.repository.id.SequenceIdBlockSource;
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+import org.springframework.transaction.TransactionManager;
+import org.springframework.transaction.annotation.AnnotationTransactionAttributeSource;
+import org.springframework.transaction.interceptor.TransactionInterceptor;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how the in-memory & H2 repositories scale with threads under a mixed workload of point reads, z-ordered scans,
+ * position patches, inserts & moves, whose zIndexes conflict more as the zIndex range gets narrower.
+ * After every iteration, the board is checked for duplicate zIndexes, lost position updates & a z-order of
+ * {@code findWithLimit} which doesn't match the widgets, scans are checked for order while writes run; the benchmark fails
+ * when a check fails. Run with "mvn -Pbenchmark test-compile exec:exec -Dbenchmark.include=WidgetRepositoryContention"
+ * at 4 threads, or with "mvn -Pcontention test-compile exec:exec -Dcontention.max-threads=8" for the throughput
+ * scaling from 1 to the max threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-XX:+UseParallelGC")
+@Threads(4)
+@State(Scope.Benchmark)
+public class WidgetRepositoryContentionBenchmark {
+    private static final int BOARD_SIZE = 1_000;
+    private static final int BOARD_WIDTH = 10_000;
+    private static final int LIMIT = 100;
+    private static final int MAX_CREATED_PER_THREAD = 20;
+
+    @Param({"in-memory", "h2"})
+    private String repositoryType;
+
+    @Param({"0.9", "0.5"})
+    private double readRatio;
+
+    // Inserts & moves pick their zIndex in [0, range)
+    @Param({"10", "1000"})
+    private int zIndexRange;
+
+    private WidgetRepository widgetRepository;
+    private HikariDataSource dataSource;
+    private final List<Long> boardIds = new ArrayList<>();
+    // Owned by a single thread, so that the last position written to a widget is known.
+    private final Map<Long, Integer> writtenXIndexes = new ConcurrentHashMap<>();
+    private final Queue<Deque<Long>> createdIds = new ConcurrentLinkedQueue<>();
+    private final AtomicLong unorderedScans = new AtomicLong();
+    private final AtomicLong failedWrites = new AtomicLong();
+    private final List<String> violations = new ArrayList<>();
+
+    @Setup
+    public void setUp(BenchmarkParams benchmarkParams) throws SQLException {
+        if (repositoryType.equals("in-memory")) {
+            InMemoryRepository inMemoryRepository = new InMemoryRepository();
+            inMemoryRepository.clearMaps();
+            widgetRepository = inMemoryRepository;
+        } else {
+            dataSource = new HikariDataSource();
+            dataSource.setJdbcUrl("jdbc:h2:mem:contention");
+            dataSource.setUsername("sa");
+            dataSource.setMaximumPoolSize(benchmarkParams.getThreads());
+            dataSource.setMinimumIdle(benchmarkParams.getThreads()); // The in-memory database is kept while a connection is open.
+            try (Connection connection = dataSource.getConnection()) {
+                ScriptUtils.executeSqlScript(connection, new ClassPathResource("schema.sql"));
+            }
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+            // Transactions are applied the same way as in the application context.
+            ProxyFactory proxyFactory = new ProxyFactory(
+                    new H2WidgetRepository(jdbcTemplate, new BlockIdAllocator(new SequenceIdBlockSource(jdbcTemplate))));
+            proxyFactory.addAdvice(new TransactionInterceptor((TransactionManager) new DataSourceTransactionManager(dataSource),
+                    new AnnotationTransactionAttributeSource()));
+            widgetRepository = (WidgetRepository) proxyFactory.getProxy();
+        }
+
+        Random random = new Random(42);
+        for (int i = 0; i < BOARD_SIZE; i++) {
+            int xIndex = random.nextInt(BOARD_WIDTH);
+            long id = widgetRepository.save(Widget.builder()
+                    .xIndex(xIndex).yIndex(random.nextInt(BOARD_WIDTH)).zIndex(i)
+                    .width(1 + random.nextInt(100)).height(1 + random.nextInt(100))
+                    .build()).getId();
+            boardIds.add(id);
+            writtenXIndexes.put(id, xIndex);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void verify() {
+        List<Widget> widgets = widgetRepository.findWithLimit(Integer.MAX_VALUE);
+        Set<Long> ids = new HashSet<>();
+        int duplicateZIndexes = 0;
+        for (int i = 0; i < widgets.size(); i++) {
+            ids.add(widgets.get(i).getId());
+            if (i > 0 && widgets.get(i).getZIndex() <= widgets.get(i - 1).getZIndex()) {
+                duplicateZIndexes++;
+            }
+        }
+        int expectedCount = BOARD_SIZE + createdIds.stream().mapToInt(Deque::size).sum();
+
+        int lostUpdates = 0;
+        int mismatchedWidgets = 0;
+        Map<Long, Widget> widgetsById = new HashMap<>();
+        widgets.forEach(widget -> widgetsById.put(widget.getId(), widget));
+        for (Long id : boardIds) {
+            Widget widget = widgetRepository.findById(id);
+            if (!widget.getXIndex().equals(writtenXIndexes.get(id))) {
+                lostUpdates++;
+            }
+            Widget scannedWidget = widgetsById.get(id);
+            if (scannedWidget == null || !scannedWidget.getZIndex().equals(widget.getZIndex())) {
+                mismatchedWidgets++;
+            }
+        }
+
+        String summary = String.format("widgets: %d(expected %d), duplicate zIndexes: %d, lost updates: %d, " +
+                        "widgets not matching the scan: %d, unordered scans: %d, failed writes: %d",
+                ids.size(), expectedCount, duplicateZIndexes, lostUpdates, mismatchedWidgets, unorderedScans.get(), failedWrites.get());
+        System.out.println(summary);
+        if (ids.size() != widgets.size() || ids.size() != expectedCount || duplicateZIndexes > 0 || lostUpdates > 0
+                || mismatchedWidgets > 0 || unorderedScans.get() > 0) {
+            violations.add(summary);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (dataSource != null) {
+            dataSource.close();
+        }
+        if (!violations.isEmpty()) {
+            throw new IllegalStateException("Repository isn't linearizable under contention: " + violations);
+        }
+    }
+
+    @Benchmark
+    public Object mixed(Worker worker) {
+        Random random = worker.random;
+        if (random.nextDouble() < readRatio) {
+            if (random.nextBoolean()) {
+                return widgetRepository.findById(boardIds.get(random.nextInt(BOARD_SIZE)));
+            }
+            List<Widget> widgets = widgetRepository.findWithLimit(LIMIT);
+            if (!isOrdered(widgets)) {
+                unorderedScans.incrementAndGet();
+            }
+            return widgets;
+        }
+
+        try {
+            switch (random.nextInt(4)) {
+                case 0:
+                    Long id = worker.nextOwnedId();
+                    int xIndex = random.nextInt(BOARD_WIDTH);
+                    Widget patchedWidget = widgetRepository.patch(Widget.builder().id(id).xIndex(xIndex).build());
+                    writtenXIndexes.put(id, xIndex);
+                    return patchedWidget;
+                case 1:
+                    return widgetRepository.patch(Widget.builder().id(worker.nextOwnedId()).zIndex(random.nextInt(zIndexRange)).build());
+                case 2:
+                    return widgetRepository.bringToFront(boardIds.get(random.nextInt(BOARD_SIZE)));
+                default:
+                    return create(worker);
+            }
+        } catch (DataAccessException | WidgetNotFoundException e) { // Transactions aborted by H2, nothing is written
+            failedWrites.incrementAndGet();
+            return e;
+        }
+    }
+
+    /**
+     * Widgets created by a thread are deleted by it, so that the board keeps its size.
+     */
+    private Widget create(Worker worker) {
+        Random random = worker.random;
+        Widget widget = widgetRepository.save(Widget.builder()
+                .xIndex(random.nextInt(BOARD_WIDTH)).yIndex(random.nextInt(BOARD_WIDTH)).zIndex(random.nextInt(zIndexRange))
+                .width(1 + random.nextInt(100)).height(1 + random.nextInt(100))
+                .build());
+        worker.createdIds.addLast(widget.getId());
+        if (worker.createdIds.size() > MAX_CREATED_PER_THREAD) {
+            widgetRepository.deleteById(worker.createdIds.getFirst());
+            worker.createdIds.removeFirst();
+        }
+        return widget;
+    }
+
+    private static boolean isOrdered(List<Widget> widgets) {
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < widgets.size(); i++) {
+            if (!ids.add(widgets.get(i).getId()) || (i > 0 && widgets.get(i).getZIndex() <= widgets.get(i - 1).getZIndex())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @State(Scope.Thread)
+    public static class Worker {
+        private Random random;
+        private final List<Long> ownedIds = new ArrayList<>();
+        private final Deque<Long> createdIds = new ArrayDeque<>();
+        private int nextOwnedIndex;
+
+        /**
+         * Board widgets are split between threads, positions of a widget are written only by its owner.
+         */
+        @Setup
+        public void setUp(WidgetRepositoryContentionBenchmark benchmark, ThreadParams threadParams) {
+            random = new Random(threadParams.getThreadIndex());
+            for (int i = threadParams.getThreadIndex(); i < BOARD_SIZE; i += threadParams.getThreadCount()) {
+                ownedIds.add(benchmark.boardIds.get(i));
+            }
+            benchmark.createdIds.add(createdIds);
+        }
+
+        private Long nextOwnedId() {
+            nextOwnedIndex = (nextOwnedIndex + 1) % ownedIds.size();
+            return ownedIds.get(nextOwnedIndex);
+        }
+    }
+
+    /**
+     * Runs the benchmark at 1, 2, 4... threads up to the given max threads & prints the throughput of every
+     * parameter combination by threads, with the speedup over a single thread.
+     */
+    public static void main(String[] args) throws RunnerException {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        List<Integer> threadCounts = new ArrayList<>();
+        for (int threads = 1; threads < maxThreads; threads *= 2) {
+            threadCounts.add(threads);
+        }
+        threadCounts.add(maxThreads);
+
+        Map<String, Map<Integer, Double>> throughputs = new TreeMap<>();
+        for (int threads : threadCounts) {
+            Collection<RunResult> results = new Runner(new OptionsBuilder()
+                    .include(WidgetRepositoryContentionBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .shouldFailOnError(false)
+                    .build()).run();
+            for (RunResult result : results) {
+                String parameters = String.format("%-9s read %s, zIndex range %4s", result.getParams().getParam("repositoryType"),
+                        result.getParams().getParam("readRatio"), result.getParams().getParam("zIndexRange"));
+                throughputs.computeIfAbsent(parameters, key -> new TreeMap<>()).put(threads, result.getPrimaryResult().getScore());
+            }
+        }
+
+        StringBuilder header = new StringBuilder(String.format("%-38s", "Throughput(ops/s) by threads"));
+        threadCounts.forEach(threads -> header.append(String.format("%12d", threads)));
+        System.out.println(header.append(String.format("%10s", "speedup")));
+        throughputs.forEach((parameters, throughputByThreads) -> {
+            StringBuilder row = new StringBuilder(String.format("%-38s", parameters));
+            for (int threads : threadCounts) {
+                Double throughput = throughputByThreads.get(threads);
+                row.append(throughput == null ? String.format("%12s", "failed") : String.format("%12.0f", throughput));
+            }
+            Double single = throughputByThreads.get(1);
+            Double max = throughputByThreads.get(maxThreads);
+            row.append(single == null || max == null ? "" : String.format("%9.2fx", max / single));
+            System.out.println(row);
+        });
+    }
+}
@@ -0,0 +1,115 @@
+package com.miro.repository.impl;
+
+import com.miro.model.QueryPlan;
+import com.miro.model.RectangleCoordinates;
+import com.miro.model.Widget;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the listing queries of {@link InMemoryRepository} with the stream pipeline they replaced,
+ * and the planned rectangle query with the scan for a small rectangle,
+ * run with "mvn -Pbenchmark test-compile exec:exec -Dbenchmark.include=ZOrderSnapshot".
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-XX:+UseParallelGC")
+@State(Scope.Benchmark)
+public class ZOrderSnapshotBenchmark {
+    private static final int LIMIT = 500;
+    private static final int BOARD_WIDTH = 10_000;
+
+    @Param({"1000", "100000"})
+    private int boardSize;
+
+    private final Map<Long, Widget> widgetDB = new ConcurrentHashMap<>();
+    private final TreeMap<Integer, Long> zIndexDB = new TreeMap<>();
+    private InMemoryRepository inMemoryRepository;
+    private RectangleCoordinates coordinates;
+    private RectangleCoordinates smallCoordinates;
+
+    @Setup
+    public void setUp() {
+        inMemoryRepository = new InMemoryRepository();
+        inMemoryRepository.clearMaps();
+        Random random = new Random(42);
+        for (int i = 0; i < boardSize; i++) {
+            Widget widget = inMemoryRepository.save(Widget.builder()
+                    .xIndex(random.nextInt(BOARD_WIDTH)).yIndex(random.nextInt(BOARD_WIDTH))
+                    .width(1 + random.nextInt(100)).height(1 + random.nextInt(100))
+                    .build());
+            widgetDB.put(widget.getId(), widget);
+            zIndexDB.put(widget.getZIndex(), widget.getId());
+        }
+        coordinates = RectangleCoordinates.builder().x0(2000).y0(2000).x1(4000).y1(4000).build();
+        smallCoordinates = RectangleCoordinates.builder().x0(5000).y0(5000).x1(5200).y1(5200).build();
+    }
+
+    @Benchmark
+    public List<Widget> streamFindWithLimit() {
+        return zIndexDB.values()
+                .stream()
+                .limit(LIMIT)
+                .map(widgetDB::get)
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<Widget> snapshotFindWithLimit() {
+        return inMemoryRepository.findWithLimit(LIMIT);
+    }
+
+    @Benchmark
+    public List<Widget> streamFindWithCoordinates() {
+        return zIndexDB.values()
+                .stream()
+                .map(widgetDB::get)
+                .filter(this::isInRectangle)
+                .limit(LIMIT)
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<Widget> snapshotFindWithCoordinates() {
+        return inMemoryRepository.findWithCoordinates(coordinates, LIMIT).getWidgets();
+    }
+
+    @Benchmark
+    public List<Widget> scanFindInSmallRectangle() {
+        return inMemoryRepository.findWithCoordinates(smallCoordinates, LIMIT, QueryPlan.Z_ORDER_SCAN);
+    }
+
+    @Benchmark
+    public List<Widget> plannedFindInSmallRectangle() {
+        return inMemoryRepository.findWithCoordinates(smallCoordinates, LIMIT).getWidgets();
+    }
+
+    private boolean isInRectangle(Widget widget) {
+        double halfWidth = (double) widget.getWidth() / 2;
+        double halfHeight = (double) widget.getHeight() / 2;
+
+        return widget.getXIndex() - halfWidth >= coordinates.getX0()
+                && widget.getXIndex() + halfWidth <= coordinates.getX1()
+                && widget.getYIndex() - halfHeight >= coordinates.getY0()
+                && widget.getYIndex() + halfHeight <= coordinates.getY1();
+    }
+}
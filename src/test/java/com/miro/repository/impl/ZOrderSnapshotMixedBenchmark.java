@@ -0,0 +1,82 @@
+package com.miro.repository.impl;
+
+import com.miro.model.RectangleCoordinates;
+import com.miro.model.Widget;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the listing queries of {@link InMemoryRepository} between drags, i.e. position patches, so that the
+ * z-order snapshot is stale for the first read after every write. Every operation is a drag followed by
+ * {@link #readsPerWrite} first page reads, run with "mvn -Pbenchmark test-compile exec:exec -Dbenchmark.include=ZOrderSnapshotMixed".
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-XX:+UseParallelGC")
+@State(Scope.Benchmark)
+public class ZOrderSnapshotMixedBenchmark {
+    private static final int LIMIT = 10;
+    private static final int BOARD_WIDTH = 10_000;
+
+    @Param({"1000", "100000"})
+    private int boardSize;
+
+    @Param({"1", "10", "1000"})
+    private int readsPerWrite;
+
+    private final List<Long> widgetIds = new ArrayList<>();
+    private final Random random = new Random(42);
+    private InMemoryRepository inMemoryRepository;
+    private RectangleCoordinates coordinates;
+
+    @Setup
+    public void setUp() {
+        inMemoryRepository = new InMemoryRepository();
+        inMemoryRepository.clearMaps();
+        for (int i = 0; i < boardSize; i++) {
+            widgetIds.add(inMemoryRepository.save(Widget.builder()
+                    .xIndex(random.nextInt(BOARD_WIDTH)).yIndex(random.nextInt(BOARD_WIDTH))
+                    .width(1 + random.nextInt(100)).height(1 + random.nextInt(100))
+                    .build()).getId());
+        }
+        coordinates = RectangleCoordinates.builder().x0(0).y0(0).x1(BOARD_WIDTH / 2).y1(BOARD_WIDTH / 2).build();
+    }
+
+    @Benchmark
+    public void dragThenFindWithLimit(Blackhole blackhole) {
+        drag();
+        for (int i = 0; i < readsPerWrite; i++) {
+            blackhole.consume(inMemoryRepository.findWithLimit(LIMIT));
+        }
+    }
+
+    @Benchmark
+    public void dragThenFindWithCoordinates(Blackhole blackhole) {
+        drag();
+        for (int i = 0; i < readsPerWrite; i++) {
+            blackhole.consume(inMemoryRepository.findWithCoordinates(coordinates, LIMIT));
+        }
+    }
+
+    private void drag() {
+        Long id = widgetIds.get(random.nextInt(widgetIds.size()));
+        inMemoryRepository.patch(Widget.builder().id(id).xIndex(random.nextInt(BOARD_WIDTH)).build());
+    }
+}
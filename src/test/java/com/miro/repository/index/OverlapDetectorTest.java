@@ -0,0 +1,95 @@
+package com.miro.repository.index;
+
+import com.miro.model.Widget;
+import com.miro.model.WidgetOverlap;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OverlapDetectorTest {
+
+    @Test
+    void findOverlaps_whenWidgetsTouchAtEdge_thenDoNotReportThem() {
+        Widget widget1 = Widget.builder().id(1L).xIndex(0).yIndex(0).width(10).height(10).build();
+        Widget widget2 = Widget.builder().id(2L).xIndex(10).yIndex(0).width(10).height(10).build();
+        Widget widget3 = Widget.builder().id(3L).xIndex(5).yIndex(4).width(3).height(3).build();
+
+        List<WidgetOverlap> overlaps = new ArrayList<>();
+        new OverlapDetector(List.of(widget3, widget2, widget1)).findOverlaps(overlaps::add);
+
+        assertEquals(Set.of(new WidgetOverlap(1L, 3L), new WidgetOverlap(2L, 3L)), new HashSet<>(overlaps));
+        assertEquals(2, overlaps.size());
+        assertFalse(OverlapDetector.overlaps(widget1, widget2));
+    }
+
+    @Test
+    void findOverlaps_whenBoardIsSmall_thenFindSamePairsAsComparingAll() {
+        List<Widget> widgets = createRandomWidgets(500);
+
+        assertEquals(findOverlapsByComparingAll(widgets), findOverlaps(widgets));
+    }
+
+    @Test
+    void findOverlaps_whenBoardIsPartitioned_thenFindSamePairsAsComparingAll() {
+        List<Widget> widgets = createRandomWidgets(OverlapDetector.PARALLEL_THRESHOLD + 1000);
+
+        assertEquals(findOverlapsByComparingAll(widgets), findOverlaps(widgets));
+    }
+
+    @Test
+    void findOverlaps_whenBoardIsPartitioned_thenCallConsumerOneAtATime() {
+        List<Widget> widgets = createRandomWidgets(OverlapDetector.PARALLEL_THRESHOLD + 1000);
+        AtomicBoolean consuming = new AtomicBoolean();
+        AtomicInteger concurrentCalls = new AtomicInteger();
+        List<WidgetOverlap> overlaps = new ArrayList<>();
+
+        new OverlapDetector(widgets).findOverlaps(overlap -> {
+            if (!consuming.compareAndSet(false, true)) {
+                concurrentCalls.incrementAndGet();
+            }
+            overlaps.add(overlap);
+            consuming.set(false);
+        });
+
+        assertEquals(0, concurrentCalls.get());
+        assertEquals(findOverlapsByComparingAll(widgets), new HashSet<>(overlaps));
+    }
+
+    private static Set<WidgetOverlap> findOverlaps(List<Widget> widgets) {
+        List<WidgetOverlap> overlaps = new ArrayList<>();
+        new OverlapDetector(widgets).findOverlaps(overlaps::add);
+        Set<WidgetOverlap> uniqueOverlaps = new HashSet<>(overlaps);
+        assertEquals(overlaps.size(), uniqueOverlaps.size());
+        return uniqueOverlaps;
+    }
+
+    private static Set<WidgetOverlap> findOverlapsByComparingAll(List<Widget> widgets) {
+        Set<WidgetOverlap> overlaps = new HashSet<>();
+        for (int i = 0; i < widgets.size(); i++) {
+            for (int j = i + 1; j < widgets.size(); j++) {
+                if (OverlapDetector.overlaps(widgets.get(i), widgets.get(j))) {
+                    overlaps.add(new WidgetOverlap(widgets.get(i).getId(), widgets.get(j).getId()));
+                }
+            }
+        }
+        return overlaps;
+    }
+
+    private static List<Widget> createRandomWidgets(int count) {
+        Random random = new Random(count);
+        List<Widget> widgets = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            widgets.add(Widget.builder().id((long) i).xIndex(random.nextInt(20_000)).yIndex(random.nextInt(2_000))
+                    .width(1 + random.nextInt(60)).height(1 + random.nextInt(60)).build());
+        }
+        return widgets;
+    }
+}
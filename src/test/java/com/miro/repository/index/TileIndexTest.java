@@ -0,0 +1,280 @@
+package com.miro.repository.index;
+
+import com.miro.model.RectangleCoordinates;
+import com.miro.model.TileSummary;
+import com.miro.model.Widget;
+import com.miro.model.WidgetStats;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TileIndexTest {
+    private static final RectangleCoordinates WHOLE_BOARD = RectangleCoordinates.builder()
+            .x0(-1_000_000).y0(-1_000_000).x1(1_000_000).y1(1_000_000).build();
+
+    private final TileIndex tileIndex = new TileIndex();
+
+    @Test
+    void findTiles_whenWidgetsAreInSameTile_thenAggregateThem() {
+        Widget widget1 = Widget.builder().id(1L).xIndex(10).yIndex(10).zIndex(1).width(4).height(4).build();
+        Widget widget2 = Widget.builder().id(2L).xIndex(50).yIndex(30).zIndex(2).width(10).height(2).build();
+        tileIndex.put(widget1);
+        tileIndex.put(widget2);
+
+        List<TileSummary> tiles = tileIndex.findTiles(WHOLE_BOARD, TileIndex.MAX_LEVEL);
+
+        assertEquals(1, tiles.size());
+        TileSummary tile = tiles.get(0);
+        assertEquals(64, tile.getTileSize());
+        assertEquals(2, tile.getCount());
+        assertEquals(8, tile.getMinX());
+        assertEquals(8, tile.getMinY());
+        assertEquals(55, tile.getMaxX());
+        assertEquals(31, tile.getMaxY());
+        assertEquals(2L, tile.getTopWidgetId());
+    }
+
+    @Test
+    void findTiles_whenWidgetsAreInDifferentTiles_thenSplitThemByLevel() {
+        tileIndex.put(Widget.builder().id(1L).xIndex(-10).yIndex(10).zIndex(1).width(2).height(2).build());
+        tileIndex.put(Widget.builder().id(2L).xIndex(100).yIndex(10).zIndex(2).width(2).height(2).build());
+
+        List<TileSummary> finestTiles = tileIndex.findTiles(WHOLE_BOARD, TileIndex.MAX_LEVEL);
+        assertEquals(List.of(-1, 1), List.of(finestTiles.get(0).getTileX(), finestTiles.get(1).getTileX()));
+
+        List<TileSummary> coarsestTiles = tileIndex.findTiles(WHOLE_BOARD, 0);
+        assertEquals(2, coarsestTiles.size()); // Negative coordinates fall into the tile on the left.
+        assertEquals(-1, coarsestTiles.get(0).getTileX());
+        assertEquals(0, coarsestTiles.get(1).getTileX());
+
+        RectangleCoordinates rightHalf = RectangleCoordinates.builder().x0(0).y0(0).x1(200).y1(200).build();
+        List<TileSummary> rightTiles = tileIndex.findTiles(rightHalf, TileIndex.MAX_LEVEL);
+        assertEquals(1, rightTiles.size());
+        assertEquals(2L, rightTiles.get(0).getTopWidgetId());
+    }
+
+    @Test
+    void getStats_whenRectangleIsGiven_thenCountSameWidgetsWithContainmentCheck() {
+        Random random = new Random(7);
+        List<Widget> widgets = new ArrayList<>();
+        for (long id = 0; id < 2000; id++) {
+            Widget widget = Widget.builder().id(id).xIndex(random.nextInt(4000) - 2000).yIndex(random.nextInt(4000) - 2000)
+                    .zIndex((int) id).width(1 + random.nextInt(200)).height(1 + random.nextInt(200)).build();
+            widgets.add(widget);
+            tileIndex.put(widget);
+        }
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(-700).y0(-300).x1(900).y1(1100).build();
+
+        WidgetStats stats = tileIndex.getStats(coordinates);
+
+        assertEquals(2000, stats.getTotalCount());
+        assertEquals(widgets.stream().filter(coordinates::contains).count(), stats.getCountInRectangle());
+    }
+
+    @Test
+    void getStats_whenWidgetsExist_thenReturnBoardExtent() {
+        tileIndex.put(Widget.builder().id(1L).xIndex(-10).yIndex(10).zIndex(1).width(4).height(2).build());
+        tileIndex.put(Widget.builder().id(2L).xIndex(5_000_000).yIndex(20).zIndex(2).width(3).height(2).build());
+
+        WidgetStats stats = tileIndex.getStats(null);
+
+        assertEquals(2, stats.getTotalCount());
+        assertNull(stats.getCountInRectangle());
+        assertEquals(-12, stats.getMinX());
+        assertEquals(9, stats.getMinY());
+        assertEquals(5_000_002, stats.getMaxX());
+        assertEquals(21, stats.getMaxY());
+    }
+
+    @Test
+    void getStats_whenBoardIsEmpty_thenReturnNoExtent() {
+        WidgetStats stats = tileIndex.getStats(WHOLE_BOARD);
+
+        assertEquals(0, stats.getTotalCount());
+        assertEquals(0L, stats.getCountInRectangle());
+        assertNull(stats.getMinX());
+    }
+
+    @Test
+    void estimateCountInRectangle_whenWidgetsAreSpreadEvenly_thenStayCloseToCount() {
+        for (int i = 0; i < 10_000; i++) {
+            tileIndex.put(Widget.builder().id((long) i).xIndex(10 * (i % 100)).yIndex(10 * (i / 100))
+                    .zIndex(i).width(4).height(4).build());
+        }
+
+        assertEquals(10_000, tileIndex.estimateCountInRectangle(WHOLE_BOARD));
+        RectangleCoordinates quarter = RectangleCoordinates.builder().x0(0).y0(0).x1(500).y1(500).build();
+        long count = tileIndex.getStats(quarter).getCountInRectangle();
+        assertEquals(count, tileIndex.estimateCountInRectangle(quarter), count * 0.25);
+        RectangleCoordinates empty = RectangleCoordinates.builder().x0(2000).y0(2000).x1(3000).y1(3000).build();
+        assertEquals(0, tileIndex.estimateCountInRectangle(empty));
+    }
+
+    @Test
+    void findNearest_whenWidgetsAreRandom_thenReturnSameWidgetsAsSorting() {
+        Random random = new Random(11);
+        List<Widget> widgets = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            Widget widget = Widget.builder().id((long) i).xIndex(random.nextInt(20_000) - 10_000)
+                    .yIndex(random.nextInt(20_000) - 10_000).zIndex(i).width(10).height(10).build();
+            widgets.add(widget);
+            tileIndex.put(widget);
+        }
+
+        for (int i = 0; i < 20; i++) {
+            int x = random.nextInt(30_000) - 15_000;
+            int y = random.nextInt(30_000) - 15_000;
+            List<Widget> expected = new ArrayList<>(widgets);
+            expected.sort(Comparator.comparingLong((Widget widget) -> TileIndex.getDistanceSquared(widget, x, y))
+                    .thenComparing(Widget::getZIndex, Comparator.reverseOrder()));
+
+            assertEquals(expected.subList(0, 15), tileIndex.findNearest(x, y, 15));
+        }
+    }
+
+    @Test
+    void findNearest_whenDistancesAreEqual_thenReturnTopMostFirst() {
+        Widget widget1 = Widget.builder().id(1L).xIndex(-100).yIndex(0).zIndex(1).width(2).height(2).build();
+        Widget widget2 = Widget.builder().id(2L).xIndex(100).yIndex(0).zIndex(2).width(2).height(2).build();
+        Widget widget3 = Widget.builder().id(3L).xIndex(0).yIndex(500).zIndex(3).width(2).height(2).build();
+        List.of(widget1, widget2, widget3).forEach(tileIndex::put);
+
+        assertEquals(List.of(widget2, widget1), tileIndex.findNearest(0, 0, 2));
+        assertEquals(List.of(widget2, widget1, widget3), tileIndex.findNearest(0, 0, 5));
+        assertEquals(List.of(), new TileIndex().findNearest(0, 0, 5));
+    }
+
+    @Test
+    void findOverlapping_whenWidgetsAreRandom_thenReturnSameWidgetsAsComparingAll() {
+        Random random = new Random(13);
+        List<Widget> widgets = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            Widget widget = Widget.builder().id((long) i).xIndex(random.nextInt(4_000) - 2_000)
+                    .yIndex(random.nextInt(4_000) - 2_000).zIndex(i).width(1 + random.nextInt(200)).height(1 + random.nextInt(200)).build();
+            widgets.add(widget);
+            tileIndex.put(widget);
+        }
+
+        for (Widget widget : widgets.subList(0, 50)) {
+            List<Widget> expected = new ArrayList<>();
+            for (Widget otherWidget : widgets) {
+                if (otherWidget != widget && OverlapDetector.overlaps(widget, otherWidget)) {
+                    expected.add(otherWidget);
+                }
+            }
+            List<Widget> overlapping = tileIndex.findOverlapping(widget);
+            overlapping.sort(Comparator.comparing(Widget::getZIndex));
+            assertEquals(expected, overlapping);
+        }
+    }
+
+    @Test
+    void remove_whenTopWidgetIsRemoved_thenAggregateRemainingWidgets() {
+        Widget widget1 = Widget.builder().id(1L).xIndex(10).yIndex(10).zIndex(1).width(2).height(2).build();
+        Widget widget2 = Widget.builder().id(2L).xIndex(20).yIndex(20).zIndex(2).width(2).height(2).build();
+        tileIndex.put(widget1);
+        tileIndex.put(widget2);
+
+        tileIndex.remove(2L);
+
+        TileSummary tile = tileIndex.findTiles(WHOLE_BOARD, 0).get(0);
+        assertEquals(1, tile.getCount());
+        assertEquals(11, tile.getMaxX());
+        assertEquals(1L, tile.getTopWidgetId());
+
+        tileIndex.remove(1L);
+        assertTrue(tileIndex.findTiles(WHOLE_BOARD, 0).isEmpty());
+    }
+
+    @Test
+    void put_whenWidgetIsMoved_thenMoveItToNewTile() {
+        Widget widget = Widget.builder().id(1L).xIndex(10).yIndex(10).zIndex(1).width(2).height(2).build();
+        tileIndex.put(widget);
+
+        tileIndex.put(widget.toBuilder().xIndex(1000).build());
+
+        List<TileSummary> tiles = tileIndex.findTiles(WHOLE_BOARD, TileIndex.MAX_LEVEL);
+        assertEquals(1, tiles.size());
+        assertEquals(15, tiles.get(0).getTileX());
+    }
+
+    @Test
+    void put_whenOnlyZIndexChanges_thenUpdateTopWidget() {
+        Widget widget1 = Widget.builder().id(1L).xIndex(10).yIndex(10).zIndex(1).width(2).height(2).build();
+        Widget widget2 = Widget.builder().id(2L).xIndex(20).yIndex(20).zIndex(2).width(2).height(2).build();
+        tileIndex.put(widget1);
+        tileIndex.put(widget2);
+
+        tileIndex.put(widget2.toBuilder().zIndex(0).build());
+        assertEquals(1L, tileIndex.findTiles(WHOLE_BOARD, 0).get(0).getTopWidgetId());
+        assertEquals(0, tileIndex.findNearest(20, 20, 1).get(0).getZIndex());
+
+        tileIndex.put(widget2.toBuilder().zIndex(5).build());
+        assertEquals(2L, tileIndex.findTiles(WHOLE_BOARD, 0).get(0).getTopWidgetId());
+        assertEquals(2, tileIndex.findTiles(WHOLE_BOARD, 0).get(0).getCount());
+    }
+
+    @Test
+    void put_whenWidgetsAreChangedRandomly_thenKeepSameSummariesAsIndexingAgain() {
+        Random random = new Random(42);
+        List<Widget> widgets = new ArrayList<>();
+        for (long id = 0; id < 300; id++) {
+            widgets.add(randomWidget(random, id));
+            tileIndex.put(widgets.get((int) id));
+        }
+        for (int i = 0; i < 2000; i++) {
+            int index = random.nextInt(widgets.size());
+            Widget widget = widgets.get(index);
+            switch (random.nextInt(3)) {
+                case 0:
+                    widget = widget.toBuilder().zIndex(random.nextInt(1000)).build();
+                    break;
+                case 1:
+                    widget = randomWidget(random, widget.getId());
+                    break;
+                default:
+                    tileIndex.remove(widget.getId());
+            }
+            widgets.set(index, widget);
+            tileIndex.put(widget);
+        }
+
+        TileIndex expectedIndex = new TileIndex();
+        widgets.forEach(expectedIndex::put);
+        assertEquals(expectedIndex.getStats(WHOLE_BOARD), tileIndex.getStats(WHOLE_BOARD));
+        for (int level = 0; level <= TileIndex.MAX_LEVEL; level++) {
+            List<TileSummary> expectedTiles = expectedIndex.findTiles(WHOLE_BOARD, level);
+            List<TileSummary> tiles = tileIndex.findTiles(WHOLE_BOARD, level);
+            assertEquals(expectedTiles.size(), tiles.size());
+            for (int i = 0; i < tiles.size(); i++) { // Top-most widgets may differ only at equal zIndexes.
+                TileSummary expectedTile = expectedTiles.get(i);
+                TileSummary tile = tiles.get(i);
+                assertEquals(List.of(expectedTile.getTileX(), expectedTile.getTileY(), expectedTile.getMinX(), expectedTile.getMinY(),
+                        expectedTile.getMaxX(), expectedTile.getMaxY()),
+                        List.of(tile.getTileX(), tile.getTileY(), tile.getMinX(), tile.getMinY(), tile.getMaxX(), tile.getMaxY()));
+                assertEquals(expectedTile.getCount(), tile.getCount());
+                assertEquals(getZIndex(widgets, expectedTile.getTopWidgetId()), getZIndex(widgets, tile.getTopWidgetId()));
+            }
+        }
+    }
+
+    private static Widget randomWidget(Random random, long id) {
+        return Widget.builder().id(id).xIndex(random.nextInt(20_000) - 10_000).yIndex(random.nextInt(20_000) - 10_000)
+                .zIndex(random.nextInt(1000)).width(1 + random.nextInt(100)).height(1 + random.nextInt(100)).build();
+    }
+
+    private static int getZIndex(List<Widget> widgets, Long id) {
+        return widgets.stream().filter(widget -> widget.getId().equals(id)).findFirst().orElseThrow().getZIndex();
+    }
+
+    @Test
+    void findTiles_whenLevelIsNotValid_thenThrowIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> tileIndex.findTiles(WHOLE_BOARD, TileIndex.MAX_LEVEL + 1));
+        assertThrows(IllegalArgumentException.class, () -> tileIndex.findTiles(WHOLE_BOARD, -1));
+    }
+}
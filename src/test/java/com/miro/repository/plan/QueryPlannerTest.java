@@ -0,0 +1,36 @@
+package com.miro.repository.plan;
+
+import com.miro.model.QueryPlan;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class QueryPlannerTest {
+    private final QueryPlanner queryPlanner = new QueryPlanner(1, 4, 1, 100);
+
+    @Test
+    void choose_whenFewWidgetsMatch_thenProbe() {
+        assertEquals(QueryPlan.SPATIAL_PROBE, queryPlanner.choose(1_000_000, 20, 20, 10));
+    }
+
+    @Test
+    void choose_whenManyWidgetsMatchWithSmallLimit_thenScan() {
+        assertEquals(QueryPlan.Z_ORDER_SCAN, queryPlanner.choose(1_000_000, 500_000, 500_000, 10));
+    }
+
+    @Test
+    void choose_whenNothingMatches_thenProbe() {
+        assertEquals(QueryPlan.SPATIAL_PROBE, queryPlanner.choose(1_000_000, 0, 0, 10));
+    }
+
+    @Test
+    void choose_whenBoardIsSmallerThanProbeSetup_thenScan() {
+        assertEquals(QueryPlan.Z_ORDER_SCAN, queryPlanner.choose(50, 0, 0, 10));
+    }
+
+    @Test
+    void getScanCost_whenMatchesAreEven_thenExpectLimitTimesSpacing() {
+        assertEquals(1_000, queryPlanner.getScanCost(100_000, 1_000, 10));
+        assertEquals(100_000, queryPlanner.getScanCost(100_000, 0, 10));
+    }
+}
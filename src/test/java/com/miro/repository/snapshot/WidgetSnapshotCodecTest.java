@@ -0,0 +1,73 @@
+package com.miro.repository.snapshot;
+
+import com.miro.model.Widget;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class WidgetSnapshotCodecTest {
+    private static final List<Widget> DUMMY_WIDGET_LIST = List.of(
+            Widget.builder().id(1L).xIndex(10).yIndex(20).zIndex(-3).width(30).height(40).updateTime(LocalDateTime.now()).build(),
+            Widget.builder().id(7L).xIndex(-10).yIndex(0).zIndex(5).width(3).height(4).build()
+    );
+
+    @Test
+    void read_whenSnapshotIsWritten_thenReturnSameWidgets() throws IOException {
+        byte[] snapshot = write(DUMMY_WIDGET_LIST);
+
+        assertEquals(12 + DUMMY_WIDGET_LIST.size() * WidgetSnapshotCodec.RECORD_SIZE + 4, snapshot.length);
+        assertEquals(DUMMY_WIDGET_LIST, WidgetSnapshotCodec.read(new ByteArrayInputStream(snapshot)));
+    }
+
+    @Test
+    void read_whenSnapshotIsCorrupted_thenThrowIllegalArgumentException() throws IOException {
+        byte[] snapshot = write(DUMMY_WIDGET_LIST);
+        snapshot[20] ^= 1;
+
+        assertThrows(IllegalArgumentException.class, () -> WidgetSnapshotCodec.read(new ByteArrayInputStream(snapshot)));
+    }
+
+    @Test
+    void read_whenSnapshotIsTruncated_thenThrowIllegalArgumentException() throws IOException {
+        byte[] snapshot = write(DUMMY_WIDGET_LIST);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> WidgetSnapshotCodec.read(new ByteArrayInputStream(snapshot, 0, snapshot.length - 10)));
+    }
+
+    @Test
+    void read_whenRecordCountIsTooLarge_thenThrowIllegalArgumentExceptionWithoutAllocatingIt() throws IOException {
+        byte[] snapshot = write(DUMMY_WIDGET_LIST);
+        ByteBuffer.wrap(snapshot).putInt(8, Integer.MAX_VALUE);
+
+        assertThrows(IllegalArgumentException.class, () -> WidgetSnapshotCodec.read(new ByteArrayInputStream(snapshot)));
+    }
+
+    @Test
+    void read_whenRecordsAreNotSortedByZIndex_thenThrowIllegalArgumentException() throws IOException {
+        byte[] snapshot = write(List.of(DUMMY_WIDGET_LIST.get(1), DUMMY_WIDGET_LIST.get(0)));
+
+        assertThrows(IllegalArgumentException.class, () -> WidgetSnapshotCodec.read(new ByteArrayInputStream(snapshot)));
+    }
+
+    @Test
+    void read_whenWidgetIdsAreDuplicated_thenThrowIllegalArgumentException() throws IOException {
+        byte[] snapshot = write(List.of(DUMMY_WIDGET_LIST.get(0), DUMMY_WIDGET_LIST.get(0).toBuilder().zIndex(10).build()));
+
+        assertThrows(IllegalArgumentException.class, () -> WidgetSnapshotCodec.read(new ByteArrayInputStream(snapshot)));
+    }
+
+    private byte[] write(List<Widget> widgets) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        WidgetSnapshotCodec.write(outputStream, widgets);
+        return outputStream.toByteArray();
+    }
+}
@@ -0,0 +1,125 @@
+package com.miro.service.impl;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingleFlightTest {
+    private static final int CALLER_COUNT = 8;
+
+    private final SingleFlight<String, Object> singleFlight = new SingleFlight<>();
+    private final ExecutorService executorService = Executors.newFixedThreadPool(CALLER_COUNT);
+
+    @AfterEach
+    void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    void execute_whenIdenticalCallsAreInFlight_thenShareOneCall() throws Exception {
+        Object result = new Object();
+        AtomicInteger callCount = new AtomicInteger();
+        CountDownLatch releaseCall = new CountDownLatch(1);
+
+        List<Future<Object>> futures = new ArrayList<>();
+        for (int i = 0; i < CALLER_COUNT; i++) {
+            futures.add(executorService.submit(() -> singleFlight.execute("key", () -> {
+                callCount.incrementAndGet();
+                await(releaseCall);
+                return result;
+            })));
+        }
+        waitForCoalescedCount(CALLER_COUNT - 1);
+        releaseCall.countDown();
+
+        for (Future<Object> future : futures) {
+            assertSame(result, future.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, callCount.get());
+        assertEquals(1, singleFlight.getExecutedCount());
+        assertEquals(CALLER_COUNT - 1, singleFlight.getCoalescedCount());
+    }
+
+    @Test
+    void execute_whenInFlightCallFails_thenThrowSameExceptionToWaitingCalls() throws Exception {
+        IllegalStateException exception = new IllegalStateException("failed");
+        CountDownLatch releaseCall = new CountDownLatch(1);
+
+        Future<Object> leader = executorService.submit(() -> singleFlight.execute("key", () -> {
+            await(releaseCall);
+            throw exception;
+        }));
+        waitForExecutedCount(1);
+        Future<Object> follower = executorService.submit(() -> singleFlight.execute("key", Object::new));
+        waitForCoalescedCount(1);
+        releaseCall.countDown();
+
+        assertSame(exception, assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS)).getCause());
+        assertSame(exception, assertThrows(ExecutionException.class, () -> follower.get(5, TimeUnit.SECONDS)).getCause());
+    }
+
+    @Test
+    void execute_whenCallsAreNotConcurrent_thenExecuteEach() {
+        Object firstResult = singleFlight.execute("key", Object::new);
+        Object secondResult = singleFlight.execute("key", Object::new);
+
+        assertTrue(firstResult != secondResult);
+        assertEquals(2, singleFlight.getExecutedCount());
+        assertEquals(0, singleFlight.getCoalescedCount());
+    }
+
+    @Test
+    void execute_whenKeysDiffer_thenDoNotShareCall() throws Exception {
+        CountDownLatch releaseCall = new CountDownLatch(1);
+
+        Future<Object> first = executorService.submit(() -> singleFlight.execute("first", () -> {
+            await(releaseCall);
+            return "first";
+        }));
+        waitForExecutedCount(1);
+        Object second = singleFlight.execute("second", () -> "second");
+        releaseCall.countDown();
+
+        assertEquals("first", first.get(5, TimeUnit.SECONDS));
+        assertEquals("second", second);
+        assertEquals(0, singleFlight.getCoalescedCount());
+    }
+
+    private void waitForExecutedCount(long count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (singleFlight.getExecutedCount() < count && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, singleFlight.getExecutedCount());
+    }
+
+    private void waitForCoalescedCount(long count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (singleFlight.getCoalescedCount() < count && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, singleFlight.getCoalescedCount());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
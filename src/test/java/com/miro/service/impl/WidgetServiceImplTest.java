@@ -1,20 +1,45 @@
 package com.miro.service.impl;
 
+import com.miro.model.QueryPlan;
 import com.miro.model.RectangleCoordinates;
+import com.miro.model.TileSummary;
 import com.miro.model.Widget;
+import com.miro.model.WidgetChanges;
+import com.miro.model.WidgetOverlap;
+import com.miro.model.WidgetQueryResult;
+import com.miro.model.WidgetStats;
+import com.miro.model.ZIndexCompactionResult;
+import com.miro.model.ZIndexStats;
 import com.miro.repository.WidgetRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 @ExtendWith(MockitoExtension.class)
@@ -61,6 +86,24 @@ class WidgetServiceImplTest {
         verify(mockWidgetRepository).deleteById(DUMMY_WIDGET.getId());
     }
 
+    @Test
+    void deleteInRectangle_whenCoordinatesProvided_thenReturnDeletedCount() {
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(1).y0(2).x1(3).y1(4).build();
+
+        //mock
+        given(mockWidgetRepository.deleteInRectangle(coordinates)).willReturn(3);
+
+        assertEquals(3, widgetService.deleteInRectangle(coordinates));
+    }
+
+    @Test
+    void deleteInZIndexRange_whenRangeProvided_thenReturnDeletedCount() {
+        //mock
+        given(mockWidgetRepository.deleteInZIndexRange(-5, 5)).willReturn(2);
+
+        assertEquals(2, widgetService.deleteInZIndexRange(-5, 5));
+    }
+
     @Test
     void findByWidgetId_whenWidgetIdIsProvided_thenReturnWidget() {
         //mock
@@ -86,13 +129,194 @@ class WidgetServiceImplTest {
     @Test
     void findWithLimit_whenCoordinatesAreProvided_thenReturnWidgets() {
         RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(1).y0(2).x1(3).y1(4).build();
+        WidgetQueryResult queryResult = WidgetQueryResult.builder()
+                .widgets(Collections.singletonList(DUMMY_WIDGET)).plan(QueryPlan.Z_ORDER_SCAN).build();
 
         //mock
-        given(mockWidgetRepository.findWithCoordinates(coordinates, DUMMY_VALID_LIMIT)).willReturn(Collections.singletonList(DUMMY_WIDGET));
+        given(mockWidgetRepository.findWithCoordinates(coordinates, DUMMY_VALID_LIMIT)).willReturn(queryResult);
 
-        List<Widget> foundWidgets = widgetService.findWithCoordinates(coordinates, DUMMY_VALID_LIMIT);
+        WidgetQueryResult foundWidgets = widgetService.findWithCoordinates(coordinates, DUMMY_VALID_LIMIT);
 
         verify(mockWidgetRepository).findWithCoordinates(coordinates, DUMMY_VALID_LIMIT);
-        assertEquals(foundWidgets, Collections.singletonList(DUMMY_WIDGET));
+        assertEquals(foundWidgets, queryResult);
+    }
+
+    @Test
+    void bindTo_whenRectangleQueriesAreExecuted_thenCountThemByPlan() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        widgetService.bindTo(meterRegistry);
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(1).y0(2).x1(3).y1(4).build();
+        WidgetQueryResult queryResult = WidgetQueryResult.builder()
+                .widgets(Collections.singletonList(DUMMY_WIDGET)).plan(QueryPlan.SPATIAL_PROBE).build();
+
+        //mock
+        given(mockWidgetRepository.findWithCoordinates(coordinates, DUMMY_VALID_LIMIT)).willReturn(queryResult);
+
+        widgetService.findWithCoordinates(coordinates, DUMMY_VALID_LIMIT);
+
+        assertEquals(1, meterRegistry.get("widget.query.plans").tags("plan", "SPATIAL_PROBE").functionCounter().count());
+        assertEquals(0, meterRegistry.get("widget.query.plans").tags("plan", "Z_ORDER_SCAN").functionCounter().count());
+    }
+
+    @Test
+    void findWithLimit_whenWriteCompletedDuringInFlightRead_thenDoNotShareInFlightRead() throws Exception {
+        List<Widget> widgetsBeforeWrite = Collections.emptyList();
+        List<Widget> widgetsAfterWrite = Collections.singletonList(DUMMY_WIDGET);
+        CountDownLatch readStarted = new CountDownLatch(1);
+        CountDownLatch releaseRead = new CountDownLatch(1);
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+
+        //mock
+        given(mockWidgetRepository.findWithLimit(DUMMY_VALID_LIMIT)).willAnswer(invocation -> {
+            readStarted.countDown();
+            releaseRead.await(5, TimeUnit.SECONDS);
+            return widgetsBeforeWrite;
+        }).willReturn(widgetsAfterWrite);
+        given(mockWidgetRepository.save(DUMMY_WIDGET_WITHOUT_ID)).willReturn(DUMMY_WIDGET);
+
+        try {
+            Future<List<Widget>> inFlightRead = executorService.submit(() -> widgetService.findWithLimit(DUMMY_VALID_LIMIT));
+            assertTrue(readStarted.await(5, TimeUnit.SECONDS));
+            widgetService.createWidget(DUMMY_WIDGET_WITHOUT_ID);
+
+            assertEquals(widgetsAfterWrite, widgetService.findWithLimit(DUMMY_VALID_LIMIT));
+            releaseRead.countDown();
+            assertEquals(widgetsBeforeWrite, inFlightRead.get(5, TimeUnit.SECONDS));
+        } finally {
+            executorService.shutdownNow();
+        }
+        verify(mockWidgetRepository, times(2)).findWithLimit(DUMMY_VALID_LIMIT);
+    }
+
+    @Test
+    void bindTo_whenReadsAreExecuted_thenCountThemByOperation() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        widgetService.bindTo(meterRegistry);
+
+        //mock
+        given(mockWidgetRepository.findById(DUMMY_WIDGET.getId())).willReturn(DUMMY_WIDGET);
+
+        widgetService.findWidgetById(DUMMY_WIDGET.getId());
+        widgetService.findWidgetById(DUMMY_WIDGET.getId());
+
+        assertEquals(2, meterRegistry.get("widget.reads")
+                .tags("operation", "findById", "outcome", "executed").functionCounter().count());
+        assertEquals(0, meterRegistry.get("widget.reads")
+                .tags("operation", "findById", "outcome", "coalesced").functionCounter().count());
+    }
+
+    @Test
+    void findNearest_whenCalled_thenReturnRepositoryWidgets() {
+        //mock
+        given(mockWidgetRepository.findNearest(5, 6, 3)).willReturn(Collections.singletonList(DUMMY_WIDGET));
+
+        assertEquals(Collections.singletonList(DUMMY_WIDGET), widgetService.findNearest(5, 6, 3));
+    }
+
+    @Test
+    void findOverlaps_whenRepositoryFindsOverlaps_thenPassThemToConsumer() {
+        WidgetOverlap overlap = new WidgetOverlap(1L, 2L);
+
+        //mock
+        doAnswer(invocation -> {
+            Consumer<WidgetOverlap> consumer = invocation.getArgument(0);
+            consumer.accept(overlap);
+            return null;
+        }).when(mockWidgetRepository).findOverlaps(any());
+
+        List<WidgetOverlap> overlaps = new ArrayList<>();
+        widgetService.findOverlaps(overlaps::add);
+
+        assertEquals(List.of(overlap), overlaps);
+    }
+
+    @Test
+    void findOverlapping_whenCalled_thenReturnRepositoryWidgets() {
+        //mock
+        given(mockWidgetRepository.findOverlapping(1L)).willReturn(Collections.singletonList(DUMMY_WIDGET));
+
+        assertEquals(Collections.singletonList(DUMMY_WIDGET), widgetService.findOverlapping(1L));
+    }
+
+    @Test
+    void findTiles_whenCalled_thenReturnRepositoryTiles() {
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(1).y0(2).x1(3).y1(4).build();
+        List<TileSummary> tiles = List.of(TileSummary.builder().level(3).count(2).topWidgetId(1L).build());
+
+        //mock
+        given(mockWidgetRepository.findTiles(coordinates, 3)).willReturn(tiles);
+
+        assertEquals(tiles, widgetService.findTiles(coordinates, 3));
+    }
+
+    @Test
+    void getStats_whenCalled_thenReturnRepositoryStats() {
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(1).y0(2).x1(3).y1(4).build();
+        WidgetStats stats = WidgetStats.builder().totalCount(5).countInRectangle(2L).minZIndex(1).maxZIndex(9).build();
+
+        //mock
+        given(mockWidgetRepository.getStats(coordinates)).willReturn(stats);
+
+        assertEquals(stats, widgetService.getStats(coordinates));
+    }
+
+    @Test
+    void findChangesSince_whenCalled_thenReturnRepositoryChanges() {
+        RectangleCoordinates coordinates = RectangleCoordinates.builder().x0(1).y0(2).x1(3).y1(4).build();
+        WidgetChanges widgetChanges = WidgetChanges.builder().version(7).updated(List.of(DUMMY_WIDGET)).deleted(List.of(2L)).build();
+
+        //mock
+        given(mockWidgetRepository.findChangesSince(5, coordinates)).willReturn(widgetChanges);
+
+        assertEquals(widgetChanges, widgetService.findChangesSince(5, coordinates));
+    }
+
+    @Test
+    void exportSnapshot_whenCalled_thenWriteSnapshotToFile() throws Exception {
+        Path snapshotFile = widgetService.exportSnapshot();
+
+        assertTrue(Files.exists(snapshotFile));
+        verify(mockWidgetRepository).exportSnapshot(any(OutputStream.class));
+        Files.delete(snapshotFile);
+    }
+
+    @Test
+    void importSnapshot_whenSnapshotIsProvided_thenReturnImportedWidgetCount() {
+        InputStream snapshot = new ByteArrayInputStream(new byte[0]);
+
+        //mock
+        given(mockWidgetRepository.importSnapshot(snapshot)).willReturn(3);
+
+        assertEquals(3, widgetService.importSnapshot(snapshot));
+    }
+
+    @Test
+    void compactZIndexes_whenSpacingIsProvided_thenReturnCompactionResult() {
+        ZIndexCompactionResult compactionResult = ZIndexCompactionResult.builder()
+                .applied(true)
+                .before(ZIndexStats.builder().count(2).adjacentCount(1).build())
+                .after(ZIndexStats.builder().count(2).build())
+                .build();
+
+        //mock
+        given(mockWidgetRepository.compactZIndexes(10)).willReturn(compactionResult);
+
+        assertEquals(compactionResult, widgetService.compactZIndexes(10));
+    }
+
+    @Test
+    void moveAbove_whenWidgetIdsAreProvided_thenReturnMovedWidget() {
+        //mock
+        given(mockWidgetRepository.moveAbove(DUMMY_WIDGET.getId(), 2L)).willReturn(DUMMY_WIDGET);
+
+        assertEquals(DUMMY_WIDGET, widgetService.moveAbove(DUMMY_WIDGET.getId(), 2L));
+    }
+
+    @Test
+    void patchWidget_whenWidgetIsValid_thenReturnPatchedWidget() {
+        //mock
+        given(mockWidgetRepository.patch(DUMMY_WIDGET)).willReturn(DUMMY_WIDGET);
+
+        assertEquals(DUMMY_WIDGET, widgetService.patchWidget(DUMMY_WIDGET));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,31 @@
+package com.miro.startup;
+
+import com.miro.controller.WidgetController;
+import com.miro.maintenance.ZIndexCompactionTask;
+import com.miro.repository.impl.InMemoryRepository;
+import com.miro.repository.impl.ReplicaWidgetRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StartupConfigurationTest {
+    private final LazyInitializationExcludeFilter excludeFilter = StartupConfiguration.eagerWidgetBeans();
+
+    @Test
+    void eagerWidgetBeans_whenBeanLoadsWidgetsOrIsScheduled_thenExcludeFromLazyInitialization() {
+        assertTrue(isExcluded(InMemoryRepository.class));
+        assertTrue(isExcluded(ReplicaWidgetRepository.class));
+        assertTrue(isExcluded(ZIndexCompactionTask.class));
+    }
+
+    @Test
+    void eagerWidgetBeans_whenBeanServesRequests_thenInitializeLazily() {
+        assertFalse(isExcluded(WidgetController.class));
+    }
+
+    private boolean isExcluded(Class<?> beanType) {
+        return excludeFilter.isExcluded(beanType.getSimpleName(), new RootBeanDefinition(beanType), beanType);
+    }
+}
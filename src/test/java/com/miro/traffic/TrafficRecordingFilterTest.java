@@ -0,0 +1,128 @@
+package com.miro.traffic;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.miro.controller.WidgetController;
+import com.miro.exception.CustomExceptionHandler;
+import com.miro.model.CreateWidgetRequest;
+import com.miro.model.PatchWidgetRequest;
+import com.miro.model.UpdateWidgetRequest;
+import com.miro.model.Widget;
+import com.miro.repository.id.AtomicLongIdBlockSource;
+import com.miro.repository.id.BlockIdAllocator;
+import com.miro.repository.impl.InMemoryRepository;
+import com.miro.service.WidgetService;
+import com.miro.service.impl.WidgetServiceImpl;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.json.JsonTest;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.ByteArrayHttpMessageConverter;
+import org.springframework.http.converter.StringHttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@JsonTest
+class TrafficRecordingFilterTest {
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @TempDir
+    Path tempDirectory;
+
+    @Test
+    void replay_whenTraceIsRecorded_thenReachSameBoard() throws Exception {
+        Path traceFile = tempDirectory.resolve("traffic.trace");
+        WidgetService recordedService = new WidgetServiceImpl(new InMemoryRepository());
+        recordedService.createWidget(Widget.builder().xIndex(0).yIndex(0).zIndex(1).width(10).height(10).build());
+        TrafficRecordingFilter filter = new TrafficRecordingFilter(recordedService, objectMapper, true, traceFile.toString(), 1024);
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        filter.bindTo(meterRegistry);
+        filter.start();
+        MockMvc mockMvc = buildMockMvc(recordedService, filter);
+
+        long id1 = create(mockMvc, 5);
+        long id2 = create(mockMvc, 5);
+        mockMvc.perform(patch("/v1/widgets/" + id1).contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsBytes(PatchWidgetRequest.builder().xIndex(50).build())))
+                .andExpect(status().isOk());
+        mockMvc.perform(put("/v1/widgets").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsBytes(UpdateWidgetRequest.builder()
+                        .id(id2).xIndex(7).yIndex(8).zIndex(3).width(4).height(5).build())))
+                .andExpect(status().isOk());
+        mockMvc.perform(post("/v1/widgets/" + id1 + "/below/" + id2)).andExpect(status().isOk());
+        mockMvc.perform(post("/v1/widgets/" + id2 + "/to-front")).andExpect(status().isOk());
+        mockMvc.perform(get("/v1/widgets/nearest?x=1&y=1&k=2")).andExpect(status().isOk());
+        mockMvc.perform(get("/v1/widgets/12345")).andExpect(status().isNotFound());
+        mockMvc.perform(post("/v1/widgets").contentType(MediaType.APPLICATION_JSON)
+                .content(new byte[2048])).andExpect(status().isBadRequest()); // Truncated
+        mockMvc.perform(delete("/v1/widgets/" + create(mockMvc, 2))).andExpect(status().isOk());
+        filter.destroy();
+
+        assertEquals(11, meterRegistry.get("widget.traffic-recorder.records").functionCounter().count());
+        WidgetService replayedService = new WidgetServiceImpl(new InMemoryRepository(new BlockIdAllocator(reservedUpTo(999))));
+        TrafficReplay replay = new TrafficReplay(buildMockMvc(replayedService, null), replayedService, objectMapper);
+        TrafficReplay.Result result;
+        try (InputStream traceStream = Files.newInputStream(traceFile);
+             TrafficTraceReader reader = new TrafficTraceReader(traceStream)) {
+            result = replay.replay(reader, false);
+        }
+
+        assertEquals(10, result.getRequests());
+        assertEquals(1, result.getSkipped());
+        assertEquals(0, result.getStatusMismatches());
+        assertEquals(10, result.getLatencies().getTotalCount());
+        assertEquals(TrafficReplay.getBoardChecksum(recordedService), result.getBoardChecksum());
+        assertEquals(3, replayedService.findWithLimit(Integer.MAX_VALUE).size());
+        assertTrue(replayedService.findWithLimit(Integer.MAX_VALUE).stream().anyMatch(widget -> widget.getId() >= 1000));
+    }
+
+    @Test
+    void doFilter_whenDisabled_thenDontRecord() throws Exception {
+        Path traceFile = tempDirectory.resolve("traffic.trace");
+        WidgetService widgetService = new WidgetServiceImpl(new InMemoryRepository());
+        TrafficRecordingFilter filter = new TrafficRecordingFilter(widgetService, objectMapper, false, traceFile.toString(), 1024);
+        filter.start();
+
+        create(buildMockMvc(widgetService, filter), 1);
+        filter.destroy();
+
+        assertFalse(Files.exists(traceFile));
+        assertEquals(0, filter.getTraceSize());
+    }
+
+    private long create(MockMvc mockMvc, int zIndex) throws Exception {
+        MvcResult result = mockMvc.perform(post("/v1/widgets").contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsBytes(CreateWidgetRequest.builder()
+                        .xIndex(zIndex).yIndex(zIndex).zIndex(zIndex).width(10).height(20).build())))
+                .andExpect(status().isCreated())
+                .andReturn();
+        return objectMapper.readValue(result.getResponse().getContentAsByteArray(), Widget.class).getId();
+    }
+
+    private MockMvc buildMockMvc(WidgetService widgetService, TrafficRecordingFilter filter) {
+        var builder = MockMvcBuilders.standaloneSetup(new WidgetController(widgetService, objectMapper))
+                .setControllerAdvice(new CustomExceptionHandler())
+                .setMessageConverters(new ByteArrayHttpMessageConverter(), new StringHttpMessageConverter(),
+                        new MappingJackson2HttpMessageConverter(objectMapper));
+        return filter == null ? builder.build() : builder.addFilters(filter).build();
+    }
+
+    private static AtomicLongIdBlockSource reservedUpTo(long id) {
+        AtomicLongIdBlockSource blockSource = new AtomicLongIdBlockSource(100);
+        blockSource.reserveUpTo(id);
+        return blockSource;
+    }
+}
@@ -0,0 +1,253 @@
+package com.miro.traffic;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.miro.MiroApplication;
+import com.miro.model.Widget;
+import com.miro.service.WidgetService;
+import lombok.Builder;
+import lombok.Value;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.request;
+
+/**
+ * Replays a traffic trace recorded by {@link TrafficRecordingFilter} in-process, through the whole MVC stack of
+ * the application started with the given storage profile, without an HTTP server. The board is restored from
+ * the trace's snapshot, then requests are replayed one by one in their recorded order, either at the recorded pace or
+ * as fast as possible. Ids of the widgets created by the trace are mapped to the ids created by the replay.
+ * Throughput, latency percentiles, status mismatches & a checksum of the final board(ids excluded) are reported,
+ * run with "mvn -Preplay test-compile exec:exec -Dreplay.trace=traffic.trace -Dreplay.profile=h2 -Dreplay.speed=max".
+ */
+public class TrafficReplay {
+    private static final int SIGNIFICANT_VALUE_DIGITS = 3;
+    private static final double MICROS_PER_MILLI = 1000.0;
+    private static final List<String> ID_VARIABLES = List.of("id", "targetId");
+    private static final long MISSING_ID = Long.MAX_VALUE;
+
+    private final MockMvc mockMvc;
+    private final WidgetService widgetService;
+    private final ObjectMapper objectMapper;
+    private final Map<Long, Long> replayedIds = new HashMap<>();
+    private final Set<Long> createdIds = new HashSet<>();
+
+    public TrafficReplay(MockMvc mockMvc, WidgetService widgetService, ObjectMapper objectMapper) {
+        this.mockMvc = mockMvc;
+        this.widgetService = widgetService;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * @param args trace file, storage profile(in-memory, h2, mvstore or tiered) & speed(recorded or max)
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            throw new IllegalArgumentException("Usage: TrafficReplay <trace file> [in-memory|h2|mvstore|tiered] [recorded|max]");
+        }
+        Path traceFile = Paths.get(args[0]);
+        String profile = args.length > 1 ? args[1] : "in-memory";
+        boolean recordedSpeed = args.length > 2 && args[2].equals("recorded");
+
+        // File based profiles start from an empty board, which is replaced by the trace's snapshot.
+        Path storeDirectory = Files.createTempDirectory("traffic-replay");
+        SpringApplicationBuilder application = new SpringApplicationBuilder(MiroApplication.class)
+                .properties("server.port=-1",
+                        "widget.compaction.enabled=false",
+                        "widget.traffic-recorder.enabled=false",
+                        "widget.mvstore.file-name=" + storeDirectory.resolve("widgets.mv.db"),
+                        "logging.level.com.miro=WARN");
+        if (profile.equals("tiered")) {
+            application.properties("spring.datasource.url=jdbc:h2:file:" + storeDirectory.resolve("widgets-tiered"));
+        }
+        if (!profile.equals("in-memory")) {
+            application.profiles(profile);
+        }
+
+        try (ConfigurableApplicationContext context = application.run();
+             InputStream traceStream = Files.newInputStream(traceFile);
+             TrafficTraceReader reader = new TrafficTraceReader(traceStream)) {
+            MockMvc mockMvc = MockMvcBuilders.webAppContextSetup((WebApplicationContext) context).build();
+            TrafficReplay replay = new TrafficReplay(mockMvc, context.getBean(WidgetService.class), context.getBean(ObjectMapper.class));
+            Result result = replay.replay(reader, recordedSpeed);
+            Histogram latencies = result.getLatencies();
+            System.out.printf("Replayed %d requests(%d skipped) of %s against %s at %s speed in %.1f ms%n",
+                    result.getRequests(), result.getSkipped(), traceFile, profile, recordedSpeed ? "recorded" : "max",
+                    result.getDurationNanos() / 1e6);
+            System.out.printf("Throughput: %.1f requests/s%n", result.getRequests() / (result.getDurationNanos() / 1e9));
+            System.out.printf("Latency(ms) p50: %.3f, p99: %.3f, p99.9: %.3f, max: %.3f%n",
+                    latencies.getValueAtPercentile(50) / MICROS_PER_MILLI, latencies.getValueAtPercentile(99) / MICROS_PER_MILLI,
+                    latencies.getValueAtPercentile(99.9) / MICROS_PER_MILLI, latencies.getMaxValue() / MICROS_PER_MILLI);
+            System.out.printf("Status mismatches: %d, board checksum: %08x%n", result.getStatusMismatches(), result.getBoardChecksum());
+        }
+    }
+
+    public Result replay(TrafficTraceReader reader, boolean recordedSpeed) throws Exception {
+        widgetService.importSnapshot(new ByteArrayInputStream(reader.getSnapshot()));
+        replayedIds.clear();
+        createdIds.clear();
+        Histogram latencies = new Histogram(SIGNIFICANT_VALUE_DIGITS);
+        int requests = 0;
+        int skipped = 0;
+        int statusMismatches = 0;
+        long startTime = System.nanoTime();
+        long firstOffsetNanos = -1; // Idle time before the first request isn't replayed.
+        for (TrafficRecord record = reader.read(); record != null; record = reader.read()) {
+            if (record.isBodyTruncated()) {
+                skipped++;
+                continue;
+            }
+            if (firstOffsetNanos < 0) {
+                firstOffsetNanos = record.getOffsetNanos();
+            }
+            if (recordedSpeed) {
+                long waitNanos;
+                while ((waitNanos = startTime + record.getOffsetNanos() - firstOffsetNanos - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(waitNanos);
+                }
+            }
+
+            long requestStartTime = System.nanoTime();
+            MockHttpServletResponse response = perform(record);
+            latencies.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - requestStartTime));
+            requests++;
+            if (response.getStatus() != record.getStatus()) {
+                statusMismatches++;
+            }
+            if (record.getCreatedId() != null && response.getStatus() == HttpStatus.CREATED.value()) {
+                long createdId = objectMapper.readTree(response.getContentAsByteArray()).get("id").asLong();
+                replayedIds.put(record.getCreatedId(), createdId);
+                createdIds.add(createdId);
+            }
+        }
+
+        return Result.builder()
+                .requests(requests)
+                .skipped(skipped)
+                .statusMismatches(statusMismatches)
+                .durationNanos(System.nanoTime() - startTime)
+                .latencies(latencies)
+                .boardChecksum(getBoardChecksum(widgetService))
+                .build();
+    }
+
+    /**
+     * @return CRC32 of the coordinates & sizes of all widgets in zIndex order, ids aren't a part of it
+     */
+    public static long getBoardChecksum(WidgetService widgetService) {
+        CRC32 checksum = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(5 * Integer.BYTES);
+        for (Widget widget : widgetService.findWithLimit(Integer.MAX_VALUE)) {
+            buffer.clear();
+            buffer.putInt(widget.getXIndex()).putInt(widget.getYIndex()).putInt(widget.getZIndex())
+                    .putInt(widget.getWidth()).putInt(widget.getHeight());
+            checksum.update(buffer.array());
+        }
+        return checksum.getValue();
+    }
+
+    private MockHttpServletResponse perform(TrafficRecord record) throws Exception {
+        String path = record.getPattern();
+        for (Map.Entry<String, String> pathVariable : record.getPathVariables().entrySet()) {
+            String value = pathVariable.getValue();
+            if (ID_VARIABLES.contains(pathVariable.getKey())) {
+                value = mapId(value);
+            }
+            path = path.replace("{" + pathVariable.getKey() + "}", value);
+        }
+        URI uri = URI.create(record.getQuery() == null ? path : path + "?" + record.getQuery());
+
+        MockHttpServletRequestBuilder request = request(HttpMethod.resolve(record.getMethod()), uri);
+        if (record.getContentType() != null) {
+            request.contentType(record.getContentType());
+        }
+        if (record.getBody() != null) {
+            request.content(mapBodyId(record));
+        }
+        MvcResult result = mockMvc.perform(request).andReturn();
+        if (result.getRequest().isAsyncStarted()) { // Streaming responses are written by an async dispatch.
+            result = mockMvc.perform(asyncDispatch(result)).andReturn();
+        }
+        return result.getResponse();
+    }
+
+    private String mapId(String recordedId) {
+        try {
+            return String.valueOf(mapId(Long.parseLong(recordedId)));
+        } catch (NumberFormatException e) {
+            return recordedId; // Invalid ids are replayed as they are, they are rejected the same way.
+        }
+    }
+
+    /**
+     * Ids which weren't created by the trace are the ones of the snapshot or the ones which didn't exist,
+     * the latter are replaced by an id which is never allocated when they collide with an id created by the replay.
+     */
+    private long mapId(long recordedId) {
+        Long replayedId = replayedIds.get(recordedId);
+        if (replayedId != null) {
+            return replayedId;
+        }
+        return createdIds.contains(recordedId) ? MISSING_ID : recordedId;
+    }
+
+    /**
+     * Updates have the id in their body.
+     */
+    private byte[] mapBodyId(TrafficRecord record) throws IOException {
+        if (!HttpMethod.PUT.matches(record.getMethod())) {
+            return record.getBody();
+        }
+        JsonNode body;
+        try {
+            body = objectMapper.readTree(record.getBody());
+        } catch (IOException e) {
+            return record.getBody();
+        }
+        if (body instanceof ObjectNode && body.has("id") && body.get("id").canConvertToLong()) {
+            long recordedId = body.get("id").asLong();
+            ((ObjectNode) body).put("id", mapId(recordedId));
+            return objectMapper.writeValueAsBytes(body);
+        }
+        return record.getBody();
+    }
+
+    @Value
+    @Builder
+    public static class Result {
+        int requests;
+        int skipped;
+        int statusMismatches;
+        long durationNanos;
+        Histogram latencies; // Microseconds
+        long boardChecksum;
+    }
+}
@@ -0,0 +1,73 @@
+package com.miro.traffic;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrafficTraceWriterTest {
+    private static final byte[] SNAPSHOT = {1, 2, 3};
+
+    @Test
+    void write_whenRecordsAreReadBack_thenEqualWrittenOnes() throws IOException {
+        TrafficRecord create = TrafficRecord.builder()
+                .offsetNanos(0).durationNanos(1_500_000).status(201).method("POST").pattern("/v1/widgets")
+                .pathVariables(Map.of()).contentType("application/json")
+                .body("{\"xIndex\":1}".getBytes(StandardCharsets.UTF_8)).createdId(0L)
+                .build();
+        TrafficRecord patch = TrafficRecord.builder()
+                .offsetNanos(Long.MAX_VALUE).durationNanos(300).status(200).method("PATCH").pattern("/v1/widgets/{id}")
+                .pathVariables(Map.of("id", "0")).query("x=1&y=%20").contentType("application/json")
+                .body(new byte[0]).bodyTruncated(true)
+                .build();
+        TrafficRecord find = TrafficRecord.builder()
+                .offsetNanos(42).status(404).method("GET").pattern("/v1/widgets/{id}").pathVariables(Map.of("id", "7"))
+                .build();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (TrafficTraceWriter writer = new TrafficTraceWriter(outputStream, 1234, SNAPSHOT)) {
+            writer.write(create);
+            writer.write(patch);
+            writer.write(find);
+        }
+
+        try (TrafficTraceReader reader = new TrafficTraceReader(new ByteArrayInputStream(outputStream.toByteArray()))) {
+            assertEquals(1234, reader.getStartTimeMillis());
+            assertArrayEquals(SNAPSHOT, reader.getSnapshot());
+            assertEquals(create, reader.read());
+            assertEquals(patch, reader.read());
+            assertEquals(find, reader.read());
+            assertNull(reader.read());
+        }
+    }
+
+    @Test
+    void read_whenLastRecordIsCut_thenEndAtPreviousRecord() throws IOException {
+        TrafficRecord record = TrafficRecord.builder()
+                .status(200).method("GET").pattern("/v1/widgets").pathVariables(Map.of()).query("limit=10")
+                .build();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (TrafficTraceWriter writer = new TrafficTraceWriter(outputStream, 0, SNAPSHOT)) {
+            writer.write(record);
+            writer.write(record);
+        }
+        byte[] trace = outputStream.toByteArray();
+
+        try (TrafficTraceReader reader = new TrafficTraceReader(new ByteArrayInputStream(Arrays.copyOf(trace, trace.length - 2)))) {
+            assertEquals(record, reader.read());
+            assertNull(reader.read());
+        }
+    }
+
+    @Test
+    void read_whenMagicIsWrong_thenThrowIllegalArgumentException() {
+        byte[] trace = new byte[16];
+
+        assertThrows(IllegalArgumentException.class, () -> new TrafficTraceReader(new ByteArrayInputStream(trace)));
+    }
+}
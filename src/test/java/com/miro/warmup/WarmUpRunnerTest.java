@@ -0,0 +1,61 @@
+package com.miro.warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.miro.model.WarmUpResult;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.json.JsonTest;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@JsonTest
+class WarmUpRunnerTest {
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    void warmUp_whenLatencyGetsSteady_thenStopAndRecordResult() {
+        WarmUpRunner warmUpRunner = new WarmUpRunner(objectMapper, true, 200, 2, 10.0, 30000);
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        warmUpRunner.bindTo(meterRegistry);
+
+        WarmUpResult result = warmUpRunner.warmUp();
+
+        assertTrue(result.isSteady());
+        assertEquals(3, result.getRounds());
+        assertTrue(result.getFirstRoundNanosPerOperation() > 0);
+        assertEquals(result, warmUpRunner.getLastResult().orElseThrow());
+        assertEquals(3, meterRegistry.get("widget.warm-up.rounds").gauge().value());
+        assertEquals(result.getDurationNanos(), meterRegistry.get("widget.warm-up.duration").timeGauge().value(TimeUnit.NANOSECONDS), 1);
+        assertEquals(result.getLastRoundNanosPerOperation(),
+                meterRegistry.get("widget.warm-up.operation.latency").tag("round", "last").timeGauge().value(TimeUnit.NANOSECONDS), 1);
+    }
+
+    @Test
+    void warmUp_whenMaxDurationIsOver_thenStopBeforeSteadyState() {
+        WarmUpRunner warmUpRunner = new WarmUpRunner(objectMapper, true, 100, 3, -1, 0);
+
+        WarmUpResult result = warmUpRunner.warmUp();
+
+        assertFalse(result.isSteady());
+        assertEquals(1, result.getRounds());
+    }
+
+    @Test
+    void run_whenDisabled_thenDontWarmUp() {
+        WarmUpRunner warmUpRunner = new WarmUpRunner(objectMapper, false, 100, 3, 0.1, 30000);
+
+        warmUpRunner.run(null);
+
+        assertTrue(warmUpRunner.getLastResult().isEmpty());
+    }
+
+    @Test
+    void constructor_whenRoundOperationsIsNotPositive_thenThrowIllegalArgumentException() {
+        assertThrows(IllegalArgumentException.class, () -> new WarmUpRunner(objectMapper, true, 0, 3, 0.1, 30000));
+    }
+}